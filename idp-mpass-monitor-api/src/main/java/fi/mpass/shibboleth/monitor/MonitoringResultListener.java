@@ -0,0 +1,47 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.monitor;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+
+/**
+ * This interface represents a listener notified of the monitoring results as they are produced. The listeners are
+ * called on the probing thread, so they must return quickly and hand any slow work over to other threads.
+ */
+public interface MonitoringResultListener {
+
+    /**
+     * Called when a step of a monitoring sequence has completed.
+     * @param sequenceId The identifier of the monitoring sequence.
+     * @param stepResult The result of the completed step.
+     */
+    public void stepCompleted(final String sequenceId, final MonitoringSequenceStepResult stepResult);
+
+    /**
+     * Called when a monitoring sequence has completed.
+     * @param result The result of the completed sequence.
+     */
+    public void sequenceCompleted(final MonitoringSequenceResult result);
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.monitor.context;
+
+/**
+ * Class describing a step whose latency deviated from its baseline, as detected during one monitoring sequence.
+ */
+public class LatencyAnomaly {
+
+    /** The identifier for the step, with <code>#n</code> appended for the n:th occurrence of a repeated step. */
+    private String stepId;
+
+    /** The duration of the step, in milliseconds. */
+    private long duration;
+
+    /** The baseline mean of the step duration before this run, in milliseconds. */
+    private double baselineMean;
+
+    /** The baseline standard deviation of the step duration before this run, in milliseconds. */
+    private double baselineDeviation;
+
+    /** The number of standard deviations the duration exceeded the baseline mean by. */
+    private double score;
+
+    /**
+     * Get the identifier for the step.
+     * @return The identifier for the step.
+     */
+    public String getStepId() {
+        return stepId;
+    }
+
+    /**
+     * Set the identifier for the step.
+     * @param newStepId What to set.
+     */
+    public void setStepId(final String newStepId) {
+        stepId = newStepId;
+    }
+
+    /**
+     * Get the duration of the step.
+     * @return The duration in milliseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Set the duration of the step.
+     * @param newDuration What to set.
+     */
+    public void setDuration(final long newDuration) {
+        duration = newDuration;
+    }
+
+    /**
+     * Get the baseline mean of the step duration before this run.
+     * @return The baseline mean in milliseconds.
+     */
+    public double getBaselineMean() {
+        return baselineMean;
+    }
+
+    /**
+     * Set the baseline mean of the step duration before this run.
+     * @param mean What to set.
+     */
+    public void setBaselineMean(final double mean) {
+        baselineMean = mean;
+    }
+
+    /**
+     * Get the baseline standard deviation of the step duration before this run.
+     * @return The baseline standard deviation in milliseconds.
+     */
+    public double getBaselineDeviation() {
+        return baselineDeviation;
+    }
+
+    /**
+     * Set the baseline standard deviation of the step duration before this run.
+     * @param deviation What to set.
+     */
+    public void setBaselineDeviation(final double deviation) {
+        baselineDeviation = deviation;
+    }
+
+    /**
+     * Get the number of standard deviations the duration exceeded the baseline mean by.
+     * @return The anomaly score.
+     */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * Set the number of standard deviations the duration exceeded the baseline mean by.
+     * @param newScore What to set.
+     */
+    public void setScore(final double newScore) {
+        score = newScore;
+    }
+}
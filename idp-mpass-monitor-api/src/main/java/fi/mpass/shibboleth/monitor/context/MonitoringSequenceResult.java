@@ -36,12 +36,16 @@ public class MonitoringSequenceResult extends AbstractTimestampedResult {
 
     /** The list of step results for one sequence. */
     private final List<MonitoringSequenceStepResult> stepResults;
+
+    /** The latency anomalies detected for the steps. */
+    private final List<LatencyAnomaly> anomalies;
     
     /**
      * Constructor.
      */
     public MonitoringSequenceResult() {
         stepResults = new ArrayList<>();
+        anomalies = new ArrayList<>();
     }
 
     /**
@@ -74,5 +78,21 @@ public class MonitoringSequenceResult extends AbstractTimestampedResult {
      */
     public void addStepResult(final MonitoringSequenceStepResult result) {
         stepResults.add(result);
-    }    
+    }
+
+    /**
+     * Get the latency anomalies detected for the steps.
+     * @return The list of latency anomalies, empty if none were detected.
+     */
+    public List<LatencyAnomaly> getAnomalies() {
+        return anomalies;
+    }
+
+    /**
+     * Add a latency anomaly detected for a step.
+     * @param anomaly A new latency anomaly.
+     */
+    public void addAnomaly(final LatencyAnomaly anomaly) {
+        anomalies.add(anomaly);
+    }
 }
@@ -30,6 +30,9 @@ import fi.mpass.shibboleth.monitor.ResponseValidatorException;
  */
 public class MonitoringSequenceStepResult extends AbstractTimestampedResult {
 
+    /** The value of the CPU time and the allocated bytes when they were not measured. */
+    public static final long NOT_MEASURED = -1;
+
     /** The identifier for the step. */
     private String id;
     
@@ -42,6 +45,18 @@ public class MonitoringSequenceStepResult extends AbstractTimestampedResult {
     /** The full cause for the error, if any. */
     private ResponseValidatorException validatorException;
 
+    /** The CPU time used by the probing thread during the step, in nanoseconds. */
+    private long cpuTime = NOT_MEASURED;
+
+    /** The number of bytes allocated by the probing thread during the step. */
+    private long allocatedBytes = NOT_MEASURED;
+
+    /** The W3C trace identifier of the sequence run, if traced. */
+    private String traceId;
+
+    /** The W3C span identifier of the step, if traced. */
+    private String spanId;
+
     /**
      * Get the identifier for the step.
      * @return The identifier for the step.
@@ -105,4 +120,68 @@ public class MonitoringSequenceStepResult extends AbstractTimestampedResult {
     public void setResponseValidatorException(final ResponseValidatorException exception) {
         this.validatorException = exception;
     }
+
+    /**
+     * Get the CPU time used by the probing thread during the step.
+     * @return The CPU time in nanoseconds, or {@link #NOT_MEASURED}.
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Set the CPU time used by the probing thread during the step.
+     * @param newCpuTime What to set, in nanoseconds.
+     */
+    public void setCpuTime(final long newCpuTime) {
+        this.cpuTime = newCpuTime;
+    }
+
+    /**
+     * Get the number of bytes allocated by the probing thread during the step.
+     * @return The number of allocated bytes, or {@link #NOT_MEASURED}.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Set the number of bytes allocated by the probing thread during the step.
+     * @param newAllocatedBytes What to set.
+     */
+    public void setAllocatedBytes(final long newAllocatedBytes) {
+        this.allocatedBytes = newAllocatedBytes;
+    }
+
+    /**
+     * Get the W3C trace identifier of the sequence run.
+     * @return The trace identifier as 32 hex digits, or null if not traced.
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Set the W3C trace identifier of the sequence run.
+     * @param newTraceId What to set.
+     */
+    public void setTraceId(final String newTraceId) {
+        this.traceId = newTraceId;
+    }
+
+    /**
+     * Get the W3C span identifier of the step, the parent of the spans of its HTTP exchanges.
+     * @return The span identifier as 16 hex digits, or null if not traced.
+     */
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * Set the W3C span identifier of the step.
+     * @param newSpanId What to set.
+     */
+    public void setSpanId(final String newSpanId) {
+        this.spanId = newSpanId;
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.protocol.HttpClientContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.mpass.shibboleth.monitor.FormPostTargetResolver;
+import fi.mpass.shibboleth.monitor.ResponseValidatorException;
+import fi.mpass.shibboleth.monitor.SequenceStep;
+import fi.mpass.shibboleth.support.HttpClientBuilder;
+import fi.mpass.shibboleth.testing.MockIdentityProvider;
+import fi.mpass.shibboleth.testing.MockResponse;
+
+/**
+ * Benchmarks {@link FormPostTargetResolver#resolve(org.apache.http.protocol.HttpContext, SequenceStep)} end to end
+ * against a {@link MockIdentityProvider} on the loopback interface, including the HTTP exchange, the validators and
+ * the parsing of the form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormPostResolveBenchmark {
+
+    /** The size of the login page in bytes. */
+    @Param({"2048", "32768", "262144"})
+    public int pageSize;
+
+    /** The local identity provider. */
+    private MockIdentityProvider provider;
+
+    /** The URL of the login page. */
+    private String loginUrl;
+
+    /** The resolver to be measured. */
+    private FormPostTargetResolver resolver;
+
+    /**
+     * Starts the local identity provider and builds the resolver.
+     * 
+     * @throws Exception If the provider cannot be started.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        provider = new MockIdentityProvider();
+        provider.on("/login", MockResponse.html(LoginPages.build(pageSize, "/authn")));
+        loginUrl = provider.start() + "/login";
+        resolver = new FormPostTargetResolver(new HttpClientBuilder(), LoginPages.SAML_REQUEST,
+                LoginPages.RELAY_STATE);
+    }
+
+    /**
+     * Stops the local identity provider.
+     * 
+     * @throws Exception If the provider cannot be stopped.
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        provider.stop();
+    }
+
+    /**
+     * Resolves the login form.
+     * 
+     * @return The resolved step.
+     * @throws ResponseValidatorException If the resolution fails.
+     */
+    @Benchmark
+    public SequenceStep resolve() throws ResponseValidatorException {
+        final SequenceStep step = new SequenceStep();
+        step.setUrl(loginUrl);
+        return resolver.resolve(HttpClientContext.create(), step);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.benchmark;
+
+/**
+ * Builds synthetic login pages for the benchmarks. The form with the hidden SAML fields is placed after the padding,
+ * as in the real identity provider pages, so that the parsing has to scan through the whole document.
+ */
+public final class LoginPages {
+
+    /** The form action of the generated pages. */
+    public static final String ACTION = "https://idp.example.org/idp/profile/SAML2/POST/SSO";
+
+    /** The name of the hidden field carrying the SAML request. */
+    public static final String SAML_REQUEST = "SAMLRequest";
+
+    /** The name of the hidden field carrying the relay state. */
+    public static final String RELAY_STATE = "RelayState";
+
+    /** The markup repeated until the page reaches the desired size. */
+    private static final String PADDING = "<div class=\"login-help\"><p>Jos et pysty kirjautumaan, ota yhteytt&auml; "
+            + "oppilaitoksesi tukeen. <a href=\"/help?lang=fi&amp;topic=login\">Ohjeet</a></p>"
+            + "<script type=\"text/javascript\">window.loginConfig = {\"locale\": \"fi\", \"retry\": 3};</script>"
+            + "</div>\n";
+
+    /** Prevent instantiation. */
+    private LoginPages() {
+        // no op
+    }
+
+    /**
+     * Builds a login page of (at least) the given size.
+     * 
+     * @param size The size of the page in bytes.
+     * @param action The form action, may be relative.
+     * @return The page.
+     */
+    public static String build(final int size, final String action) {
+        final StringBuilder page = new StringBuilder(size + 1024);
+        page.append("<!DOCTYPE html>\n<html><head><title>Kirjaudu</title>")
+            .append("<link rel=\"stylesheet\" href=\"/css/main.css\"/></head><body>\n");
+        while (page.length() < size) {
+            page.append(PADDING);
+        }
+        page.append("<form method=\"post\" action=\"").append(action).append("\">\n")
+            .append("<input type=\"hidden\" name=\"").append(RELAY_STATE).append("\" value=\"ss&#x3a;mem&#x3a;")
+            .append("5f1b0c2d8e\"/>\n")
+            .append("<input type=\"hidden\" name=\"").append(SAML_REQUEST).append("\" value=\"")
+            .append(samlRequest())
+            .append("\"/>\n<input type=\"submit\" value=\"Jatka\"/></form></body></html>");
+        return page.toString();
+    }
+
+    /**
+     * Builds a base64-like SAML request value of a typical size.
+     * 
+     * @return The value.
+     */
+    protected static String samlRequest() {
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        final StringBuilder value = new StringBuilder(2048);
+        for (int i = 0; i < 2048; i++) {
+            value.append(alphabet.charAt((i * 31 + 7) % alphabet.length()));
+        }
+        return value.toString();
+    }
+}
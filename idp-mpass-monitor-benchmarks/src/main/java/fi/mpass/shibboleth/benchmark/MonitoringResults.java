@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.benchmark;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+
+/**
+ * Builds monitoring results for the benchmarks.
+ */
+public final class MonitoringResults {
+
+    /** Prevent instantiation. */
+    private MonitoringResults() {
+        // no op
+    }
+
+    /**
+     * Builds a monitoring result with the given number of steps, each taking 100 milliseconds.
+     * 
+     * @param sequenceId The sequence identifier.
+     * @param startTime The start time of the sequence.
+     * @param stepCount The number of steps.
+     * @param failed Whether the last step has failed.
+     * @return The result.
+     */
+    public static MonitoringSequenceResult build(final String sequenceId, final long startTime, 
+            final int stepCount, final boolean failed) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(sequenceId);
+        result.setStartTime(startTime);
+        long time = startTime;
+        for (int i = 0; i < stepCount; i++) {
+            final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+            step.setId("step" + i);
+            step.setPhaseId(i);
+            step.setStartTime(time);
+            time += 100;
+            step.setEndTime(time);
+            if (failed && i == stepCount - 1) {
+                step.setErrorMessage("Could not find the expected content from the response");
+            }
+            result.addStepResult(step);
+        }
+        result.setEndTime(time);
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+
+/**
+ * Benchmarks the Gson encoding and decoding of {@link MonitoringSequenceResult}s, as used for the JSON output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultEncodingBenchmark {
+
+    /** The number of steps in the result. */
+    @Param({"3", "12"})
+    public int stepCount;
+
+    /** The Gson instance. */
+    private Gson gson;
+
+    /** The result to be encoded. */
+    private MonitoringSequenceResult result;
+
+    /** The encoded result to be decoded. */
+    private String json;
+
+    /**
+     * Builds the result and its encoded form.
+     */
+    @Setup
+    public void setUp() {
+        gson = new Gson();
+        result = MonitoringResults.build("mpass-saml", System.currentTimeMillis(), stepCount, true);
+        json = gson.toJson(result);
+    }
+
+    /**
+     * Encodes the result.
+     * 
+     * @return The encoded result.
+     */
+    @Benchmark
+    public String encode() {
+        return gson.toJson(result);
+    }
+
+    /**
+     * Decodes the result.
+     * 
+     * @return The decoded result.
+     */
+    @Benchmark
+    public MonitoringSequenceResult decode() {
+        return gson.fromJson(json, MonitoringSequenceResult.class);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
+import fi.mpass.shibboleth.profile.impl.StoreMonitoringResult;
+import fi.mpass.shibboleth.storage.MonitoringSchemaManager;
+import fi.mpass.shibboleth.storage.RollupResolution;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Benchmarks {@link StoreMonitoringResult} against an in-memory HSQLDB database, with and without the rollup and
+ * latest status tables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreMonitoringResultBenchmark {
+
+    /** The class path location of the result tables, the rest of the schema is created by the schema manager. */
+    public static final String SCHEMA = "/fi/mpass/shibboleth/benchmark/MonitoringResultStore.sql";
+
+    /** The number of steps in the stored result. */
+    @Param({"3", "12"})
+    public int stepCount;
+
+    /** Whether the rollups and the latest status are also written. */
+    @Param({"false", "true"})
+    public boolean aggregates;
+
+    /** The in-memory database. */
+    private JDBCDataSource dataSource;
+
+    /** The action to be measured. */
+    private StoreMonitoringResult action;
+
+    /** The start time of the next stored result. */
+    private long startTime;
+
+    /**
+     * Creates the result tables, lets the {@link MonitoringSchemaManager} create the indexes and the auxiliary
+     * tables as in a deployment, and initializes the action.
+     * 
+     * @throws SQLException If the schema cannot be created.
+     * @throws IOException If the schema cannot be read.
+     * @throws ComponentInitializationException If the action cannot be initialized.
+     */
+    @Setup
+    public void setUp() throws SQLException, IOException, ComponentInitializationException {
+        dataSource = new JDBCDataSource();
+        dataSource.setUrl("jdbc:hsqldb:mem:benchmark" + System.nanoTime());
+        dataSource.setUser("SA");
+        dataSource.setPassword("");
+        executeStatements(readSchema());
+        final MonitoringSchemaManager schemaManager = new MonitoringSchemaManager();
+        schemaManager.setDataSource(dataSource);
+        schemaManager.initialize();
+        action = new StoreMonitoringResult();
+        action.setDataSource(dataSource);
+        action.setLatestStatusEnabled(aggregates);
+        if (aggregates) {
+            action.setRollupResolutions(Arrays.asList(RollupResolution.MINUTE, RollupResolution.HOUR, 
+                    RollupResolution.DAY));
+        } else {
+            action.setRollupResolutions(Collections.<RollupResolution>emptyList());
+        }
+        action.initialize();
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Empties the tables between the iterations to keep the database size stable.
+     * 
+     * @throws SQLException If the tables cannot be emptied.
+     */
+    @TearDown(Level.Iteration)
+    public void emptyTables() throws SQLException {
+        executeStatements("DELETE FROM mpass_monitoring_step_result; DELETE FROM mpass_monitoring_result; "
+                + "DELETE FROM mpass_monitoring_rollup; DELETE FROM mpass_monitoring_latest_status");
+    }
+
+    /**
+     * Shuts down the database and destroys the action.
+     * 
+     * @throws SQLException If the database cannot be shut down.
+     */
+    @TearDown
+    public void tearDown() throws SQLException {
+        action.destroy();
+        executeStatements("SHUTDOWN");
+    }
+
+    /**
+     * Stores one monitoring result.
+     * 
+     * @return The profile request context, carrying the possible error event.
+     */
+    @Benchmark
+    public ProfileRequestContext store() {
+        final ProfileRequestContext prc = new ProfileRequestContext();
+        final MonitoringResultContext monitoringCtx = prc.getSubcontext(MonitoringResultContext.class, true);
+        startTime += 1000;
+        monitoringCtx.addResult(MonitoringResults.build("mpass-saml", startTime, stepCount, false));
+        action.execute(prc);
+        return prc;
+    }
+
+    /**
+     * Reads the schema from the class path.
+     * 
+     * @return The schema statements.
+     * @throws IOException If the schema cannot be read.
+     */
+    protected String readSchema() throws IOException {
+        final StringBuilder schema = new StringBuilder();
+        try (final InputStream stream = getClass().getResourceAsStream(SCHEMA);
+                final Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            final char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                schema.append(buffer, 0, read);
+            }
+        }
+        return schema.toString();
+    }
+
+    /**
+     * Executes the semicolon-separated statements.
+     * 
+     * @param statements The statements.
+     * @throws SQLException If any of the statements fails.
+     */
+    protected void executeStatements(final String statements) throws SQLException {
+        try (final Connection connection = dataSource.getConnection();
+                final Statement statement = connection.createStatement()) {
+            for (final String sql : statements.split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    statement.execute(sql);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.mpass.shibboleth.monitor.ContentContainsResponseValidator;
+import fi.mpass.shibboleth.monitor.HeaderContainsResponseValidator;
+import fi.mpass.shibboleth.monitor.ResponseValidator;
+import fi.mpass.shibboleth.monitor.ResponseValidatorException;
+import fi.mpass.shibboleth.monitor.StatusCodeResponseValidator;
+
+/**
+ * Benchmarks a typical chain of {@link ResponseValidator}s run against every step response: the status code, the
+ * content type header and the expected content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidatorChainBenchmark {
+
+    /** The size of the validated content in bytes. */
+    @Param({"2048", "32768", "262144"})
+    public int pageSize;
+
+    /** The validators in the order they are run. */
+    private List<ResponseValidator> validators;
+
+    /** The validated response. */
+    private HttpResponse response;
+
+    /** The validated content. */
+    private String contents;
+
+    /**
+     * Builds the validators and the response.
+     */
+    @Setup
+    public void setUp() {
+        validators = new ArrayList<>();
+        validators.add(new StatusCodeResponseValidator(HttpStatus.SC_OK));
+        validators.add(new HeaderContainsResponseValidator("Content-Type", "text/html"));
+        validators.add(new ContentContainsResponseValidator(LoginPages.SAML_REQUEST));
+        response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.addHeader("Cache-Control", "no-store");
+        response.addHeader("Content-Type", "text/html;charset=utf-8");
+        contents = LoginPages.build(pageSize, LoginPages.ACTION);
+    }
+
+    /**
+     * Runs the validator chain.
+     * 
+     * @return The number of validators run.
+     * @throws ResponseValidatorException If any of the validators fails.
+     */
+    @Benchmark
+    public int validate() throws ResponseValidatorException {
+        int count = 0;
+        for (final ResponseValidator validator : validators) {
+            validator.validate(response, contents);
+            count++;
+        }
+        return count;
+    }
+}
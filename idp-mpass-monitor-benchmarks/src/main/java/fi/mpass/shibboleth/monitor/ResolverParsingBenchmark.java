@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.monitor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.mpass.shibboleth.benchmark.LoginPages;
+import fi.mpass.shibboleth.support.HttpClientBuilder;
+
+/**
+ * Benchmarks the string scanning of {@link BaseSequenceStepResolver#getValue(String, String)} and
+ * {@link BaseSequenceStepResolver#getParamValue(String, String)} on login pages of different sizes. Placed in the
+ * resolver package for accessing the protected methods.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverParsingBenchmark {
+
+    /** The size of the login page in bytes. */
+    @Param({"2048", "32768", "262144"})
+    public int pageSize;
+
+    /** The resolver whose parsing methods are measured. */
+    private FormPostTargetResolver resolver;
+
+    /** The login page. */
+    private String page;
+
+    /**
+     * Builds the resolver and the login page.
+     */
+    @Setup
+    public void setUp() {
+        resolver = new FormPostTargetResolver(new HttpClientBuilder(), LoginPages.SAML_REQUEST);
+        page = LoginPages.build(pageSize, LoginPages.ACTION);
+    }
+
+    /**
+     * Parses the form action.
+     * 
+     * @return The action.
+     */
+    @Benchmark
+    public String getValue() {
+        return resolver.getValue(page, "action");
+    }
+
+    /**
+     * Parses the value of the SAML request field.
+     * 
+     * @return The value.
+     */
+    @Benchmark
+    public String getParamValue() {
+        return resolver.getParamValue(page, LoginPages.SAML_REQUEST);
+    }
+
+    /**
+     * Parses a field that does not exist on the page, scanning the whole page.
+     * 
+     * @return The value, always null.
+     */
+    @Benchmark
+    public String getParamValueMissing() {
+        return resolver.getParamValue(page, "SAMLResponse");
+    }
+}
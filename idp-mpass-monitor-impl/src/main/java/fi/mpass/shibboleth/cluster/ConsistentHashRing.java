@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A consistent hash ring assigning keys to nodes. Every node is placed on the ring at a number of virtual
+ * positions, and a key belongs to the first node at or after the position of the key. When a node joins or
+ * leaves, only the keys between its positions and the preceding ones move, so the other assignments are stable.
+ */
+public class ConsistentHashRing {
+
+    /** The nodes by their positions on the ring. */
+    @Nonnull private final NavigableMap<Long, String> ring;
+
+    /**
+     * Constructor.
+     * 
+     * @param nodeIds The identifiers of the nodes.
+     * @param virtualNodes The number of positions of each node on the ring.
+     */
+    public ConsistentHashRing(@Nonnull @NonnullElements final Collection<String> nodeIds, 
+            @Positive final int virtualNodes) {
+        Constraint.isNotNull(nodeIds, "Node identifiers cannot be null");
+        Constraint.isGreaterThan(0, virtualNodes, "Virtual nodes must be greater than 0");
+        ring = new TreeMap<>();
+        for (final String nodeId : nodeIds) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(nodeId + "#" + i), nodeId);
+            }
+        }
+    }
+
+    /**
+     * Get the node the given key is assigned to.
+     * 
+     * @param key The key.
+     * @return The identifier of the node, or null if the ring is empty.
+     */
+    @Nullable public String getNode(@Nonnull final String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        final Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Computes the position of the given value on the ring, from the first 64 bits of its MD5 digest.
+     * 
+     * @param value The value.
+     * @return The position on the ring.
+     */
+    protected static long hash(@Nonnull final String value) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported", e);
+        }
+        long position = 0;
+        for (int i = 0; i < 8; i++) {
+            position = (position << 8) | (digest[i] & 0xff);
+        }
+        return position;
+    }
+}
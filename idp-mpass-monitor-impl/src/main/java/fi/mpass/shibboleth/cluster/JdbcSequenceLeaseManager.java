@@ -0,0 +1,553 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.cluster;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * Spreads the monitoring sequences across the nodes sharing the same database, so that each sequence is run by
+ * a single node at a time.
+ * 
+ * <p>Every node records a heartbeat in the node table at the heartbeat interval. The nodes whose heartbeat is
+ * younger than the lease period are considered live, and each sequence is assigned to one of them with a
+ * {@link ConsistentHashRing}, so that a node joining or leaving only moves its share of the sequences. The
+ * assigned node holds a lease on the sequence in the lease table, renewed with every heartbeat. A lease is only
+ * taken over from another node once it has expired, or has been released by its holder when the assignment
+ * moved, and a node stops considering itself the owner once its own lease has expired locally, e.g. when the
+ * database is unreachable. A crashed node's sequences are thereby taken over within one lease period plus one
+ * heartbeat interval. The expiry times are written with the clocks of the nodes, which are expected to be
+ * synchronized well within the lease period.</p>
+ * 
+ * <p>A sequence whose run is in progress, between {@link #beginRun(String)} and {@link #endRun(String)}, is not
+ * released when the assignment moves: no new runs are begun, but the lease is renewed with the heartbeats until
+ * the run has ended, and only released after that. A run thereby never overlaps with a run on another node, as
+ * long as the heartbeats of the running node reach the database. If they do not, the lease expires and may be
+ * taken over while the run is still in progress.</p>
+ * 
+ * <p>The node and lease tables are created on initialization, if they don't exist yet.</p>
+ */
+public class JdbcSequenceLeaseManager extends AbstractInitializableComponent implements SequenceOwnership {
+
+    /** The database table name storing the heartbeats of the nodes. */
+    public static final String TABLE_NAME_NODES = "mpass_monitoring_node";
+
+    /** The column and constraint definitions of the node table. */
+    public static final String TABLE_DEFINITION_NODES = "nodeId VARCHAR(100) NOT NULL PRIMARY KEY,"
+            + " heartbeat BIGINT NOT NULL";
+
+    /** The database table name storing the sequence leases. */
+    public static final String TABLE_NAME_LEASES = "mpass_monitoring_lease";
+
+    /** The column and constraint definitions of the lease table. */
+    public static final String TABLE_DEFINITION_LEASES = "sourceId VARCHAR(20) NOT NULL PRIMARY KEY,"
+            + " nodeId VARCHAR(100) NOT NULL, expires BIGINT NOT NULL";
+
+    /** The statement for updating the heartbeat of a node. */
+    public static final String SQL_UPDATE_HEARTBEAT = "UPDATE " + TABLE_NAME_NODES 
+            + " SET heartbeat = ? WHERE nodeId = ?";
+
+    /** The statement for inserting the heartbeat of a new node. */
+    public static final String SQL_INSERT_HEARTBEAT = "INSERT INTO " + TABLE_NAME_NODES 
+            + " (nodeId, heartbeat) VALUES (?,?)";
+
+    /** The statement for selecting the live nodes. */
+    public static final String SQL_SELECT_LIVE_NODES = "SELECT nodeId FROM " + TABLE_NAME_NODES 
+            + " WHERE heartbeat >= ?";
+
+    /** The statement for removing the nodes that have been gone for long. */
+    public static final String SQL_DELETE_DEAD_NODES = "DELETE FROM " + TABLE_NAME_NODES + " WHERE heartbeat < ?";
+
+    /** The statement for removing a node. */
+    public static final String SQL_DELETE_NODE = "DELETE FROM " + TABLE_NAME_NODES + " WHERE nodeId = ?";
+
+    /** The statement for renewing a lease, or taking over an expired one. */
+    public static final String SQL_RENEW_LEASE = "UPDATE " + TABLE_NAME_LEASES 
+            + " SET nodeId = ?, expires = ? WHERE sourceId = ? AND (nodeId = ? OR expires < ?)";
+
+    /** The statement for inserting a new lease. */
+    public static final String SQL_INSERT_LEASE = "INSERT INTO " + TABLE_NAME_LEASES 
+            + " (sourceId, nodeId, expires) VALUES (?,?,?)";
+
+    /** The statement for releasing a lease. */
+    public static final String SQL_RELEASE_LEASE = "UPDATE " + TABLE_NAME_LEASES 
+            + " SET expires = 0 WHERE sourceId = ? AND nodeId = ?";
+
+    /** The number of lease periods after which a silent node is removed from the node table. */
+    private static final int DEAD_NODE_LEASE_PERIODS = 10;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(JdbcSequenceLeaseManager.class);
+
+    /** JDBC data source for retrieving connections. */
+    @NonnullAfterInit private DataSource dataSource;
+
+    /** The identifier of this node. */
+    @Nonnull @NotEmpty private String nodeId;
+
+    /** The lease period in milliseconds. */
+    @Duration @Positive private long leasePeriod;
+
+    /** The heartbeat interval in milliseconds, zero disables the background heartbeats. */
+    @Duration @NonNegative private long heartbeatInterval;
+
+    /** The number of positions of each node on the hash ring. */
+    @Positive private int virtualNodes;
+
+    /** The identifiers of the sequences to spread across the nodes. */
+    @Nonnull @NonnullElements private final Set<String> sequenceIds;
+
+    /** The local expiry times of the leases held by this node, by sequence identifier. */
+    @Nonnull private final Map<String, Long> heldLeases;
+
+    /** The identifiers of the sequences whose run is in progress, also the lock for beginning the runs. */
+    @Nonnull @NonnullElements private final Set<String> runningSequences;
+
+    /** The identifiers of the sequences to be released once their runs have ended. */
+    @Nonnull @NonnullElements private final Set<String> releasingSequences;
+
+    /** The timer running the heartbeats. */
+    @Nullable private Timer heartbeatTimer;
+
+    /** Constructor. */
+    public JdbcSequenceLeaseManager() {
+        nodeId = ManagementFactory.getRuntimeMXBean().getName();
+        leasePeriod = TimeUnit.SECONDS.toMillis(30);
+        heartbeatInterval = TimeUnit.SECONDS.toMillis(10);
+        virtualNodes = 64;
+        sequenceIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        heldLeases = new ConcurrentHashMap<>();
+        runningSequences = new HashSet<>();
+        releasingSequences = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * Set the data source used to communicate with the database.
+     * @param source What to set.
+     */
+    public void setDataSource(@Nonnull final DataSource source) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        dataSource = Constraint.isNotNull(source, "DataSource cannot be null");
+    }
+
+    /**
+     * Set the identifier of this node, unique within the cluster. Defaults to the name of the JVM, i.e.
+     * <code>pid@hostname</code>.
+     * @param id What to set.
+     */
+    public void setNodeId(@Nonnull @NotEmpty final String id) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        nodeId = Constraint.isNotNull(StringSupport.trimOrNull(id), "Node identifier cannot be empty");
+    }
+
+    /**
+     * Get the identifier of this node.
+     * @return The identifier of this node.
+     */
+    @Nonnull @NotEmpty public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Set the lease period in milliseconds, also the time after which a silent node is considered gone.
+     * Defaults to 30 seconds.
+     * @param period What to set.
+     */
+    public void setLeasePeriod(@Duration @Positive final long period) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        leasePeriod = Constraint.isGreaterThan(0, period, "Lease period must be greater than 0");
+    }
+
+    /**
+     * Set the heartbeat interval in milliseconds, shorter than the lease period. Defaults to 10 seconds, zero
+     * disables the background heartbeats.
+     * @param interval What to set.
+     */
+    public void setHeartbeatInterval(@Duration @NonNegative final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        heartbeatInterval = Constraint.isGreaterThanOrEqual(0, interval, 
+                "Heartbeat interval must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the number of positions of each node on the hash ring. Defaults to 64.
+     * @param count What to set.
+     */
+    public void setVirtualNodes(@Positive final int count) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        virtualNodes = (int) Constraint.isGreaterThan(0, count, "Virtual nodes must be greater than 0");
+    }
+
+    /**
+     * Set the identifiers of the sequences to spread across the nodes. The sequences asked about with
+     * {@link #isOwner(String)} are added to them on the fly.
+     * @param ids What to set.
+     */
+    public void setSequenceIds(@Nonnull @NonnullElements final Collection<String> ids) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(ids, "Sequence identifiers cannot be null");
+        sequenceIds.clear();
+        for (final String id : ids) {
+            final String trimmed = StringSupport.trimOrNull(id);
+            if (trimmed != null) {
+                sequenceIds.add(trimmed);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isOwner(@Nonnull final String sequenceId) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        if (sequenceIds.add(sequenceId)) {
+            log.debug("Sequence {} will be assigned with the next heartbeat", sequenceId);
+            return false;
+        }
+        if (releasingSequences.contains(sequenceId)) {
+            return false;
+        }
+        final Long expires = heldLeases.get(sequenceId);
+        return expires != null && expires > System.currentTimeMillis();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean beginRun(@Nonnull final String sequenceId) {
+        synchronized (runningSequences) {
+            if (!isOwner(sequenceId)) {
+                return false;
+            }
+            runningSequences.add(sequenceId);
+            return true;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void endRun(@Nonnull final String sequenceId) {
+        synchronized (runningSequences) {
+            runningSequences.remove(sequenceId);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == dataSource) {
+            throw new ComponentInitializationException("No database connection provided");
+        }
+        if (heartbeatInterval >= leasePeriod) {
+            throw new ComponentInitializationException("Heartbeat interval must be shorter than the lease period");
+        }
+        try (final Connection dbConn = dataSource.getConnection()) {
+            dbConn.setAutoCommit(true);
+            createTable(dbConn, TABLE_NAME_NODES, TABLE_DEFINITION_NODES);
+            createTable(dbConn, TABLE_NAME_LEASES, TABLE_DEFINITION_LEASES);
+        } catch (final SQLException e) {
+            throw new ComponentInitializationException("Could not create the node and lease tables", e);
+        }
+        if (heartbeatInterval > 0) {
+            heartbeatTimer = new Timer("mpass-monitoring-lease", true);
+            heartbeatTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        heartbeat(System.currentTimeMillis());
+                    } catch (final SQLException e) {
+                        log.error("Could not renew the sequence leases of node {}", nodeId, e);
+                    }
+                }
+            }, 0, heartbeatInterval);
+        }
+        log.info("Node {} sharing the monitoring sequences with a lease period of {} ms", nodeId, leasePeriod);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (heartbeatTimer != null) {
+            heartbeatTimer.cancel();
+            heartbeatTimer = null;
+        }
+        if (dataSource != null) {
+            releaseAll();
+        }
+        heldLeases.clear();
+        releasingSequences.clear();
+        synchronized (runningSequences) {
+            runningSequences.clear();
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Releases all the leases held by this node and removes it from the node table, so that the other nodes
+     * can take over its sequences without waiting for the expiry.
+     */
+    protected synchronized void releaseAll() {
+        try (final Connection dbConn = dataSource.getConnection()) {
+            dbConn.setAutoCommit(true);
+            for (final String sequenceId : heldLeases.keySet()) {
+                release(dbConn, sequenceId);
+            }
+            try (final PreparedStatement statement = dbConn.prepareStatement(SQL_DELETE_NODE)) {
+                statement.setString(1, nodeId);
+                statement.executeUpdate();
+            }
+        } catch (final SQLException e) {
+            log.warn("Could not release the sequence leases of node {}", nodeId, e);
+        }
+    }
+
+    /**
+     * Records the heartbeat of this node, and takes, renews or releases the leases according to the current
+     * assignment of the sequences to the live nodes. The lease of a sequence whose run is in progress is renewed
+     * instead of released, until the run has ended.
+     * 
+     * A database error on a single sequence drops only the lease of that sequence.
+     * 
+     * @param now The current time in milliseconds.
+     * @throws SQLException If the heartbeat cannot be recorded or the live nodes cannot be read.
+     */
+    public synchronized void heartbeat(final long now) throws SQLException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        try (final Connection dbConn = dataSource.getConnection()) {
+            dbConn.setAutoCommit(true);
+            recordHeartbeat(dbConn, now);
+            final ConsistentHashRing ring = new ConsistentHashRing(selectLiveNodes(dbConn, now), virtualNodes);
+            for (final String sequenceId : sequenceIds) {
+                try {
+                    if (nodeId.equals(ring.getNode(sequenceId))) {
+                        releasingSequences.remove(sequenceId);
+                        if (acquire(dbConn, sequenceId, now)) {
+                            if (heldLeases.put(sequenceId, now + leasePeriod) == null) {
+                                log.info("Node {} took the lease of sequence {}", nodeId, sequenceId);
+                            }
+                        } else if (heldLeases.remove(sequenceId) != null) {
+                            log.warn("Node {} lost the lease of sequence {}", nodeId, sequenceId);
+                        }
+                    } else if (heldLeases.containsKey(sequenceId)) {
+                        if (!deferRelease(sequenceId)) {
+                            release(dbConn, sequenceId);
+                            log.info("Node {} released the lease of sequence {}", nodeId, sequenceId);
+                        } else if (acquire(dbConn, sequenceId, now)) {
+                            heldLeases.put(sequenceId, now + leasePeriod);
+                            log.debug("Node {} keeps the lease of sequence {} until its run has ended", nodeId,
+                                    sequenceId);
+                        } else if (heldLeases.remove(sequenceId) != null) {
+                            log.warn("Node {} lost the lease of sequence {} during its run", nodeId, sequenceId);
+                        }
+                    }
+                } catch (final SQLException e) {
+                    // the lease could not be renewed, so it is not trusted, but the other sequences are unaffected
+                    if (heldLeases.remove(sequenceId) != null) {
+                        log.warn("Node {} dropped the lease of sequence {} after a database error", nodeId, 
+                                sequenceId, e);
+                    } else {
+                        log.warn("Node {} could not take the lease of sequence {}", nodeId, sequenceId, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops new runs of the given sequence, and drops its lease unless a run is in progress.
+     * 
+     * @param sequenceId The identifier of the sequence.
+     * @return True if a run is in progress and the release must wait for it, false if the lease was dropped.
+     */
+    private boolean deferRelease(@Nonnull final String sequenceId) {
+        synchronized (runningSequences) {
+            if (runningSequences.contains(sequenceId)) {
+                releasingSequences.add(sequenceId);
+                return true;
+            }
+            releasingSequences.remove(sequenceId);
+            heldLeases.remove(sequenceId);
+            return false;
+        }
+    }
+
+    /**
+     * Creates the given table, if it doesn't exist yet. The name is matched regardless of how the database folds
+     * the case of unquoted identifiers.
+     * 
+     * @param dbConn The database connection.
+     * @param table The table name.
+     * @param definition The column and constraint definitions of the table.
+     * @throws SQLException If the table cannot be read or created.
+     */
+    protected void createTable(@Nonnull final Connection dbConn, @Nonnull final String table,
+            @Nonnull final String definition) throws SQLException {
+        final DatabaseMetaData metaData = dbConn.getMetaData();
+        for (final String name : new String[] { table, table.toUpperCase(), table.toLowerCase() }) {
+            try (final ResultSet tables = metaData.getTables(dbConn.getCatalog(), null, name, null)) {
+                if (tables.next()) {
+                    return;
+                }
+            }
+        }
+        log.info("Creating table {}", table);
+        try (final Statement statement = dbConn.createStatement()) {
+            statement.execute("CREATE TABLE " + table + " (" + definition + ")");
+        }
+    }
+
+    /**
+     * Records the heartbeat of this node, and removes the nodes that have been silent for long.
+     * 
+     * @param dbConn The database connection.
+     * @param now The current time in milliseconds.
+     * @throws SQLException If the database operations fail.
+     */
+    protected void recordHeartbeat(@Nonnull final Connection dbConn, final long now) throws SQLException {
+        try (final PreparedStatement update = dbConn.prepareStatement(SQL_UPDATE_HEARTBEAT)) {
+            update.setLong(1, now);
+            update.setString(2, nodeId);
+            if (update.executeUpdate() == 0) {
+                try (final PreparedStatement insert = dbConn.prepareStatement(SQL_INSERT_HEARTBEAT)) {
+                    insert.setString(1, nodeId);
+                    insert.setLong(2, now);
+                    insert.executeUpdate();
+                }
+            }
+        }
+        try (final PreparedStatement delete = dbConn.prepareStatement(SQL_DELETE_DEAD_NODES)) {
+            delete.setLong(1, now - DEAD_NODE_LEASE_PERIODS * leasePeriod);
+            delete.executeUpdate();
+        }
+    }
+
+    /**
+     * Selects the nodes whose heartbeat is younger than the lease period.
+     * 
+     * @param dbConn The database connection.
+     * @param now The current time in milliseconds.
+     * @return The identifiers of the live nodes.
+     * @throws SQLException If the nodes cannot be selected.
+     */
+    @Nonnull protected List<String> selectLiveNodes(@Nonnull final Connection dbConn, final long now) 
+            throws SQLException {
+        final List<String> nodes = new ArrayList<>();
+        try (final PreparedStatement statement = dbConn.prepareStatement(SQL_SELECT_LIVE_NODES)) {
+            statement.setLong(1, now - leasePeriod);
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    nodes.add(resultSet.getString(1));
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Renews the lease of the given sequence, or takes it if it is free or expired.
+     * 
+     * @param dbConn The database connection.
+     * @param sequenceId The identifier of the sequence.
+     * @param now The current time in milliseconds.
+     * @return True if this node holds the lease, false if another node still holds it.
+     * @throws SQLException If the database operations fail.
+     */
+    protected boolean acquire(@Nonnull final Connection dbConn, @Nonnull final String sequenceId, final long now)
+            throws SQLException {
+        try (final PreparedStatement renew = dbConn.prepareStatement(SQL_RENEW_LEASE)) {
+            renew.setString(1, nodeId);
+            renew.setLong(2, now + leasePeriod);
+            renew.setString(3, sequenceId);
+            renew.setString(4, nodeId);
+            renew.setLong(5, now);
+            if (renew.executeUpdate() > 0) {
+                return true;
+            }
+        }
+        try (final PreparedStatement insert = dbConn.prepareStatement(SQL_INSERT_LEASE)) {
+            insert.setString(1, sequenceId);
+            insert.setString(2, nodeId);
+            insert.setLong(3, now + leasePeriod);
+            insert.executeUpdate();
+            return true;
+        } catch (final SQLException e) {
+            // class 23 is an integrity constraint violation: the lease exists and is held by another node
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the lease of the given sequence, if held by this node, so that its new owner can take it
+     * without waiting for the expiry.
+     * 
+     * @param dbConn The database connection.
+     * @param sequenceId The identifier of the sequence.
+     * @throws SQLException If the database operations fail.
+     */
+    protected void release(@Nonnull final Connection dbConn, @Nonnull final String sequenceId) 
+            throws SQLException {
+        try (final PreparedStatement statement = dbConn.prepareStatement(SQL_RELEASE_LEASE)) {
+            statement.setString(1, sequenceId);
+            statement.setString(2, nodeId);
+            statement.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.cluster;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Decides whether this node is responsible for running a monitoring sequence.
+ * 
+ * <p>A run is bracketed by {@link #beginRun(String)} and {@link #endRun(String)}, so that the ownership is not
+ * handed over to another node while the run is in progress.</p>
+ */
+public interface SequenceOwnership {
+
+    /**
+     * Checks whether this node currently owns the given sequence.
+     * 
+     * @param sequenceId The identifier of the sequence.
+     * @return True if this node should run the sequence, false otherwise.
+     */
+    boolean isOwner(@Nonnull String sequenceId);
+
+    /**
+     * Checks whether this node owns the given sequence and if so, keeps the ownership until the run is ended with
+     * {@link #endRun(String)}.
+     * 
+     * @param sequenceId The identifier of the sequence.
+     * @return True if this node should run the sequence, false otherwise.
+     */
+    boolean beginRun(@Nonnull String sequenceId);
+
+    /**
+     * Ends the run of the given sequence, started with a successful {@link #beginRun(String)}.
+     * 
+     * @param sequenceId The identifier of the sequence.
+     */
+    void endRun(@Nonnull String sequenceId);
+}
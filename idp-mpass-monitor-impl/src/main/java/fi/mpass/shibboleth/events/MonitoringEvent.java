@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.events;
+
+import javax.annotation.Nullable;
+
+/**
+ * A timed event started by one of the begin methods of {@link MonitoringEventRecorder}. The duration of the event
+ * is the time between the begin and the {@link #commit()}.
+ */
+public interface MonitoringEvent {
+
+    /**
+     * Set the HTTP status code of the exchange. Ignored by other than HTTP exchange events.
+     * 
+     * @param statusCode The HTTP status code.
+     */
+    void setStatusCode(int statusCode);
+
+    /**
+     * Set the error that made the recorded operation fail.
+     * 
+     * @param message The error message.
+     */
+    void setError(@Nullable String message);
+
+    /**
+     * Ends the event and records it. The event must not be used after committing.
+     */
+    void commit();
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.events;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Starts the {@link MonitoringEvent}s for the monitoring activity. An implementation should return a shared no-op
+ * event when the event type is not being recorded, so that the hooks cost next to nothing.
+ * 
+ * <p>Implementations are registered for the {@link java.util.ServiceLoader} and used through
+ * {@link MonitoringEvents}.</p>
+ */
+public interface MonitoringEventRecorder {
+
+    /**
+     * Begins an event for a run of a monitoring sequence.
+     * 
+     * @param sequenceId The sequence identifier.
+     * @return The started event.
+     */
+    @Nonnull MonitoringEvent beginSequence(@Nullable String sequenceId);
+
+    /**
+     * Begins an event for a resolver step of a monitoring sequence.
+     * 
+     * @param sequenceId The sequence identifier.
+     * @param resolverId The resolver identifier.
+     * @param stepIndex The index of the resolver in the sequence.
+     * @return The started event.
+     */
+    @Nonnull MonitoringEvent beginStep(@Nullable String sequenceId, @Nullable String resolverId, int stepIndex);
+
+    /**
+     * Begins an event for a single HTTP exchange, i.e. a request and the reading of its response. Each followed
+     * redirect is a separate exchange.
+     * 
+     * @param resolverId The resolver identifier.
+     * @param method The HTTP method.
+     * @param url The request URL.
+     * @return The started event.
+     */
+    @Nonnull MonitoringEvent beginHttpExchange(@Nullable String resolverId, @Nonnull String method, 
+            @Nonnull String url);
+
+    /**
+     * Begins an event for a validator run on a response.
+     * 
+     * @param resolverId The resolver identifier.
+     * @param validator The class name of the validator.
+     * @return The started event.
+     */
+    @Nonnull MonitoringEvent beginValidation(@Nullable String resolverId, @Nonnull String validator);
+
+    /**
+     * Begins an event for a database transaction storing monitoring results.
+     * 
+     * @param storage The name of the storing component.
+     * @param resultCount The number of results stored in the transaction.
+     * @return The started event.
+     */
+    @Nonnull MonitoringEvent beginStorageFlush(@Nonnull String storage, int resultCount);
+}
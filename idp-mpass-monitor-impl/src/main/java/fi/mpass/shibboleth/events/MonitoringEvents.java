@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.events;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the {@link MonitoringEventRecorder} for the hooks. The first recorder found with the
+ * {@link ServiceLoader} is used, and if there is none or it cannot be loaded, for instance because it requires a
+ * newer Java version, the events are discarded by a no-op recorder.
+ */
+public final class MonitoringEvents {
+
+    /** The event discarding everything. */
+    public static final MonitoringEvent NO_OP_EVENT = new MonitoringEvent() {
+
+        /** {@inheritDoc} */
+        public void setStatusCode(final int statusCode) {
+            // no op
+        }
+
+        /** {@inheritDoc} */
+        public void setError(final String message) {
+            // no op
+        }
+
+        /** {@inheritDoc} */
+        public void commit() {
+            // no op
+        }
+    };
+
+    /** The recorder returning only {@link #NO_OP_EVENT}s. */
+    public static final MonitoringEventRecorder NO_OP_RECORDER = new MonitoringEventRecorder() {
+
+        /** {@inheritDoc} */
+        public MonitoringEvent beginSequence(final String sequenceId) {
+            return NO_OP_EVENT;
+        }
+
+        /** {@inheritDoc} */
+        public MonitoringEvent beginStep(final String sequenceId, final String resolverId, final int stepIndex) {
+            return NO_OP_EVENT;
+        }
+
+        /** {@inheritDoc} */
+        public MonitoringEvent beginHttpExchange(final String resolverId, final String method, 
+                final String url) {
+            return NO_OP_EVENT;
+        }
+
+        /** {@inheritDoc} */
+        public MonitoringEvent beginValidation(final String resolverId, final String validator) {
+            return NO_OP_EVENT;
+        }
+
+        /** {@inheritDoc} */
+        public MonitoringEvent beginStorageFlush(final String storage, final int resultCount) {
+            return NO_OP_EVENT;
+        }
+    };
+
+    /** Class logger. */
+    @Nonnull private static final Logger LOG = LoggerFactory.getLogger(MonitoringEvents.class);
+
+    /** The recorder in use. */
+    @Nonnull private static volatile MonitoringEventRecorder recorder = loadRecorder();
+
+    /** Prevent instantiation. */
+    private MonitoringEvents() {
+        // no op
+    }
+
+    /**
+     * Get the recorder in use.
+     * 
+     * @return The recorder.
+     */
+    @Nonnull public static MonitoringEventRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Set the recorder in use, replacing the one found by the {@link ServiceLoader}.
+     * 
+     * @param newRecorder What to set, null for the no-op recorder.
+     */
+    public static void setRecorder(@Nullable final MonitoringEventRecorder newRecorder) {
+        recorder = newRecorder != null ? newRecorder : NO_OP_RECORDER;
+    }
+
+    /**
+     * Loads the first available recorder with the {@link ServiceLoader}.
+     * 
+     * @return The recorder, or {@link #NO_OP_RECORDER} if none is available.
+     */
+    @Nonnull private static MonitoringEventRecorder loadRecorder() {
+        try {
+            final Iterator<MonitoringEventRecorder> iterator = ServiceLoader.load(MonitoringEventRecorder.class, 
+                    MonitoringEvents.class.getClassLoader()).iterator();
+            if (iterator.hasNext()) {
+                final MonitoringEventRecorder loaded = iterator.next();
+                LOG.info("Recording the monitoring events with {}", loaded.getClass().getName());
+                return loaded;
+            }
+        } catch (final ServiceConfigurationError | LinkageError e) {
+            LOG.warn("Could not load the monitoring event recorder, the events are not recorded", e);
+        }
+        return NO_OP_RECORDER;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.monitor.context.LatencyAnomaly;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.mpass.shibboleth.storage.JdbcRollupWriter;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/**
+ * Detects the steps that are slower than usual, even if they succeed, by keeping an online baseline of the
+ * duration of each step of each sequence.
+ * 
+ * <p>The baseline is an exponentially weighted moving mean and variance of the step duration, updated in constant
+ * time and memory with every successful step, so no history needs to be read. A step is anomalous if its duration
+ * exceeds the baseline mean by at least the threshold number of standard deviations, and by at least the minimum
+ * excess, which keeps very stable steps from being flagged for a few milliseconds. No anomalies are reported
+ * until the baseline has seen the warm-up number of samples. The anomalous durations are still fed into the
+ * baseline, so a lasting change of the latency becomes the new normal over roughly <code>1 / alpha</code>
+ * runs.</p>
+ * 
+ * <p>The steps are identified by their resolver identifier and their occurrence within the sequence, so a
+ * resolver used twice in a sequence has two baselines, the second one keyed and reported as
+ * <code>resolver#2</code>. The failed steps are not fed into the baselines.</p>
+ */
+public class LatencyAnomalyDetector extends AbstractInitializableComponent {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(LatencyAnomalyDetector.class);
+
+    /** The weight of the latest sample in the baseline, between 0 and 1. */
+    private double alpha;
+
+    /** The number of standard deviations a duration must exceed the mean by to be anomalous. */
+    private double threshold;
+
+    /** The minimum number of milliseconds a duration must exceed the mean by to be anomalous. */
+    @Duration @NonNegative private long minExcess;
+
+    /** The number of samples the baseline needs before anomalies are reported. */
+    @Positive private int warmupSamples;
+
+    /** The baselines by sequence identifier and step key. */
+    @Nonnull private final ConcurrentMap<String, Map<String, Baseline>> baselines;
+
+    /** Constructor. */
+    public LatencyAnomalyDetector() {
+        alpha = 0.1;
+        threshold = 4.0;
+        minExcess = 100;
+        warmupSamples = 20;
+        baselines = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Set the weight of the latest sample in the baseline, between 0 and 1. Defaults to 0.1.
+     * @param weight What to set.
+     */
+    public void setAlpha(final double weight) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (weight <= 0 || weight >= 1) {
+            throw new ConstraintViolationException("Alpha must be between 0 and 1");
+        }
+        alpha = weight;
+    }
+
+    /**
+     * Set the number of standard deviations a duration must exceed the baseline mean by to be anomalous.
+     * Defaults to 4.
+     * @param deviations What to set.
+     */
+    public void setThreshold(final double deviations) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (deviations <= 0) {
+            throw new ConstraintViolationException("Threshold must be greater than 0");
+        }
+        threshold = deviations;
+    }
+
+    /**
+     * Set the minimum number of milliseconds a duration must exceed the baseline mean by to be anomalous.
+     * Defaults to 100.
+     * @param excess What to set.
+     */
+    public void setMinExcess(@Duration @NonNegative final long excess) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        minExcess = Constraint.isGreaterThanOrEqual(0, excess, "Minimum excess must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the number of samples the baseline needs before anomalies are reported. Defaults to 20.
+     * @param samples What to set.
+     */
+    public void setWarmupSamples(@Positive final int samples) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        warmupSamples = (int) Constraint.isGreaterThan(0, samples, "Warm-up samples must be greater than 0");
+    }
+
+    /**
+     * Feeds the durations of the successful steps of the given result into their baselines, and returns the
+     * anomalies among them.
+     * 
+     * @param result The monitoring sequence result.
+     * @return The detected anomalies, empty if none.
+     */
+    @Nonnull public List<LatencyAnomaly> record(@Nonnull final MonitoringSequenceResult result) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final List<LatencyAnomaly> anomalies = new ArrayList<>();
+        if (result.getId() == null) {
+            log.debug("Ignoring a result without a sequence identifier");
+            return anomalies;
+        }
+        Map<String, Baseline> steps = baselines.get(result.getId());
+        if (steps == null) {
+            final Map<String, Baseline> created = new HashMap<>();
+            steps = baselines.putIfAbsent(result.getId(), created);
+            if (steps == null) {
+                steps = created;
+            }
+        }
+        synchronized (steps) {
+            final Map<String, Integer> occurrences = new HashMap<>();
+            for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+                final String label = JdbcRollupWriter.getStepId(step);
+                final Integer previous = occurrences.get(label);
+                final int occurrence = previous == null ? 1 : previous + 1;
+                occurrences.put(label, occurrence);
+                if (step.getErrorMessage() != null) {
+                    continue;
+                }
+                final String key = occurrence == 1 ? label : label + "#" + occurrence;
+                Baseline baseline = steps.get(key);
+                if (baseline == null) {
+                    baseline = new Baseline();
+                    steps.put(key, baseline);
+                }
+                final LatencyAnomaly anomaly = baseline.record(key, 
+                        Math.max(0, step.getEndTime() - step.getStartTime()));
+                if (anomaly != null) {
+                    log.info("Step {} of sequence {} took {} ms, {} deviations above its baseline of {} ms", key,
+                            result.getId(), anomaly.getDuration(), String.format("%.1f", anomaly.getScore()),
+                            Math.round(anomaly.getBaselineMean()));
+                    anomalies.add(anomaly);
+                }
+            }
+        }
+        return anomalies;
+    }
+
+    /**
+     * Get the baseline mean duration of the given step.
+     * 
+     * @param sequenceId The sequence identifier.
+     * @param stepKey The step label, followed by <code>#n</code> for its nth occurrence after the first.
+     * @return The mean in milliseconds, or NaN if the step has no baseline.
+     */
+    public double getBaselineMean(@Nonnull final String sequenceId, @Nonnull final String stepKey) {
+        final Map<String, Baseline> steps = baselines.get(sequenceId);
+        if (steps == null) {
+            return Double.NaN;
+        }
+        synchronized (steps) {
+            final Baseline baseline = steps.get(stepKey);
+            return baseline != null ? baseline.mean : Double.NaN;
+        }
+    }
+
+    /**
+     * Get the baseline standard deviation of the duration of the given step.
+     * 
+     * @param sequenceId The sequence identifier.
+     * @param stepKey The step label, followed by <code>#n</code> for its nth occurrence after the first.
+     * @return The standard deviation in milliseconds, or NaN if the step has no baseline.
+     */
+    public double getBaselineDeviation(@Nonnull final String sequenceId, @Nonnull final String stepKey) {
+        final Map<String, Baseline> steps = baselines.get(sequenceId);
+        if (steps == null) {
+            return Double.NaN;
+        }
+        synchronized (steps) {
+            final Baseline baseline = steps.get(stepKey);
+            return baseline != null ? Math.sqrt(baseline.variance) : Double.NaN;
+        }
+    }
+
+    /**
+     * The baseline of a single step, guarded by the monitor of the step map of its sequence.
+     */
+    private class Baseline {
+
+        /** The number of samples. */
+        private long samples;
+
+        /** The weighted mean in milliseconds. */
+        private double mean;
+
+        /** The weighted variance in square milliseconds. */
+        private double variance;
+
+        /**
+         * Checks the given duration against the baseline, and then feeds it into the baseline. Until the
+         * baseline has seen <code>1 / alpha</code> samples, they are weighted equally. The score is computed
+         * with a standard deviation of at least one millisecond, to keep it finite for perfectly stable steps.
+         * 
+         * @param stepId The step identifier for the anomaly.
+         * @param duration The duration in milliseconds.
+         * @return The anomaly, or null if the duration is not anomalous.
+         */
+        private LatencyAnomaly record(final String stepId, final long duration) {
+            LatencyAnomaly anomaly = null;
+            final double deviation = Math.sqrt(variance);
+            final double excess = duration - mean;
+            if (samples >= warmupSamples && excess >= minExcess && excess >= threshold * deviation) {
+                anomaly = new LatencyAnomaly();
+                anomaly.setStepId(stepId);
+                anomaly.setDuration(duration);
+                anomaly.setBaselineMean(mean);
+                anomaly.setBaselineDeviation(deviation);
+                anomaly.setScore(excess / Math.max(deviation, 1.0));
+            }
+            samples++;
+            final double weight = Math.max(alpha, 1.0 / samples);
+            final double increment = weight * excess;
+            mean += increment;
+            variance = (1 - weight) * (variance + excess * increment);
+            return anomaly;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.metrics;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A fixed-bucket latency histogram in milliseconds. The counts are not cumulative, {@link #getCumulativeCounts()}
+ * returns them in the cumulative form used by the exposition formats.
+ * 
+ * <p>This class is not thread-safe, the owner is expected to guard the updates and the reads.</p>
+ */
+public class LatencyHistogram {
+
+    /** The default upper bounds of the buckets, in milliseconds. */
+    public static final long[] DEFAULT_BOUNDS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    /** The inclusive upper bounds of the buckets, in ascending order. */
+    @Nonnull private final long[] bounds;
+
+    /** The counts per bucket, the last one being the overflow bucket. */
+    @Nonnull private final long[] counts;
+
+    /** The sum of the recorded values. */
+    private long sum;
+
+    /** The number of the recorded values. */
+    private long count;
+
+    /**
+     * Constructor.
+     * @param bucketBounds The inclusive upper bounds of the buckets, in ascending order.
+     */
+    public LatencyHistogram(@Nonnull final long[] bucketBounds) {
+        Constraint.isNotNull(bucketBounds, "Bucket bounds cannot be null");
+        for (int i = 1; i < bucketBounds.length; i++) {
+            Constraint.isTrue(bucketBounds[i] > bucketBounds[i - 1], "Bucket bounds must be in ascending order");
+        }
+        bounds = bucketBounds.clone();
+        counts = new long[bounds.length + 1];
+    }
+
+    /**
+     * Records a value.
+     * @param millis The value in milliseconds.
+     */
+    public void record(final long millis) {
+        final int index = Arrays.binarySearch(bounds, millis);
+        counts[index >= 0 ? index : -index - 1]++;
+        sum += millis;
+        count++;
+    }
+
+    /**
+     * Get the inclusive upper bounds of the buckets.
+     * @return The bounds, in milliseconds.
+     */
+    @Nonnull public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Get the cumulative counts of the buckets, the last one being the count of all values.
+     * @return The cumulative counts, one longer than the bounds.
+     */
+    @Nonnull public long[] getCumulativeCounts() {
+        final long[] cumulative = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i];
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    /**
+     * Get the sum of the recorded values.
+     * @return The sum in milliseconds.
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Get the number of the recorded values.
+     * @return The number of values.
+     */
+    public long getCount() {
+        return count;
+    }
+}
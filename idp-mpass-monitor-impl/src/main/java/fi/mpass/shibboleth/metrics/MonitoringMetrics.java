@@ -0,0 +1,549 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.mpass.shibboleth.storage.JdbcRollupWriter;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Aggregates the monitoring sequence results into in-memory counters, gauges and latency histograms per sequence
+ * and step, and writes them in the Prometheus text exposition format. The results are recorded as they are
+ * produced, so writing the metrics never runs a sequence or queries the storage.
+ * 
+ * <p>The exported metric families are the number of runs and failures per sequence, the failures per step, the
+ * status, duration and last success time of the latest run, and the duration histograms of the sequences and
+ * the steps. The steps are identified by their resolver identifiers.</p>
+ * 
+ * <p>The CPU time and the allocated bytes of the probing thread, when measured for the steps, are aggregated per
+ * resolver identifier over all the sequences, for finding the resolvers and validators that are expensive to run.
+ * </p>
+ */
+public class MonitoringMetrics extends AbstractInitializableComponent {
+
+    /** The content type of the Prometheus text exposition format. */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** The prefix of the metric names. */
+    public static final String METRIC_PREFIX = "mpass_monitor_";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MonitoringMetrics.class);
+
+    /** The upper bounds of the latency histogram buckets, in milliseconds. */
+    @Nonnull private long[] bucketBounds;
+
+    /** The metrics by the sequence identifier, sorted for a stable output. */
+    @Nonnull private final ConcurrentNavigableMap<String, SequenceMetrics> sequences;
+
+    /** The resource usage by the resolver identifier, sorted for a stable output. */
+    @Nonnull private final ConcurrentNavigableMap<String, ResolverCost> resolvers;
+
+    /** Constructor. */
+    public MonitoringMetrics() {
+        bucketBounds = LatencyHistogram.DEFAULT_BOUNDS;
+        sequences = new ConcurrentSkipListMap<>();
+        resolvers = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Set the upper bounds of the latency histogram buckets, in milliseconds and ascending order.
+     * @param bounds What to set.
+     */
+    public void setBucketBounds(@Nonnull final long[] bounds) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(bounds, "Bucket bounds cannot be null");
+        Constraint.isTrue(bounds.length > 0, "At least one bucket bound must be given");
+        for (int i = 1; i < bounds.length; i++) {
+            Constraint.isTrue(bounds[i] > bounds[i - 1], "Bucket bounds must be in strictly ascending order");
+        }
+        bucketBounds = bounds.clone();
+    }
+
+    /**
+     * Records a monitoring sequence result.
+     * 
+     * @param result The monitoring sequence result.
+     */
+    public void record(@Nonnull final MonitoringSequenceResult result) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        if (result.getId() == null) {
+            log.debug("Ignoring a result without a sequence identifier");
+            return;
+        }
+        SequenceMetrics metrics = sequences.get(result.getId());
+        if (metrics == null) {
+            final SequenceMetrics created = new SequenceMetrics();
+            metrics = sequences.putIfAbsent(result.getId(), created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        metrics.record(result);
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            if (step.getCpuTime() < 0 && step.getAllocatedBytes() < 0) {
+                continue;
+            }
+            final String label = JdbcRollupWriter.getStepId(step);
+            ResolverCost cost = resolvers.get(label);
+            if (cost == null) {
+                final ResolverCost created = new ResolverCost();
+                cost = resolvers.putIfAbsent(label, created);
+                if (cost == null) {
+                    cost = created;
+                }
+            }
+            cost.record(step);
+        }
+    }
+
+    /**
+     * Get the number of recorded runs of the given sequence.
+     * 
+     * @param sequenceId The sequence identifier.
+     * @return The number of runs.
+     */
+    public long getRunCount(@Nonnull final String sequenceId) {
+        final SequenceMetrics metrics = sequences.get(sequenceId);
+        if (metrics == null) {
+            return 0;
+        }
+        synchronized (metrics) {
+            return metrics.runs;
+        }
+    }
+
+    /**
+     * Get the number of recorded failed runs of the given sequence.
+     * 
+     * @param sequenceId The sequence identifier.
+     * @return The number of failed runs.
+     */
+    public long getFailureCount(@Nonnull final String sequenceId) {
+        final SequenceMetrics metrics = sequences.get(sequenceId);
+        if (metrics == null) {
+            return 0;
+        }
+        synchronized (metrics) {
+            return metrics.failures;
+        }
+    }
+
+    /**
+     * Get the total CPU time measured for the steps of the given resolver.
+     * 
+     * @param resolverId The resolver identifier.
+     * @return The CPU time in nanoseconds.
+     */
+    public long getResolverCpuTime(@Nonnull final String resolverId) {
+        final ResolverCost cost = resolvers.get(resolverId);
+        if (cost == null) {
+            return 0;
+        }
+        synchronized (cost) {
+            return cost.cpuTime;
+        }
+    }
+
+    /**
+     * Get the total number of bytes allocated in the steps of the given resolver.
+     * 
+     * @param resolverId The resolver identifier.
+     * @return The number of allocated bytes.
+     */
+    public long getResolverAllocatedBytes(@Nonnull final String resolverId) {
+        final ResolverCost cost = resolvers.get(resolverId);
+        if (cost == null) {
+            return 0;
+        }
+        synchronized (cost) {
+            return cost.allocatedBytes;
+        }
+    }
+
+    /**
+     * Get the number of measured steps of the given resolver.
+     * 
+     * @param resolverId The resolver identifier.
+     * @return The number of measured steps.
+     */
+    public long getResolverStepCount(@Nonnull final String resolverId) {
+        final ResolverCost cost = resolvers.get(resolverId);
+        if (cost == null) {
+            return 0;
+        }
+        synchronized (cost) {
+            return cost.steps;
+        }
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     * 
+     * @param writer The writer to write to. It is not flushed or closed.
+     * @throws IOException If the metrics could not be written.
+     */
+    public void write(@Nonnull final Writer writer) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        writeHeader(writer, "sequence_runs_total", "counter", "The number of runs of the sequence.");
+        for (final Map.Entry<String, SequenceMetrics> entry : sequences.entrySet()) {
+            synchronized (entry.getValue()) {
+                writeSample(writer, "sequence_runs_total", entry.getKey(), null, null, 
+                        Long.toString(entry.getValue().runs));
+            }
+        }
+        writeHeader(writer, "sequence_failures_total", "counter", "The number of failed runs of the sequence.");
+        for (final Map.Entry<String, SequenceMetrics> entry : sequences.entrySet()) {
+            synchronized (entry.getValue()) {
+                writeSample(writer, "sequence_failures_total", entry.getKey(), null, null, 
+                        Long.toString(entry.getValue().failures));
+            }
+        }
+        writeHeader(writer, "step_failures_total", "counter", "The number of runs that failed on the step.");
+        for (final Map.Entry<String, SequenceMetrics> entry : sequences.entrySet()) {
+            synchronized (entry.getValue()) {
+                for (final Map.Entry<String, StepMetrics> step : entry.getValue().steps.entrySet()) {
+                    writeSample(writer, "step_failures_total", entry.getKey(), step.getKey(), null, 
+                            Long.toString(step.getValue().failures));
+                }
+            }
+        }
+        writeHeader(writer, "sequence_up", "gauge", "Whether the latest run of the sequence succeeded.");
+        for (final Map.Entry<String, SequenceMetrics> entry : sequences.entrySet()) {
+            synchronized (entry.getValue()) {
+                writeSample(writer, "sequence_up", entry.getKey(), null, null, 
+                        entry.getValue().lastFailed ? "0" : "1");
+            }
+        }
+        writeHeader(writer, "sequence_last_duration_seconds", "gauge", 
+                "The duration of the latest run of the sequence.");
+        for (final Map.Entry<String, SequenceMetrics> entry : sequences.entrySet()) {
+            synchronized (entry.getValue()) {
+                writeSample(writer, "sequence_last_duration_seconds", entry.getKey(), null, null, 
+                        formatSeconds(entry.getValue().lastDuration));
+            }
+        }
+        writeHeader(writer, "sequence_last_success_timestamp_seconds", "gauge", 
+                "The end time of the latest successful run of the sequence.");
+        for (final Map.Entry<String, SequenceMetrics> entry : sequences.entrySet()) {
+            synchronized (entry.getValue()) {
+                if (entry.getValue().lastSuccessTime > 0) {
+                    writeSample(writer, "sequence_last_success_timestamp_seconds", entry.getKey(), null, null, 
+                            formatSeconds(entry.getValue().lastSuccessTime));
+                }
+            }
+        }
+        writeHeader(writer, "sequence_duration_seconds", "histogram", "The durations of the sequence runs.");
+        for (final Map.Entry<String, SequenceMetrics> entry : sequences.entrySet()) {
+            synchronized (entry.getValue()) {
+                writeHistogram(writer, "sequence_duration_seconds", entry.getKey(), null, 
+                        entry.getValue().duration);
+            }
+        }
+        writeHeader(writer, "step_duration_seconds", "histogram", "The durations of the steps.");
+        for (final Map.Entry<String, SequenceMetrics> entry : sequences.entrySet()) {
+            synchronized (entry.getValue()) {
+                for (final Map.Entry<String, StepMetrics> step : entry.getValue().steps.entrySet()) {
+                    writeHistogram(writer, "step_duration_seconds", entry.getKey(), step.getKey(), 
+                            step.getValue().duration);
+                }
+            }
+        }
+        writeResolverCosts(writer);
+    }
+
+    /**
+     * Writes a metric family with a single sample without labels, such as the process-wide storage metrics that
+     * are not recorded from the results.
+     * 
+     * @param writer The writer to write to. It is not flushed or closed.
+     * @param name The metric name without the prefix.
+     * @param type The metric type.
+     * @param help The help text.
+     * @param value The formatted value.
+     * @throws IOException If the metric could not be written.
+     */
+    public void writeMetric(@Nonnull final Writer writer, @Nonnull final String name, @Nonnull final String type,
+            @Nonnull final String help, @Nonnull final String value) throws IOException {
+        writeHeader(writer, name, type, help);
+        writer.write(METRIC_PREFIX + name + " " + value + "\n");
+    }
+
+    /**
+     * Writes the resource usage per resolver.
+     * 
+     * @param writer The writer to write to.
+     * @throws IOException If the metrics could not be written.
+     */
+    protected void writeResolverCosts(@Nonnull final Writer writer) throws IOException {
+        writeHeader(writer, "resolver_steps_total", "counter", 
+                "The number of steps of the resolver with measured resource usage.");
+        for (final Map.Entry<String, ResolverCost> entry : resolvers.entrySet()) {
+            synchronized (entry.getValue()) {
+                writeResolverSample(writer, "resolver_steps_total", entry.getKey(), 
+                        Long.toString(entry.getValue().steps));
+            }
+        }
+        writeHeader(writer, "resolver_cpu_seconds_total", "counter", 
+                "The CPU time used by the probing thread in the steps of the resolver.");
+        for (final Map.Entry<String, ResolverCost> entry : resolvers.entrySet()) {
+            synchronized (entry.getValue()) {
+                writeResolverSample(writer, "resolver_cpu_seconds_total", entry.getKey(), 
+                        formatNanoSeconds(entry.getValue().cpuTime));
+            }
+        }
+        writeHeader(writer, "resolver_allocated_bytes_total", "counter", 
+                "The bytes allocated by the probing thread in the steps of the resolver.");
+        for (final Map.Entry<String, ResolverCost> entry : resolvers.entrySet()) {
+            synchronized (entry.getValue()) {
+                writeResolverSample(writer, "resolver_allocated_bytes_total", entry.getKey(), 
+                        Long.toString(entry.getValue().allocatedBytes));
+            }
+        }
+    }
+
+    /**
+     * Writes the help and type lines of a metric family.
+     * 
+     * @param writer The writer to write to.
+     * @param name The metric name without the prefix.
+     * @param type The metric type.
+     * @param help The help text.
+     * @throws IOException If the lines could not be written.
+     */
+    protected void writeHeader(@Nonnull final Writer writer, @Nonnull final String name, 
+            @Nonnull final String type, @Nonnull final String help) throws IOException {
+        writer.write("# HELP " + METRIC_PREFIX + name + " " + help + "\n");
+        writer.write("# TYPE " + METRIC_PREFIX + name + " " + type + "\n");
+    }
+
+    /**
+     * Writes the samples of a histogram.
+     * 
+     * @param writer The writer to write to.
+     * @param name The metric name without the prefix.
+     * @param sequenceId The sequence identifier.
+     * @param stepId The step identifier, or null for a sequence metric.
+     * @param histogram The histogram.
+     * @throws IOException If the samples could not be written.
+     */
+    protected void writeHistogram(@Nonnull final Writer writer, @Nonnull final String name, 
+            @Nonnull final String sequenceId, @Nullable final String stepId, 
+            @Nonnull final LatencyHistogram histogram) throws IOException {
+        final long[] bounds = histogram.getBounds();
+        final long[] counts = histogram.getCumulativeCounts();
+        for (int i = 0; i < bounds.length; i++) {
+            writeSample(writer, name.replace("_seconds", "_seconds_bucket"), sequenceId, stepId, 
+                    formatSeconds(bounds[i]), Long.toString(counts[i]));
+        }
+        writeSample(writer, name.replace("_seconds", "_seconds_bucket"), sequenceId, stepId, "+Inf", 
+                Long.toString(counts[bounds.length]));
+        writeSample(writer, name.replace("_seconds", "_seconds_sum"), sequenceId, stepId, null, 
+                formatSeconds(histogram.getSum()));
+        writeSample(writer, name.replace("_seconds", "_seconds_count"), sequenceId, stepId, null, 
+                Long.toString(histogram.getCount()));
+    }
+
+    /**
+     * Writes a single sample line.
+     * 
+     * @param writer The writer to write to.
+     * @param name The metric name without the prefix.
+     * @param sequenceId The sequence identifier.
+     * @param stepId The step identifier, or null if the sample has no step label.
+     * @param le The bucket bound, or null if the sample has no bucket label.
+     * @param value The formatted value.
+     * @throws IOException If the sample could not be written.
+     */
+    protected void writeSample(@Nonnull final Writer writer, @Nonnull final String name, 
+            @Nonnull final String sequenceId, @Nullable final String stepId, @Nullable final String le, 
+            @Nonnull final String value) throws IOException {
+        final StringBuilder line = new StringBuilder(METRIC_PREFIX).append(name);
+        line.append("{sequence=\"").append(escapeLabelValue(sequenceId)).append('"');
+        if (stepId != null) {
+            line.append(",step=\"").append(escapeLabelValue(stepId)).append('"');
+        }
+        if (le != null) {
+            line.append(",le=\"").append(le).append('"');
+        }
+        line.append("} ").append(value).append('\n');
+        writer.write(line.toString());
+    }
+
+    /**
+     * Writes a single sample line labelled with a resolver identifier.
+     * 
+     * @param writer The writer to write to.
+     * @param name The metric name without the prefix.
+     * @param resolverId The resolver identifier.
+     * @param value The formatted value.
+     * @throws IOException If the sample could not be written.
+     */
+    protected void writeResolverSample(@Nonnull final Writer writer, @Nonnull final String name, 
+            @Nonnull final String resolverId, @Nonnull final String value) throws IOException {
+        writer.write(METRIC_PREFIX + name + "{resolver=\"" + escapeLabelValue(resolverId) + "\"} " + value + "\n");
+    }
+
+    /**
+     * Escapes a label value for the text exposition format.
+     * 
+     * @param value The label value.
+     * @return The escaped value.
+     */
+    public static String escapeLabelValue(@Nonnull final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Formats a non-negative number of milliseconds as seconds without an exponent.
+     * 
+     * @param millis The number of milliseconds.
+     * @return The number of seconds.
+     */
+    public static String formatSeconds(final long millis) {
+        final long remainder = millis % 1000;
+        return (millis / 1000) + (remainder < 10 ? ".00" : remainder < 100 ? ".0" : ".") + remainder;
+    }
+
+    /**
+     * Formats a non-negative number of nanoseconds as seconds with a microsecond precision.
+     * 
+     * @param nanos The number of nanoseconds.
+     * @return The number of seconds.
+     */
+    public static String formatNanoSeconds(final long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    /**
+     * The metrics of a single sequence, guarded by the instance monitor.
+     */
+    private class SequenceMetrics {
+
+        /** The number of runs. */
+        private long runs;
+
+        /** The number of failed runs. */
+        private long failures;
+
+        /** Whether the latest run failed. */
+        private boolean lastFailed;
+
+        /** The duration of the latest run. */
+        private long lastDuration;
+
+        /** The end time of the latest successful run, zero if none. */
+        private long lastSuccessTime;
+
+        /** The durations of the runs. */
+        private final LatencyHistogram duration = new LatencyHistogram(bucketBounds);
+
+        /** The step metrics by the step label, in the order of first appearance. */
+        private final Map<String, StepMetrics> steps = new LinkedHashMap<>();
+
+        /**
+         * Records a result of the sequence.
+         * @param result The monitoring sequence result.
+         */
+        private synchronized void record(@Nonnull final MonitoringSequenceResult result) {
+            boolean failed = false;
+            for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+                final String label = JdbcRollupWriter.getStepId(step);
+                StepMetrics stepMetrics = steps.get(label);
+                if (stepMetrics == null) {
+                    stepMetrics = new StepMetrics();
+                    steps.put(label, stepMetrics);
+                }
+                stepMetrics.duration.record(Math.max(0, step.getEndTime() - step.getStartTime()));
+                if (step.getErrorMessage() != null) {
+                    stepMetrics.failures++;
+                    failed = true;
+                }
+            }
+            runs++;
+            lastDuration = Math.max(0, result.getEndTime() - result.getStartTime());
+            duration.record(lastDuration);
+            lastFailed = failed;
+            if (failed) {
+                failures++;
+            } else {
+                lastSuccessTime = result.getEndTime();
+            }
+        }
+    }
+
+    /**
+     * The metrics of a single step, guarded by the monitor of its sequence metrics.
+     */
+    private class StepMetrics {
+
+        /** The number of runs that failed on the step. */
+        private long failures;
+
+        /** The durations of the step. */
+        private final LatencyHistogram duration = new LatencyHistogram(bucketBounds);
+    }
+
+    /**
+     * The resource usage of the steps of a single resolver, guarded by the instance monitor.
+     */
+    private static class ResolverCost {
+
+        /** The number of measured steps. */
+        private long steps;
+
+        /** The total CPU time in nanoseconds. */
+        private long cpuTime;
+
+        /** The total number of allocated bytes. */
+        private long allocatedBytes;
+
+        /**
+         * Records the resource usage of a step.
+         * @param step The step result.
+         */
+        private synchronized void record(@Nonnull final MonitoringSequenceStepResult step) {
+            steps++;
+            cpuTime += Math.max(0, step.getCpuTime());
+            allocatedBytes += Math.max(0, step.getAllocatedBytes());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Combines the latest results of several sequences into one health status with a {@link HealthRule}.
+ * 
+ * <p>The number of the healthy sequences is updated as the results are recorded, so evaluating the status takes
+ * constant time regardless of the number of sequences. If the sequence identifiers are configured, only those
+ * sequences are evaluated and the ones without any results count as failed. Otherwise all the recorded sequences
+ * are evaluated.</p>
+ */
+public class SequenceHealthAggregator extends AbstractInitializableComponent {
+
+    /** The rule for combining the statuses. */
+    @Nonnull private HealthRule rule;
+
+    /** The number of healthy sequences required by the quorum rule. */
+    @Positive private int quorum;
+
+    /** The evaluated sequence identifiers, empty if all the recorded sequences are evaluated. */
+    @Nonnull @NonnullElements private Set<String> sequenceIds;
+
+    /** Whether the latest run succeeded, by the sequence identifier. Guarded by this instance. */
+    @Nonnull private final Map<String, Boolean> latestHealthy;
+
+    /** The number of sequences whose latest run succeeded. Guarded by this instance. */
+    private int healthyCount;
+
+    /** Constructor. */
+    public SequenceHealthAggregator() {
+        rule = HealthRule.ALL;
+        quorum = 1;
+        sequenceIds = Collections.emptySet();
+        latestHealthy = new HashMap<>();
+    }
+
+    /**
+     * Set the rule for combining the statuses. Defaults to {@link HealthRule#ALL}.
+     * @param healthRule What to set.
+     */
+    public void setRule(@Nonnull final HealthRule healthRule) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        rule = Constraint.isNotNull(healthRule, "Health rule cannot be null");
+    }
+
+    /**
+     * Get the rule for combining the statuses.
+     * @return The rule.
+     */
+    @Nonnull public HealthRule getRule() {
+        return rule;
+    }
+
+    /**
+     * Set the number of healthy sequences required by the quorum rule. Defaults to 1.
+     * @param size What to set.
+     */
+    public void setQuorum(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        quorum = (int) Constraint.isGreaterThan(0, size, "Quorum must be greater than 0");
+    }
+
+    /**
+     * Set the evaluated sequence identifiers. Defaults to all the recorded sequences.
+     * @param ids What to set.
+     */
+    public void setSequenceIds(@Nullable @NonnullElements final Collection<String> ids) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        sequenceIds = ids == null ? Collections.<String>emptySet() 
+                : Collections.unmodifiableSet(new HashSet<>(ids));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (rule == HealthRule.QUORUM && !sequenceIds.isEmpty() && quorum > sequenceIds.size()) {
+            throw new ComponentInitializationException("Quorum cannot be larger than the number of sequences");
+        }
+    }
+
+    /**
+     * Records the latest result of a sequence.
+     * 
+     * @param result The monitoring sequence result.
+     */
+    public void record(@Nonnull final MonitoringSequenceResult result) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final String id = result.getId();
+        if (id == null || (!sequenceIds.isEmpty() && !sequenceIds.contains(id))) {
+            return;
+        }
+        final boolean healthy = !isFailed(result);
+        synchronized (this) {
+            final Boolean previous = latestHealthy.put(id, healthy);
+            if (previous == null || previous.booleanValue() != healthy) {
+                if (healthy) {
+                    healthyCount++;
+                } else if (previous != null) {
+                    healthyCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of sequences whose latest run succeeded.
+     * @return The number of healthy sequences.
+     */
+    public synchronized int getHealthyCount() {
+        return healthyCount;
+    }
+
+    /**
+     * Get the number of evaluated sequences.
+     * @return The configured number of sequences, or the number of recorded sequences if none configured.
+     */
+    public synchronized int getSequenceCount() {
+        return sequenceIds.isEmpty() ? latestHealthy.size() : sequenceIds.size();
+    }
+
+    /**
+     * Evaluates the combined health status.
+     * 
+     * @return True if the sequences are healthy according to the rule, false otherwise.
+     */
+    public synchronized boolean isHealthy() {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        switch (rule) {
+            case ANY:
+                return healthyCount > 0;
+            case QUORUM:
+                return healthyCount >= quorum;
+            default:
+                final int total = getSequenceCount();
+                return total > 0 && healthyCount == total;
+        }
+    }
+
+    /**
+     * Checks whether any of the steps of the given result failed.
+     * 
+     * @param result The monitoring sequence result.
+     * @return True if any of the steps failed, false otherwise.
+     */
+    private static boolean isFailed(@Nonnull final MonitoringSequenceResult result) {
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            if (step.getErrorMessage() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
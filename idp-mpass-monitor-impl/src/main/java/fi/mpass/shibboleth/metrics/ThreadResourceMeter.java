@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Reads the CPU time and the allocated bytes of the current thread from the {@link ThreadMXBean}, for accounting
+ * the cost of the monitoring steps to the probing thread. The measurements are enabled on construction if the JVM
+ * supports them but has them disabled. The allocated bytes are only available on JVMs providing the
+ * <code>com.sun.management</code> extension of the bean.
+ * 
+ * <p>The values are only meaningful as differences between two readings on the same thread.</p>
+ */
+public class ThreadResourceMeter {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ThreadResourceMeter.class);
+
+    /** The thread bean. */
+    @Nonnull private final ThreadMXBean threadBean;
+
+    /** Whether the CPU time of the current thread can be read. */
+    private final boolean cpuTimeSupported;
+
+    /** The thread bean extension for the allocated bytes, null if not supported. */
+    private final com.sun.management.ThreadMXBean allocationBean;
+
+    /** Constructor using the platform thread bean. */
+    public ThreadResourceMeter() {
+        this(ManagementFactory.getThreadMXBean());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param bean The thread bean.
+     */
+    public ThreadResourceMeter(@Nonnull final ThreadMXBean bean) {
+        threadBean = Constraint.isNotNull(bean, "Thread bean cannot be null");
+        cpuTimeSupported = threadBean.isCurrentThreadCpuTimeSupported() && enableCpuTime();
+        if (threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()
+                && enableAllocatedMemory((com.sun.management.ThreadMXBean) threadBean)) {
+            allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        } else {
+            allocationBean = null;
+        }
+        log.debug("CPU time measurement supported: {}, allocation measurement supported: {}", cpuTimeSupported,
+                allocationBean != null);
+    }
+
+    /**
+     * Whether the CPU time of the current thread can be read.
+     * 
+     * @return Whether the CPU time is measured.
+     */
+    public boolean isCpuTimeSupported() {
+        return cpuTimeSupported;
+    }
+
+    /**
+     * Whether the allocated bytes of the current thread can be read.
+     * 
+     * @return Whether the allocated bytes are measured.
+     */
+    public boolean isAllocationSupported() {
+        return allocationBean != null;
+    }
+
+    /**
+     * Get the CPU time used by the current thread.
+     * 
+     * @return The CPU time in nanoseconds, or {@link MonitoringSequenceStepResult#NOT_MEASURED}.
+     */
+    public long getCurrentThreadCpuTime() {
+        if (!cpuTimeSupported) {
+            return MonitoringSequenceStepResult.NOT_MEASURED;
+        }
+        final long cpuTime = threadBean.getCurrentThreadCpuTime();
+        return cpuTime < 0 ? MonitoringSequenceStepResult.NOT_MEASURED : cpuTime;
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread.
+     * 
+     * @return The number of allocated bytes, or {@link MonitoringSequenceStepResult#NOT_MEASURED}.
+     */
+    public long getCurrentThreadAllocatedBytes() {
+        if (allocationBean == null) {
+            return MonitoringSequenceStepResult.NOT_MEASURED;
+        }
+        final long bytes = allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        return bytes < 0 ? MonitoringSequenceStepResult.NOT_MEASURED : bytes;
+    }
+
+    /**
+     * Adds the difference of two readings to an accumulated value.
+     * 
+     * @param accumulated The accumulated value, or {@link MonitoringSequenceStepResult#NOT_MEASURED}.
+     * @param before The reading before the measured operation.
+     * @param after The reading after the measured operation.
+     * @return The new accumulated value, unchanged if either of the readings is missing.
+     */
+    public static long accumulate(final long accumulated, final long before, final long after) {
+        if (before < 0 || after < 0) {
+            return accumulated;
+        }
+        final long delta = Math.max(0, after - before);
+        return accumulated < 0 ? delta : accumulated + delta;
+    }
+
+    /**
+     * Enables the thread CPU time measurement if it is disabled.
+     * 
+     * @return Whether the measurement is enabled.
+     */
+    private boolean enableCpuTime() {
+        try {
+            if (!threadBean.isThreadCpuTimeEnabled()) {
+                threadBean.setThreadCpuTimeEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException | SecurityException e) {
+            log.warn("Could not enable the thread CPU time measurement", e);
+            return false;
+        }
+    }
+
+    /**
+     * Enables the thread allocated memory measurement if it is disabled.
+     * 
+     * @param bean The thread bean extension.
+     * @return Whether the measurement is enabled.
+     */
+    private boolean enableAllocatedMemory(@Nonnull final com.sun.management.ThreadMXBean bean) {
+        try {
+            if (!bean.isThreadAllocatedMemoryEnabled()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException | SecurityException e) {
+            log.warn("Could not enable the thread allocated memory measurement", e);
+            return false;
+        }
+    }
+}
@@ -44,16 +44,24 @@ import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fi.mpass.shibboleth.events.MonitoringEvent;
+import fi.mpass.shibboleth.events.MonitoringEventRecorder;
+import fi.mpass.shibboleth.events.MonitoringEvents;
 import fi.mpass.shibboleth.monitor.ResponseValidator;
 import fi.mpass.shibboleth.monitor.ResponseValidatorException;
 import fi.mpass.shibboleth.monitor.SequenceStep;
 import fi.mpass.shibboleth.monitor.SequenceStepResolver;
 import fi.mpass.shibboleth.support.HttpClientBuilder;
+import fi.mpass.shibboleth.trace.TraceContext;
+import fi.mpass.shibboleth.trace.TraceSpan;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 /**
  * The base {@link SequenceStepResolver} implementation.
+ * 
+ * <p>If the HTTP context carries a {@link TraceContext}, each HTTP exchange gets its own span with a
+ * <code>traceparent</code> header.</p>
  */
 public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
 
@@ -193,10 +201,32 @@ public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
             throws ResponseValidatorException {
         final HttpClient httpClient = initializeHttpClient();
         final HttpUriRequest request = initializeHttpRequest(step);
-        final HttpResponse response;
-        
+        final MonitoringEventRecorder eventRecorder = MonitoringEvents.getRecorder();
+        final MonitoringEvent exchangeEvent = eventRecorder.beginHttpExchange(getId(), request.getMethod(), 
+                request.getURI().toString());
+        final TraceContext traceContext = TraceContext.get(context);
+        final TraceSpan exchangeSpan;
+        if (traceContext != null) {
+            exchangeSpan = traceContext.startExchangeSpan(request.getMethod(), request.getURI().toString());
+            request.setHeader(TraceContext.HEADER_TRACEPARENT, traceContext.toTraceparent(exchangeSpan.getSpanId()));
+        } else {
+            exchangeSpan = null;
+        }
+        HttpResponse response = null;
+        SequenceStep redirectStep = null;
+        String result = null;
         try {
             response = httpClient.execute(request, context);
+            if (response.getStatusLine() != null) {
+                final int statusCode = response.getStatusLine().getStatusCode();
+                exchangeEvent.setStatusCode(statusCode);
+                if (exchangeSpan != null) {
+                    exchangeSpan.getAttributes().put("http.status_code", Long.valueOf(statusCode));
+                    if (statusCode >= 400) {
+                        exchangeSpan.setErrorMessage("HTTP " + statusCode);
+                    }
+                }
+            }
             if (log.isTraceEnabled()) {
                 for (final Header header : response.getAllHeaders()) {
                     log.trace("Header: {} = {}", header.getName(), header.getValue());
@@ -206,7 +236,7 @@ public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
                 if (followRedirect && response.getHeaders("Location") != null 
                         && response.getHeaders("Location").length > 0) {
                     log.trace("Following redirect automatically");
-                    final SequenceStep redirectStep = new SequenceStep();
+                    redirectStep = new SequenceStep();
                     final String url = response.getHeaders("Location")[0].getValue();
                     log.debug("Found a value for Location-header: {}", url);
                     if (!url.contains("://")) {
@@ -216,23 +246,44 @@ public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
                     } else {
                         redirectStep.setUrl(url);
                     }
-                    return resolveStep(context, redirectStep, followRedirect);
                 } else {
-                    final String result = EntityUtils.toString(response.getEntity(), "UTF-8");
-                    for (final ResponseValidator validator : getValidators()) {
-                        validator.validate(response, result);
-                    }
-                    log.trace("Full contents of the response {}", result);
-                    return new SequenceResponse(result, response.getAllHeaders());
+                    result = EntityUtils.toString(response.getEntity(), "UTF-8");
                 }
             } finally {
                 EntityUtils.consume(response.getEntity());                
             }
         } catch (IOException e) {
+            exchangeEvent.setError(e.getMessage());
+            if (exchangeSpan != null) {
+                exchangeSpan.setErrorMessage(e.getMessage());
+            }
             log.error("Could not perform a http request to {}", request.getURI(), e);
             throw new ResponseValidatorException(getId() + ": Could not perform a http request to "
                     + request.getURI(), e);
+        } finally {
+            exchangeEvent.commit();
+            if (exchangeSpan != null) {
+                exchangeSpan.setEndTime(System.currentTimeMillis());
+                traceContext.addSpan(exchangeSpan);
+            }
+        }
+        if (redirectStep != null) {
+            return resolveStep(context, redirectStep, followRedirect);
+        }
+        for (final ResponseValidator validator : getValidators()) {
+            final MonitoringEvent validationEvent = eventRecorder.beginValidation(getId(), 
+                    validator.getClass().getName());
+            try {
+                validator.validate(response, result);
+            } catch (ResponseValidatorException e) {
+                validationEvent.setError(e.getMessage());
+                throw e;
+            } finally {
+                validationEvent.commit();
+            }
         }
+        log.trace("Full contents of the response {}", result);
+        return new SequenceResponse(result, response.getAllHeaders());
     }
     
     /** {@inheritDoc} */
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.profile.action.ActionSupport;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.storage.LocalResultLog;
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * This action appends results from {@link MonitoringResultContext} to the given {@link LocalResultLog}.
+ */
+@SuppressWarnings("rawtypes")
+public class AppendMonitoringResult extends AbstractProfileAction {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AppendMonitoringResult.class);
+
+    /** The local result log to append to. */
+    @NonnullAfterInit private LocalResultLog resultLog;
+
+    /** MonitoringResultContext to operate on. */
+    @Nullable private MonitoringResultContext monitoringCtx;
+
+    /**
+     * Get the local result log to append to.
+     * 
+     * @return The local result log.
+     */
+    @NonnullAfterInit public LocalResultLog getResultLog() {
+        return resultLog;
+    }
+
+    /**
+     * Set the local result log to append to.
+     * 
+     * @param log The local result log.
+     */
+    public void setResultLog(@Nonnull final LocalResultLog log) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        resultLog = Constraint.isNotNull(log, "LocalResultLog cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == resultLog) {
+            throw new ComponentInitializationException(getLogPrefix() + " No local result log provided");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean doPreExecute(
+            @Nonnull final ProfileRequestContext profileRequestContext) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        monitoringCtx = profileRequestContext.getSubcontext(MonitoringResultContext.class, false);
+        if (monitoringCtx == null) {
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+        final List<MonitoringSequenceResult> results = monitoringCtx.getResults();
+        if (results == null || results.size() == 0) {
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doExecute(
+            @Nonnull final ProfileRequestContext profileRequestContext) {
+        for (final MonitoringSequenceResult result : monitoringCtx.getResults()) {
+            try {
+                final long id = resultLog.append(result);
+                log.debug("{} Appended result {} for sequence {}", getLogPrefix(), id, result.getId());
+            } catch (final IOException e) {
+                log.error("{} Could not append the result to the local log", getLogPrefix(), e);
+                ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
+                return;
+            }
+        }
+        ActionSupport.buildProceedEvent(profileRequestContext);
+    }
+}
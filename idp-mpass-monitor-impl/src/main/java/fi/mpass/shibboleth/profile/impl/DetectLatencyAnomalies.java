@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.profile.action.ActionSupport;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.metrics.LatencyAnomalyDetector;
+import fi.mpass.shibboleth.monitor.context.LatencyAnomaly;
+import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * This action feeds the results from {@link MonitoringResultContext} to the given {@link LatencyAnomalyDetector},
+ * and attaches the detected {@link LatencyAnomaly}s to the results, to be written and stored with them by the
+ * subsequent actions.
+ */
+@SuppressWarnings("rawtypes")
+public class DetectLatencyAnomalies extends AbstractProfileAction {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(DetectLatencyAnomalies.class);
+
+    /** The detector to feed the results to. */
+    @NonnullAfterInit private LatencyAnomalyDetector detector;
+
+    /** MonitoringResultContext to operate on. */
+    @Nullable private MonitoringResultContext monitoringCtx;
+
+    /**
+     * Get the detector to feed the results to.
+     * 
+     * @return The detector.
+     */
+    @NonnullAfterInit public LatencyAnomalyDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * Set the detector to feed the results to.
+     * 
+     * @param anomalyDetector The detector.
+     */
+    public void setDetector(@Nonnull final LatencyAnomalyDetector anomalyDetector) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        detector = Constraint.isNotNull(anomalyDetector, "LatencyAnomalyDetector cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == detector) {
+            throw new ComponentInitializationException(getLogPrefix() + " No latency anomaly detector provided");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean doPreExecute(
+            @Nonnull final ProfileRequestContext profileRequestContext) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        monitoringCtx = profileRequestContext.getSubcontext(MonitoringResultContext.class, false);
+        if (monitoringCtx == null) {
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+        final List<MonitoringSequenceResult> results = monitoringCtx.getResults();
+        if (results == null || results.size() == 0) {
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doExecute(
+            @Nonnull final ProfileRequestContext profileRequestContext) {
+        for (final MonitoringSequenceResult result : monitoringCtx.getResults()) {
+            for (final LatencyAnomaly anomaly : detector.record(result)) {
+                result.addAnomaly(anomaly);
+            }
+            log.trace("{} Detected {} latency anomalies for sequence {}", getLogPrefix(), 
+                    result.getAnomalies().size(), result.getId());
+        }
+        ActionSupport.buildProceedEvent(profileRequestContext);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.profile.action.ActionSupport;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.metrics.MonitoringMetrics;
+import fi.mpass.shibboleth.metrics.SequenceHealthAggregator;
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * This action records results from {@link MonitoringResultContext} to the given {@link MonitoringMetrics} and/or
+ * {@link SequenceHealthAggregator}.
+ */
+@SuppressWarnings("rawtypes")
+public class RecordMonitoringMetrics extends AbstractProfileAction {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(RecordMonitoringMetrics.class);
+
+    /** The metrics to record to. */
+    @Nullable private MonitoringMetrics metrics;
+
+    /** The health aggregator to record to. */
+    @Nullable private SequenceHealthAggregator healthAggregator;
+
+    /** MonitoringResultContext to operate on. */
+    @Nullable private MonitoringResultContext monitoringCtx;
+
+    /**
+     * Get the metrics to record to.
+     * 
+     * @return The metrics.
+     */
+    @Nullable public MonitoringMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the metrics to record to.
+     * 
+     * @param monitoringMetrics The metrics.
+     */
+    public void setMetrics(@Nonnull final MonitoringMetrics monitoringMetrics) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        metrics = Constraint.isNotNull(monitoringMetrics, "MonitoringMetrics cannot be null");
+    }
+
+    /**
+     * Get the health aggregator to record to.
+     * 
+     * @return The health aggregator.
+     */
+    @Nullable public SequenceHealthAggregator getHealthAggregator() {
+        return healthAggregator;
+    }
+
+    /**
+     * Set the health aggregator to record to.
+     * 
+     * @param aggregator The health aggregator.
+     */
+    public void setHealthAggregator(@Nonnull final SequenceHealthAggregator aggregator) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        healthAggregator = Constraint.isNotNull(aggregator, "SequenceHealthAggregator cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == metrics && null == healthAggregator) {
+            throw new ComponentInitializationException(getLogPrefix() 
+                    + " No monitoring metrics or health aggregator provided");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean doPreExecute(
+            @Nonnull final ProfileRequestContext profileRequestContext) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        monitoringCtx = profileRequestContext.getSubcontext(MonitoringResultContext.class, false);
+        if (monitoringCtx == null) {
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+        final List<MonitoringSequenceResult> results = monitoringCtx.getResults();
+        if (results == null || results.size() == 0) {
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doExecute(
+            @Nonnull final ProfileRequestContext profileRequestContext) {
+        for (final MonitoringSequenceResult result : monitoringCtx.getResults()) {
+            if (metrics != null) {
+                metrics.record(result);
+            }
+            if (healthAggregator != null) {
+                healthAggregator.record(result);
+            }
+            log.trace("{} Recorded the metrics for sequence {}", getLogPrefix(), result.getId());
+        }
+        ActionSupport.buildProceedEvent(profileRequestContext);
+    }
+}
@@ -23,9 +23,13 @@
 
 package fi.mpass.shibboleth.profile.impl;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.protocol.HttpClientContext;
@@ -35,12 +39,20 @@ import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fi.mpass.shibboleth.events.MonitoringEvent;
+import fi.mpass.shibboleth.events.MonitoringEventRecorder;
+import fi.mpass.shibboleth.events.MonitoringEvents;
+import fi.mpass.shibboleth.metrics.ThreadResourceMeter;
+import fi.mpass.shibboleth.monitor.MonitoringResultListener;
 import fi.mpass.shibboleth.monitor.ResponseValidatorException;
 import fi.mpass.shibboleth.monitor.SequenceStep;
 import fi.mpass.shibboleth.monitor.SequenceStepResolver;
 import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
 import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
 import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.mpass.shibboleth.trace.TraceContext;
+import fi.mpass.shibboleth.trace.TraceSpan;
+import fi.mpass.shibboleth.trace.TraceSpanExporter;
 import net.shibboleth.idp.profile.AbstractProfileAction;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -49,6 +61,14 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
 
 /**
  * This actions runs the attached {@link SequenceStepResolver}s.
+ * 
+ * <p>Besides the wall time, the CPU time and the allocated bytes of the probing thread are recorded for each step
+ * with the {@link ThreadResourceMeter}, unless it is unset. The sequence and each step are also reported as
+ * {@link MonitoringEvent}s.</p>
+ * 
+ * <p>Unless disabled, each run is traced with a new W3C trace identifier and each step with a new span identifier,
+ * stored in the step results, and the resolvers send them in <code>traceparent</code> headers. The spans of the run,
+ * its steps and their HTTP exchanges are exported with the optional {@link TraceSpanExporter}.</p>
  */
 @SuppressWarnings("rawtypes")
 public class RunMonitoringSequence extends AbstractProfileAction {
@@ -64,6 +84,18 @@ public class RunMonitoringSequence extends AbstractProfileAction {
     
     /** The identifier for the monitoring sequence. */
     @Nonnull @NotEmpty private String sequenceId;
+
+    /** The listeners notified of the results as they are produced. */
+    @Nonnull private List<MonitoringResultListener> listeners = Collections.emptyList();
+
+    /** The meter for the CPU time and the allocated bytes of the steps, null if not measured. */
+    @Nullable private ThreadResourceMeter resourceMeter = new ThreadResourceMeter();
+
+    /** Whether the runs are traced with the W3C trace context. */
+    private boolean tracePropagation = true;
+
+    /** The exporter for the spans of the traced runs, null if not exported. */
+    @Nullable private TraceSpanExporter spanExporter;
     
     /**
      * Set the list of attached resolvers.
@@ -89,6 +121,42 @@ public class RunMonitoringSequence extends AbstractProfileAction {
         sequenceId = id;
     }
     
+    /**
+     * Set the listeners notified of the step and sequence results as they are produced.
+     * @param newListeners What to set.
+     */
+    public void setListeners(@Nonnull final List<MonitoringResultListener> newListeners) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        listeners = Constraint.isNotNull(newListeners, "The list of listeners cannot be null");
+    }
+    
+    /**
+     * Set the meter for the CPU time and the allocated bytes of the steps.
+     * @param meter What to set, null to disable the measurement.
+     */
+    public void setResourceMeter(@Nullable final ThreadResourceMeter meter) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        resourceMeter = meter;
+    }
+    
+    /**
+     * Set whether the runs are traced with the W3C trace context. Defaults to true.
+     * @param flag What to set.
+     */
+    public void setTracePropagation(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        tracePropagation = flag;
+    }
+
+    /**
+     * Set the exporter for the spans of the traced runs.
+     * @param exporter What to set.
+     */
+    public void setSpanExporter(@Nullable final TraceSpanExporter exporter) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        spanExporter = exporter;
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -108,6 +176,12 @@ public class RunMonitoringSequence extends AbstractProfileAction {
         final HttpContext context = HttpClientContext.create();
         final CookieStore cookieStore = new BasicCookieStore();
         context.setAttribute(HttpClientContext.COOKIE_STORE, cookieStore);
+        final TraceContext traceContext = tracePropagation ? new TraceContext() : null;
+        if (traceContext != null) {
+            context.setAttribute(TraceContext.ATTRIBUTE_NAME, traceContext);
+        }
+        final MonitoringEventRecorder eventRecorder = MonitoringEvents.getRecorder();
+        final MonitoringEvent sequenceEvent = eventRecorder.beginSequence(sequenceId);
         final MonitoringSequenceResult seqResult = new MonitoringSequenceResult();
         seqResult.setId(sequenceId);
         seqResult.setStartTime(System.currentTimeMillis());
@@ -126,25 +200,100 @@ public class RunMonitoringSequence extends AbstractProfileAction {
                 stepResult = new MonitoringSequenceStepResult();
                 stepResult.setStartTime(System.currentTimeMillis());
                 stepResult.setId(resolver.getId());
+                if (traceContext != null) {
+                    stepResult.setTraceId(traceContext.getTraceId());
+                    stepResult.setSpanId(TraceContext.generateSpanId());
+                }
                 editExisting = false;
             }
+            if (traceContext != null) {
+                traceContext.setParentSpanId(stepResult.getSpanId());
+            }
             log.debug("Performing step {} : {}", i, initial.toString());
+            final long cpuTime = resourceMeter != null ? resourceMeter.getCurrentThreadCpuTime() 
+                    : MonitoringSequenceStepResult.NOT_MEASURED;
+            final long allocatedBytes = resourceMeter != null ? resourceMeter.getCurrentThreadAllocatedBytes() 
+                    : MonitoringSequenceStepResult.NOT_MEASURED;
+            final MonitoringEvent stepEvent = eventRecorder.beginStep(sequenceId, resolver.getId(), i);
             try {
                 initial = resolver.resolve(context, initial);
             } catch (ResponseValidatorException e) {
                 log.warn("Response validation failed", e);
                 log.trace("The full response was {}", e.getResponseStr());
                 stepResult.setErrorMessage(e.getMessage());
+                stepEvent.setError(e.getMessage());
+                sequenceEvent.setError(e.getMessage());
                 errorFound = true;
             }
+            stepEvent.commit();
             stepResult.setEndTime(System.currentTimeMillis());
+            if (resourceMeter != null) {
+                stepResult.setCpuTime(ThreadResourceMeter.accumulate(stepResult.getCpuTime(), cpuTime, 
+                        resourceMeter.getCurrentThreadCpuTime()));
+                stepResult.setAllocatedBytes(ThreadResourceMeter.accumulate(stepResult.getAllocatedBytes(), 
+                        allocatedBytes, resourceMeter.getCurrentThreadAllocatedBytes()));
+            }
             if (editExisting) {
                 seqResult.getStepResults().set(resultsSize - 1, stepResult);
             } else {
                 seqResult.addStepResult(stepResult);
             }
+            for (final MonitoringResultListener listener : listeners) {
+                try {
+                    listener.stepCompleted(sequenceId, stepResult);
+                } catch (RuntimeException e) {
+                    log.warn("Result listener failed on step {}", stepResult.getId(), e);
+                }
+            }
         }
         seqResult.setEndTime(System.currentTimeMillis());
+        sequenceEvent.commit();
+        if (traceContext != null && spanExporter != null) {
+            exportSpans(traceContext, seqResult);
+        }
         monitoringCtx.addResult(seqResult);
+        for (final MonitoringResultListener listener : listeners) {
+            try {
+                listener.sequenceCompleted(seqResult);
+            } catch (RuntimeException e) {
+                log.warn("Result listener failed on sequence {}", sequenceId, e);
+            }
+        }
+    }
+
+    /**
+     * Exports the spans of the run, its steps and their HTTP exchanges. Failures are logged and otherwise ignored.
+     * 
+     * @param traceContext The trace context of the run.
+     * @param seqResult The result of the run.
+     */
+    protected void exportSpans(@Nonnull final TraceContext traceContext, 
+            @Nonnull final MonitoringSequenceResult seqResult) {
+        final List<TraceSpan> spans = new ArrayList<>();
+        final TraceSpan root = new TraceSpan(traceContext.getTraceId(), traceContext.getRootSpanId(), null, 
+                "sequence " + sequenceId, TraceSpan.Kind.INTERNAL);
+        root.setStartTime(seqResult.getStartTime());
+        root.setEndTime(seqResult.getEndTime());
+        root.getAttributes().put("mpass.monitor.sequence", String.valueOf(sequenceId));
+        spans.add(root);
+        for (final MonitoringSequenceStepResult stepResult : seqResult.getStepResults()) {
+            final TraceSpan span = new TraceSpan(traceContext.getTraceId(), stepResult.getSpanId(), 
+                    traceContext.getRootSpanId(), "step " + stepResult.getId(), TraceSpan.Kind.INTERNAL);
+            span.setStartTime(stepResult.getStartTime());
+            span.setEndTime(stepResult.getEndTime());
+            span.setErrorMessage(stepResult.getErrorMessage());
+            span.getAttributes().put("mpass.monitor.sequence", String.valueOf(sequenceId));
+            span.getAttributes().put("mpass.monitor.resolver", String.valueOf(stepResult.getId()));
+            spans.add(span);
+            if (root.getErrorMessage() == null) {
+                root.setErrorMessage(stepResult.getErrorMessage());
+            }
+        }
+        spans.addAll(traceContext.getSpans());
+        try {
+            spanExporter.export(spans);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not export the spans of the sequence {}", sequenceId, e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -23,16 +23,15 @@
 
 package fi.mpass.shibboleth.profile.impl;
 
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -44,10 +43,21 @@ import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fi.mpass.shibboleth.events.MonitoringEvent;
+import fi.mpass.shibboleth.events.MonitoringEvents;
 import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
 import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
-import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.mpass.shibboleth.storage.JdbcBulkResultIngester;
+import fi.mpass.shibboleth.storage.JdbcLatestStatusWriter;
+import fi.mpass.shibboleth.storage.JdbcMonitoringResultWriter;
+import fi.mpass.shibboleth.storage.JdbcRollupWriter;
+import fi.mpass.shibboleth.storage.MonitoringResultSpool;
+import fi.mpass.shibboleth.storage.RetryBackoff;
+import fi.mpass.shibboleth.storage.RetryBudget;
+import fi.mpass.shibboleth.storage.RollupResolution;
+import fi.mpass.shibboleth.storage.StepPersistencePolicy;
 import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.utilities.java.support.annotation.Duration;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
@@ -58,15 +68,27 @@ import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 /**
  * This action stores results from {@link MonitoringResultContext} to the given {@link DataSource}.
+ * 
+ * <p>If a {@link MonitoringResultSpool} is configured, the results that cannot be stored are spooled to the
+ * local disk instead of being lost, to be replayed once the database is available again.</p>
+ * 
+ * <p>A result failing with a retryable error is retried up to the configured number of times, each result having
+ * its own attempts. The retries are delayed by {@link RetryBackoff} and limited process-wide by a
+ * {@link RetryBudget}, which also counts the retried and the abandoned results of all the actions sharing it.</p>
+ * 
+ * <p>If a {@link JdbcBulkResultIngester} is configured, the results are only handed to it, to be stored in bulk
+ * with its own data source, and the other storage settings of this action are not used.</p>
  */
 @SuppressWarnings("rawtypes")
 public class StoreMonitoringResult extends AbstractProfileAction {
     
     /** The database table name storing monitoring results. */
-    public static final String TABLE_NAME_MONITORING_RESULTS = "mpass_monitoring_result";
+    public static final String TABLE_NAME_MONITORING_RESULTS =
+            JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS;
 
     /** The database table name storing monitoring step results. */
-    public static final String TABLE_NAME_MONITORING_STEP_RESULTS = "mpass_monitoring_step_result";
+    public static final String TABLE_NAME_MONITORING_STEP_RESULTS =
+            JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_STEP_RESULTS;
 
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(StoreMonitoringResult.class);
@@ -76,13 +98,61 @@ public class StoreMonitoringResult extends AbstractProfileAction {
     
     /** Number of times to retry a transaction if it rolls back. */
     @NonNegative private int transactionRetry;
+
+    /** The upper bound of the delay before the first retry in milliseconds. */
+    @Duration @NonNegative private long retryDelay;
+
+    /** The upper bound of any delay between retries in milliseconds. */
+    @Duration @NonNegative private long maxRetryDelay;
+
+    /** The backoff between retries. */
+    @NonnullAfterInit private RetryBackoff retryBackoff;
+
+    /** The budget limiting the retries across the writers. */
+    @Nonnull private RetryBudget retryBudget;
+
+    /** The number of retried transactions. */
+    @Nonnull private final AtomicLong retriedCount;
+
+    /** The number of results abandoned after a failed transaction. */
+    @Nonnull private final AtomicLong abandonedCount;
     
     /** Error messages that signal a transaction should be retried. */
     @Nonnull @NonnullElements private Collection<String> retryableErrors;
     
+    /** The rollup resolutions maintained together with the results, empty if rollups are disabled. */
+    @Nonnull @NonnullElements private Collection<RollupResolution> rollupResolutions;
+    
+    /** Whether the latest status table is maintained together with the results. */
+    private boolean latestStatusEnabled;
+
+    /** Whether the latency anomalies are stored together with the results. */
+    private boolean anomaliesEnabled;
+
+    /** The policy deciding which step results are stored, null if all of them are stored. */
+    @Nullable private StepPersistencePolicy stepPersistencePolicy;
+
+    /** The spool for the results that cannot be stored, null if they are not spooled. */
+    @Nullable private MonitoringResultSpool spool;
+    
+    /** The bulk ingester storing the results, null if they are stored directly by this action. */
+    @Nullable private JdbcBulkResultIngester bulkIngester;
+    
     /** MonitoringResultContext to operate on. */
     @Nullable private MonitoringResultContext monitoringCtx;
     
+    /**
+     * Constructor.
+     */
+    public StoreMonitoringResult() {
+        rollupResolutions = Collections.emptyList();
+        retryDelay = 100;
+        maxRetryDelay = 2000;
+        retryBudget = RetryBudget.getShared();
+        retriedCount = new AtomicLong();
+        abandonedCount = new AtomicLong();
+    }
+    
     /**
      * Get the source datasource used to communicate with the database.
      * 
@@ -123,6 +193,69 @@ public class StoreMonitoringResult extends AbstractProfileAction {
                 "Timeout must be greater than or equal to 0");
     }
 
+    /**
+     * Set the upper bound of the delay before the first retry in milliseconds, doubled for each further retry.
+     * Defaults to 100.
+     * 
+     * @param delay The delay.
+     */
+    public void setRetryDelay(@Duration @NonNegative final long delay) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        retryDelay = Constraint.isGreaterThanOrEqual(0, delay, "Retry delay must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the upper bound of any delay between retries in milliseconds. Defaults to 2000.
+     * 
+     * @param delay The delay.
+     */
+    public void setMaxRetryDelay(@Duration @NonNegative final long delay) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        maxRetryDelay = Constraint.isGreaterThanOrEqual(0, delay, 
+                "Maximum retry delay must be greater than or equal to 0");
+    }
+
+    /**
+     * Get the budget limiting the retries across the writers.
+     * 
+     * @return The retry budget.
+     */
+    @Nonnull public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Set the budget limiting the retries across the writers. Defaults to {@link RetryBudget#getShared()}.
+     * 
+     * @param budget The retry budget.
+     */
+    public void setRetryBudget(@Nonnull final RetryBudget budget) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        retryBudget = Constraint.isNotNull(budget, "Retry budget cannot be null");
+    }
+
+    /**
+     * Get the number of transactions retried since the startup.
+     * 
+     * @return The number of retries.
+     */
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    /**
+     * Get the number of results abandoned since the startup, because their transaction failed and could not be
+     * retried. The abandoned results may still have been spooled.
+     * 
+     * @return The number of abandoned results.
+     */
+    public long getAbandonedCount() {
+        return abandonedCount.get();
+    }
+
     /**
      * Get the error messages to check for classifying a driver error as retryable, generally indicating
      * a lock violation or duplicate insert that signifies a broken database.
@@ -146,15 +279,156 @@ public class StoreMonitoringResult extends AbstractProfileAction {
         retryableErrors = new ArrayList(StringSupport.normalizeStringCollection(errors));
     }
 
+    /**
+     * Get the rollup resolutions maintained together with the results.
+     * 
+     * @return The rollup resolutions, empty if rollups are disabled.
+     */
+    @Nonnull @NonnullElements public Collection<RollupResolution> getRollupResolutions() {
+        return rollupResolutions;
+    }
+
+    /**
+     * Set the rollup resolutions maintained together with the results. Defaults to none, i.e. the
+     * {@link JdbcRollupWriter#TABLE_NAME_MONITORING_ROLLUP} table is not used.
+     * 
+     * @param resolutions The rollup resolutions.
+     */
+    public void setRollupResolutions(@Nullable @NonnullElements final Collection<RollupResolution> resolutions) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        rollupResolutions = resolutions == null ? Collections.<RollupResolution>emptyList() 
+                : new ArrayList<>(new LinkedHashSet<>(resolutions));
+    }
+
+
+    /**
+     * Get whether the latest status table is maintained together with the results.
+     * 
+     * @return Whether the latest status is maintained.
+     */
+    public boolean isLatestStatusEnabled() {
+        return latestStatusEnabled;
+    }
+
+    /**
+     * Set whether the {@link JdbcLatestStatusWriter#TABLE_NAME_LATEST_STATUS} table is maintained together with
+     * the results. Defaults to false.
+     * 
+     * @param enabled Whether the latest status is maintained.
+     */
+    public void setLatestStatusEnabled(final boolean enabled) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        latestStatusEnabled = enabled;
+    }
+
+    /**
+     * Get whether the latency anomalies are stored together with the results.
+     * 
+     * @return Whether the anomalies are stored.
+     */
+    public boolean isAnomaliesEnabled() {
+        return anomaliesEnabled;
+    }
+
+    /**
+     * Set whether the latency anomalies attached to the results are stored in the
+     * {@link JdbcMonitoringResultWriter#TABLE_NAME_MONITORING_ANOMALIES} table together with the results.
+     * Defaults to false. The bulk ingester, if set, must store them as well.
+     * 
+     * @param enabled Whether the anomalies are stored.
+     */
+    public void setAnomaliesEnabled(final boolean enabled) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        anomaliesEnabled = enabled;
+    }
+
+    /**
+     * Get the policy deciding which step results are stored.
+     * 
+     * @return The policy, null if all the step results are stored.
+     */
+    @Nullable public StepPersistencePolicy getStepPersistencePolicy() {
+        return stepPersistencePolicy;
+    }
+
+    /**
+     * Set the policy deciding which step results are stored. Defaults to none, i.e. the step results of every run
+     * are stored. The sequence results and the rollups are always stored, so the policy requires at least one
+     * rollup resolution for keeping the step timings of the skipped runs.
+     * 
+     * @param policy The policy.
+     */
+    public void setStepPersistencePolicy(@Nullable final StepPersistencePolicy policy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        stepPersistencePolicy = policy;
+    }
+
+    /**
+     * Get the spool for the results that cannot be stored.
+     * 
+     * @return The spool, null if the results are not spooled.
+     */
+    @Nullable public MonitoringResultSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * Set the spool for the results that cannot be stored. Defaults to none, i.e. the action fails with
+     * {@link EventIds#IO_ERROR} when the results cannot be stored.
+     * 
+     * @param resultSpool The spool.
+     */
+    public void setSpool(@Nullable final MonitoringResultSpool resultSpool) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        spool = resultSpool;
+    }
+    
+    /**
+     * Get the bulk ingester storing the results.
+     * 
+     * @return The bulk ingester, null if the results are stored directly by this action.
+     */
+    @Nullable public JdbcBulkResultIngester getBulkIngester() {
+        return bulkIngester;
+    }
+
+    /**
+     * Set the bulk ingester storing the results. Defaults to none, i.e. the results are stored directly by this
+     * action, one transaction per result.
+     * 
+     * @param ingester The bulk ingester.
+     */
+    public void setBulkIngester(@Nullable final JdbcBulkResultIngester ingester) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        bulkIngester = ingester;
+    }
     
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
         log.debug("Initializing");
         super.doInitialize();
-        if (null == dataSource) {
+        if (null == dataSource && null == bulkIngester) {
             throw new ComponentInitializationException(getLogPrefix() + " No database connection provided");
         }
+        if (anomaliesEnabled && bulkIngester != null && !bulkIngester.isAnomaliesEnabled()) {
+            throw new ComponentInitializationException(getLogPrefix() 
+                    + " Anomalies must also be enabled in the bulk ingester that stores the results");
+        }
+        if (stepPersistencePolicy != null && rollupResolutions.isEmpty()) {
+            throw new ComponentInitializationException(getLogPrefix() 
+                    + " Rollup resolutions are required with a step persistence policy");
+        }
+        if (maxRetryDelay < retryDelay) {
+            throw new ComponentInitializationException(getLogPrefix() 
+                    + " Maximum retry delay cannot be shorter than the retry delay");
+        }
+        retryBackoff = new RetryBackoff(retryDelay, maxRetryDelay);
     }
 
     /** {@inheritDoc} */
@@ -180,53 +454,76 @@ public class StoreMonitoringResult extends AbstractProfileAction {
     protected void doExecute(
             @Nonnull final ProfileRequestContext profileRequestContext) {
         final List<MonitoringSequenceResult> results = monitoringCtx.getResults();
-        final Map<Integer,Long> ids = new HashMap<>();
-        int retries = getTransactionRetries();
-        for (int i = 0; i < results.size(); i++) {
-            boolean keepLoop = true;
-            while (keepLoop) {
-                try (final Connection dbConn = getConnection(false)) {
-                    ids.put(i, store(dbConn, results.get(i)));
-                    log.debug("New id put to the map");
-                    dbConn.commit();
-                    log.debug("Connection successfully committed");
-                    keepLoop = false;
-                } catch (final SQLException e) {
-                    boolean retry = shouldRetry(e, retries);
-                    if (retry) {
-                        retries = retries - 1;
-                        log.info("{} Retrying monitoring result storing operation", getLogPrefix());
-                    } else {
-                        ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
-                        return;
-                    }
-                }
+        if (bulkIngester != null) {
+            for (final MonitoringSequenceResult result : results) {
+                bulkIngester.add(result);
             }
-            keepLoop = true;
-            while (keepLoop) {
-                try (final Connection dbConn = getConnection(false)) {
-                    storeStep(dbConn, results.get(i), ids.get(i));
-                    dbConn.commit();
-                    keepLoop = false;
-                } catch (final SQLException e) {
-                    boolean retry = shouldRetry(e, retries);
-                    if (retry) {
-                        retries = retries - 1;
-                        log.info("{} Retrying monitoring result step storing operation", getLogPrefix());
-                    } else {
-                        ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
-                        return;
-                    }
-                }                
+            log.debug("{} Handed {} monitoring results to the bulk ingester", getLogPrefix(), results.size());
+            ActionSupport.buildProceedEvent(profileRequestContext);
+            return;
+        }
+        int attempt = 0;
+        int i = 0;
+        while (i < results.size()) {
+            try (final Connection dbConn = getConnection(false);
+                    final JdbcMonitoringResultWriter writer = new JdbcMonitoringResultWriter(dbConn);
+                    final JdbcRollupWriter rollupWriter = new JdbcRollupWriter(dbConn, getRollupResolutions());
+                    final JdbcLatestStatusWriter statusWriter = new JdbcLatestStatusWriter(dbConn)) {
+                for (; i < results.size(); i++) {
+                    store(writer, rollupWriter, latestStatusEnabled ? statusWriter : null, results.get(i));
+                    attempt = 0;
+                }
+            } catch (final SQLException e) {
+                attempt++;
+                if (shouldRetry(e, getTransactionRetries() - attempt + 1) && backoff(attempt)) {
+                    retriedCount.incrementAndGet();
+                    retryBudget.recordRetry();
+                    log.info("{} Retrying monitoring result storing operation, attempt {}", getLogPrefix(),
+                            attempt + 1);
+                    continue;
+                }
+                abandonedCount.addAndGet(results.size() - i);
+                retryBudget.recordAbandoned(results.size() - i);
+                if (spool(results.subList(i, results.size()))) {
+                    break;
+                }
+                ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
+                return;
             }
         }
         ActionSupport.buildProceedEvent(profileRequestContext);
     }
 
     /**
-     * Checks whether another attempt should be done after failed SQL event.
+     * Spools the given results that could not be stored to the database.
+     * 
+     * @param results The results to spool.
+     * @return True if all the results were spooled, false if there is no spool or it failed.
+     */
+    protected boolean spool(final List<MonitoringSequenceResult> results) {
+        if (spool == null) {
+            return false;
+        }
+        for (final MonitoringSequenceResult result : results) {
+            try {
+                if (!spool.offer(result)) {
+                    return false;
+                }
+            } catch (final IOException e) {
+                log.error("{} Could not spool the monitoring result", getLogPrefix(), e);
+                return false;
+            }
+        }
+        log.warn("{} Spooled {} monitoring results for replay, {} in the spool", getLogPrefix(), results.size(),
+                spool.getSize());
+        return true;
+    }
+
+    /**
+     * Checks whether another attempt should be done after failed SQL event. A retryable error is retried only if
+     * there are retries left for the operation and the {@link RetryBudget} allows it.
      * @param e The cause for the failed SQL event.
-     * @param retries The amount of retries already run.
+     * @param retries The amount of retries left for the operation.
      * @return True if another attempt should be done, false otherwise.
      */
     protected boolean shouldRetry(final SQLException e, int retries) {
@@ -244,6 +541,10 @@ public class StoreMonitoringResult extends AbstractProfileAction {
                 log.warn("{} Error retryable, but retry limit exceeded", getLogPrefix());
                 return false;
             }
+            if (!retryBudget.tryAcquire()) {
+                log.warn("{} Error retryable, but the retry budget is exhausted", getLogPrefix());
+                return false;
+            }
         } else {
             log.error("{} Caught SQL exception", getLogPrefix(), e);
             return false;
@@ -252,68 +553,85 @@ public class StoreMonitoringResult extends AbstractProfileAction {
     }
     
     /**
-     * Stores the given {@link MonitoringSequenceResult} without the attached sequence step results.
-     * @param dbConn The database connection.
+     * Waits for the backoff delay before the given attempt.
+     * 
+     * @param attempt The number of failed attempts for the current operation.
+     * @return True if the delay was waited, false if the thread was interrupted.
+     */
+    protected boolean backoff(final int attempt) {
+        final long delay = retryBackoff.getDelay(attempt);
+        log.debug("{} Waiting {} ms before the next attempt", getLogPrefix(), delay);
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Stores the given {@link MonitoringSequenceResult} together with its step results, anomalies, rollups and
+     * latest status in one transaction. The transaction is rolled back if any of the statements fail. The step
+     * results are left out if the {@link StepPersistencePolicy} says so.
+     * 
+     * @param writer The writer bound to the database connection.
+     * @param rollupWriter The rollup writer bound to the database connection.
+     * @param statusWriter The latest status writer bound to the database connection, null if not maintained.
      * @param result The monitoring sequence result.
      * @return The identifier for the sequence result, generated by the database engine.
      * @throws SQLException If the storage operation fails.
      */
-    protected synchronized long store(final Connection dbConn, final MonitoringSequenceResult result) 
-            throws SQLException {
-        final String insertResult = "INSERT INTO " + TABLE_NAME_MONITORING_RESULTS + 
-                " (sourceId, startTime, endTime) VALUES (?,?,?)";
-        final PreparedStatement statement = dbConn.prepareStatement(insertResult, Statement.RETURN_GENERATED_KEYS);
-        statement.setString(1, result.getId());
-        statement.setLong(2, result.getStartTime());
-        statement.setLong(3, result.getEndTime());
-        statement.executeUpdate();
-        final ResultSet tableKeys = statement.getGeneratedKeys();
-        if (tableKeys.next()) {
-            long key = tableKeys.getLong("id");
-            log.debug("Found key {}", key);
-            return key;
-        } else {
-            log.error("Could not get the generated key after insert!");
-            throw new SQLException("Could not get the generated key after insert!");
+    protected long store(final JdbcMonitoringResultWriter writer, final JdbcRollupWriter rollupWriter,
+            @Nullable final JdbcLatestStatusWriter statusWriter, final MonitoringSequenceResult result) 
+                    throws SQLException {
+        final Connection dbConn = writer.getConnection();
+        final boolean storeSteps = stepPersistencePolicy == null || stepPersistencePolicy.shouldStoreSteps(result);
+        final MonitoringEvent flushEvent = MonitoringEvents.getRecorder().beginStorageFlush(
+                StoreMonitoringResult.class.getSimpleName(), 1);
+        try {
+            final long resultId = writer.insertResult(result);
+            if (storeSteps) {
+                log.debug("Starting to store step results for result {}", resultId);
+                writer.insertStepResults(resultId, result);
+            } else {
+                log.debug("Skipping the step results for result {}", resultId);
+            }
+            if (anomaliesEnabled) {
+                writer.insertAnomalies(resultId, result);
+            }
+            rollupWriter.add(result);
+            rollupWriter.flush();
+            if (statusWriter != null) {
+                statusWriter.update(result);
+            }
+            dbConn.commit();
+            log.debug("Connection successfully committed");
+            if (stepPersistencePolicy != null) {
+                stepPersistencePolicy.recordStored(result, storeSteps);
+            }
+            return resultId;
+        } catch (final SQLException e) {
+            flushEvent.setError(e.getMessage());
+            rollupWriter.clear();
+            rollback(dbConn);
+            throw e;
+        } finally {
+            flushEvent.commit();
         }
     }
 
     /**
-     * Stores the sequence step results from the given {@link MonitoringSequenceResult}.
+     * Rolls back the current transaction, logging but otherwise ignoring any failures.
+     * 
      * @param dbConn The database connection.
-     * @param result The monitoring sequence result, containing the sequence step results.
-     * @param resultId The identifier for the already stored sequence result.
-     * @throws SQLException If the storage operation fails.
      */
-    protected void storeStep(final Connection dbConn, final MonitoringSequenceResult result, final Long resultId) 
-            throws SQLException {
-        log.debug("Starting to store step results");
-        final List<MonitoringSequenceStepResult> steps = result.getStepResults();
-        if (steps == null || steps.isEmpty()) {
-            log.debug("No step results exists to be stored");
-            return;
-        }
-        final String insertResult = "INSERT INTO " + TABLE_NAME_MONITORING_STEP_RESULTS + 
-                " (resultId, phaseId, errorMessage, startTime, endTime) VALUES (?,?,?,?,?)";
-        final PreparedStatement statement = dbConn.prepareStatement(insertResult);
-        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
-            statement.setLong(1, resultId);
-            statement.setInt(2, step.getPhaseId());
-            if (step.getErrorMessage() != null) {
-                statement.setString(3,  step.getErrorMessage());
-            } else {
-                statement.setString(3, "");
-            }
-            statement.setLong(4, step.getStartTime());
-            statement.setLong(5, step.getEndTime());
-            log.trace("Adding a batch to the statement");
-            statement.addBatch();
-            log.trace("Batch added");
+    protected void rollback(final Connection dbConn) {
+        try {
+            dbConn.rollback();
+        } catch (final SQLException e) {
+            log.warn("{} Could not roll back the transaction", getLogPrefix(), e);
         }
-        log.trace("Executing the batch");
-        statement.executeBatch();
-        log.trace("Batch executed");
-        statement.close();
     }
     
     /**
@@ -27,10 +27,14 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.List;
+import java.util.Objects;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
 import org.opensaml.profile.action.EventIds;
 import org.opensaml.profile.context.ProfileRequestContext;
@@ -39,6 +43,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
+import com.google.gson.stream.JsonWriter;
+
+import fi.mpass.shibboleth.monitor.context.LatencyAnomaly;
 import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
 import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
 import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
@@ -50,6 +57,20 @@ import net.shibboleth.utilities.java.support.net.HttpServletSupport;
 
 /**
  * This action writes the one-line result from {@link MonitoringResultContext} to the servlet response.
+ * 
+ * <p>If the request prefers <code>application/json</code> in its Accept header, the latest result is written as a
+ * JSON object instead, with the duration and error of each step and the latency anomalies detected for them.</p>
+ * 
+ * <p>The response varies by the Accept header, and by default it must not be cached. If conditional requests are
+ * enabled, the response carries an entity tag identifying the latest result instead, and a request whose
+ * If-None-Match header matches it is answered with 304 and no body. The entity tag is derived from the result
+ * itself, so a flow that runs its sequence on every request produces a new entity tag each time; only a flow
+ * writing a result that has not changed since the previous request is answered with 304. In every case the body
+ * is streamed directly to the response.</p>
+ * 
+ * <p>By default the response status is always 200. If health status codes are enabled, the status is 503 when the
+ * latest result failed or there are no results, so that the response can be used as a health check without
+ * parsing its body.</p>
  */
 @SuppressWarnings("rawtypes")
 public class WriteMonitoringResult extends AbstractProfileAction {
@@ -60,8 +81,56 @@ public class WriteMonitoringResult extends AbstractProfileAction {
     /** Error message returned when no results are available. */
     public static final String ERROR_MSG_NO_RESULTS = "ERROR: No results available";
 
+    /** The media type of the JSON result. */
+    public static final String CONTENT_TYPE_JSON = "application/json";
+
+    /** The media type of the plain text result. */
+    public static final String CONTENT_TYPE_TEXT = "text/plain";
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(WriteMonitoringResult.class);
+
+    /** Whether the response status reflects the result. */
+    private boolean healthStatusCodes;
+
+    /** Whether an entity tag is sent and conditional requests are answered with 304. */
+    private boolean conditionalGet;
+
+    /**
+     * Set whether the response status reflects the result: 200 for success, 503 for failure. Defaults to false,
+     * i.e. the status is always 200.
+     * @param enabled What to set.
+     */
+    public void setHealthStatusCodes(final boolean enabled) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        healthStatusCodes = enabled;
+    }
+
+    /**
+     * Get whether the response status reflects the result.
+     * @return Whether the response status reflects the result.
+     */
+    public boolean isHealthStatusCodes() {
+        return healthStatusCodes;
+    }
+
+    /**
+     * Set whether an entity tag is sent with the result and a matching If-None-Match request header is answered
+     * with 304, in which case the response may be cached but must be revalidated. Defaults to false.
+     * @param enabled What to set.
+     */
+    public void setConditionalGet(final boolean enabled) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        conditionalGet = enabled;
+    }
+
+    /**
+     * Get whether an entity tag is sent and conditional requests are answered with 304.
+     * @return Whether conditional requests are supported.
+     */
+    public boolean isConditionalGet() {
+        return conditionalGet;
+    }
     
     /** {@inheritDoc} */
     @Override
@@ -78,26 +147,273 @@ public class WriteMonitoringResult extends AbstractProfileAction {
         final HttpServletResponse httpResponse = getHttpServletResponse();
         HttpServletSupport.addNoCacheHeaders(httpResponse);
         HttpServletSupport.setUTF8Encoding(httpResponse);
+        // the plain text and the JSON representations share the URL
+        httpResponse.setHeader(HttpHeaders.VARY, "Accept");
         final ProfileRequestContext prc = 
                 (ProfileRequestContext) getProfileContextLookupStrategy().apply(springRequestContext);
         final MonitoringResultContext monitoringCtx = prc.getSubcontext(MonitoringResultContext.class, false);
+        final boolean json = isJsonAccepted(getHttpServletRequest());
         if (monitoringCtx == null) {
-            return writeAndReturn(httpResponse, ERROR_MSG_NO_CONTEXT);            
+            setHealthStatus(httpResponse, false);
+            return json ? writeJsonAndReturn(httpResponse, null, ERROR_MSG_NO_CONTEXT) 
+                    : writeAndReturn(httpResponse, ERROR_MSG_NO_CONTEXT);
         }
         final List<MonitoringSequenceResult> results = monitoringCtx.getResults();
         if (results == null || results.size() == 0) {
-            return writeAndReturn(httpResponse, ERROR_MSG_NO_RESULTS);
+            setHealthStatus(httpResponse, false);
+            return json ? writeJsonAndReturn(httpResponse, null, ERROR_MSG_NO_RESULTS) 
+                    : writeAndReturn(httpResponse, ERROR_MSG_NO_RESULTS);
         }
-        long start = results.get(results.size() - 1).getStartTime();
-        for (final MonitoringSequenceStepResult result : results.get(results.size() - 1).getStepResults()) {
-            if (result.getErrorMessage() != null) {
-                return writeAndReturn(httpResponse, result.getErrorMessage());
+        final MonitoringSequenceResult latest = results.get(results.size() - 1);
+        final boolean healthy = !isFailed(latest);
+        setHealthStatus(httpResponse, healthy);
+        if (conditionalGet) {
+            final String eTag = buildETag(latest, json);
+            httpResponse.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+            httpResponse.setHeader(HttpHeaders.ETAG, eTag);
+            if ((healthy || !healthStatusCodes) && isNotModified(getHttpServletRequest(), eTag)) {
+                if (json) {
+                    httpResponse.setContentType(CONTENT_TYPE_JSON);
+                }
+                httpResponse.setStatus(HttpStatus.SC_NOT_MODIFIED);
+                return ActionSupport.buildProceedEvent(this);
             }
         }
-        return writeAndReturn(httpResponse, "OK: Full sequence took " + 
-                (results.get(results.size() -1).getEndTime() - start) + "ms");
+        return json ? writeJsonAndReturn(httpResponse, latest, null) 
+                : writeAndReturn(httpResponse, buildMessage(latest));
     }
-    
+
+    /**
+     * Builds the one-line message for the given result: the first step error, or the duration if all the steps
+     * succeeded.
+     * 
+     * @param result The result.
+     * @return The message.
+     */
+    @Nonnull protected String buildMessage(@Nonnull final MonitoringSequenceResult result) {
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            if (step.getErrorMessage() != null) {
+                return step.getErrorMessage();
+            }
+        }
+        return "OK: Full sequence took " + (result.getEndTime() - result.getStartTime()) + "ms";
+    }
+
+    /**
+     * Builds a strong entity tag for the given result and representation. A finished result does not change, so
+     * its identifier, timestamps and step outcomes identify its version.
+     * 
+     * @param result The result.
+     * @param json Whether the representation is JSON.
+     * @return The quoted entity tag.
+     */
+    @Nonnull protected String buildETag(@Nonnull final MonitoringSequenceResult result, final boolean json) {
+        int failedStep = -1;
+        final List<MonitoringSequenceStepResult> steps = result.getStepResults();
+        for (int i = 0; i < steps.size() && failedStep < 0; i++) {
+            if (steps.get(i).getErrorMessage() != null) {
+                failedStep = i;
+            }
+        }
+        return "\"" + Long.toHexString(result.getStartTime()) + "-" 
+                + Long.toHexString(result.getEndTime() - result.getStartTime()) + "-" 
+                + Integer.toHexString(Objects.hash(result.getId(), steps.size(), failedStep, 
+                        result.getAnomalies().size())) 
+                + (json ? "-j" : "-t") + "\"";
+    }
+
+    /**
+     * Checks whether the If-None-Match header of the given request matches the given entity tag.
+     * 
+     * @param httpRequest The servlet request.
+     * @param eTag The quoted entity tag of the current result.
+     * @return True if the client already has the current result, false otherwise.
+     */
+    protected boolean isNotModified(@Nullable final HttpServletRequest httpRequest, @Nonnull final String eTag) {
+        final String ifNoneMatch = httpRequest != null ? httpRequest.getHeader(HttpHeaders.IF_NONE_MATCH) : null;
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (final String candidate : ifNoneMatch.split(",")) {
+            final String trimmed = candidate.trim();
+            if ("*".equals(trimmed) || eTag.equals(trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the response status according to the given health, if health status codes are enabled.
+     * 
+     * @param httpResponse The servlet response.
+     * @param healthy Whether the latest result succeeded.
+     */
+    protected void setHealthStatus(@Nonnull final HttpServletResponse httpResponse, final boolean healthy) {
+        if (healthStatusCodes) {
+            httpResponse.setStatus(healthy ? HttpStatus.SC_OK : HttpStatus.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Checks whether any of the steps of the given result failed.
+     * 
+     * @param result The monitoring sequence result.
+     * @return True if any of the steps failed, false otherwise.
+     */
+    protected boolean isFailed(@Nonnull final MonitoringSequenceResult result) {
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            if (step.getErrorMessage() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given request prefers JSON over plain text in its Accept header. Equal preferences are
+     * resolved by the order in the header, and plain text is the default.
+     * 
+     * @param httpRequest The servlet request.
+     * @return True if JSON should be written, false otherwise.
+     */
+    protected boolean isJsonAccepted(@Nullable final HttpServletRequest httpRequest) {
+        final String accept = httpRequest != null ? httpRequest.getHeader("Accept") : null;
+        if (accept == null || !accept.contains(CONTENT_TYPE_JSON)) {
+            return false;
+        }
+        float jsonQuality = 0;
+        float textQuality = 0;
+        int jsonPosition = -1;
+        int textPosition = -1;
+        final String[] ranges = accept.split(",");
+        for (int position = 0; position < ranges.length; position++) {
+            final String[] parameters = ranges[position].split(";");
+            final String type = parameters[0].trim().toLowerCase();
+            final float quality = getQuality(parameters);
+            if (CONTENT_TYPE_JSON.equals(type) && jsonPosition < 0) {
+                jsonQuality = quality;
+                jsonPosition = position;
+            } else if ((CONTENT_TYPE_TEXT.equals(type) || "text/*".equals(type)) && textPosition < 0) {
+                textQuality = quality;
+                textPosition = position;
+            }
+        }
+        return jsonQuality > textQuality 
+                || (jsonQuality > 0 && jsonQuality == textQuality && jsonPosition < textPosition);
+    }
+
+    /**
+     * Get the quality value from the parameters of a media range.
+     * 
+     * @param parameters The media range split by semicolons, the type first.
+     * @return The quality value, 1 if not given and 0 if malformed.
+     */
+    private float getQuality(final String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            final String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2));
+                } catch (final NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Writes the given result, or the given error message, to the servlet response as JSON and returns a Spring
+     * webflow event.
+     * @param httpResponse The servlet response.
+     * @param result The result to be written, or null if an error message is written instead.
+     * @param message The error message to be written if there is no result.
+     * @return The proceed event if the action was successful, IO_ERROR otherwise.
+     */
+    protected Event writeJsonAndReturn(final HttpServletResponse httpResponse, 
+            @Nullable final MonitoringSequenceResult result, @Nullable final String message) {
+        httpResponse.setContentType(CONTENT_TYPE_JSON);
+        try {
+            final JsonWriter out = new JsonWriter(new OutputStreamWriter(httpResponse.getOutputStream(), "UTF-8"));
+            out.beginObject();
+            if (result == null) {
+                out.name("status").value("ERROR");
+                out.name("error").value(message);
+            } else {
+                writeResult(out, result);
+            }
+            out.endObject();
+            out.flush();
+        } catch (IOException e) {
+            log.error("{}: Could not encode the JSON response", getLogPrefix(), e);
+            httpResponse.setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            return ActionSupport.buildEvent(this, EventIds.IO_ERROR);
+        }
+        return ActionSupport.buildProceedEvent(this);
+    }
+
+    /**
+     * Writes the fields of the given result, including its steps, into the current JSON object.
+     * @param out The JSON writer.
+     * @param result The result to be written.
+     * @throws IOException If the result cannot be written.
+     */
+    protected void writeResult(final JsonWriter out, final MonitoringSequenceResult result) throws IOException {
+        String error = null;
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            if (step.getErrorMessage() != null) {
+                error = step.getErrorMessage();
+                break;
+            }
+        }
+        out.name("sequenceId").value(result.getId());
+        out.name("status").value(error == null ? "OK" : "ERROR");
+        if (error != null) {
+            out.name("error").value(error);
+        }
+        out.name("startTime").value(result.getStartTime());
+        out.name("duration").value(result.getEndTime() - result.getStartTime());
+        out.name("steps").beginArray();
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            out.beginObject();
+            if (step.getId() != null) {
+                out.name("id").value(step.getId());
+            }
+            out.name("phase").value(step.getPhaseId());
+            out.name("startTime").value(step.getStartTime());
+            out.name("duration").value(step.getEndTime() - step.getStartTime());
+            if (step.getTraceId() != null) {
+                out.name("traceId").value(step.getTraceId());
+                out.name("spanId").value(step.getSpanId());
+            }
+            if (step.getCpuTime() >= 0) {
+                out.name("cpuTime").value(step.getCpuTime());
+            }
+            if (step.getAllocatedBytes() >= 0) {
+                out.name("allocatedBytes").value(step.getAllocatedBytes());
+            }
+            if (step.getErrorMessage() != null) {
+                out.name("error").value(step.getErrorMessage());
+            }
+            out.endObject();
+        }
+        out.endArray();
+        if (!result.getAnomalies().isEmpty()) {
+            out.name("anomalies").beginArray();
+            for (final LatencyAnomaly anomaly : result.getAnomalies()) {
+                out.beginObject();
+                out.name("stepId").value(anomaly.getStepId());
+                out.name("duration").value(anomaly.getDuration());
+                out.name("baselineMean").value(Math.round(anomaly.getBaselineMean()));
+                out.name("baselineDeviation").value(Math.round(anomaly.getBaselineDeviation()));
+                out.name("score").value(Math.round(anomaly.getScore() * 10) / 10.0);
+                out.endObject();
+            }
+            out.endArray();
+        }
+    }
+
     /**
      * Writes the given message to the servlet response and returns a Spring webflow event.
      * @param httpResponse The servlet response.
@@ -0,0 +1,385 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.schedule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.cluster.SequenceOwnership;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/**
+ * Runs the configured probes in the background, adapting the interval of each probe to its health.
+ * 
+ * <p>A healthy probe is run at the base interval. After a failure, the probe is rechecked at the shorter recheck
+ * interval to confirm or clear the incident quickly. Once the failure is confirmed by the configured number of
+ * consecutive failures, the interval grows by the recovery factor back towards the base interval, so that a
+ * longer outage does not keep the probed services under a higher load. After a recovery the interval likewise
+ * grows gradually from the recheck interval back to the base interval.</p>
+ * 
+ * <p>Every delay is jittered by the configured fraction, so that probes started or failed together drift apart
+ * instead of running in synchronized bursts. On top of the per-probe intervals, a {@link ProbeRateLimiter}
+ * caps the rate of the runs across all the probes: a run exceeding the cap is deferred until a token is
+ * available.</p>
+ * 
+ * <p>If a {@link SequenceOwnership} is set, e.g. when several nodes share the same database, a probe is only run
+ * by the node owning it, and the other nodes check the ownership again at the recheck interval. The ownership is
+ * kept until the run has ended, see {@link SequenceOwnership#beginRun(String)}.</p>
+ */
+public class AdaptiveProbeScheduler extends AbstractInitializableComponent {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AdaptiveProbeScheduler.class);
+
+    /** The probes to run. */
+    @Nonnull @NonnullElements private List<ProbeTask> probes;
+
+    /** The interval between the runs of a healthy probe in milliseconds. */
+    @Duration @Positive private long baseInterval;
+
+    /** The interval between the runs after a failure in milliseconds. */
+    @Duration @Positive private long recheckInterval;
+
+    /** The number of consecutive failures rechecked at the recheck interval. */
+    @Positive private int confirmationCount;
+
+    /** The factor the interval grows by after each run, until reaching the base interval. */
+    private double recoveryFactor;
+
+    /** The maximum fraction the delays are randomly shortened or lengthened by. */
+    private double jitter;
+
+    /** The sustained number of runs allowed per minute across all the probes. */
+    private double maxRunsPerMinute;
+
+    /** The maximum number of runs started at once across all the probes. */
+    @Positive private int maxBurst;
+
+    /** The number of threads running the probes. */
+    @Positive private int threads;
+
+    /** The ownership of the probes among the nodes, null if this node runs all of them. */
+    @Nullable private SequenceOwnership ownership;
+
+    /** The scheduling states of the probes, by probe identifier. */
+    @Nonnull private final Map<String, ProbeState> states;
+
+    /** The rate cap shared by all the probes. */
+    @Nullable private ProbeRateLimiter rateLimiter;
+
+    /** The executor running the probes. */
+    @Nullable private ScheduledExecutorService executor;
+
+    /** Constructor. */
+    public AdaptiveProbeScheduler() {
+        probes = Collections.emptyList();
+        baseInterval = TimeUnit.MINUTES.toMillis(5);
+        recheckInterval = TimeUnit.SECONDS.toMillis(30);
+        confirmationCount = 3;
+        recoveryFactor = 2.0;
+        jitter = 0.1;
+        maxRunsPerMinute = 30;
+        maxBurst = 5;
+        threads = 2;
+        states = Collections.synchronizedMap(new LinkedHashMap<String, ProbeState>());
+    }
+
+    /**
+     * Set the probes to run.
+     * @param newProbes What to set.
+     */
+    public void setProbes(@Nonnull @NonnullElements final Collection<ProbeTask> newProbes) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(newProbes, "Probes cannot be null");
+        probes = new ArrayList<>(newProbes);
+    }
+
+    /**
+     * Set the interval between the runs of a healthy probe in milliseconds. Defaults to five minutes.
+     * @param interval What to set.
+     */
+    public void setBaseInterval(@Duration @Positive final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        baseInterval = Constraint.isGreaterThan(0, interval, "Base interval must be greater than 0");
+    }
+
+    /**
+     * Set the interval between the runs after a failure in milliseconds. Defaults to 30 seconds.
+     * @param interval What to set.
+     */
+    public void setRecheckInterval(@Duration @Positive final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        recheckInterval = Constraint.isGreaterThan(0, interval, "Recheck interval must be greater than 0");
+    }
+
+    /**
+     * Set the number of consecutive failures rechecked at the recheck interval, before the failure is considered
+     * confirmed. Defaults to 3.
+     * @param count What to set.
+     */
+    public void setConfirmationCount(@Positive final int count) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        confirmationCount = (int) Constraint.isGreaterThan(0, count, "Confirmation count must be greater than 0");
+    }
+
+    /**
+     * Set the factor the interval grows by after each run, until reaching the base interval. Defaults to 2.
+     * @param factor What to set.
+     */
+    public void setRecoveryFactor(final double factor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (factor <= 1) {
+            throw new ConstraintViolationException("Recovery factor must be greater than 1");
+        }
+        recoveryFactor = factor;
+    }
+
+    /**
+     * Set the maximum fraction the delays are randomly shortened or lengthened by, from 0 to 1. Defaults to 0.1.
+     * @param fraction What to set.
+     */
+    public void setJitter(final double fraction) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (fraction < 0 || fraction > 1) {
+            throw new ConstraintViolationException("Jitter must be between 0 and 1");
+        }
+        jitter = fraction;
+    }
+
+    /**
+     * Set the sustained number of runs allowed per minute across all the probes. Defaults to 30.
+     * @param runs What to set.
+     */
+    public void setMaxRunsPerMinute(final double runs) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (runs <= 0) {
+            throw new ConstraintViolationException("Maximum runs per minute must be greater than 0");
+        }
+        maxRunsPerMinute = runs;
+    }
+
+    /**
+     * Set the maximum number of runs started at once across all the probes. Defaults to 5.
+     * @param burst What to set.
+     */
+    public void setMaxBurst(@Positive final int burst) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        maxBurst = (int) Constraint.isGreaterThan(0, burst, "Maximum burst must be greater than 0");
+    }
+
+    /**
+     * Set the number of threads running the probes. Defaults to 2.
+     * @param count What to set.
+     */
+    public void setThreads(@Positive final int count) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        threads = (int) Constraint.isGreaterThan(0, count, "Thread count must be greater than 0");
+    }
+
+    /**
+     * Set the ownership of the probes among the nodes, by probe identifier. Defaults to null, this node running
+     * all the probes.
+     * @param newOwnership What to set.
+     */
+    public void setOwnership(@Nullable final SequenceOwnership newOwnership) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ownership = newOwnership;
+    }
+
+    /**
+     * Get the scheduling state of the given probe.
+     * 
+     * @param probeId The identifier of the probe.
+     * @return The scheduling state, or null if there is no such probe.
+     */
+    @Nullable public ProbeState getState(@Nonnull final String probeId) {
+        return states.get(probeId);
+    }
+
+    /**
+     * Get the number of runs deferred because the rate cap was reached.
+     * 
+     * @return The number of deferred runs.
+     */
+    @NonNegative public long getDeferredCount() {
+        return rateLimiter != null ? rateLimiter.getDeferredCount() : 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (recheckInterval > baseInterval) {
+            throw new ComponentInitializationException("Recheck interval cannot be longer than the base interval");
+        }
+        for (final ProbeTask probe : probes) {
+            if (states.put(probe.getId(), new ProbeState(probe.getId(), baseInterval)) != null) {
+                throw new ComponentInitializationException("Duplicate probe identifier " + probe.getId());
+            }
+        }
+        rateLimiter = new ProbeRateLimiter(maxBurst, maxRunsPerMinute);
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "mpass-monitoring-scheduler-" 
+                        + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (final ProbeTask probe : probes) {
+            // the first runs are spread over the recheck interval instead of starting all at once
+            schedule(probe, ThreadLocalRandom.current().nextLong(recheckInterval + 1));
+        }
+        log.info("Scheduled {} probes at the base interval of {} ms", probes.size(), baseInterval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Runs the given probe, unless it is owned by another node or the rate cap is reached, and schedules its next
+     * run.
+     * 
+     * @param probe The probe.
+     */
+    protected void runProbe(@Nonnull final ProbeTask probe) {
+        if (ownership != null && !ownership.beginRun(probe.getId())) {
+            log.trace("The probe {} is owned by another node", probe.getId());
+            schedule(probe, applyJitter(recheckInterval));
+            return;
+        }
+        boolean healthy;
+        try {
+            final long wait = rateLimiter.reserve();
+            if (wait > 0) {
+                log.debug("Rate cap reached, deferring the probe {} by {} ms", probe.getId(), wait);
+                schedule(probe, wait + (long) (ThreadLocalRandom.current().nextDouble() * jitter * wait));
+                return;
+            }
+            healthy = probe.run();
+        } catch (final Exception e) {
+            log.warn("Could not run the probe {}", probe.getId(), e);
+            healthy = false;
+        } finally {
+            if (ownership != null) {
+                ownership.endRun(probe.getId());
+            }
+        }
+        final ProbeState state = states.get(probe.getId());
+        state.recordRun(healthy, System.currentTimeMillis());
+        final long interval = getNextInterval(state, healthy);
+        if (interval != state.getInterval()) {
+            log.debug("The interval of the probe {} is now {} ms", probe.getId(), interval);
+        }
+        state.setInterval(interval);
+        schedule(probe, applyJitter(interval));
+    }
+
+    /**
+     * Computes the interval until the next run of a probe, from its state already updated with the latest run.
+     * 
+     * @param state The scheduling state of the probe.
+     * @param healthy Whether the latest run succeeded.
+     * @return The interval in milliseconds, without jitter.
+     */
+    protected long getNextInterval(@Nonnull final ProbeState state, final boolean healthy) {
+        if (!healthy && state.getConsecutiveFailures() <= confirmationCount) {
+            return recheckInterval;
+        }
+        final long grown = (long) (state.getInterval() * recoveryFactor);
+        return Math.min(baseInterval, Math.max(recheckInterval, grown));
+    }
+
+    /**
+     * Randomly shortens or lengthens the given delay by at most the configured jitter fraction.
+     * 
+     * @param delay The delay in milliseconds.
+     * @return The jittered delay in milliseconds.
+     */
+    protected long applyJitter(@Duration @NonNegative final long delay) {
+        if (jitter == 0 || delay == 0) {
+            return delay;
+        }
+        final double offset = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * jitter * delay;
+        return Math.max(0, delay + (long) offset);
+    }
+
+    /**
+     * Schedules the next run of the given probe.
+     * 
+     * @param probe The probe.
+     * @param delay The delay until the run in milliseconds.
+     */
+    protected void schedule(@Nonnull final ProbeTask probe, @Duration @NonNegative final long delay) {
+        final ScheduledExecutorService currentExecutor = executor;
+        if (currentExecutor == null) {
+            return;
+        }
+        states.get(probe.getId()).setNextRunTime(System.currentTimeMillis() + delay);
+        try {
+            currentExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runProbe(probe);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            log.debug("The scheduler has been stopped, not scheduling the probe {}", probe.getId());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.schedule;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import fi.mpass.shibboleth.support.TokenBucket;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/**
+ * A {@link TokenBucket} capping the rate of the probe runs across all the probes of a scheduler, so that the probed
+ * services are never hit harder than agreed, whatever the health of the individual probes. Every run takes one
+ * token, and the tokens are refilled at a constant rate up to the capacity of the bucket.
+ */
+public class ProbeRateLimiter {
+
+    /** The tokens for the runs. */
+    @Nonnull private final TokenBucket bucket;
+
+    /** The number of runs deferred because the rate cap was reached. */
+    @Nonnull private final AtomicLong deferredCount;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxBurst The maximum number of runs started at once, the bucket is initially full.
+     * @param runsPerMinute The sustained number of runs allowed per minute.
+     */
+    public ProbeRateLimiter(@Positive final int maxBurst, final double runsPerMinute) {
+        Constraint.isGreaterThan(0, maxBurst, "Maximum burst must be greater than 0");
+        if (runsPerMinute <= 0) {
+            throw new ConstraintViolationException("Runs per minute must be greater than 0");
+        }
+        bucket = new TokenBucket(maxBurst, runsPerMinute / 60.0);
+        deferredCount = new AtomicLong();
+    }
+
+    /**
+     * Takes a token for a run, if one is available.
+     * 
+     * @return Zero if the run is allowed, otherwise the time in milliseconds until the next token is available.
+     */
+    public long reserve() {
+        final long wait = bucket.reserve();
+        if (wait > 0) {
+            deferredCount.incrementAndGet();
+        }
+        return wait;
+    }
+
+    /**
+     * Get the number of runs deferred because the rate cap was reached.
+     * 
+     * @return The number of deferred runs.
+     */
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.schedule;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * The scheduling state of a single probe, updated by the {@link AdaptiveProbeScheduler} after each run.
+ */
+public class ProbeState {
+
+    /** The identifier of the probe. */
+    @Nonnull @NotEmpty private final String id;
+
+    /** The number of consecutive failed runs. */
+    @NonNegative private volatile int consecutiveFailures;
+
+    /** The number of consecutive successful runs. */
+    @NonNegative private volatile int consecutiveSuccesses;
+
+    /** The current interval between the runs without jitter, in milliseconds. */
+    @Duration private volatile long interval;
+
+    /** The total number of runs. */
+    @NonNegative private volatile long runCount;
+
+    /** The time of the latest run in milliseconds, zero if not yet run. */
+    private volatile long lastRunTime;
+
+    /** The time of the next scheduled run in milliseconds. */
+    private volatile long nextRunTime;
+
+    /**
+     * Constructor.
+     * 
+     * @param probeId The identifier of the probe.
+     * @param initialInterval The initial interval between the runs in milliseconds.
+     */
+    public ProbeState(@Nonnull @NotEmpty final String probeId, @Duration final long initialInterval) {
+        id = Constraint.isNotEmpty(probeId, "Probe identifier cannot be empty");
+        interval = initialInterval;
+    }
+
+    /**
+     * Get the identifier of the probe.
+     * @return The identifier of the probe.
+     */
+    @Nonnull @NotEmpty public String getId() {
+        return id;
+    }
+
+    /**
+     * Records the outcome of a run.
+     * 
+     * @param healthy Whether the run succeeded.
+     * @param time The time of the run in milliseconds.
+     */
+    public synchronized void recordRun(final boolean healthy, final long time) {
+        if (healthy) {
+            consecutiveSuccesses++;
+            consecutiveFailures = 0;
+        } else {
+            consecutiveFailures++;
+            consecutiveSuccesses = 0;
+        }
+        runCount++;
+        lastRunTime = time;
+    }
+
+    /**
+     * Get the number of consecutive failed runs.
+     * @return The number of consecutive failed runs.
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Get the number of consecutive successful runs.
+     * @return The number of consecutive successful runs.
+     */
+    public int getConsecutiveSuccesses() {
+        return consecutiveSuccesses;
+    }
+
+    /**
+     * Get the current interval between the runs without jitter.
+     * @return The interval in milliseconds.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Set the current interval between the runs without jitter.
+     * @param newInterval What to set.
+     */
+    public void setInterval(@Duration final long newInterval) {
+        interval = newInterval;
+    }
+
+    /**
+     * Get the total number of runs.
+     * @return The number of runs.
+     */
+    public long getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Get the time of the latest run.
+     * @return The time in milliseconds, zero if not yet run.
+     */
+    public long getLastRunTime() {
+        return lastRunTime;
+    }
+
+    /**
+     * Get the time of the next scheduled run.
+     * @return The time in milliseconds.
+     */
+    public long getNextRunTime() {
+        return nextRunTime;
+    }
+
+    /**
+     * Set the time of the next scheduled run.
+     * @param time What to set.
+     */
+    public void setNextRunTime(final long time) {
+        nextRunTime = time;
+    }
+}
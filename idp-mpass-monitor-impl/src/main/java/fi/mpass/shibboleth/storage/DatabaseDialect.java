@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The database engines whose specific features are used by the storage layer. Any other engine is treated as
+ * {@link #GENERIC} and only gets portable SQL.
+ */
+public enum DatabaseDialect {
+
+    /** PostgreSQL. */
+    POSTGRESQL,
+
+    /** MySQL and MariaDB. */
+    MYSQL,
+
+    /** HSQLDB. */
+    HSQLDB,
+
+    /** Any other database, only portable SQL is used. */
+    GENERIC;
+
+    /**
+     * Resolves the dialect from the product name reported by the JDBC driver.
+     * 
+     * @param productName The database product name.
+     * @return The dialect, {@link #GENERIC} if the product is not recognized.
+     */
+    @Nonnull public static DatabaseDialect fromProductName(final String productName) {
+        if (productName == null) {
+            return GENERIC;
+        }
+        final String name = productName.toLowerCase();
+        if (name.contains("postgresql")) {
+            return POSTGRESQL;
+        }
+        if (name.contains("mysql") || name.contains("mariadb")) {
+            return MYSQL;
+        }
+        if (name.contains("hsql")) {
+            return HSQLDB;
+        }
+        return GENERIC;
+    }
+
+    /**
+     * Resolves the dialect of the database behind the given connection.
+     * 
+     * @param connection The database connection.
+     * @return The dialect, {@link #GENERIC} if the product is not recognized.
+     * @throws SQLException If the connection metadata cannot be read.
+     */
+    @Nonnull public static DatabaseDialect fromConnection(@Nonnull final Connection connection) 
+            throws SQLException {
+        return fromProductName(connection.getMetaData().getDatabaseProductName());
+    }
+}
@@ -0,0 +1,556 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.events.MonitoringEvent;
+import fi.mpass.shibboleth.events.MonitoringEvents;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Buffers {@link MonitoringSequenceResult}s and stores them to the database in bulk, for high-volume setups where
+ * storing the results one transaction at a time becomes the bottleneck.
+ * 
+ * <p>The buffer is flushed when it reaches the batch size, and periodically in the background. Each flush is one
+ * transaction: the sequence results are inserted one by one for their generated identifiers, and the step
+ * results of the whole batch are then streamed with the PostgreSQL COPY protocol. On other databases, or if the
+ * PostgreSQL driver does not expose its copy API, the step results are stored as one batched INSERT. A batch
+ * that cannot be stored is handed to the {@link MonitoringResultSpool}, if configured.</p>
+ */
+public class JdbcBulkResultIngester extends AbstractInitializableComponent {
+
+    /** The COPY statement for streaming the step results. */
+    public static final String SQL_COPY_STEP_RESULTS = "COPY " 
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_STEP_RESULTS
+            + " (resultId, phaseId, errorMessage, startTime, endTime) FROM STDIN";
+
+    /** The PostgreSQL driver interface exposing the copy API. */
+    private static final String PG_CONNECTION_CLASS = "org.postgresql.PGConnection";
+
+    /** The PostgreSQL driver class implementing the copy API. */
+    private static final String PG_COPY_MANAGER_CLASS = "org.postgresql.copy.CopyManager";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(JdbcBulkResultIngester.class);
+
+    /** JDBC data source for retrieving connections. */
+    @NonnullAfterInit private DataSource dataSource;
+
+    /** The rollup resolutions maintained together with the results. */
+    @Nonnull @NonnullElements private Collection<RollupResolution> rollupResolutions;
+
+    /** Whether the latest status table is maintained together with the results. */
+    private boolean latestStatusEnabled;
+
+    /** Whether the latency anomalies are stored together with the results. */
+    private boolean anomaliesEnabled;
+
+    /** The policy deciding which step results are stored, null if all of them are stored. */
+    @Nullable private StepPersistencePolicy stepPersistencePolicy;
+
+    /** The spool for the batches that cannot be stored, null if they are dropped. */
+    @Nullable private MonitoringResultSpool spool;
+
+    /** The number of buffered results triggering a flush. */
+    @Positive private int batchSize;
+
+    /** The interval of the background flush in milliseconds. */
+    @Duration @NonNegative private long flushInterval;
+
+    /** Whether the COPY protocol is used when available. */
+    private boolean copyEnabled;
+
+    /** The buffered results. */
+    @Nonnull private final List<MonitoringSequenceResult> buffer;
+
+    /** The lock serializing the flushes. */
+    @Nonnull private final Object flushLock;
+
+    /** The timer running the background flush. */
+    @Nullable private Timer flushTimer;
+
+    /** The number of results stored since the startup. */
+    @Nonnull private final AtomicLong ingestedCount;
+
+    /** The number of results whose batch could not be stored since the startup. */
+    @Nonnull private final AtomicLong failedCount;
+
+    /** The number of step results streamed with COPY since the startup. */
+    @Nonnull private final AtomicLong copiedStepCount;
+
+    /** Constructor. */
+    public JdbcBulkResultIngester() {
+        rollupResolutions = Collections.emptyList();
+        batchSize = 500;
+        flushInterval = TimeUnit.SECONDS.toMillis(5);
+        copyEnabled = true;
+        buffer = new ArrayList<>();
+        flushLock = new Object();
+        ingestedCount = new AtomicLong();
+        failedCount = new AtomicLong();
+        copiedStepCount = new AtomicLong();
+    }
+
+    /**
+     * Set the JDBC data source for retrieving connections.
+     * @param source What to set.
+     */
+    public void setDataSource(@Nonnull final DataSource source) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        dataSource = Constraint.isNotNull(source, "DataSource cannot be null");
+    }
+
+    /**
+     * Set whether the {@link JdbcLatestStatusWriter#TABLE_NAME_LATEST_STATUS} table is maintained together with
+     * the results. Defaults to false.
+     * @param enabled What to set.
+     */
+    public void setLatestStatusEnabled(final boolean enabled) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        latestStatusEnabled = enabled;
+    }
+
+    /**
+     * Set whether the latency anomalies of the results are stored in the
+     * {@link JdbcMonitoringResultWriter#TABLE_NAME_MONITORING_ANOMALIES} table. Defaults to false.
+     * @param enabled What to set.
+     */
+    public void setAnomaliesEnabled(final boolean enabled) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        anomaliesEnabled = enabled;
+    }
+
+    /**
+     * Get whether the latency anomalies of the results are stored.
+     * @return Whether the anomalies are stored.
+     */
+    public boolean isAnomaliesEnabled() {
+        return anomaliesEnabled;
+    }
+
+    /**
+     * Set the policy deciding which step results are stored. Defaults to none, i.e. the step results of every run
+     * are stored. The policy requires at least one rollup resolution for keeping the step timings of the skipped
+     * runs.
+     * @param policy What to set.
+     */
+    public void setStepPersistencePolicy(@Nullable final StepPersistencePolicy policy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        stepPersistencePolicy = policy;
+    }
+
+    /**
+     * Set the rollup resolutions maintained together with the results. Defaults to none.
+     * @param resolutions What to set.
+     */
+    public void setRollupResolutions(@Nullable @NonnullElements final Collection<RollupResolution> resolutions) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        rollupResolutions = resolutions == null ? Collections.<RollupResolution>emptyList() 
+                : new ArrayList<>(new LinkedHashSet<>(resolutions));
+    }
+
+    /**
+     * Set the spool for the batches that cannot be stored. Defaults to none, i.e. such batches are dropped.
+     * @param resultSpool What to set.
+     */
+    public void setSpool(@Nullable final MonitoringResultSpool resultSpool) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        spool = resultSpool;
+    }
+
+    /**
+     * Set the number of buffered results triggering a flush. Defaults to 500.
+     * @param size What to set.
+     */
+    public void setBatchSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        batchSize = (int) Constraint.isGreaterThan(0, size, "Batch size must be greater than 0");
+    }
+
+    /**
+     * Set the interval of the background flush in milliseconds. Defaults to 5 seconds, zero disables the
+     * background flush.
+     * @param interval What to set.
+     */
+    public void setFlushInterval(@Duration @NonNegative final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        flushInterval = Constraint.isGreaterThanOrEqual(0, interval,
+                "Flush interval must be greater than or equal to 0");
+    }
+
+    /**
+     * Set whether the COPY protocol is used when the database supports it. Defaults to true.
+     * @param enabled What to set.
+     */
+    public void setCopyEnabled(final boolean enabled) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        copyEnabled = enabled;
+    }
+
+    /**
+     * Get the number of results stored since the startup.
+     * @return The number of stored results.
+     */
+    public long getIngestedCount() {
+        return ingestedCount.get();
+    }
+
+    /**
+     * Get the number of results whose batch could not be stored since the startup.
+     * @return The number of failed results.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Get the number of step results streamed with COPY since the startup.
+     * @return The number of copied step results.
+     */
+    public long getCopiedStepCount() {
+        return copiedStepCount.get();
+    }
+
+    /**
+     * Get the number of currently buffered results.
+     * @return The number of buffered results.
+     */
+    public int getBufferedCount() {
+        synchronized (buffer) {
+            return buffer.size();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == dataSource) {
+            throw new ComponentInitializationException("No database connection provided");
+        }
+        if (stepPersistencePolicy != null && rollupResolutions.isEmpty()) {
+            throw new ComponentInitializationException(
+                    "Rollup resolutions are required with a step persistence policy");
+        }
+        if (flushInterval > 0) {
+            flushTimer = new Timer("mpass-monitoring-bulk-ingest", true);
+            flushTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    flushQuietly();
+                }
+            }, flushInterval, flushInterval);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (flushTimer != null) {
+            flushTimer.cancel();
+            flushTimer = null;
+        }
+        flushQuietly();
+        super.doDestroy();
+    }
+
+    /**
+     * Buffers the given result, flushing the buffer if it reaches the batch size.
+     * 
+     * @param result The monitoring sequence result.
+     */
+    public void add(@Nonnull final MonitoringSequenceResult result) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final boolean full;
+        synchronized (buffer) {
+            buffer.add(result);
+            full = buffer.size() >= batchSize;
+        }
+        if (full) {
+            flushQuietly();
+        }
+    }
+
+    /**
+     * Stores the buffered results in one transaction. If the transaction fails, the results are spooled if a
+     * spool is configured.
+     * 
+     * @return The number of stored results.
+     * @throws SQLException If the results cannot be stored.
+     */
+    public int flush() throws SQLException {
+        synchronized (flushLock) {
+            final List<MonitoringSequenceResult> batch;
+            synchronized (buffer) {
+                if (buffer.isEmpty()) {
+                    return 0;
+                }
+                batch = new ArrayList<>(buffer);
+                buffer.clear();
+            }
+            try {
+                write(batch);
+            } catch (final SQLException e) {
+                failedCount.addAndGet(batch.size());
+                spool(batch);
+                throw e;
+            }
+            ingestedCount.addAndGet(batch.size());
+            log.debug("Stored a batch of {} monitoring results", batch.size());
+            return batch.size();
+        }
+    }
+
+    /**
+     * Flushes the buffer, logging any failure.
+     */
+    protected void flushQuietly() {
+        try {
+            flush();
+        } catch (final SQLException e) {
+            log.error("Could not store the buffered monitoring results", e);
+        }
+    }
+
+    /**
+     * Stores the given batch of results in one transaction.
+     * 
+     * @param batch The results.
+     * @throws SQLException If the results cannot be stored, the transaction is rolled back.
+     */
+    protected void write(@Nonnull final List<MonitoringSequenceResult> batch) throws SQLException {
+        try (final Connection dbConn = dataSource.getConnection();
+                final JdbcMonitoringResultWriter writer = new JdbcMonitoringResultWriter(dbConn);
+                final JdbcRollupWriter rollupWriter = new JdbcRollupWriter(dbConn, rollupResolutions);
+                final JdbcLatestStatusWriter statusWriter = new JdbcLatestStatusWriter(dbConn)) {
+            dbConn.setAutoCommit(false);
+            final MonitoringEvent flushEvent = MonitoringEvents.getRecorder().beginStorageFlush(
+                    JdbcBulkResultIngester.class.getSimpleName(), batch.size());
+            try {
+                final long[] resultIds = new long[batch.size()];
+                final boolean[] storeSteps = new boolean[batch.size()];
+                // the previous result of each sequence in this batch, as the policy only learns them on commit
+                final Map<String, MonitoringSequenceResult> previous = new HashMap<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    resultIds[i] = writer.insertResult(batch.get(i));
+                    if (stepPersistencePolicy != null) {
+                        storeSteps[i] = stepPersistencePolicy.shouldStoreSteps(batch.get(i), 
+                                previous.put(batch.get(i).getId(), batch.get(i)));
+                    } else {
+                        storeSteps[i] = true;
+                    }
+                    if (anomaliesEnabled) {
+                        writer.insertAnomalies(resultIds[i], batch.get(i));
+                    }
+                    rollupWriter.add(batch.get(i));
+                }
+                if (!copyEnabled || DatabaseDialect.fromConnection(dbConn) != DatabaseDialect.POSTGRESQL
+                        || !copyStepResults(dbConn, batch, resultIds, storeSteps)) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (storeSteps[i]) {
+                            writer.addStepResults(resultIds[i], batch.get(i));
+                        }
+                    }
+                    writer.executeStepResults();
+                }
+                rollupWriter.flush();
+                if (latestStatusEnabled) {
+                    for (final MonitoringSequenceResult result : batch) {
+                        statusWriter.update(result);
+                    }
+                }
+                dbConn.commit();
+                if (stepPersistencePolicy != null) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        stepPersistencePolicy.recordStored(batch.get(i), storeSteps[i]);
+                    }
+                }
+            } catch (final SQLException e) {
+                flushEvent.setError(e.getMessage());
+                rollupWriter.clear();
+                try {
+                    dbConn.rollback();
+                } catch (final SQLException rollbackException) {
+                    log.debug("Could not roll back the bulk transaction", rollbackException);
+                }
+                throw e;
+            } finally {
+                flushEvent.commit();
+            }
+        }
+    }
+
+    /**
+     * Streams the step results of the given batch with the PostgreSQL COPY protocol. The driver's copy API is
+     * looked up reflectively, so the PostgreSQL driver is not needed at compile time.
+     * 
+     * @param dbConn The database connection.
+     * @param batch The results.
+     * @param resultIds The identifiers for the stored sequence results, in the order of the batch.
+     * @param storeSteps Whether the step results of each sequence result are stored, in the order of the batch.
+     * @return True if the step results were copied, false if the copy API is not available.
+     * @throws SQLException If the copy fails.
+     */
+    protected boolean copyStepResults(@Nonnull final Connection dbConn, 
+            @Nonnull final List<MonitoringSequenceResult> batch, @Nonnull final long[] resultIds,
+            @Nonnull final boolean[] storeSteps) throws SQLException {
+        final Object copyManager;
+        final Method copyIn;
+        try {
+            final ClassLoader classLoader = dbConn.getClass().getClassLoader();
+            final Class<?> pgConnectionClass = Class.forName(PG_CONNECTION_CLASS, true, classLoader);
+            if (!dbConn.isWrapperFor(pgConnectionClass)) {
+                return false;
+            }
+            final Object pgConnection = dbConn.unwrap(pgConnectionClass);
+            copyManager = pgConnectionClass.getMethod("getCopyAPI").invoke(pgConnection);
+            copyIn = Class.forName(PG_COPY_MANAGER_CLASS, true, classLoader).getMethod("copyIn", 
+                    String.class, Reader.class);
+        } catch (final ClassNotFoundException | NoSuchMethodException | IllegalAccessException 
+                | InvocationTargetException e) {
+            log.debug("The PostgreSQL copy API is not available, using batched inserts", e);
+            return false;
+        }
+        final StringBuilder rows = new StringBuilder();
+        int count = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (!storeSteps[i]) {
+                continue;
+            }
+            for (final MonitoringSequenceStepResult step : batch.get(i).getStepResults()) {
+                appendCopyRow(rows, resultIds[i], step);
+                count++;
+            }
+        }
+        try {
+            copyIn.invoke(copyManager, SQL_COPY_STEP_RESULTS, new StringReader(rows.toString()));
+        } catch (final IllegalAccessException e) {
+            throw new SQLException("Could not invoke the PostgreSQL copy API", e);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Could not copy the step results", e.getCause());
+        }
+        copiedStepCount.addAndGet(count);
+        log.trace("Copied {} step results", count);
+        return true;
+    }
+
+    /**
+     * Appends the given step result as a row in the text format of COPY.
+     * 
+     * @param rows The rows to append to.
+     * @param resultId The identifier for the sequence result.
+     * @param step The step result.
+     */
+    public static void appendCopyRow(@Nonnull final StringBuilder rows, final long resultId, 
+            @Nonnull final MonitoringSequenceStepResult step) {
+        rows.append(resultId).append('\t').append(step.getPhaseId()).append('\t');
+        final String error = step.getErrorMessage();
+        if (error != null) {
+            for (int i = 0; i < error.length(); i++) {
+                final char c = error.charAt(i);
+                switch (c) {
+                    case '\\':
+                        rows.append("\\\\");
+                        break;
+                    case '\t':
+                        rows.append("\\t");
+                        break;
+                    case '\n':
+                        rows.append("\\n");
+                        break;
+                    case '\r':
+                        rows.append("\\r");
+                        break;
+                    default:
+                        rows.append(c);
+                }
+            }
+        }
+        rows.append('\t').append(step.getStartTime()).append('\t').append(step.getEndTime()).append('\n');
+    }
+
+    /**
+     * Spools the given batch that could not be stored, if a spool is configured.
+     * 
+     * @param batch The results.
+     */
+    private void spool(@Nonnull final List<MonitoringSequenceResult> batch) {
+        if (spool == null) {
+            log.error("Dropping {} monitoring results that could not be stored", batch.size());
+            return;
+        }
+        int dropped = 0;
+        for (final MonitoringSequenceResult result : batch) {
+            try {
+                if (!spool.offer(result)) {
+                    dropped++;
+                }
+            } catch (final IOException e) {
+                log.error("Could not spool the monitoring result", e);
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.error("Dropping {} monitoring results that could not be stored or spooled", dropped);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Maintains one row per monitored sequence in the latest status table over a single JDBC {@link Connection}, so
+ * that the current state of every sequence can be read without aggregating the result history.
+ * 
+ * <p>The row is updated in place, or inserted if the sequence has no row yet. A result older than the one already
+ * in the row, e.g. one replayed from a spool, leaves the row untouched, and so does a result with the same start
+ * time, which is taken to be already applied. The consecutive failure count and the
+ * last success time are carried over from the previous row in the update statement itself. As with
+ * {@link JdbcRollupWriter}, the caller owns the connection and its transactions, and if a concurrent transaction
+ * inserts the row of the same sequence first, the failed insert is rolled back to a savepoint and the row is
+ * updated instead.</p>
+ */
+public class JdbcLatestStatusWriter implements AutoCloseable {
+
+    /** The database table name storing the latest status of each sequence. */
+    public static final String TABLE_NAME_LATEST_STATUS = "mpass_monitoring_latest_status";
+
+    /** The column and constraint definitions of the latest status table. */
+    public static final String TABLE_DEFINITION = "sourceId VARCHAR(20) NOT NULL PRIMARY KEY,"
+            + " lastStartTime BIGINT NOT NULL, lastDuration BIGINT NOT NULL, failed INTEGER NOT NULL,"
+            + " failingStep VARCHAR(50) NOT NULL, consecutiveFailures INTEGER NOT NULL,"
+            + " lastSuccessTime BIGINT NOT NULL";
+
+    /** The statement for updating an existing row, unless it already holds the same or a newer result. */
+    public static final String SQL_UPDATE_STATUS = "UPDATE " + TABLE_NAME_LATEST_STATUS
+            + " SET lastStartTime = ?, lastDuration = ?, failed = ?, failingStep = ?,"
+            + " consecutiveFailures = CASE WHEN ? = 1 THEN consecutiveFailures + 1 ELSE 0 END,"
+            + " lastSuccessTime = CASE WHEN ? = 1 THEN lastSuccessTime ELSE ? END"
+            + " WHERE sourceId = ? AND lastStartTime < ?";
+
+    /** The statement for checking whether a row exists. */
+    public static final String SQL_SELECT_EXISTS = "SELECT lastStartTime FROM " + TABLE_NAME_LATEST_STATUS
+            + " WHERE sourceId = ?";
+
+    /** The statement for inserting a new row. */
+    public static final String SQL_INSERT_STATUS = "INSERT INTO " + TABLE_NAME_LATEST_STATUS
+            + " (sourceId, lastStartTime, lastDuration, failed, failingStep, consecutiveFailures, lastSuccessTime)"
+            + " VALUES (?,?,?,?,?,?,?)";
+
+    /** The statement for reading all the rows. */
+    public static final String SQL_SELECT_ALL = "SELECT sourceId, lastStartTime, lastDuration, failed,"
+            + " failingStep, consecutiveFailures, lastSuccessTime FROM " + TABLE_NAME_LATEST_STATUS
+            + " ORDER BY sourceId";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(JdbcLatestStatusWriter.class);
+
+    /** The connection used for preparing the statements. */
+    @Nonnull private final Connection connection;
+
+    /** The statement for updating rows, prepared on first use. */
+    private PreparedStatement updateStatus;
+
+    /** The statement for checking rows, prepared on first use. */
+    private PreparedStatement selectExists;
+
+    /** The statement for inserting rows, prepared on first use. */
+    private PreparedStatement insertStatus;
+
+    /**
+     * Constructor.
+     * @param dbConn The database connection, owned by the caller.
+     */
+    public JdbcLatestStatusWriter(@Nonnull final Connection dbConn) {
+        connection = Constraint.isNotNull(dbConn, "The database connection cannot be null");
+    }
+
+    /**
+     * Updates the latest status of the sequence of the given result.
+     * @param result The monitoring sequence result.
+     * @throws SQLException If the storage operation fails.
+     */
+    public void update(@Nonnull final MonitoringSequenceResult result) throws SQLException {
+        final String failingStep = getFailingStep(result);
+        final int failed = failingStep != null ? 1 : 0;
+        final long duration = result.getEndTime() - result.getStartTime();
+        if (updateStatus == null) {
+            updateStatus = connection.prepareStatement(SQL_UPDATE_STATUS);
+        }
+        updateStatus.setLong(1, result.getStartTime());
+        updateStatus.setLong(2, duration);
+        updateStatus.setInt(3, failed);
+        updateStatus.setString(4, failingStep != null ? failingStep : "");
+        updateStatus.setInt(5, failed);
+        updateStatus.setInt(6, failed);
+        updateStatus.setLong(7, result.getEndTime());
+        updateStatus.setString(8, result.getId());
+        updateStatus.setLong(9, result.getStartTime());
+        if (updateStatus.executeUpdate() > 0 || rowExists(result)) {
+            return;
+        }
+        final Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+        try {
+            insert(result, duration, failed, failingStep);
+        } catch (final SQLException e) {
+            if (!JdbcRollupWriter.isIntegrityConstraintViolation(e)) {
+                throw e;
+            }
+            if (savepoint != null) {
+                connection.rollback(savepoint);
+            }
+            log.debug("The latest status of {} was inserted concurrently, updating it", result.getId());
+            // the parameters of the update are still bound, it leaves the same or a newer result untouched
+            updateStatus.executeUpdate();
+            return;
+        }
+        if (savepoint != null) {
+            connection.releaseSavepoint(savepoint);
+        }
+    }
+
+    /**
+     * Checks whether the sequence of the given result already has a row, which then holds the same or a newer
+     * result.
+     * @param result The monitoring sequence result.
+     * @return True if the row exists, false otherwise.
+     * @throws SQLException If the storage operation fails.
+     */
+    private boolean rowExists(@Nonnull final MonitoringSequenceResult result) throws SQLException {
+        if (selectExists == null) {
+            selectExists = connection.prepareStatement(SQL_SELECT_EXISTS);
+        }
+        selectExists.setString(1, result.getId());
+        try (final ResultSet existing = selectExists.executeQuery()) {
+            if (existing.next()) {
+                log.debug("The latest status of {} is not older than the result, leaving it untouched", result.getId());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inserts a new row for the sequence of the given result.
+     * @param result The monitoring sequence result.
+     * @param duration The duration of the result.
+     * @param failed 1 if the result failed, 0 otherwise.
+     * @param failingStep The identifier for the first failed step, or null if no step failed.
+     * @throws SQLException If the storage operation fails.
+     */
+    protected void insert(@Nonnull final MonitoringSequenceResult result, final long duration, final int failed,
+            @Nullable final String failingStep) throws SQLException {
+        if (insertStatus == null) {
+            insertStatus = connection.prepareStatement(SQL_INSERT_STATUS);
+        }
+        insertStatus.setString(1, result.getId());
+        insertStatus.setLong(2, result.getStartTime());
+        insertStatus.setLong(3, duration);
+        insertStatus.setInt(4, failed);
+        insertStatus.setString(5, failingStep != null ? failingStep : "");
+        insertStatus.setInt(6, failed);
+        insertStatus.setLong(7, failed == 1 ? 0 : result.getEndTime());
+        insertStatus.executeUpdate();
+    }
+
+    /**
+     * Get the identifier for the first failed step of the given result.
+     * @param result The monitoring sequence result.
+     * @return The step identifier, as used in the rollups, or null if no step failed.
+     */
+    @Nullable public static String getFailingStep(@Nonnull final MonitoringSequenceResult result) {
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            if (step.getErrorMessage() != null) {
+                return JdbcRollupWriter.getStepId(step);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the latest status of the sequence in the current row of the given result set, selected with
+     * {@link #SQL_SELECT_ALL}.
+     * @param row The result set.
+     * @return The latest status.
+     * @throws SQLException If the row cannot be read.
+     */
+    @Nonnull public static LatestStatus read(@Nonnull final ResultSet row) throws SQLException {
+        final boolean failed = row.getInt("failed") == 1;
+        return new LatestStatus(row.getString("sourceId"), row.getLong("lastStartTime"), 
+                row.getLong("lastDuration"), failed ? row.getString("failingStep") : null, 
+                row.getInt("consecutiveFailures"), row.getLong("lastSuccessTime"));
+    }
+
+    /**
+     * Closes the statements prepared by this writer. The connection is left open.
+     * @throws SQLException If closing any of the statements fails.
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+        for (final PreparedStatement statement : new PreparedStatement[] { updateStatus, selectExists, 
+                insertStatus }) {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (final SQLException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        updateStatus = null;
+        selectExists = null;
+        insertStatus = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
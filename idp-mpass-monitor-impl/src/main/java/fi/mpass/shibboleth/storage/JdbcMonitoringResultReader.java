@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A {@link MonitoringResultReader} reading the results from the tables written by
+ * {@link JdbcMonitoringResultWriter}.
+ * 
+ * <p>The pages are positioned with a keyset on (startTime, id) instead of offsets, so that every page is an
+ * index range scan regardless of how deep it is, see the indexes created by {@link MonitoringSchemaManager}. The
+ * rows are streamed to the handler with a bounded fetch size, the full result set is never buffered.</p>
+ */
+public class JdbcMonitoringResultReader extends AbstractInitializableComponent implements MonitoringResultReader {
+
+    /** The expression telling whether any of the steps of a result failed. */
+    private static final String SQL_FAILED_STEP_EXISTS = "EXISTS (SELECT 1 FROM " 
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_STEP_RESULTS 
+            + " s WHERE s.resultId = r.id AND s.errorMessage <> '')";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(JdbcMonitoringResultReader.class);
+
+    /** JDBC data source for retrieving connections. */
+    @NonnullAfterInit private DataSource dataSource;
+
+    /** The number of rows fetched from the database at a time. */
+    @Positive private int fetchSize;
+
+    /** Constructor. */
+    public JdbcMonitoringResultReader() {
+        fetchSize = 500;
+    }
+
+    /**
+     * Set the data source used to communicate with the database.
+     * @param source What to set.
+     */
+    public void setDataSource(@Nonnull final DataSource source) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        dataSource = Constraint.isNotNull(source, "DataSource cannot be null");
+    }
+
+    /**
+     * Set the number of rows fetched from the database at a time. Defaults to 500. Not used with MySQL, whose
+     * driver only streams the rows one by one.
+     * @param size What to set.
+     */
+    public void setFetchSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        fetchSize = (int) Constraint.isGreaterThan(0, size, "Fetch size must be greater than 0");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == dataSource) {
+            throw new ComponentInitializationException("No database connection provided");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int query(@Nonnull final MonitoringResultQuery query, @Nonnull final MonitoringResultHandler handler)
+            throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final String sql = buildQuery(query);
+        log.trace("Querying the results with {}", sql);
+        try (final Connection dbConn = dataSource.getConnection()) {
+            // PostgreSQL only uses a cursor for the fetch size outside of auto-commit mode
+            dbConn.setAutoCommit(false);
+            dbConn.setReadOnly(true);
+            final DatabaseDialect dialect = DatabaseDialect.fromConnection(dbConn);
+            try (final PreparedStatement statement = dbConn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(dialect == DatabaseDialect.MYSQL ? Integer.MIN_VALUE 
+                        : Math.min(fetchSize, query.getLimit()));
+                statement.setMaxRows(query.getLimit());
+                setParameters(statement, query);
+                int count = 0;
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        handler.handle(new MonitoringResultRecord(resultSet.getLong(1), resultSet.getString(2),
+                                resultSet.getLong(3), resultSet.getLong(4), resultSet.getInt(5) == 1));
+                        count++;
+                    }
+                }
+                return count;
+            } finally {
+                dbConn.rollback();
+                dbConn.setReadOnly(false);
+            }
+        } catch (final SQLException e) {
+            log.error("Could not query the monitoring results", e);
+            throw new MonitoringResultStorageException("Could not query the monitoring results", e);
+        }
+    }
+
+    /**
+     * Reads the latest status of every sequence from the {@link JdbcLatestStatusWriter#TABLE_NAME_LATEST_STATUS}
+     * table, maintained when storing the results.
+     * 
+     * @return The latest statuses, ordered by the sequence identifier.
+     * @throws IOException If the statuses cannot be read.
+     */
+    @Nonnull public List<LatestStatus> readLatestStatuses() throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        try (final Connection dbConn = dataSource.getConnection();
+                final PreparedStatement statement = dbConn.prepareStatement(JdbcLatestStatusWriter.SQL_SELECT_ALL);
+                final ResultSet resultSet = statement.executeQuery()) {
+            final List<LatestStatus> statuses = new ArrayList<>();
+            while (resultSet.next()) {
+                statuses.add(JdbcLatestStatusWriter.read(resultSet));
+            }
+            return statuses;
+        } catch (final SQLException e) {
+            log.error("Could not read the latest statuses", e);
+            throw new MonitoringResultStorageException("Could not read the latest statuses", e);
+        }
+    }
+
+    /**
+     * Builds the SQL for the given query. The same criteria always produce the same SQL, so that the statements
+     * can be cached.
+     * 
+     * @param query The query.
+     * @return The SQL statement.
+     */
+    @Nonnull protected String buildQuery(@Nonnull final MonitoringResultQuery query) {
+        final StringBuilder sql = new StringBuilder("SELECT r.id, r.sourceId, r.startTime, r.endTime, CASE WHEN ")
+                .append(SQL_FAILED_STEP_EXISTS).append(" THEN 1 ELSE 0 END FROM ")
+                .append(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS)
+                .append(" r WHERE r.startTime >= ? AND r.startTime < ?");
+        if (query.getSequenceId() != null) {
+            sql.append(" AND r.sourceId = ?");
+        }
+        if (query.getStatus() == ResultStatus.FAILURE) {
+            sql.append(" AND ").append(SQL_FAILED_STEP_EXISTS);
+        } else if (query.getStatus() == ResultStatus.SUCCESS) {
+            sql.append(" AND NOT ").append(SQL_FAILED_STEP_EXISTS);
+        }
+        final String direction = query.isDescending() ? "DESC" : "ASC";
+        if (query.getAfterStartTime() != null && query.getAfterId() != null) {
+            final String operator = query.isDescending() ? "<" : ">";
+            // the redundant first condition keeps the keyset usable as an index range
+            sql.append(" AND r.startTime ").append(operator).append("= ? AND (r.startTime ").append(operator)
+                .append(" ? OR r.id ").append(operator).append(" ?)");
+        }
+        sql.append(" ORDER BY r.startTime ").append(direction).append(", r.id ").append(direction);
+        return sql.toString();
+    }
+
+    /**
+     * Sets the parameters of the statement built by {@link #buildQuery(MonitoringResultQuery)}.
+     * 
+     * @param statement The statement.
+     * @param query The query.
+     * @throws SQLException If the parameters cannot be set.
+     */
+    protected void setParameters(@Nonnull final PreparedStatement statement, 
+            @Nonnull final MonitoringResultQuery query) throws SQLException {
+        int index = 1;
+        statement.setLong(index++, query.getFrom());
+        statement.setLong(index++, query.getTo());
+        if (query.getSequenceId() != null) {
+            statement.setString(index++, query.getSequenceId());
+        }
+        if (query.getAfterStartTime() != null && query.getAfterId() != null) {
+            statement.setLong(index++, query.getAfterStartTime());
+            statement.setLong(index++, query.getAfterStartTime());
+            statement.setLong(index++, query.getAfterId());
+        }
+    }
+}
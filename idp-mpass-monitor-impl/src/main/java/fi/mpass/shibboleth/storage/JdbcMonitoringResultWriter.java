@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.monitor.context.LatencyAnomaly;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Writes {@link MonitoringSequenceResult}s and their step results over a single JDBC {@link Connection}.
+ * 
+ * <p>The statements are prepared lazily once per writer and reused for every result written through it. The SQL
+ * is kept in constants, so that a connection pool with statement caching enabled hands out the same cached
+ * statement for every writer. The caller owns the connection and its transactions, this writer only owns the
+ * statements and closes them in {@link #close()}.</p>
+ */
+public class JdbcMonitoringResultWriter implements AutoCloseable {
+
+    /** The database table name storing monitoring results. */
+    public static final String TABLE_NAME_MONITORING_RESULTS = "mpass_monitoring_result";
+
+    /** The database table name storing monitoring step results. */
+    public static final String TABLE_NAME_MONITORING_STEP_RESULTS = "mpass_monitoring_step_result";
+
+    /** The database table name storing the latency anomalies of monitoring results. */
+    public static final String TABLE_NAME_MONITORING_ANOMALIES = "mpass_monitoring_anomaly";
+
+    /** The column and constraint definitions of the anomaly table. */
+    public static final String TABLE_DEFINITION_ANOMALIES = "resultId BIGINT NOT NULL, stepId VARCHAR(50) NOT NULL,"
+            + " duration BIGINT NOT NULL, baselineMean DOUBLE PRECISION NOT NULL,"
+            + " baselineDeviation DOUBLE PRECISION NOT NULL, score DOUBLE PRECISION NOT NULL";
+
+    /** The statement for inserting a monitoring result. */
+    public static final String SQL_INSERT_RESULT = "INSERT INTO " + TABLE_NAME_MONITORING_RESULTS
+            + " (sourceId, startTime, endTime) VALUES (?,?,?)";
+
+    /** The statement for inserting a monitoring step result. */
+    public static final String SQL_INSERT_STEP_RESULT = "INSERT INTO " + TABLE_NAME_MONITORING_STEP_RESULTS
+            + " (resultId, phaseId, errorMessage, startTime, endTime) VALUES (?,?,?,?,?)";
+
+    /** The statement for inserting a latency anomaly. */
+    public static final String SQL_INSERT_ANOMALY = "INSERT INTO " + TABLE_NAME_MONITORING_ANOMALIES
+            + " (resultId, stepId, duration, baselineMean, baselineDeviation, score) VALUES (?,?,?,?,?,?)";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(JdbcMonitoringResultWriter.class);
+
+    /** The connection used for preparing the statements. */
+    @Nonnull private final Connection connection;
+
+    /** The statement for inserting monitoring results, prepared on first use. */
+    private PreparedStatement insertResult;
+
+    /** The statement for inserting monitoring step results, prepared on first use. */
+    private PreparedStatement insertStepResult;
+
+    /** The statement for inserting latency anomalies, prepared on first use. */
+    private PreparedStatement insertAnomaly;
+
+    /** The number of step results in the pending batch. */
+    private int pendingStepResults;
+
+    /**
+     * Constructor.
+     * @param dbConn The database connection, owned by the caller.
+     */
+    public JdbcMonitoringResultWriter(@Nonnull final Connection dbConn) {
+        connection = Constraint.isNotNull(dbConn, "The database connection cannot be null");
+    }
+
+    /**
+     * Get the database connection used by this writer.
+     * @return The database connection.
+     */
+    @Nonnull public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Stores the given {@link MonitoringSequenceResult} without the attached sequence step results.
+     * @param result The monitoring sequence result.
+     * @return The identifier for the sequence result, generated by the database engine.
+     * @throws SQLException If the storage operation fails.
+     */
+    public long insertResult(@Nonnull final MonitoringSequenceResult result) throws SQLException {
+        if (insertResult == null) {
+            insertResult = connection.prepareStatement(SQL_INSERT_RESULT, Statement.RETURN_GENERATED_KEYS);
+        }
+        insertResult.setString(1, result.getId());
+        insertResult.setLong(2, result.getStartTime());
+        insertResult.setLong(3, result.getEndTime());
+        insertResult.executeUpdate();
+        try (final ResultSet tableKeys = insertResult.getGeneratedKeys()) {
+            if (tableKeys.next()) {
+                final long key = tableKeys.getLong("id");
+                log.debug("Found key {}", key);
+                return key;
+            }
+        }
+        log.error("Could not get the generated key after insert!");
+        throw new SQLException("Could not get the generated key after insert!");
+    }
+
+    /**
+     * Stores the sequence step results from the given {@link MonitoringSequenceResult} as one batch.
+     * @param resultId The identifier for the already stored sequence result.
+     * @param result The monitoring sequence result, containing the sequence step results.
+     * @throws SQLException If the storage operation fails.
+     */
+    public void insertStepResults(final long resultId, @Nonnull final MonitoringSequenceResult result)
+            throws SQLException {
+        if (addStepResults(resultId, result) == 0) {
+            log.debug("No step results exists to be stored");
+            return;
+        }
+        executeStepResults();
+    }
+
+    /**
+     * Adds the sequence step results from the given {@link MonitoringSequenceResult} to the pending batch,
+     * to be stored by {@link #executeStepResults()} together with the step results of other sequence results.
+     * @param resultId The identifier for the already stored sequence result.
+     * @param result The monitoring sequence result, containing the sequence step results.
+     * @return The number of step results added to the batch.
+     * @throws SQLException If the step results cannot be added.
+     */
+    public int addStepResults(final long resultId, @Nonnull final MonitoringSequenceResult result)
+            throws SQLException {
+        final List<MonitoringSequenceStepResult> steps = result.getStepResults();
+        if (steps == null || steps.isEmpty()) {
+            return 0;
+        }
+        if (insertStepResult == null) {
+            insertStepResult = connection.prepareStatement(SQL_INSERT_STEP_RESULT);
+        }
+        for (final MonitoringSequenceStepResult step : steps) {
+            insertStepResult.setLong(1, resultId);
+            insertStepResult.setInt(2, step.getPhaseId());
+            insertStepResult.setString(3, step.getErrorMessage() != null ? step.getErrorMessage() : "");
+            insertStepResult.setLong(4, step.getStartTime());
+            insertStepResult.setLong(5, step.getEndTime());
+            insertStepResult.addBatch();
+        }
+        pendingStepResults += steps.size();
+        return steps.size();
+    }
+
+    /**
+     * Executes the pending batch of step results, if any.
+     * @throws SQLException If the storage operation fails.
+     */
+    public void executeStepResults() throws SQLException {
+        if (pendingStepResults == 0) {
+            return;
+        }
+        log.trace("Executing the batch of {} step results", pendingStepResults);
+        pendingStepResults = 0;
+        insertStepResult.executeBatch();
+    }
+
+    /**
+     * Stores the latency anomalies from the given {@link MonitoringSequenceResult} as one batch.
+     * @param resultId The identifier for the already stored sequence result.
+     * @param result The monitoring sequence result, containing the latency anomalies.
+     * @return The number of stored anomalies.
+     * @throws SQLException If the storage operation fails.
+     */
+    public int insertAnomalies(final long resultId, @Nonnull final MonitoringSequenceResult result)
+            throws SQLException {
+        final List<LatencyAnomaly> anomalies = result.getAnomalies();
+        if (anomalies.isEmpty()) {
+            return 0;
+        }
+        if (insertAnomaly == null) {
+            insertAnomaly = connection.prepareStatement(SQL_INSERT_ANOMALY);
+        }
+        for (final LatencyAnomaly anomaly : anomalies) {
+            insertAnomaly.setLong(1, resultId);
+            insertAnomaly.setString(2, anomaly.getStepId());
+            insertAnomaly.setLong(3, anomaly.getDuration());
+            insertAnomaly.setDouble(4, anomaly.getBaselineMean());
+            insertAnomaly.setDouble(5, anomaly.getBaselineDeviation());
+            insertAnomaly.setDouble(6, anomaly.getScore());
+            insertAnomaly.addBatch();
+        }
+        insertAnomaly.executeBatch();
+        return anomalies.size();
+    }
+
+    /**
+     * Closes the statements prepared by this writer. The connection is left open.
+     * @throws SQLException If closing any of the statements fails.
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+        for (final PreparedStatement statement : new PreparedStatement[] { insertResult, insertStepResult, 
+                insertAnomaly }) {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (final SQLException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        insertResult = null;
+        insertStepResult = null;
+        insertAnomaly = null;
+        pendingStepResults = 0;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
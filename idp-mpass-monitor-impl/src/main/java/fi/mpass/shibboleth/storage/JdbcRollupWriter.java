@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Maintains the rollup table incrementally from {@link MonitoringSequenceResult}s over a single JDBC
+ * {@link Connection}.
+ * 
+ * <p>The results are first aggregated in memory per sequence, step, resolution and time bucket, and
+ * {@link #flush()} then updates each touched rollup row once. The row is updated in place, or inserted if the
+ * bucket does not exist yet. The sequence as a whole is aggregated with an empty step identifier. The caller owns
+ * the connection and its transactions, so that the rollups are committed together with the raw results. If a
+ * concurrent transaction inserts the same bucket first, the failed insert is rolled back to a savepoint and the
+ * row is updated instead. The statements avoid casts and
+ * dialect-specific functions, so that they work unchanged on all the supported databases.</p>
+ */
+public class JdbcRollupWriter implements AutoCloseable {
+
+    /** The database table name storing the rollups. */
+    public static final String TABLE_NAME_MONITORING_ROLLUP = "mpass_monitoring_rollup";
+
+    /** The statement for updating an existing rollup row. */
+    public static final String SQL_UPDATE_ROLLUP;
+
+    /** The statement for inserting a new rollup row. */
+    public static final String SQL_INSERT_ROLLUP;
+
+    static {
+        final StringBuilder update = new StringBuilder("UPDATE " + TABLE_NAME_MONITORING_ROLLUP 
+                + " SET sampleCount = sampleCount + ?, errorCount = errorCount + ?,"
+                + " minDuration = CASE WHEN ? < minDuration THEN ? ELSE minDuration END,"
+                + " maxDuration = CASE WHEN ? > maxDuration THEN ? ELSE maxDuration END,"
+                + " sumDuration = sumDuration + ?");
+        final StringBuilder insertColumns = new StringBuilder("INSERT INTO " + TABLE_NAME_MONITORING_ROLLUP 
+                + " (sourceId, stepId, resolution, bucketStart, sampleCount, errorCount, minDuration, maxDuration,"
+                + " sumDuration");
+        final StringBuilder insertValues = new StringBuilder(" VALUES (?,?,?,?,?,?,?,?,?");
+        for (int i = 0; i <= RollupBucket.HISTOGRAM_BOUNDS.length; i++) {
+            update.append(", bucket").append(i).append(" = bucket").append(i).append(" + ?");
+            insertColumns.append(", bucket").append(i);
+            insertValues.append(",?");
+        }
+        update.append(" WHERE sourceId = ? AND stepId = ? AND resolution = ? AND bucketStart = ?");
+        SQL_UPDATE_ROLLUP = update.toString();
+        SQL_INSERT_ROLLUP = insertColumns.append(")").append(insertValues).append(")").toString();
+    }
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(JdbcRollupWriter.class);
+
+    /** The connection used for preparing the statements. */
+    @Nonnull private final Connection connection;
+
+    /** The resolutions to be maintained. */
+    @Nonnull @NonnullElements private final Collection<RollupResolution> resolutions;
+
+    /** The buckets aggregated since the last flush, by their key. */
+    @Nonnull private final Map<String, RollupBucket> pending;
+
+    /** The statement for updating rollups, prepared on first use. */
+    private PreparedStatement updateRollup;
+
+    /** The statement for inserting rollups, prepared on first use. */
+    private PreparedStatement insertRollup;
+
+    /**
+     * Constructor.
+     * @param dbConn The database connection, owned by the caller.
+     * @param rollupResolutions The resolutions to be maintained.
+     */
+    public JdbcRollupWriter(@Nonnull final Connection dbConn, 
+            @Nonnull @NonnullElements final Collection<RollupResolution> rollupResolutions) {
+        connection = Constraint.isNotNull(dbConn, "The database connection cannot be null");
+        resolutions = Constraint.isNotNull(rollupResolutions, "The resolutions cannot be null");
+        pending = new LinkedHashMap<>();
+    }
+
+    /**
+     * Aggregates the given result and its step results into the pending buckets.
+     * @param result The monitoring sequence result.
+     */
+    public void add(@Nonnull final MonitoringSequenceResult result) {
+        boolean error = false;
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            final boolean stepError = step.getErrorMessage() != null;
+            add(result.getId(), getStepId(step), step.getStartTime(), step.getEndTime() - step.getStartTime(),
+                    stepError);
+            error = error || stepError;
+        }
+        add(result.getId(), "", result.getStartTime(), result.getEndTime() - result.getStartTime(), error);
+    }
+
+    /**
+     * Aggregates one sample into the pending buckets of all the resolutions.
+     * @param sourceId The identifier for the monitored sequence.
+     * @param stepId The identifier for the step, empty for the whole sequence.
+     * @param startTime The start time of the sample in milliseconds.
+     * @param duration The duration of the sample in milliseconds.
+     * @param error Whether the sample failed.
+     */
+    public void add(@Nonnull final String sourceId, @Nonnull final String stepId, final long startTime,
+            final long duration, final boolean error) {
+        for (final RollupResolution resolution : resolutions) {
+            final long bucketStart = resolution.getBucketStart(startTime);
+            final String key = sourceId + '\n' + stepId + '\n' + resolution + '\n' + bucketStart;
+            RollupBucket bucket = pending.get(key);
+            if (bucket == null) {
+                bucket = new RollupBucket(sourceId, stepId, resolution, bucketStart);
+                pending.put(key, bucket);
+            }
+            bucket.add(duration, error);
+        }
+    }
+
+    /**
+     * Writes the pending buckets to the rollup table.
+     * @throws SQLException If the storage operation fails.
+     */
+    public void flush() throws SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (updateRollup == null) {
+            updateRollup = connection.prepareStatement(SQL_UPDATE_ROLLUP);
+        }
+        for (final RollupBucket bucket : pending.values()) {
+            int index = 1;
+            updateRollup.setLong(index++, bucket.getCount());
+            updateRollup.setLong(index++, bucket.getErrorCount());
+            updateRollup.setLong(index++, bucket.getMinDuration());
+            updateRollup.setLong(index++, bucket.getMinDuration());
+            updateRollup.setLong(index++, bucket.getMaxDuration());
+            updateRollup.setLong(index++, bucket.getMaxDuration());
+            updateRollup.setLong(index++, bucket.getSumDuration());
+            for (final long histogramCount : bucket.getHistogram()) {
+                updateRollup.setLong(index++, histogramCount);
+            }
+            updateRollup.setString(index++, bucket.getSourceId());
+            updateRollup.setString(index++, bucket.getStepId());
+            updateRollup.setLong(index++, bucket.getResolution().getLength());
+            updateRollup.setLong(index++, bucket.getBucketStart());
+            if (updateRollup.executeUpdate() == 0) {
+                insert(bucket);
+            }
+        }
+        log.trace("Flushed {} rollup buckets", pending.size());
+        pending.clear();
+    }
+
+    /**
+     * Inserts a new rollup row for the given bucket. If a concurrent transaction has inserted the row meanwhile,
+     * the insert is rolled back to a savepoint and the update, whose parameters are still bound, is repeated. No
+     * savepoint is needed in auto-commit mode, as the failed insert does not affect the other statements.
+     * @param bucket The bucket to be inserted.
+     * @throws SQLException If the storage operation fails.
+     */
+    protected void insert(@Nonnull final RollupBucket bucket) throws SQLException {
+        final Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+        try {
+            insertRow(bucket);
+        } catch (final SQLException e) {
+            if (!isIntegrityConstraintViolation(e)) {
+                throw e;
+            }
+            if (savepoint != null) {
+                connection.rollback(savepoint);
+            }
+            log.debug("The rollup bucket {} of {} was inserted concurrently, updating it", bucket.getBucketStart(),
+                    bucket.getSourceId());
+            if (updateRollup.executeUpdate() == 0) {
+                throw e;
+            }
+            return;
+        }
+        if (savepoint != null) {
+            connection.releaseSavepoint(savepoint);
+        }
+    }
+
+    /**
+     * Checks whether the given exception is an integrity constraint violation, i.e. its SQL state is of class 23.
+     * @param e The exception.
+     * @return True if the exception is an integrity constraint violation, false otherwise.
+     */
+    public static boolean isIntegrityConstraintViolation(@Nonnull final SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("23");
+    }
+
+    /**
+     * Executes the insert statement for the given bucket.
+     * @param bucket The bucket to be inserted.
+     * @throws SQLException If the storage operation fails.
+     */
+    private void insertRow(@Nonnull final RollupBucket bucket) throws SQLException {
+        if (insertRollup == null) {
+            insertRollup = connection.prepareStatement(SQL_INSERT_ROLLUP);
+        }
+        int index = 1;
+        insertRollup.setString(index++, bucket.getSourceId());
+        insertRollup.setString(index++, bucket.getStepId());
+        insertRollup.setLong(index++, bucket.getResolution().getLength());
+        insertRollup.setLong(index++, bucket.getBucketStart());
+        insertRollup.setLong(index++, bucket.getCount());
+        insertRollup.setLong(index++, bucket.getErrorCount());
+        insertRollup.setLong(index++, bucket.getMinDuration());
+        insertRollup.setLong(index++, bucket.getMaxDuration());
+        insertRollup.setLong(index++, bucket.getSumDuration());
+        for (final long histogramCount : bucket.getHistogram()) {
+            insertRollup.setLong(index++, histogramCount);
+        }
+        insertRollup.executeUpdate();
+    }
+
+    /**
+     * Discards the pending buckets, for instance after the surrounding transaction was rolled back.
+     */
+    public void clear() {
+        pending.clear();
+    }
+
+    /**
+     * Get the identifier used for the given step in the rollups. Steps without an identifier are identified by
+     * their phase.
+     * @param step The step result.
+     * @return The identifier for the step.
+     */
+    @Nonnull public static String getStepId(@Nonnull final MonitoringSequenceStepResult step) {
+        return step.getId() != null ? step.getId() : "#" + step.getPhaseId();
+    }
+
+    /**
+     * Closes the statements prepared by this writer. The connection is left open.
+     * @throws SQLException If closing any of the statements fails.
+     */
+    @Override
+    public void close() throws SQLException {
+        pending.clear();
+        try {
+            if (updateRollup != null) {
+                updateRollup.close();
+            }
+        } finally {
+            updateRollup = null;
+            if (insertRollup != null) {
+                insertRollup.close();
+            }
+            insertRollup = null;
+        }
+    }
+}
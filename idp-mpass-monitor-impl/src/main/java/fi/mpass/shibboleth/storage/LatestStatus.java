@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The latest status of one monitored sequence, as maintained in the
+ * {@link JdbcLatestStatusWriter#TABLE_NAME_LATEST_STATUS} table.
+ */
+public class LatestStatus {
+
+    /** The identifier for the monitored sequence. */
+    @Nonnull private final String sequenceId;
+
+    /** The start time of the latest run in milliseconds. */
+    private final long lastStartTime;
+
+    /** The duration of the latest run in milliseconds. */
+    private final long lastDuration;
+
+    /** The identifier for the first failed step of the latest run, null if it succeeded. */
+    @Nullable private final String failingStep;
+
+    /** The number of consecutive failed runs up to the latest one. */
+    private final int consecutiveFailures;
+
+    /** The end time of the latest successful run in milliseconds, zero if none. */
+    private final long lastSuccessTime;
+
+    /**
+     * Constructor.
+     * @param seqId The identifier for the monitored sequence.
+     * @param startTime The start time of the latest run in milliseconds.
+     * @param duration The duration of the latest run in milliseconds.
+     * @param failedStep The identifier for the first failed step of the latest run, null if it succeeded.
+     * @param failures The number of consecutive failed runs up to the latest one.
+     * @param successTime The end time of the latest successful run in milliseconds, zero if none.
+     */
+    public LatestStatus(@Nonnull final String seqId, final long startTime, final long duration,
+            @Nullable final String failedStep, final int failures, final long successTime) {
+        sequenceId = seqId;
+        lastStartTime = startTime;
+        lastDuration = duration;
+        failingStep = failedStep;
+        consecutiveFailures = failures;
+        lastSuccessTime = successTime;
+    }
+
+    /**
+     * Get the identifier for the monitored sequence.
+     * @return The identifier.
+     */
+    @Nonnull public String getSequenceId() {
+        return sequenceId;
+    }
+
+    /**
+     * Get the start time of the latest run.
+     * @return The start time in milliseconds.
+     */
+    public long getLastStartTime() {
+        return lastStartTime;
+    }
+
+    /**
+     * Get the duration of the latest run.
+     * @return The duration in milliseconds.
+     */
+    public long getLastDuration() {
+        return lastDuration;
+    }
+
+    /**
+     * Checks whether the latest run failed.
+     * @return True if the latest run failed, false otherwise.
+     */
+    public boolean isFailed() {
+        return failingStep != null;
+    }
+
+    /**
+     * Get the identifier for the first failed step of the latest run.
+     * @return The step identifier, null if the latest run succeeded.
+     */
+    @Nullable public String getFailingStep() {
+        return failingStep;
+    }
+
+    /**
+     * Get the number of consecutive failed runs up to the latest one.
+     * @return The number of consecutive failures, zero if the latest run succeeded.
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Get the end time of the latest successful run.
+     * @return The end time in milliseconds, zero if none.
+     */
+    public long getLastSuccessTime() {
+        return lastSuccessTime;
+    }
+}
@@ -0,0 +1,649 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An append-only log of {@link MonitoringSequenceResult}s on the local disk, for deployments without a database.
+ * 
+ * <p>The results are appended as length-prefixed and checksummed binary records to segment files in the given
+ * directory, through a {@link FileChannel}. A new segment is started when the active one reaches the configured
+ * size, and whole segments are deleted once all of their results are older than the retention period. The
+ * segments are scanned on initialization to rebuild the in-memory index by sequence and time. A torn or
+ * corrupted record at the end of the last segment, left by a crash in the middle of a write, is truncated away.
+ * A sealed segment is never truncated: if it contains an unreadable record, it is renamed with the
+ * {@link #CORRUPT_SUFFIX} for inspection and left out of the index.</p>
+ * 
+ * <p>The index holds everything needed for answering {@link MonitoringResultQuery}s, the segments are only read
+ * back for the step results, see {@link #read(MonitoringResultRecord)}.</p>
+ */
+public class LocalResultLog extends AbstractInitializableComponent implements MonitoringResultReader {
+
+    /** The file name prefix of the segments. */
+    public static final String SEGMENT_PREFIX = "results-";
+
+    /** The file name suffix of the segments. */
+    public static final String SEGMENT_SUFFIX = ".log";
+
+    /** The suffix added to the file name of a sealed segment that contains unreadable records. */
+    public static final String CORRUPT_SUFFIX = ".corrupt";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(LocalResultLog.class);
+
+    /** The directory of the segment files. */
+    @NonnullAfterInit private File directory;
+
+    /** The size after which a new segment is started, in bytes. */
+    @Positive private long segmentSize;
+
+    /** The retention period in milliseconds, zero to keep the results forever. */
+    @Duration @NonNegative private long retentionPeriod;
+
+    /** Whether each append is forced to the disk before returning. */
+    private boolean syncOnAppend;
+
+    /** The segments, oldest first. The last one is the active segment. */
+    @Nonnull private final List<Segment> segments;
+
+    /** The index of all the results, ordered by (startTime, id). */
+    @Nonnull private final ConcurrentSkipListSet<IndexEntry> index;
+
+    /** The index of the results by their sequence identifier, ordered by (startTime, id). */
+    @Nonnull private final ConcurrentMap<String, ConcurrentSkipListSet<IndexEntry>> indexBySequence;
+
+    /** The codec for the records. */
+    @Nonnull private final MonitoringResultCodec codec;
+
+    /** The channel for appending to the active segment. */
+    @Nullable private FileChannel activeChannel;
+
+    /** The identifier for the next appended result. */
+    private long nextId;
+
+    /** Constructor. */
+    public LocalResultLog() {
+        segmentSize = 16 * 1024 * 1024;
+        syncOnAppend = true;
+        segments = new ArrayList<>();
+        index = new ConcurrentSkipListSet<>();
+        indexBySequence = new ConcurrentHashMap<>();
+        codec = new MonitoringResultCodec();
+        nextId = 1;
+    }
+
+    /**
+     * Set the directory of the segment files. It is created if it doesn't exist.
+     * @param dir What to set.
+     */
+    public void setDirectory(@Nonnull final File dir) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        directory = Constraint.isNotNull(dir, "Directory cannot be null");
+    }
+
+    /**
+     * Set the size after which a new segment is started, in bytes. Defaults to 16 MB.
+     * @param size What to set.
+     */
+    public void setSegmentSize(@Positive final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        segmentSize = Constraint.isGreaterThan(0, size, "Segment size must be greater than 0");
+    }
+
+    /**
+     * Set the retention period in milliseconds. Defaults to zero, i.e. the results are kept forever.
+     * @param period What to set.
+     */
+    public void setRetentionPeriod(@Duration @NonNegative final long period) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        retentionPeriod = Constraint.isGreaterThanOrEqual(0, period, 
+                "Retention period must be greater than or equal to 0");
+    }
+
+    /**
+     * Set whether each append is forced to the disk before returning. Defaults to true.
+     * @param sync What to set.
+     */
+    public void setSyncOnAppend(final boolean sync) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        syncOnAppend = sync;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (directory == null) {
+            throw new ComponentInitializationException("No directory provided");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new ComponentInitializationException("Could not create the directory " + directory);
+        }
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+        try {
+            for (int i = 0; i < files.length; i++) {
+                final Segment segment = new Segment(files[i]);
+                if (recover(segment, i == files.length - 1)) {
+                    segments.add(segment);
+                }
+            }
+            if (segments.isEmpty()) {
+                segments.add(new Segment(getSegmentFile(nextId)));
+            }
+            openActiveSegment();
+        } catch (final IOException e) {
+            throw new ComponentInitializationException("Could not recover the result log from " + directory, e);
+        }
+        log.info("Recovered {} results from {} segments in {}", index.size(), segments.size(), directory);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized void doDestroy() {
+        closeActiveSegment();
+        index.clear();
+        indexBySequence.clear();
+        segments.clear();
+        super.doDestroy();
+    }
+
+    /**
+     * Appends the given result to the log.
+     * 
+     * @param result The monitoring sequence result.
+     * @return The identifier for the result in the log.
+     * @throws IOException If the result cannot be written.
+     */
+    public synchronized long append(@Nonnull final MonitoringSequenceResult result) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final long id = nextId;
+        final ByteBuffer record = codec.encode(id, result);
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.getSize() > 0 && segment.getSize() + record.remaining() > segmentSize) {
+            closeActiveSegment();
+            segment = new Segment(getSegmentFile(id));
+            segments.add(segment);
+            openActiveSegment();
+            purge(System.currentTimeMillis());
+        }
+        final long offset = segment.getSize();
+        while (record.hasRemaining()) {
+            activeChannel.write(record);
+        }
+        if (syncOnAppend) {
+            activeChannel.force(false);
+        }
+        segment.setSize(activeChannel.position());
+        addToIndex(new IndexEntry(id, result.getId(), result.getStartTime(), result.getEndTime(), 
+                isFailed(result), segment, offset));
+        nextId++;
+        return id;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int query(@Nonnull final MonitoringResultQuery query, @Nonnull final MonitoringResultHandler handler)
+            throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final NavigableSet<IndexEntry> entries = query.getSequenceId() == null ? index 
+                : indexBySequence.get(query.getSequenceId());
+        if (entries == null || query.getFrom() >= query.getTo()) {
+            return 0;
+        }
+        NavigableSet<IndexEntry> range = entries.subSet(new IndexEntry(query.getFrom(), Long.MIN_VALUE), true,
+                new IndexEntry(query.getTo(), Long.MIN_VALUE), false);
+        if (query.getAfterStartTime() != null && query.getAfterId() != null) {
+            final IndexEntry position = new IndexEntry(query.getAfterStartTime(), query.getAfterId());
+            range = query.isDescending() ? range.headSet(position, false) : range.tailSet(position, false);
+        }
+        final Iterator<IndexEntry> iterator = query.isDescending() ? range.descendingIterator() : range.iterator();
+        int count = 0;
+        while (count < query.getLimit() && iterator.hasNext()) {
+            final IndexEntry entry = iterator.next();
+            if (query.matches(entry.sequenceId, entry.startTime, entry.failed)) {
+                handler.handle(new MonitoringResultRecord(entry.id, entry.sequenceId, entry.startTime, 
+                        entry.endTime, entry.failed));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the full result, including the step results, of the given record from the log.
+     * 
+     * @param record The record returned by a query.
+     * @return The result, or null if it doesn't exist in the log anymore.
+     * @throws IOException If the result cannot be read.
+     */
+    @Nullable public MonitoringSequenceResult read(@Nonnull final MonitoringResultRecord record) 
+            throws IOException {
+        final IndexEntry entry = index.ceiling(new IndexEntry(record.getStartTime(), record.getId()));
+        if (entry == null || entry.id != record.getId()) {
+            return null;
+        }
+        try (final FileChannel channel = FileChannel.open(entry.segment.getFile().toPath(), 
+                StandardOpenOption.READ)) {
+            final ByteBuffer payload = readRecord(channel, entry.offset, channel.size());
+            if (payload == null) {
+                throw new MonitoringResultStorageException("Corrupted record " + record.getId() + " in " 
+                        + entry.segment.getFile());
+            }
+            return codec.decode(payload).getResult();
+        }
+    }
+
+    /**
+     * Deletes the segments, other than the active one, whose results are all older than the retention period.
+     * 
+     * @param now The current time in milliseconds.
+     */
+    public synchronized void purge(final long now) {
+        if (retentionPeriod == 0) {
+            return;
+        }
+        final long cutoff = now - retentionPeriod;
+        while (segments.size() > 1 && segments.get(0).getMaxStartTime() < cutoff) {
+            final Segment segment = segments.remove(0);
+            for (final IndexEntry entry : segment.getEntries()) {
+                index.remove(entry);
+                final ConcurrentSkipListSet<IndexEntry> sequenceEntries = indexBySequence.get(entry.sequenceId);
+                if (sequenceEntries != null) {
+                    sequenceEntries.remove(entry);
+                }
+            }
+            if (!segment.getFile().delete()) {
+                log.warn("Could not delete the expired segment {}", segment.getFile());
+            } else {
+                log.info("Deleted the expired segment {}", segment.getFile());
+            }
+        }
+    }
+
+    /**
+     * Scans the given segment and adds its records to the index. Anything after the last valid record is
+     * truncated away from the active segment, whereas a sealed segment with unreadable records is moved aside
+     * and none of its records are indexed.
+     * 
+     * @param segment The segment.
+     * @param active Whether the segment is the last one, to which new results are appended.
+     * @return True if the segment was recovered, false if it was moved aside.
+     * @throws IOException If the segment cannot be read, truncated or moved aside.
+     */
+    protected boolean recover(@Nonnull final Segment segment, final boolean active) throws IOException {
+        final List<IndexEntry> entries = new ArrayList<>();
+        final long size;
+        long position = 0;
+        try (final FileChannel channel = FileChannel.open(segment.getFile().toPath(), StandardOpenOption.READ, 
+                StandardOpenOption.WRITE)) {
+            size = channel.size();
+            ByteBuffer payload = readRecord(channel, position, size);
+            while (payload != null) {
+                final int length = payload.remaining();
+                final MonitoringResultCodec.Decoded decoded = codec.decode(payload);
+                entries.add(new IndexEntry(decoded.getId(), decoded.getResult().getId(), 
+                        decoded.getResult().getStartTime(), decoded.getResult().getEndTime(),
+                        isFailed(decoded.getResult()), segment, position));
+                nextId = Math.max(nextId, decoded.getId() + 1);
+                position += MonitoringResultCodec.HEADER_LENGTH + length;
+                payload = readRecord(channel, position, size);
+            }
+            if (position < size && active) {
+                log.warn("Truncating {} bytes of incomplete or corrupted records at offset {} from {}", 
+                        size - position, position, segment.getFile());
+                channel.truncate(position);
+                channel.force(true);
+            }
+        }
+        if (position < size && !active) {
+            final File corrupt = new File(segment.getFile().getPath() + CORRUPT_SUFFIX);
+            log.error("Unreadable record at offset {} of the sealed segment {}, moving it aside to {}", position, 
+                    segment.getFile(), corrupt);
+            Files.move(segment.getFile().toPath(), corrupt.toPath());
+            return false;
+        }
+        for (final IndexEntry entry : entries) {
+            addToIndex(entry);
+        }
+        segment.setSize(position);
+        return true;
+    }
+
+    /**
+     * Reads and verifies the record at the given position.
+     * 
+     * @param channel The channel to read from.
+     * @param position The position of the record.
+     * @param size The size of the channel.
+     * @return The payload of the record, or null if there is no complete and valid record at the position.
+     * @throws IOException If the channel cannot be read.
+     */
+    @Nullable protected ByteBuffer readRecord(@Nonnull final FileChannel channel, final long position, 
+            final long size) throws IOException {
+        if (position + MonitoringResultCodec.HEADER_LENGTH > size) {
+            return null;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(MonitoringResultCodec.HEADER_LENGTH);
+        readFully(channel, header, position);
+        final int length = header.getInt(0);
+        final int checksum = header.getInt(4);
+        if (!MonitoringResultCodec.isValidLength(length) 
+                || position + MonitoringResultCodec.HEADER_LENGTH + length > size) {
+            return null;
+        }
+        final ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(channel, payload, position + MonitoringResultCodec.HEADER_LENGTH);
+        payload.flip();
+        return MonitoringResultCodec.isValidChecksum(payload, checksum) ? payload : null;
+    }
+
+    /**
+     * Get the segment file for the segment starting with the given identifier.
+     * 
+     * @param firstId The identifier for the first result in the segment.
+     * @return The segment file.
+     */
+    @Nonnull protected File getSegmentFile(final long firstId) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%020d", firstId) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Opens the channel for appending to the last segment.
+     * 
+     * @throws IOException If the channel cannot be opened.
+     */
+    private void openActiveSegment() throws IOException {
+        final Segment segment = segments.get(segments.size() - 1);
+        activeChannel = FileChannel.open(segment.getFile().toPath(), StandardOpenOption.CREATE, 
+                StandardOpenOption.WRITE);
+        activeChannel.position(segment.getSize());
+    }
+
+    /**
+     * Closes the channel of the active segment, if open.
+     */
+    private void closeActiveSegment() {
+        if (activeChannel != null) {
+            try {
+                activeChannel.force(true);
+                activeChannel.close();
+            } catch (final IOException e) {
+                log.warn("Could not close the active segment", e);
+            }
+            activeChannel = null;
+        }
+    }
+
+    /**
+     * Adds the given entry to the indexes.
+     * 
+     * @param entry The entry.
+     */
+    private void addToIndex(@Nonnull final IndexEntry entry) {
+        index.add(entry);
+        ConcurrentSkipListSet<IndexEntry> sequenceEntries = indexBySequence.get(entry.sequenceId);
+        if (sequenceEntries == null) {
+            sequenceEntries = new ConcurrentSkipListSet<>();
+            final ConcurrentSkipListSet<IndexEntry> existing = 
+                    indexBySequence.putIfAbsent(entry.sequenceId, sequenceEntries);
+            if (existing != null) {
+                sequenceEntries = existing;
+            }
+        }
+        sequenceEntries.add(entry);
+        entry.segment.addEntry(entry);
+    }
+
+    /**
+     * Checks whether any of the steps of the given result failed.
+     * 
+     * @param result The result.
+     * @return True if any of the steps failed, false otherwise.
+     */
+    private static boolean isFailed(@Nonnull final MonitoringSequenceResult result) {
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            if (step.getErrorMessage() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads bytes from the channel until the buffer is full.
+     * 
+     * @param channel The channel.
+     * @param buffer The buffer.
+     * @param position The position to start reading from.
+     * @throws IOException If the channel ends before the buffer is full.
+     */
+    private static void readFully(@Nonnull final FileChannel channel, @Nonnull final ByteBuffer buffer,
+            final long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, current);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            current += read;
+        }
+    }
+
+    /**
+     * A segment file of the log.
+     */
+    protected static class Segment {
+
+        /** The segment file. */
+        private final File file;
+
+        /** The index entries of the results in this segment. */
+        private final List<IndexEntry> entries;
+
+        /** The size of the valid records in bytes. */
+        private long size;
+
+        /** The latest start time of the results in this segment. */
+        private long maxStartTime;
+
+        /**
+         * Constructor.
+         * @param segmentFile The segment file.
+         */
+        Segment(final File segmentFile) {
+            file = segmentFile;
+            entries = new ArrayList<>();
+            maxStartTime = Long.MIN_VALUE;
+        }
+
+        /**
+         * Get the segment file.
+         * @return The segment file.
+         */
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * Get the size of the valid records.
+         * @return The size in bytes.
+         */
+        long getSize() {
+            return size;
+        }
+
+        /**
+         * Set the size of the valid records.
+         * @param newSize What to set.
+         */
+        void setSize(final long newSize) {
+            size = newSize;
+        }
+
+        /**
+         * Get the latest start time of the results in this segment.
+         * @return The latest start time in milliseconds.
+         */
+        long getMaxStartTime() {
+            return maxStartTime;
+        }
+
+        /**
+         * Get the index entries of the results in this segment.
+         * @return The index entries.
+         */
+        List<IndexEntry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Adds an index entry of a result in this segment.
+         * @param entry What to add.
+         */
+        void addEntry(final IndexEntry entry) {
+            entries.add(entry);
+            maxStartTime = Math.max(maxStartTime, entry.startTime);
+        }
+    }
+
+    /**
+     * The in-memory index entry of one result, ordered by (startTime, id).
+     */
+    protected static class IndexEntry implements Comparable<IndexEntry> {
+
+        /** The identifier for the result in the log. */
+        private final long id;
+
+        /** The identifier for the monitored sequence. */
+        private final String sequenceId;
+
+        /** The start time in milliseconds. */
+        private final long startTime;
+
+        /** The end time in milliseconds. */
+        private final long endTime;
+
+        /** Whether any of the steps failed. */
+        private final boolean failed;
+
+        /** The segment containing the result. */
+        private final Segment segment;
+
+        /** The position of the record in the segment. */
+        private final long offset;
+
+        /**
+         * Constructor for a position used for navigating the index.
+         * @param start The start time in milliseconds.
+         * @param resultId The identifier for the result.
+         */
+        IndexEntry(final long start, final long resultId) {
+            this(resultId, null, start, start, false, null, -1);
+        }
+
+        /**
+         * Constructor.
+         * @param resultId The identifier for the result in the log.
+         * @param seqId The identifier for the monitored sequence.
+         * @param start The start time in milliseconds.
+         * @param end The end time in milliseconds.
+         * @param failure Whether any of the steps failed.
+         * @param resultSegment The segment containing the result.
+         * @param position The position of the record in the segment.
+         */
+        IndexEntry(final long resultId, final String seqId, final long start, final long end, 
+                final boolean failure, final Segment resultSegment, final long position) {
+            id = resultId;
+            sequenceId = seqId;
+            startTime = start;
+            endTime = end;
+            failed = failure;
+            segment = resultSegment;
+            offset = position;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int compareTo(final IndexEntry other) {
+            if (startTime != other.startTime) {
+                return startTime < other.startTime ? -1 : 1;
+            }
+            return id == other.id ? 0 : (id < other.id ? -1 : 1);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof IndexEntry)) {
+                return false;
+            }
+            return compareTo((IndexEntry) obj) == 0;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return (int) (startTime ^ (startTime >>> 32)) * 31 + (int) (id ^ (id >>> 32));
+        }
+    }
+}
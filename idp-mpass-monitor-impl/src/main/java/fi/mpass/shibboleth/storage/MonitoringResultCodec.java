@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.mpass.shibboleth.monitor.context.LatencyAnomaly;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+
+/**
+ * Encodes {@link MonitoringSequenceResult}s into length-prefixed and CRC-32 checksummed binary records, and
+ * decodes them back. Used by the on-disk storages, {@link LocalResultLog} and {@link MonitoringResultSpool}.
+ * 
+ * <p>The latency anomalies of the result follow its steps. The records written before the anomalies were added
+ * end after the steps and decode without anomalies.</p>
+ * 
+ * <p>An instance reuses its encoding buffer and is therefore not thread-safe.</p>
+ */
+public class MonitoringResultCodec {
+
+    /** The length of the record header: the payload length and its CRC-32. */
+    public static final int HEADER_LENGTH = 8;
+
+    /** The maximum accepted payload length, anything longer is considered corrupted. */
+    public static final int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+
+    /** The character set of the strings in the records. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The buffer for encoding the records. */
+    @Nonnull private final ByteArrayOutputStream encodingBuffer;
+
+    /** Constructor. */
+    public MonitoringResultCodec() {
+        encodingBuffer = new ByteArrayOutputStream(1024);
+    }
+
+    /**
+     * Encodes the given result into a record.
+     * 
+     * @param id The identifier for the result in the storage.
+     * @param result The result.
+     * @return The record, including the header.
+     * @throws IOException If the result cannot be encoded.
+     */
+    @Nonnull public ByteBuffer encode(final long id, @Nonnull final MonitoringSequenceResult result) 
+            throws IOException {
+        encodingBuffer.reset();
+        final DataOutputStream out = new DataOutputStream(encodingBuffer);
+        out.writeLong(0);
+        out.writeLong(id);
+        writeString(out, result.getId());
+        out.writeLong(result.getStartTime());
+        out.writeLong(result.getEndTime());
+        out.writeInt(result.getStepResults().size());
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            writeString(out, step.getId());
+            out.writeInt(step.getPhaseId());
+            out.writeLong(step.getStartTime());
+            out.writeLong(step.getEndTime());
+            writeString(out, step.getErrorMessage());
+        }
+        out.writeInt(result.getAnomalies().size());
+        for (final LatencyAnomaly anomaly : result.getAnomalies()) {
+            writeString(out, anomaly.getStepId());
+            out.writeLong(anomaly.getDuration());
+            out.writeDouble(anomaly.getBaselineMean());
+            out.writeDouble(anomaly.getBaselineDeviation());
+            out.writeDouble(anomaly.getScore());
+        }
+        out.flush();
+        final byte[] bytes = encodingBuffer.toByteArray();
+        final int length = bytes.length - HEADER_LENGTH;
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_LENGTH, length);
+        final ByteBuffer record = ByteBuffer.wrap(bytes);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    /**
+     * Decodes the given record payload.
+     * 
+     * @param payload The record payload, without the header.
+     * @return The decoded identifier and result.
+     * @throws IOException If the payload cannot be decoded.
+     */
+    @Nonnull public Decoded decode(@Nonnull final ByteBuffer payload) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array(), 
+                payload.arrayOffset() + payload.position(), payload.remaining()));
+        final long id = in.readLong();
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(readString(in));
+        result.setStartTime(in.readLong());
+        result.setEndTime(in.readLong());
+        final int stepCount = in.readInt();
+        for (int i = 0; i < stepCount; i++) {
+            final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+            step.setId(readString(in));
+            step.setPhaseId(in.readInt());
+            step.setStartTime(in.readLong());
+            step.setEndTime(in.readLong());
+            step.setErrorMessage(readString(in));
+            result.addStepResult(step);
+        }
+        final int anomalyCount = in.available() > 0 ? in.readInt() : 0;
+        for (int i = 0; i < anomalyCount; i++) {
+            final LatencyAnomaly anomaly = new LatencyAnomaly();
+            anomaly.setStepId(readString(in));
+            anomaly.setDuration(in.readLong());
+            anomaly.setBaselineMean(in.readDouble());
+            anomaly.setBaselineDeviation(in.readDouble());
+            anomaly.setScore(in.readDouble());
+            result.addAnomaly(anomaly);
+        }
+        return new Decoded(id, result);
+    }
+
+    /**
+     * Checks whether the given payload length read from a record header is acceptable.
+     * 
+     * @param length The payload length.
+     * @return True if the length is acceptable, false otherwise.
+     */
+    public static boolean isValidLength(final int length) {
+        return length > 0 && length <= MAX_PAYLOAD_LENGTH;
+    }
+
+    /**
+     * Checks whether the given payload matches the checksum read from its record header.
+     * 
+     * @param payload The record payload, without the header.
+     * @param checksum The checksum from the record header.
+     * @return True if the payload matches the checksum, false otherwise.
+     */
+    public static boolean isValidChecksum(@Nonnull final ByteBuffer payload, final int checksum) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        return (int) crc.getValue() == checksum;
+    }
+
+    /**
+     * Verifies a complete record, including the header, and returns its payload.
+     * 
+     * @param record The record.
+     * @return The payload of the record, or null if the record is incomplete or corrupted.
+     */
+    @Nullable public static ByteBuffer getPayload(@Nonnull final byte[] record) {
+        if (record.length < HEADER_LENGTH) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        final int length = buffer.getInt(0);
+        if (!isValidLength(length) || length != record.length - HEADER_LENGTH) {
+            return null;
+        }
+        final ByteBuffer payload = ByteBuffer.wrap(record, HEADER_LENGTH, length).slice();
+        return isValidChecksum(payload, buffer.getInt(4)) ? payload : null;
+    }
+
+    /**
+     * Writes a nullable string.
+     * 
+     * @param out The output.
+     * @param value The string.
+     * @throws IOException If the string cannot be written.
+     */
+    private static void writeString(@Nonnull final DataOutputStream out, @Nullable final String value) 
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a nullable string.
+     * 
+     * @param in The input.
+     * @return The string.
+     * @throws IOException If the string cannot be read.
+     */
+    @Nullable private static String readString(@Nonnull final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * A decoded record.
+     */
+    public static class Decoded {
+
+        /** The identifier for the result in the storage. */
+        private final long id;
+
+        /** The result. */
+        private final MonitoringSequenceResult result;
+
+        /**
+         * Constructor.
+         * @param resultId The identifier for the result in the storage.
+         * @param decodedResult The result.
+         */
+        Decoded(final long resultId, final MonitoringSequenceResult decodedResult) {
+            id = resultId;
+            result = decodedResult;
+        }
+
+        /**
+         * Get the identifier for the result in the storage.
+         * @return The identifier.
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Get the result.
+         * @return The result.
+         */
+        public MonitoringSequenceResult getResult() {
+            return result;
+        }
+    }
+}
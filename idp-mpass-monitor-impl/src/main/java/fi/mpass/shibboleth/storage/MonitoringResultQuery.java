@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * The criteria and the page position of a query over the stored monitoring results.
+ * 
+ * <p>The results are ordered by (startTime, id). A page following a previous one is requested by setting the
+ * position after the last record of the previous page, see {@link #setAfter(long, long)}.</p>
+ */
+public class MonitoringResultQuery {
+
+    /** The default maximum number of records returned by one query. */
+    public static final int DEFAULT_LIMIT = 100;
+
+    /** The identifier for the monitored sequence, or null for all sequences. */
+    @Nullable private String sequenceId;
+
+    /** The start of the time range in milliseconds, inclusive. */
+    private long from;
+
+    /** The end of the time range in milliseconds, exclusive. */
+    private long to;
+
+    /** The outcome of the results. */
+    @Nonnull private ResultStatus status;
+
+    /** The maximum number of records returned. */
+    @Positive private int limit;
+
+    /** Whether the newest results come first. */
+    private boolean descending;
+
+    /** The start time of the last record of the previous page, or null for the first page. */
+    @Nullable private Long afterStartTime;
+
+    /** The identifier of the last record of the previous page, or null for the first page. */
+    @Nullable private Long afterId;
+
+    /**
+     * Constructor.
+     */
+    public MonitoringResultQuery() {
+        from = 0;
+        to = Long.MAX_VALUE;
+        status = ResultStatus.ANY;
+        limit = DEFAULT_LIMIT;
+    }
+
+    /**
+     * Get the identifier for the monitored sequence.
+     * @return The identifier for the monitored sequence, or null for all sequences.
+     */
+    @Nullable public String getSequenceId() {
+        return sequenceId;
+    }
+
+    /**
+     * Set the identifier for the monitored sequence.
+     * @param id What to set, null for all sequences.
+     */
+    public void setSequenceId(@Nullable final String id) {
+        sequenceId = id;
+    }
+
+    /**
+     * Get the start of the time range.
+     * @return The start of the time range in milliseconds, inclusive.
+     */
+    public long getFrom() {
+        return from;
+    }
+
+    /**
+     * Set the start of the time range.
+     * @param start What to set, in milliseconds, inclusive.
+     */
+    public void setFrom(final long start) {
+        from = start;
+    }
+
+    /**
+     * Get the end of the time range.
+     * @return The end of the time range in milliseconds, exclusive.
+     */
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * Set the end of the time range.
+     * @param end What to set, in milliseconds, exclusive.
+     */
+    public void setTo(final long end) {
+        to = end;
+    }
+
+    /**
+     * Get the outcome of the results.
+     * @return The outcome of the results.
+     */
+    @Nonnull public ResultStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Set the outcome of the results. Defaults to {@link ResultStatus#ANY}.
+     * @param newStatus What to set.
+     */
+    public void setStatus(@Nonnull final ResultStatus newStatus) {
+        status = Constraint.isNotNull(newStatus, "Status cannot be null");
+    }
+
+    /**
+     * Get the maximum number of records returned.
+     * @return The maximum number of records returned.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Set the maximum number of records returned. Defaults to {@link #DEFAULT_LIMIT}.
+     * @param maxRecords What to set.
+     */
+    public void setLimit(@Positive final int maxRecords) {
+        limit = (int) Constraint.isGreaterThan(0, maxRecords, "Limit must be greater than 0");
+    }
+
+    /**
+     * Get whether the newest results come first.
+     * @return Whether the newest results come first.
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * Set whether the newest results come first. Defaults to false.
+     * @param newestFirst What to set.
+     */
+    public void setDescending(final boolean newestFirst) {
+        descending = newestFirst;
+    }
+
+    /**
+     * Get the start time of the last record of the previous page.
+     * @return The start time of the last record of the previous page, or null for the first page.
+     */
+    @Nullable public Long getAfterStartTime() {
+        return afterStartTime;
+    }
+
+    /**
+     * Get the identifier of the last record of the previous page.
+     * @return The identifier of the last record of the previous page, or null for the first page.
+     */
+    @Nullable public Long getAfterId() {
+        return afterId;
+    }
+
+    /**
+     * Set the position after which the page starts.
+     * @param startTime The start time of the last record of the previous page.
+     * @param id The identifier of the last record of the previous page.
+     */
+    public void setAfter(final long startTime, final long id) {
+        afterStartTime = startTime;
+        afterId = id;
+    }
+
+    /**
+     * Checks whether the given record comes after the page position of this query, in the order of this query.
+     * @param startTime The start time of the record.
+     * @param id The identifier of the record.
+     * @return True if the record is after the page position or no position is set, false otherwise.
+     */
+    public boolean isAfterPosition(final long startTime, final long id) {
+        if (afterStartTime == null || afterId == null) {
+            return true;
+        }
+        final int compare = startTime != afterStartTime ? Long.compare(startTime, afterStartTime) 
+                : Long.compare(id, afterId);
+        return descending ? compare < 0 : compare > 0;
+    }
+
+    /**
+     * Checks whether the given record matches the criteria of this query, ignoring the page position.
+     * @param id The identifier for the monitored sequence of the record.
+     * @param startTime The start time of the record.
+     * @param failed Whether the record has failed.
+     * @return True if the record matches, false otherwise.
+     */
+    public boolean matches(@Nullable final String id, final long startTime, final boolean failed) {
+        if (sequenceId != null && !sequenceId.equals(id)) {
+            return false;
+        }
+        if (startTime < from || startTime >= to) {
+            return false;
+        }
+        return status == ResultStatus.ANY || (status == ResultStatus.FAILURE) == failed;
+    }
+}
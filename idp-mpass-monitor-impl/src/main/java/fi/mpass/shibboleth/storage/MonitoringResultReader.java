@@ -0,0 +1,46 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * This interface represents the read side of a monitoring result storage.
+ */
+public interface MonitoringResultReader {
+
+    /**
+     * Streams the records matching the given query to the given handler, in the order of the query. At most
+     * {@link MonitoringResultQuery#getLimit()} records are passed to the handler.
+     * 
+     * @param query The query.
+     * @param handler The handler receiving the records.
+     * @return The number of records passed to the handler.
+     * @throws IOException If the storage cannot be read, or the handler fails.
+     */
+    public int query(@Nonnull final MonitoringResultQuery query, @Nonnull final MonitoringResultHandler handler)
+            throws IOException;
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+/**
+ * A monitoring sequence result as read back from the storage.
+ */
+public class MonitoringResultRecord {
+
+    /** The storage identifier for the result. */
+    private final long id;
+
+    /** The identifier for the monitored sequence. */
+    private final String sequenceId;
+
+    /** The start time in milliseconds. */
+    private final long startTime;
+
+    /** The end time in milliseconds. */
+    private final long endTime;
+
+    /** Whether any of the steps failed. */
+    private final boolean failed;
+
+    /**
+     * Constructor.
+     * @param resultId The storage identifier for the result.
+     * @param sourceId The identifier for the monitored sequence.
+     * @param start The start time in milliseconds.
+     * @param end The end time in milliseconds.
+     * @param failure Whether any of the steps failed.
+     */
+    public MonitoringResultRecord(final long resultId, final String sourceId, final long start, final long end,
+            final boolean failure) {
+        id = resultId;
+        sequenceId = sourceId;
+        startTime = start;
+        endTime = end;
+        failed = failure;
+    }
+
+    /**
+     * Get the storage identifier for the result.
+     * @return The storage identifier for the result.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Get the identifier for the monitored sequence.
+     * @return The identifier for the monitored sequence.
+     */
+    public String getSequenceId() {
+        return sequenceId;
+    }
+
+    /**
+     * Get the start time.
+     * @return The start time in milliseconds.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Get the end time.
+     * @return The end time in milliseconds.
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Get whether any of the steps failed.
+     * @return Whether any of the steps failed.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+}
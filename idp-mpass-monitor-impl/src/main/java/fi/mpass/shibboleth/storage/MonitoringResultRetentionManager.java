@@ -0,0 +1,540 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Enforces the retention period of the monitoring result tables.
+ * 
+ * <p>If a result table is range partitioned by <code>startTime</code>, partitions for the upcoming periods are
+ * created ahead of time and the partitions older than the retention period are dropped as a whole. The existing
+ * partitions are recognized by their names: <code>&lt;table&gt;_p&lt;yyyyMMdd|yyyyMM&gt;</code> on PostgreSQL
+ * and <code>p&lt;yyyyMMdd|yyyyMM&gt;</code> on MySQL. For instance on PostgreSQL the tables can be declared as
+ * follows:</p>
+ * 
+ * <pre>
+ * CREATE TABLE mpass_monitoring_result (
+ *     id BIGSERIAL NOT NULL, sourceId VARCHAR(20) NOT NULL, startTime BIGINT NOT NULL, endTime BIGINT NOT NULL,
+ *     PRIMARY KEY (id, startTime)) PARTITION BY RANGE (startTime);
+ * </pre>
+ * 
+ * <p>Tables that are not partitioned, or databases without partitioning support, are cleaned with deletes in
+ * chunks of limited size, each in its own transaction, so that a single purge never holds locks over a large
+ * part of the table.</p>
+ * 
+ * <p>The latency anomalies, if their table exists, are deleted in the same chunks as the step results. As the
+ * anomaly table is not partitioned, the anomalies of the results in dropped partitions are deleted afterwards by
+ * their result identifier, which grows with the insertion order.</p>
+ */
+public class MonitoringResultRetentionManager extends AbstractInitializableComponent {
+
+    /** The tables whose retention is managed. */
+    private static final String[] TABLES = new String[] { JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS,
+        JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_STEP_RESULTS, };
+
+    /** The statement for selecting the identifiers of expired results, in insertion order. */
+    private static final String SQL_SELECT_EXPIRED_IDS = "SELECT id FROM " 
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS + " WHERE startTime < ? ORDER BY id";
+
+    /** The statement for deleting the step results of one chunk of expired results. */
+    private static final String SQL_DELETE_EXPIRED_STEPS = "DELETE FROM " 
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_STEP_RESULTS + " WHERE resultId IN (SELECT id FROM "
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS + " WHERE startTime < ? AND id <= ?)";
+
+    /** The statement for deleting the anomalies of one chunk of expired results. */
+    private static final String SQL_DELETE_EXPIRED_ANOMALIES = "DELETE FROM " 
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES + " WHERE resultId IN (SELECT id FROM "
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS + " WHERE startTime < ? AND id <= ?)";
+
+    /** The statement for deleting the anomalies older than any remaining result. */
+    private static final String SQL_DELETE_ORPHAN_ANOMALIES = "DELETE FROM " 
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES + " WHERE resultId < (SELECT MIN(id) FROM "
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS + ")";
+
+    /** The statement for deleting all the anomalies when no results remain. */
+    private static final String SQL_DELETE_ALL_ANOMALIES = "DELETE FROM " 
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES + " WHERE NOT EXISTS (SELECT id FROM "
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS + ")";
+
+    /** The statement for deleting one chunk of expired results. */
+    private static final String SQL_DELETE_EXPIRED_RESULTS = "DELETE FROM "
+            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS + " WHERE startTime < ? AND id <= ?";
+
+    /** The statement for checking whether a table is partitioned in PostgreSQL. */
+    private static final String SQL_PG_IS_PARTITIONED = "SELECT COUNT(*) FROM pg_partitioned_table pt "
+            + "JOIN pg_class c ON c.oid = pt.partrelid WHERE c.relname = ?";
+
+    /** The statement for listing the partitions of a table in PostgreSQL. */
+    private static final String SQL_PG_LIST_PARTITIONS = "SELECT c.relname FROM pg_inherits i "
+            + "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ?";
+
+    /** The statement for listing the partitions of a table in MySQL. */
+    private static final String SQL_MYSQL_LIST_PARTITIONS = "SELECT PARTITION_NAME FROM information_schema.PARTITIONS "
+            + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MonitoringResultRetentionManager.class);
+
+    /** JDBC data source for retrieving connections. */
+    @NonnullAfterInit private DataSource dataSource;
+
+    /** The length of one partition. */
+    @Nonnull private PartitionGranularity granularity;
+
+    /** The retention period in milliseconds. */
+    @Duration @Positive private long retentionPeriod;
+
+    /** The number of future partitions to create ahead of time. */
+    @NonNegative private int precreatedPartitions;
+
+    /** The maximum number of results deleted in one transaction. */
+    @Positive private int chunkSize;
+
+    /** The interval of the background maintenance in milliseconds, zero disables it. */
+    @Duration @NonNegative private long maintenanceInterval;
+
+    /** The timer running the background maintenance. */
+    @Nullable private Timer maintenanceTimer;
+
+    /** Constructor. */
+    public MonitoringResultRetentionManager() {
+        granularity = PartitionGranularity.DAILY;
+        retentionPeriod = TimeUnit.DAYS.toMillis(90);
+        precreatedPartitions = 3;
+        chunkSize = 1000;
+        maintenanceInterval = TimeUnit.HOURS.toMillis(1);
+    }
+
+    /**
+     * Set the data source used to communicate with the database.
+     * @param source What to set.
+     */
+    public void setDataSource(@Nonnull final DataSource source) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        dataSource = Constraint.isNotNull(source, "DataSource cannot be null");
+    }
+
+    /**
+     * Set the length of one partition. Defaults to {@link PartitionGranularity#DAILY}.
+     * @param newGranularity What to set.
+     */
+    public void setGranularity(@Nonnull final PartitionGranularity newGranularity) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        granularity = Constraint.isNotNull(newGranularity, "Granularity cannot be null");
+    }
+
+    /**
+     * Set the retention period in milliseconds. Defaults to 90 days.
+     * @param period What to set.
+     */
+    public void setRetentionPeriod(@Duration @Positive final long period) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        retentionPeriod = Constraint.isGreaterThan(0, period, "Retention period must be greater than 0");
+    }
+
+    /**
+     * Get the retention period in milliseconds.
+     * @return The retention period in milliseconds.
+     */
+    public long getRetentionPeriod() {
+        return retentionPeriod;
+    }
+
+    /**
+     * Set the number of future partitions to create ahead of time. Defaults to 3.
+     * @param count What to set.
+     */
+    public void setPrecreatedPartitions(@NonNegative final int count) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        precreatedPartitions = (int) Constraint.isGreaterThanOrEqual(0, count,
+                "Precreated partitions must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the maximum number of results deleted in one transaction, when partitions are not available.
+     * Defaults to 1000.
+     * @param size What to set.
+     */
+    public void setChunkSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        chunkSize = (int) Constraint.isGreaterThan(0, size, "Chunk size must be greater than 0");
+    }
+
+    /**
+     * Set the interval of the background maintenance in milliseconds. Defaults to one hour, zero disables
+     * the background maintenance.
+     * @param interval What to set.
+     */
+    public void setMaintenanceInterval(@Duration @NonNegative final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        maintenanceInterval = Constraint.isGreaterThanOrEqual(0, interval,
+                "Maintenance interval must be greater than or equal to 0");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == dataSource) {
+            throw new ComponentInitializationException("No database connection provided");
+        }
+        if (maintenanceInterval > 0) {
+            maintenanceTimer = new Timer("mpass-monitoring-retention", true);
+            maintenanceTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        maintain(System.currentTimeMillis());
+                    } catch (final SQLException e) {
+                        log.error("Could not enforce the monitoring result retention", e);
+                    }
+                }
+            }, 0, maintenanceInterval);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (maintenanceTimer != null) {
+            maintenanceTimer.cancel();
+            maintenanceTimer = null;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Creates the upcoming partitions and removes the results older than the retention period.
+     * 
+     * @param now The current time in milliseconds.
+     * @throws SQLException If the database operations fail.
+     */
+    public void maintain(final long now) throws SQLException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final long cutoff = now - retentionPeriod;
+        try (final Connection dbConn = dataSource.getConnection()) {
+            dbConn.setAutoCommit(true);
+            final DatabaseDialect dialect = DatabaseDialect.fromConnection(dbConn);
+            final boolean anomalies = tableExists(dbConn, JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES);
+            boolean deleteInChunks = false;
+            boolean partitioned = false;
+            for (final String table : TABLES) {
+                final List<String> partitions = listPartitions(dbConn, dialect, table);
+                if (partitions == null) {
+                    deleteInChunks = true;
+                } else {
+                    partitioned = true;
+                    createPartitions(dbConn, dialect, table, partitions, now);
+                    dropPartitions(dbConn, dialect, table, partitions, cutoff);
+                }
+            }
+            if (deleteInChunks) {
+                final long deleted = deleteInChunks(dbConn, cutoff, anomalies);
+                log.debug("Deleted {} results older than {}", deleted, cutoff);
+            }
+            if (partitioned && anomalies) {
+                final long deleted = deleteOrphanAnomalies(dbConn);
+                log.debug("Deleted {} anomalies of the dropped results", deleted);
+            }
+        }
+    }
+
+    /**
+     * Lists the names of the partitions of the given table.
+     * 
+     * @param dbConn The database connection.
+     * @param dialect The database dialect.
+     * @param table The table name.
+     * @return The partition names, or null if the table is not partitioned.
+     * @throws SQLException If the partitions cannot be listed.
+     */
+    @Nullable protected List<String> listPartitions(@Nonnull final Connection dbConn, 
+            @Nonnull final DatabaseDialect dialect, @Nonnull final String table) throws SQLException {
+        if (dialect == DatabaseDialect.POSTGRESQL) {
+            try (final PreparedStatement statement = dbConn.prepareStatement(SQL_PG_IS_PARTITIONED)) {
+                statement.setString(1, table);
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next() || resultSet.getInt(1) == 0) {
+                        return null;
+                    }
+                }
+            }
+            return queryNames(dbConn, SQL_PG_LIST_PARTITIONS, table);
+        } else if (dialect == DatabaseDialect.MYSQL) {
+            final List<String> partitions = queryNames(dbConn, SQL_MYSQL_LIST_PARTITIONS, table);
+            return partitions.isEmpty() ? null : partitions;
+        }
+        return null;
+    }
+
+    /**
+     * Creates the partitions for the current and the precreated upcoming periods, if they don't exist yet.
+     * 
+     * @param dbConn The database connection.
+     * @param dialect The database dialect.
+     * @param table The table name.
+     * @param partitions The names of the existing partitions.
+     * @param now The current time in milliseconds.
+     */
+    protected void createPartitions(@Nonnull final Connection dbConn, @Nonnull final DatabaseDialect dialect,
+            @Nonnull final String table, @Nonnull final List<String> partitions, final long now) {
+        long latestExisting = Long.MIN_VALUE;
+        for (final String partition : partitions) {
+            final Long periodStart = parsePartitionName(dialect, table, partition);
+            if (periodStart != null && periodStart > latestExisting) {
+                latestExisting = periodStart;
+            }
+        }
+        long periodStart = granularity.getPeriodStart(now);
+        for (int i = 0; i <= precreatedPartitions; i++) {
+            final long periodEnd = granularity.getNextPeriodStart(periodStart);
+            final String name = getPartitionName(dialect, table, periodStart);
+            if (!partitions.contains(name)) {
+                if (dialect == DatabaseDialect.POSTGRESQL) {
+                    execute(dbConn, "CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + table 
+                            + " FOR VALUES FROM (" + periodStart + ") TO (" + periodEnd + ")");
+                } else if (periodStart > latestExisting) {
+                    // MySQL range partitions can only be appended after the last one
+                    execute(dbConn, "ALTER TABLE " + table + " ADD PARTITION (PARTITION " + name 
+                            + " VALUES LESS THAN (" + periodEnd + "))");
+                }
+            }
+            periodStart = periodEnd;
+        }
+    }
+
+    /**
+     * Drops the partitions whose period has ended before the given cutoff time.
+     * 
+     * @param dbConn The database connection.
+     * @param dialect The database dialect.
+     * @param table The table name.
+     * @param partitions The names of the existing partitions.
+     * @param cutoff The oldest time to be retained in milliseconds.
+     */
+    protected void dropPartitions(@Nonnull final Connection dbConn, @Nonnull final DatabaseDialect dialect,
+            @Nonnull final String table, @Nonnull final List<String> partitions, final long cutoff) {
+        for (final String partition : partitions) {
+            final Long periodStart = parsePartitionName(dialect, table, partition);
+            if (periodStart != null && granularity.getNextPeriodStart(periodStart) <= cutoff) {
+                log.info("Dropping the expired partition {} of {}", partition, table);
+                if (dialect == DatabaseDialect.POSTGRESQL) {
+                    execute(dbConn, "DROP TABLE " + partition);
+                } else {
+                    execute(dbConn, "ALTER TABLE " + table + " DROP PARTITION " + partition);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the results older than the given cutoff time, together with their step results and optionally
+     * their anomalies, in chunks of the configured size. Each chunk is committed in its own transaction.
+     * 
+     * @param dbConn The database connection.
+     * @param cutoff The oldest time to be retained in milliseconds.
+     * @param anomalies Whether the anomaly table exists and its rows are deleted as well.
+     * @return The number of deleted results.
+     * @throws SQLException If the deletion fails.
+     */
+    protected long deleteInChunks(@Nonnull final Connection dbConn, final long cutoff, final boolean anomalies)
+            throws SQLException {
+        long deleted = 0;
+        dbConn.setAutoCommit(false);
+        try (final PreparedStatement selectIds = dbConn.prepareStatement(SQL_SELECT_EXPIRED_IDS);
+                final PreparedStatement deleteSteps = dbConn.prepareStatement(SQL_DELETE_EXPIRED_STEPS);
+                final PreparedStatement deleteAnomalies = anomalies 
+                        ? dbConn.prepareStatement(SQL_DELETE_EXPIRED_ANOMALIES) : null;
+                final PreparedStatement deleteResults = dbConn.prepareStatement(SQL_DELETE_EXPIRED_RESULTS)) {
+            selectIds.setMaxRows(chunkSize);
+            int count = chunkSize;
+            while (count == chunkSize) {
+                count = 0;
+                long lastId = -1;
+                selectIds.setLong(1, cutoff);
+                try (final ResultSet resultSet = selectIds.executeQuery()) {
+                    while (resultSet.next()) {
+                        lastId = resultSet.getLong(1);
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    deleteSteps.setLong(1, cutoff);
+                    deleteSteps.setLong(2, lastId);
+                    deleteSteps.executeUpdate();
+                    if (deleteAnomalies != null) {
+                        deleteAnomalies.setLong(1, cutoff);
+                        deleteAnomalies.setLong(2, lastId);
+                        deleteAnomalies.executeUpdate();
+                    }
+                    deleteResults.setLong(1, cutoff);
+                    deleteResults.setLong(2, lastId);
+                    deleted += deleteResults.executeUpdate();
+                    dbConn.commit();
+                }
+            }
+        } catch (final SQLException e) {
+            dbConn.rollback();
+            throw e;
+        } finally {
+            dbConn.setAutoCommit(true);
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes the anomalies whose results no longer exist because their partitions were dropped. The result
+     * identifiers grow with the insertion order, so the anomalies of the results older than the oldest remaining
+     * one are deleted.
+     * 
+     * @param dbConn The database connection, in auto-commit mode.
+     * @return The number of deleted anomalies.
+     * @throws SQLException If the deletion fails.
+     */
+    protected long deleteOrphanAnomalies(@Nonnull final Connection dbConn) throws SQLException {
+        try (final Statement statement = dbConn.createStatement()) {
+            return statement.executeUpdate(SQL_DELETE_ORPHAN_ANOMALIES) + statement.executeUpdate(
+                    SQL_DELETE_ALL_ANOMALIES);
+        }
+    }
+
+    /**
+     * Checks whether the given table exists. The name is matched regardless of how the database folds the case
+     * of unquoted identifiers.
+     * 
+     * @param dbConn The database connection.
+     * @param table The table name.
+     * @return True if the table exists, false otherwise.
+     * @throws SQLException If the metadata cannot be read.
+     */
+    protected boolean tableExists(@Nonnull final Connection dbConn, @Nonnull final String table) 
+            throws SQLException {
+        final DatabaseMetaData metaData = dbConn.getMetaData();
+        for (final String name : new String[] { table, table.toUpperCase(), table.toLowerCase() }) {
+            try (final ResultSet tables = metaData.getTables(dbConn.getCatalog(), null, name, null)) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the name of the partition for the period starting at the given time.
+     * 
+     * @param dialect The database dialect.
+     * @param table The table name.
+     * @param periodStart The start of the period in milliseconds.
+     * @return The partition name.
+     */
+    @Nonnull protected String getPartitionName(@Nonnull final DatabaseDialect dialect, @Nonnull final String table,
+            final long periodStart) {
+        final String name = "p" + granularity.getSuffix(periodStart);
+        return dialect == DatabaseDialect.POSTGRESQL ? table + "_" + name : name;
+    }
+
+    /**
+     * Parses the start of the period from the given partition name.
+     * 
+     * @param dialect The database dialect.
+     * @param table The table name.
+     * @param partition The partition name.
+     * @return The start of the period in milliseconds, or null if the name is not managed by this component.
+     */
+    @Nullable protected Long parsePartitionName(@Nonnull final DatabaseDialect dialect, @Nonnull final String table,
+            @Nonnull final String partition) {
+        final String prefix = dialect == DatabaseDialect.POSTGRESQL ? table + "_p" : "p";
+        if (!partition.startsWith(prefix)) {
+            return null;
+        }
+        return granularity.parseSuffix(partition.substring(prefix.length()));
+    }
+
+    /**
+     * Runs the given single-column query with a table name parameter.
+     * 
+     * @param dbConn The database connection.
+     * @param sql The query.
+     * @param table The table name.
+     * @return The values of the column.
+     * @throws SQLException If the query fails.
+     */
+    @Nonnull private List<String> queryNames(@Nonnull final Connection dbConn, @Nonnull final String sql,
+            @Nonnull final String table) throws SQLException {
+        final List<String> names = new ArrayList<>();
+        try (final PreparedStatement statement = dbConn.prepareStatement(sql)) {
+            statement.setString(1, table);
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    names.add(resultSet.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Executes the given DDL statement. Failures are logged, as they should not prevent the rest of the
+     * maintenance.
+     * 
+     * @param dbConn The database connection.
+     * @param sql The statement.
+     */
+    private void execute(@Nonnull final Connection dbConn, @Nonnull final String sql) {
+        log.debug("Executing {}", sql);
+        try (final Statement statement = dbConn.createStatement()) {
+            statement.execute(sql);
+        } catch (final SQLException e) {
+            log.warn("Could not execute '{}'", sql, e);
+        }
+    }
+}
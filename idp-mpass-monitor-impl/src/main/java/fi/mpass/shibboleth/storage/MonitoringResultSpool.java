@@ -0,0 +1,355 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A bounded first-in-first-out spool of {@link MonitoringSequenceResult}s on the local disk, holding the results
+ * that could not be stored to the database until they are replayed by {@link MonitoringResultSpoolReplayer}.
+ * 
+ * <p>Each result is written to its own file, named after its sequence number in the spool, via a temporary file
+ * that is atomically renamed in place once forced to the disk. A crash therefore never leaves a partial result in
+ * the spool, and the spooled results survive restarts. New results are rejected when the spool is full.</p>
+ */
+public class MonitoringResultSpool extends AbstractInitializableComponent {
+
+    /** The file name prefix of the spooled results. */
+    public static final String FILE_PREFIX = "spool-";
+
+    /** The file name suffix of the spooled results. */
+    public static final String FILE_SUFFIX = ".rec";
+
+    /** The file name suffix of the results being written. */
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MonitoringResultSpool.class);
+
+    /** The directory of the spooled results. */
+    @NonnullAfterInit private File directory;
+
+    /** The maximum number of spooled results. */
+    @Positive private int maxSize;
+
+    /** The spooled result files by their sequence number, oldest first. */
+    @Nonnull private final TreeMap<Long, File> files;
+
+    /** The codec for the spooled results. */
+    @Nonnull private final MonitoringResultCodec codec;
+
+    /** The sequence number for the next spooled result. */
+    private long nextSequence;
+
+    /** The number of results spooled since the startup. */
+    @Nonnull private final AtomicLong spooledCount;
+
+    /** The number of results rejected because the spool was full. */
+    @Nonnull private final AtomicLong rejectedCount;
+
+    /** The number of results removed from the spool after being replayed. */
+    @Nonnull private final AtomicLong replayedCount;
+
+    /** Constructor. */
+    public MonitoringResultSpool() {
+        maxSize = 10000;
+        files = new TreeMap<>();
+        codec = new MonitoringResultCodec();
+        nextSequence = 1;
+        spooledCount = new AtomicLong();
+        rejectedCount = new AtomicLong();
+        replayedCount = new AtomicLong();
+    }
+
+    /**
+     * Set the directory of the spooled results. It is created if it doesn't exist.
+     * @param dir What to set.
+     */
+    public void setDirectory(@Nonnull final File dir) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        directory = Constraint.isNotNull(dir, "Directory cannot be null");
+    }
+
+    /**
+     * Set the maximum number of spooled results. Defaults to 10000.
+     * @param size What to set.
+     */
+    public void setMaxSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        maxSize = (int) Constraint.isGreaterThan(0, size, "Maximum size must be greater than 0");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (directory == null) {
+            throw new ComponentInitializationException("No directory provided");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new ComponentInitializationException("Could not create the directory " + directory);
+        }
+        final File[] existing = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(FILE_PREFIX);
+            }
+        });
+        for (final File file : existing) {
+            final String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                log.debug("Deleting the incomplete spool file {}", file);
+                file.delete();
+            } else if (name.endsWith(FILE_SUFFIX)) {
+                try {
+                    final long sequence = Long.parseLong(name.substring(FILE_PREFIX.length(), 
+                            name.length() - FILE_SUFFIX.length()));
+                    files.put(sequence, file);
+                    nextSequence = Math.max(nextSequence, sequence + 1);
+                } catch (final NumberFormatException e) {
+                    log.warn("Ignoring an unrecognized file {} in the spool", file);
+                }
+            }
+        }
+        if (!files.isEmpty()) {
+            log.info("Found {} spooled results in {}", files.size(), directory);
+        }
+    }
+
+    /**
+     * Spools the given result, unless the spool is full.
+     * 
+     * @param result The monitoring sequence result.
+     * @return True if the result was spooled, false if the spool is full.
+     * @throws IOException If the result cannot be written to the spool.
+     */
+    public synchronized boolean offer(@Nonnull final MonitoringSequenceResult result) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        if (files.size() >= maxSize) {
+            rejectedCount.incrementAndGet();
+            log.warn("The spool is full with {} results, rejecting the result for {}", files.size(), 
+                    result.getId());
+            return false;
+        }
+        final long sequence = nextSequence;
+        final String name = FILE_PREFIX + String.format("%020d", sequence);
+        final File temp = new File(directory, name + TEMP_SUFFIX);
+        final File file = new File(directory, name + FILE_SUFFIX);
+        final ByteBuffer record = codec.encode(sequence, result);
+        try (final FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, 
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        files.put(sequence, file);
+        nextSequence++;
+        spooledCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Reads the oldest spooled results, without removing them from the spool. Corrupted results are removed.
+     * 
+     * <p>The files are read without holding the lock of the spool, so that new results can be spooled meanwhile.
+     * </p>
+     * 
+     * @param max The maximum number of results to read.
+     * @return The oldest spooled results, oldest first.
+     */
+    @Nonnull public List<SpooledResult> peek(@Positive final int max) {
+        final List<Map.Entry<Long, File>> oldest = new ArrayList<>();
+        synchronized (this) {
+            for (final Map.Entry<Long, File> entry : files.entrySet()) {
+                if (oldest.size() >= max) {
+                    break;
+                }
+                oldest.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+            }
+        }
+        final List<SpooledResult> results = new ArrayList<>();
+        final List<Long> corrupted = new ArrayList<>();
+        for (final Map.Entry<Long, File> entry : oldest) {
+            final File file = entry.getValue();
+            try {
+                final ByteBuffer payload = MonitoringResultCodec.getPayload(Files.readAllBytes(file.toPath()));
+                if (payload != null) {
+                    results.add(new SpooledResult(entry.getKey(), codec.decode(payload).getResult()));
+                    continue;
+                }
+            } catch (final IOException e) {
+                log.warn("Could not read the spooled result {}", file, e);
+            }
+            corrupted.add(entry.getKey());
+        }
+        if (!corrupted.isEmpty()) {
+            synchronized (this) {
+                for (final Long sequence : corrupted) {
+                    // the result may have been removed meanwhile by another replay
+                    if (files.containsKey(sequence)) {
+                        log.warn("Removing the corrupted spooled result {}", files.get(sequence));
+                        delete(sequence);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Removes the given results from the spool after they have been replayed.
+     * 
+     * @param results The replayed results.
+     */
+    public synchronized void remove(@Nonnull final List<SpooledResult> results) {
+        for (final SpooledResult result : results) {
+            if (delete(result.getSequence())) {
+                replayedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Get the number of results currently in the spool.
+     * @return The number of spooled results.
+     */
+    public synchronized int getSize() {
+        return files.size();
+    }
+
+    /**
+     * Checks whether the spool is empty.
+     * @return True if there are no spooled results, false otherwise.
+     */
+    public synchronized boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * Get the number of results spooled since the startup.
+     * @return The number of spooled results.
+     */
+    public long getSpooledCount() {
+        return spooledCount.get();
+    }
+
+    /**
+     * Get the number of results rejected since the startup because the spool was full.
+     * @return The number of rejected results.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Get the number of results replayed from the spool since the startup.
+     * @return The number of replayed results.
+     */
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    /**
+     * Deletes the spooled result with the given sequence number.
+     * 
+     * @param sequence The sequence number.
+     * @return True if the result was in the spool, false otherwise.
+     */
+    private boolean delete(final long sequence) {
+        final File file = files.remove(sequence);
+        if (file == null) {
+            return false;
+        }
+        if (!file.delete()) {
+            log.warn("Could not delete the spooled result {}", file);
+        }
+        return true;
+    }
+
+    /**
+     * A result read from the spool.
+     */
+    public static class SpooledResult {
+
+        /** The sequence number in the spool. */
+        private final long sequence;
+
+        /** The result. */
+        private final MonitoringSequenceResult result;
+
+        /**
+         * Constructor.
+         * @param spoolSequence The sequence number in the spool.
+         * @param spooledResult The result.
+         */
+        SpooledResult(final long spoolSequence, final MonitoringSequenceResult spooledResult) {
+            sequence = spoolSequence;
+            result = spooledResult;
+        }
+
+        /**
+         * Get the sequence number in the spool.
+         * @return The sequence number.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Get the result.
+         * @return The result.
+         */
+        public MonitoringSequenceResult getResult() {
+            return result;
+        }
+    }
+}
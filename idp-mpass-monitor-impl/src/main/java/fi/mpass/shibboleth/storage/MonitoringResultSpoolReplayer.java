@@ -0,0 +1,293 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.storage.MonitoringResultSpool.SpooledResult;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Replays the results from a {@link MonitoringResultSpool} to the database in the background, in the order they
+ * were spooled. Each batch is stored in its own transaction and removed from the spool only after a successful
+ * commit, so a failure leaves the batch to be retried at the next round.
+ */
+public class MonitoringResultSpoolReplayer extends AbstractInitializableComponent {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MonitoringResultSpoolReplayer.class);
+
+    /** JDBC data source for retrieving connections. */
+    @NonnullAfterInit private DataSource dataSource;
+
+    /** Whether the latest status table is maintained together with the results. */
+    private boolean latestStatusEnabled;
+
+    /** Whether the latency anomalies are stored together with the results. */
+    private boolean anomaliesEnabled;
+
+    /** The spool to replay. */
+    @NonnullAfterInit private MonitoringResultSpool spool;
+
+    /** The rollup resolutions maintained together with the results. */
+    @Nonnull @NonnullElements private Collection<RollupResolution> rollupResolutions;
+
+    /** The maximum number of results stored in one transaction. */
+    @Positive private int batchSize;
+
+    /** The interval of the background replay in milliseconds. */
+    @Duration @NonNegative private long replayInterval;
+
+    /** The timer running the background replay. */
+    @Nullable private Timer replayTimer;
+
+    /** The number of failed replay rounds since the startup. */
+    @Nonnull private final AtomicLong failureCount;
+
+    /** The time of the last successful replay round, zero if none. */
+    @Nonnull private final AtomicLong lastReplayTime;
+
+    /** Constructor. */
+    public MonitoringResultSpoolReplayer() {
+        rollupResolutions = Collections.emptyList();
+        batchSize = 100;
+        replayInterval = TimeUnit.SECONDS.toMillis(30);
+        failureCount = new AtomicLong();
+        lastReplayTime = new AtomicLong();
+    }
+
+    /**
+     * Set the JDBC data source for retrieving connections.
+     * @param source What to set.
+     */
+    public void setDataSource(@Nonnull final DataSource source) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        dataSource = Constraint.isNotNull(source, "DataSource cannot be null");
+    }
+
+    /**
+     * Set the spool to replay.
+     * @param resultSpool What to set.
+     */
+    public void setSpool(@Nonnull final MonitoringResultSpool resultSpool) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        spool = Constraint.isNotNull(resultSpool, "Spool cannot be null");
+    }
+
+    /**
+     * Set whether the {@link JdbcLatestStatusWriter#TABLE_NAME_LATEST_STATUS} table is maintained together with
+     * the results. Defaults to false.
+     * @param enabled What to set.
+     */
+    public void setLatestStatusEnabled(final boolean enabled) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        latestStatusEnabled = enabled;
+    }
+
+    /**
+     * Set whether the latency anomalies of the results are stored in the
+     * {@link JdbcMonitoringResultWriter#TABLE_NAME_MONITORING_ANOMALIES} table. Defaults to false.
+     * @param enabled What to set.
+     */
+    public void setAnomaliesEnabled(final boolean enabled) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        anomaliesEnabled = enabled;
+    }
+
+    /**
+     * Set the rollup resolutions maintained together with the results. Defaults to none.
+     * @param resolutions What to set.
+     */
+    public void setRollupResolutions(@Nullable @NonnullElements final Collection<RollupResolution> resolutions) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        rollupResolutions = resolutions == null ? Collections.<RollupResolution>emptyList() 
+                : new ArrayList<>(new LinkedHashSet<>(resolutions));
+    }
+
+    /**
+     * Set the maximum number of results stored in one transaction. Defaults to 100.
+     * @param size What to set.
+     */
+    public void setBatchSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        batchSize = (int) Constraint.isGreaterThan(0, size, "Batch size must be greater than 0");
+    }
+
+    /**
+     * Set the interval of the background replay in milliseconds. Defaults to 30 seconds, zero disables
+     * the background replay.
+     * @param interval What to set.
+     */
+    public void setReplayInterval(@Duration @NonNegative final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        replayInterval = Constraint.isGreaterThanOrEqual(0, interval,
+                "Replay interval must be greater than or equal to 0");
+    }
+
+    /**
+     * Get the number of failed replay rounds since the startup.
+     * @return The number of failed rounds.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Get the time of the last successful replay round.
+     * @return The time in milliseconds, zero if none.
+     */
+    public long getLastReplayTime() {
+        return lastReplayTime.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == dataSource) {
+            throw new ComponentInitializationException("No database connection provided");
+        }
+        if (null == spool) {
+            throw new ComponentInitializationException("No spool provided");
+        }
+        if (replayInterval > 0) {
+            replayTimer = new Timer("mpass-monitoring-spool-replay", true);
+            replayTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        replay();
+                    } catch (final SQLException e) {
+                        log.warn("Could not replay the spooled monitoring results, {} remaining: {}", 
+                                spool.getSize(), e.getMessage());
+                    }
+                }
+            }, replayInterval, replayInterval);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (replayTimer != null) {
+            replayTimer.cancel();
+            replayTimer = null;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Replays the spooled results in batches until the spool is empty.
+     * 
+     * @return The number of replayed results.
+     * @throws SQLException If a batch cannot be stored, the remaining results stay in the spool.
+     */
+    public synchronized int replay() throws SQLException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        int replayed = 0;
+        List<SpooledResult> batch = spool.peek(batchSize);
+        while (!batch.isEmpty()) {
+            try {
+                storeBatch(batch);
+            } catch (final SQLException e) {
+                failureCount.incrementAndGet();
+                throw e;
+            }
+            spool.remove(batch);
+            replayed += batch.size();
+            batch = spool.peek(batchSize);
+        }
+        lastReplayTime.set(System.currentTimeMillis());
+        if (replayed > 0) {
+            log.info("Replayed {} spooled monitoring results", replayed);
+        }
+        return replayed;
+    }
+
+    /**
+     * Stores the given batch of results together with their step results, anomalies and rollups in one
+     * transaction.
+     * 
+     * @param batch The spooled results.
+     * @throws SQLException If the batch cannot be stored, the transaction is rolled back.
+     */
+    protected void storeBatch(@Nonnull final List<SpooledResult> batch) throws SQLException {
+        try (final Connection dbConn = dataSource.getConnection();
+                final JdbcMonitoringResultWriter writer = new JdbcMonitoringResultWriter(dbConn);
+                final JdbcRollupWriter rollupWriter = new JdbcRollupWriter(dbConn, rollupResolutions);
+                final JdbcLatestStatusWriter statusWriter = new JdbcLatestStatusWriter(dbConn)) {
+            dbConn.setAutoCommit(false);
+            try {
+                for (final SpooledResult spooled : batch) {
+                    final long resultId = writer.insertResult(spooled.getResult());
+                    writer.insertStepResults(resultId, spooled.getResult());
+                    if (anomaliesEnabled) {
+                        writer.insertAnomalies(resultId, spooled.getResult());
+                    }
+                    rollupWriter.add(spooled.getResult());
+                }
+                rollupWriter.flush();
+                if (latestStatusEnabled) {
+                    for (final SpooledResult spooled : batch) {
+                        statusWriter.update(spooled.getResult());
+                    }
+                }
+                dbConn.commit();
+            } catch (final SQLException e) {
+                rollupWriter.clear();
+                try {
+                    dbConn.rollback();
+                } catch (final SQLException rollbackException) {
+                    log.debug("Could not roll back the replay transaction", rollbackException);
+                }
+                throw e;
+            }
+        }
+    }
+}
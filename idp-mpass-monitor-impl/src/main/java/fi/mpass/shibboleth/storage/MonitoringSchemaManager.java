@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Creates the indexes and the auxiliary tables needed by the storage components, if they don't exist yet. The
+ * result tables themselves are expected to exist.
+ */
+public class MonitoringSchemaManager extends AbstractInitializableComponent {
+
+    /** The index supporting the queries by sequence and time, with the keyset on (startTime, id). */
+    public static final String INDEX_RESULT_SOURCE_TIME = "mpass_monitoring_result_src_idx";
+
+    /** The index supporting the queries by time, with the keyset on (startTime, id). */
+    public static final String INDEX_RESULT_TIME = "mpass_monitoring_result_time_idx";
+
+    /** The index supporting the lookup of step results by their result. */
+    public static final String INDEX_STEP_RESULT_RESULT = "mpass_monitoring_step_result_res_idx";
+
+    /** The column and constraint definitions of the rollup table. */
+    public static final String ROLLUP_TABLE_DEFINITION;
+
+    static {
+        final StringBuilder definition = new StringBuilder("sourceId VARCHAR(20) NOT NULL,"
+                + " stepId VARCHAR(50) NOT NULL, resolution BIGINT NOT NULL, bucketStart BIGINT NOT NULL,"
+                + " sampleCount BIGINT NOT NULL, errorCount BIGINT NOT NULL, minDuration BIGINT NOT NULL,"
+                + " maxDuration BIGINT NOT NULL, sumDuration BIGINT NOT NULL");
+        for (int i = 0; i <= RollupBucket.HISTOGRAM_BOUNDS.length; i++) {
+            definition.append(", bucket").append(i).append(" BIGINT NOT NULL");
+        }
+        ROLLUP_TABLE_DEFINITION = definition.append(", PRIMARY KEY (sourceId, stepId, resolution, bucketStart)")
+                .toString();
+    }
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MonitoringSchemaManager.class);
+
+    /** JDBC data source for retrieving connections. */
+    @NonnullAfterInit private DataSource dataSource;
+
+    /**
+     * Set the data source used to communicate with the database.
+     * @param source What to set.
+     */
+    public void setDataSource(@Nonnull final DataSource source) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        dataSource = Constraint.isNotNull(source, "DataSource cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == dataSource) {
+            throw new ComponentInitializationException("No database connection provided");
+        }
+        try (final Connection dbConn = dataSource.getConnection()) {
+            dbConn.setAutoCommit(true);
+            updateSchema(dbConn, DatabaseDialect.fromConnection(dbConn));
+        } catch (final SQLException e) {
+            throw new ComponentInitializationException("Could not update the database schema", e);
+        }
+    }
+
+    /**
+     * Creates the missing indexes and tables.
+     * 
+     * @param dbConn The database connection.
+     * @param dialect The database dialect.
+     * @throws SQLException If the schema cannot be read or updated.
+     */
+    protected void updateSchema(@Nonnull final Connection dbConn, @Nonnull final DatabaseDialect dialect) 
+            throws SQLException {
+        createIndex(dbConn, JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS, INDEX_RESULT_SOURCE_TIME,
+                "sourceId, startTime, id");
+        createIndex(dbConn, JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS, INDEX_RESULT_TIME,
+                "startTime, id");
+        createIndex(dbConn, JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_STEP_RESULTS, 
+                INDEX_STEP_RESULT_RESULT, "resultId");
+        createTable(dbConn, JdbcRollupWriter.TABLE_NAME_MONITORING_ROLLUP, ROLLUP_TABLE_DEFINITION);
+        createTable(dbConn, JdbcLatestStatusWriter.TABLE_NAME_LATEST_STATUS, JdbcLatestStatusWriter.TABLE_DEFINITION);
+        createTable(dbConn, JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES, 
+                JdbcMonitoringResultWriter.TABLE_DEFINITION_ANOMALIES);
+    }
+
+    /**
+     * Creates the given index, if it doesn't exist yet.
+     * 
+     * @param dbConn The database connection.
+     * @param table The table name.
+     * @param index The index name.
+     * @param columns The comma-separated list of columns.
+     * @throws SQLException If the index cannot be created.
+     */
+    protected void createIndex(@Nonnull final Connection dbConn, @Nonnull final String table,
+            @Nonnull final String index, @Nonnull final String columns) throws SQLException {
+        if (getIndexNames(dbConn, table).contains(index.toLowerCase())) {
+            log.debug("Index {} already exists", index);
+            return;
+        }
+        log.info("Creating index {} on {} ({})", index, table, columns);
+        execute(dbConn, "CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+    }
+
+    /**
+     * Creates the given table, if it doesn't exist yet.
+     * 
+     * @param dbConn The database connection.
+     * @param table The table name.
+     * @param definition The column and constraint definitions of the table.
+     * @throws SQLException If the table cannot be created.
+     */
+    protected void createTable(@Nonnull final Connection dbConn, @Nonnull final String table,
+            @Nonnull final String definition) throws SQLException {
+        if (tableExists(dbConn, table)) {
+            log.debug("Table {} already exists", table);
+            return;
+        }
+        log.info("Creating table {}", table);
+        execute(dbConn, "CREATE TABLE " + table + " (" + definition + ")");
+    }
+
+    /**
+     * Checks whether the given table exists. The name is matched regardless of how the database folds the case
+     * of unquoted identifiers.
+     * 
+     * @param dbConn The database connection.
+     * @param table The table name.
+     * @return True if the table exists, false otherwise.
+     * @throws SQLException If the metadata cannot be read.
+     */
+    protected boolean tableExists(@Nonnull final Connection dbConn, @Nonnull final String table) 
+            throws SQLException {
+        final DatabaseMetaData metaData = dbConn.getMetaData();
+        for (final String name : new String[] { table, table.toUpperCase(), table.toLowerCase() }) {
+            try (final ResultSet tables = metaData.getTables(dbConn.getCatalog(), null, name, null)) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the lower-cased names of the indexes of the given table.
+     * 
+     * @param dbConn The database connection.
+     * @param table The table name.
+     * @return The lower-cased index names.
+     * @throws SQLException If the metadata cannot be read.
+     */
+    @Nonnull protected Set<String> getIndexNames(@Nonnull final Connection dbConn, @Nonnull final String table)
+            throws SQLException {
+        final DatabaseMetaData metaData = dbConn.getMetaData();
+        final Set<String> names = new HashSet<>();
+        for (final String name : new String[] { table, table.toUpperCase(), table.toLowerCase() }) {
+            try (final ResultSet indexes = metaData.getIndexInfo(dbConn.getCatalog(), null, name, false, true)) {
+                while (indexes.next()) {
+                    final String index = indexes.getString("INDEX_NAME");
+                    if (index != null) {
+                        names.add(index.toLowerCase());
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Executes the given DDL statement.
+     * 
+     * @param dbConn The database connection.
+     * @param sql The statement.
+     * @throws SQLException If the statement fails.
+     */
+    protected void execute(@Nonnull final Connection dbConn, @Nonnull final String sql) throws SQLException {
+        try (final Statement statement = dbConn.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The length of one time partition of the result tables. The periods are aligned to UTC.
+ */
+public enum PartitionGranularity {
+
+    /** One partition per day. */
+    DAILY("yyyyMMdd", Calendar.DAY_OF_MONTH),
+
+    /** One partition per month. */
+    MONTHLY("yyyyMM", Calendar.MONTH);
+
+    /** The time zone the periods are aligned to. */
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /** The date pattern used in the partition names. */
+    @Nonnull private final String suffixPattern;
+
+    /** The {@link Calendar} field incremented between two periods. */
+    private final int calendarField;
+
+    /**
+     * Constructor.
+     * @param pattern The date pattern used in the partition names.
+     * @param field The {@link Calendar} field incremented between two periods.
+     */
+    private PartitionGranularity(@Nonnull final String pattern, final int field) {
+        suffixPattern = pattern;
+        calendarField = field;
+    }
+
+    /**
+     * Get the start of the period containing the given time.
+     * @param time The time in milliseconds.
+     * @return The start of the period in milliseconds.
+     */
+    public long getPeriodStart(final long time) {
+        final Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (this == MONTHLY) {
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Get the start of the period following the one containing the given time.
+     * @param time The time in milliseconds.
+     * @return The start of the next period in milliseconds.
+     */
+    public long getNextPeriodStart(final long time) {
+        final Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTimeInMillis(getPeriodStart(time));
+        calendar.add(calendarField, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Get the partition name suffix for the period containing the given time.
+     * @param time The time in milliseconds.
+     * @return The partition name suffix, for instance 20161231 or 201612.
+     */
+    @Nonnull public String getSuffix(final long time) {
+        final SimpleDateFormat format = new SimpleDateFormat(suffixPattern);
+        format.setTimeZone(UTC);
+        return format.format(getPeriodStart(time));
+    }
+
+    /**
+     * Parses the start of the period from the given partition name suffix.
+     * @param suffix The partition name suffix.
+     * @return The start of the period in milliseconds, or null if the suffix is not in the expected format.
+     */
+    @Nullable public Long parseSuffix(@Nullable final String suffix) {
+        if (suffix == null || suffix.length() != suffixPattern.length()) {
+            return null;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat(suffixPattern);
+        format.setTimeZone(UTC);
+        format.setLenient(false);
+        try {
+            return format.parse(suffix).getTime();
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
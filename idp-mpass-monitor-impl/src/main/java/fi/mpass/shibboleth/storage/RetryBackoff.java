@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Exponential backoff with full jitter between transaction retries: the delay before the nth retry is drawn
+ * uniformly from zero to <code>initialDelay * 2^(n-1)</code>, capped to the maximum delay. The jitter spreads
+ * the retries of writers that failed at the same time, e.g. both sides of a deadlock.
+ */
+public class RetryBackoff {
+
+    /** The upper bound of the delay before the first retry in milliseconds. */
+    @Duration @NonNegative private final long initialDelay;
+
+    /** The upper bound of any delay in milliseconds. */
+    @Duration @NonNegative private final long maxDelay;
+
+    /**
+     * Constructor.
+     * 
+     * @param initial The upper bound of the delay before the first retry in milliseconds.
+     * @param max The upper bound of any delay in milliseconds.
+     */
+    public RetryBackoff(@Duration @NonNegative final long initial, @Duration @NonNegative final long max) {
+        initialDelay = Constraint.isGreaterThanOrEqual(0, initial, "Initial delay must be greater than or equal to 0");
+        maxDelay = Constraint.isGreaterThanOrEqual(initialDelay, max, 
+                "Maximum delay must be greater than or equal to the initial delay");
+    }
+
+    /**
+     * Get the upper bound of the delay before the given retry, without jitter.
+     * 
+     * @param retry The number of the retry, starting from 1.
+     * @return The upper bound of the delay in milliseconds.
+     */
+    public long getMaxDelay(@Positive final int retry) {
+        final int shift = Math.min(Math.max(retry - 1, 0), 30);
+        final long delay = initialDelay << shift;
+        return delay < initialDelay || delay > maxDelay ? maxDelay : delay;
+    }
+
+    /**
+     * Get the jittered delay before the given retry.
+     * 
+     * @param retry The number of the retry, starting from 1.
+     * @return The delay in milliseconds.
+     */
+    public long getDelay(@Positive final int retry) {
+        final long bound = getMaxDelay(retry);
+        return bound == 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+}
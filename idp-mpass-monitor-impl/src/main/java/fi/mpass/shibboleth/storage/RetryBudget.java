@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import fi.mpass.shibboleth.support.TokenBucket;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+
+/**
+ * A {@link TokenBucket} limiting the rate of transaction retries across all the writers sharing it, so that a database
+ * in trouble is not hit by a storm of retries. Every retry takes one token, and the tokens are refilled at a
+ * constant rate up to the capacity of the bucket.
+ * 
+ * <p>The budget also counts the retries made and the writes abandoned by the writers sharing it, so that they can
+ * be exported as process-wide metrics.</p>
+ */
+public class RetryBudget {
+
+    /** The budget shared by default within the process. */
+    @Nonnull private static final RetryBudget SHARED = new RetryBudget(20, 2.0);
+
+    /** The tokens for the retries. */
+    @Nonnull private final TokenBucket bucket;
+
+    /** The number of retries denied because the budget was exhausted. */
+    @Nonnull private final AtomicLong deniedCount;
+
+    /** The number of retries made by the writers. */
+    @Nonnull private final AtomicLong retriedCount;
+
+    /** The number of writes abandoned by the writers. */
+    @Nonnull private final AtomicLong abandonedCount;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxTokens The maximum number of tokens, the bucket is initially full.
+     * @param tokensPerSecond The number of tokens refilled per second.
+     */
+    public RetryBudget(@Positive final int maxTokens, final double tokensPerSecond) {
+        bucket = new TokenBucket(maxTokens, tokensPerSecond);
+        deniedCount = new AtomicLong();
+        retriedCount = new AtomicLong();
+        abandonedCount = new AtomicLong();
+    }
+
+    /**
+     * Get the budget shared by default within the process: 20 retries, refilled by 2 per second.
+     * 
+     * @return The shared budget.
+     */
+    @Nonnull public static RetryBudget getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Takes a token for a retry, if one is available.
+     * 
+     * @return True if the retry is allowed, false if the budget is exhausted.
+     */
+    public boolean tryAcquire() {
+        if (bucket.tryAcquire()) {
+            return true;
+        }
+        deniedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Get the number of whole tokens currently available.
+     * 
+     * @return The number of available tokens.
+     */
+    public int getAvailableTokens() {
+        return bucket.getAvailableTokens();
+    }
+
+    /**
+     * Get the number of retries denied because the budget was exhausted.
+     * 
+     * @return The number of denied retries.
+     */
+    public long getDeniedCount() {
+        return deniedCount.get();
+    }
+
+    /**
+     * Records a retry made by a writer after taking a token.
+     */
+    public void recordRetry() {
+        retriedCount.incrementAndGet();
+    }
+
+    /**
+     * Get the number of retries made by the writers.
+     * 
+     * @return The number of retries.
+     */
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    /**
+     * Records the writes abandoned by a writer after a failed transaction that could not be retried.
+     * 
+     * @param count The number of abandoned writes.
+     */
+    public void recordAbandoned(final int count) {
+        abandonedCount.addAndGet(count);
+    }
+
+    /**
+     * Get the number of writes abandoned by the writers.
+     * 
+     * @return The number of abandoned writes.
+     */
+    public long getAbandonedCount() {
+        return abandonedCount.get();
+    }
+}
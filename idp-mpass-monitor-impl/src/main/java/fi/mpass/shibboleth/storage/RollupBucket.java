@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Aggregated durations of one sequence or step within one rollup time bucket.
+ */
+public class RollupBucket {
+
+    /** The upper bounds (inclusive) of the duration histogram buckets in milliseconds, the last bucket is open. */
+    public static final long[] HISTOGRAM_BOUNDS = new long[] { 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    /** The identifier for the monitored sequence. */
+    @Nonnull private final String sourceId;
+
+    /** The identifier for the step, empty for the whole sequence. */
+    @Nonnull private final String stepId;
+
+    /** The resolution of the bucket. */
+    @Nonnull private final RollupResolution resolution;
+
+    /** The start of the bucket in milliseconds. */
+    private final long bucketStart;
+
+    /** The number of samples. */
+    private long count;
+
+    /** The number of failed samples. */
+    private long errorCount;
+
+    /** The minimum duration in milliseconds. */
+    private long minDuration;
+
+    /** The maximum duration in milliseconds. */
+    private long maxDuration;
+
+    /** The sum of durations in milliseconds. */
+    private long sumDuration;
+
+    /** The number of samples in each of the histogram buckets. */
+    @Nonnull private final long[] histogram;
+
+    /**
+     * Constructor.
+     * @param source The identifier for the monitored sequence.
+     * @param step The identifier for the step, empty for the whole sequence.
+     * @param bucketResolution The resolution of the bucket.
+     * @param start The start of the bucket in milliseconds.
+     */
+    public RollupBucket(@Nonnull final String source, @Nonnull final String step,
+            @Nonnull final RollupResolution bucketResolution, final long start) {
+        sourceId = source;
+        stepId = step;
+        resolution = bucketResolution;
+        bucketStart = start;
+        minDuration = Long.MAX_VALUE;
+        maxDuration = Long.MIN_VALUE;
+        histogram = new long[HISTOGRAM_BOUNDS.length + 1];
+    }
+
+    /**
+     * Adds one sample to the bucket.
+     * @param duration The duration in milliseconds.
+     * @param error Whether the sample failed.
+     */
+    public void add(final long duration, final boolean error) {
+        count++;
+        if (error) {
+            errorCount++;
+        }
+        minDuration = Math.min(minDuration, duration);
+        maxDuration = Math.max(maxDuration, duration);
+        sumDuration += duration;
+        histogram[getHistogramIndex(duration)]++;
+    }
+
+    /**
+     * Get the index of the histogram bucket for the given duration.
+     * @param duration The duration in milliseconds.
+     * @return The index of the histogram bucket.
+     */
+    public static int getHistogramIndex(final long duration) {
+        for (int i = 0; i < HISTOGRAM_BOUNDS.length; i++) {
+            if (duration <= HISTOGRAM_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return HISTOGRAM_BOUNDS.length;
+    }
+
+    /**
+     * Get the identifier for the monitored sequence.
+     * @return The identifier for the monitored sequence.
+     */
+    @Nonnull public String getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * Get the identifier for the step.
+     * @return The identifier for the step, empty for the whole sequence.
+     */
+    @Nonnull public String getStepId() {
+        return stepId;
+    }
+
+    /**
+     * Get the resolution of the bucket.
+     * @return The resolution of the bucket.
+     */
+    @Nonnull public RollupResolution getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Get the start of the bucket.
+     * @return The start of the bucket in milliseconds.
+     */
+    public long getBucketStart() {
+        return bucketStart;
+    }
+
+    /**
+     * Get the number of samples.
+     * @return The number of samples.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the number of failed samples.
+     * @return The number of failed samples.
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Get the minimum duration.
+     * @return The minimum duration in milliseconds.
+     */
+    public long getMinDuration() {
+        return minDuration;
+    }
+
+    /**
+     * Get the maximum duration.
+     * @return The maximum duration in milliseconds.
+     */
+    public long getMaxDuration() {
+        return maxDuration;
+    }
+
+    /**
+     * Get the sum of durations.
+     * @return The sum of durations in milliseconds.
+     */
+    public long getSumDuration() {
+        return sumDuration;
+    }
+
+    /**
+     * Get the number of samples in each of the histogram buckets, see {@link #HISTOGRAM_BOUNDS}.
+     * @return The number of samples in each of the histogram buckets.
+     */
+    @Nonnull public long[] getHistogram() {
+        return histogram;
+    }
+}
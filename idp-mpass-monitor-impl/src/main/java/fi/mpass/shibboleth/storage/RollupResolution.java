@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time bucket lengths of the monitoring result rollups.
+ */
+public enum RollupResolution {
+
+    /** One bucket per minute. */
+    MINUTE(TimeUnit.MINUTES.toMillis(1)),
+
+    /** One bucket per hour. */
+    HOUR(TimeUnit.HOURS.toMillis(1)),
+
+    /** One bucket per day. */
+    DAY(TimeUnit.DAYS.toMillis(1));
+
+    /** The bucket length in milliseconds. */
+    private final long length;
+
+    /**
+     * Constructor.
+     * @param millis The bucket length in milliseconds.
+     */
+    private RollupResolution(final long millis) {
+        length = millis;
+    }
+
+    /**
+     * Get the bucket length in milliseconds.
+     * @return The bucket length in milliseconds.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Get the start of the bucket containing the given time.
+     * @param time The time in milliseconds.
+     * @return The start of the bucket in milliseconds.
+     */
+    public long getBucketStart(final long time) {
+        return time - (time % length + length) % length;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Decides whether the step results of a {@link MonitoringSequenceResult} are worth storing, for a change-only
+ * storage mode where the healthy runs that look like the previous ones are only recorded in the sequence result
+ * and the rollups.
+ * 
+ * <p>The step results are stored if the run failed, if its status differs from the previous run of the same
+ * sequence, if the sequence or any of its steps took longer than the latency threshold, if latency anomalies were
+ * detected in it, or if the run is picked by the sample rate. The failed runs and the first successful run after
+ * them are therefore always stored in full, which is what reconstructing an incident needs. The previous statuses
+ * are kept in memory, so the first run of each sequence after a restart is stored as well.</p>
+ * 
+ * <p>{@link #shouldStoreSteps(MonitoringSequenceResult)} does not change the state, the caller reports each
+ * stored result with {@link #recordStored(MonitoringSequenceResult, boolean)} once its transaction has committed.
+ * A caller storing several results of the same sequence in one transaction passes the previous one of them to
+ * {@link #shouldStoreSteps(MonitoringSequenceResult, MonitoringSequenceResult)} instead.</p>
+ */
+public class StepPersistencePolicy extends AbstractInitializableComponent {
+
+    /** The latency above which the steps are stored, zero if latency is not considered. */
+    @Duration @NonNegative private long latencyThreshold;
+
+    /** The probability of storing the steps of an otherwise uninteresting run. */
+    private double sampleRate;
+
+    /** Whether the previous run failed, by the sequence identifier. */
+    @Nonnull private final ConcurrentMap<String, Boolean> previousFailed;
+
+    /** The number of runs whose steps were stored. */
+    @Nonnull private final AtomicLong storedCount;
+
+    /** The number of runs whose steps were skipped. */
+    @Nonnull private final AtomicLong skippedCount;
+
+    /** Constructor. */
+    public StepPersistencePolicy() {
+        previousFailed = new ConcurrentHashMap<>();
+        storedCount = new AtomicLong();
+        skippedCount = new AtomicLong();
+    }
+
+    /**
+     * Set the latency above which the steps are stored, in milliseconds. Defaults to zero, i.e. latency is not
+     * considered.
+     * @param threshold What to set.
+     */
+    public void setLatencyThreshold(@Duration @NonNegative final long threshold) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        latencyThreshold = Constraint.isGreaterThanOrEqual(0, threshold, 
+                "Latency threshold must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the probability of storing the steps of an otherwise uninteresting run, between 0 and 1. Defaults to 0.
+     * @param rate What to set.
+     */
+    public void setSampleRate(final double rate) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isTrue(rate >= 0 && rate <= 1, "Sample rate must be between 0 and 1");
+        sampleRate = rate;
+    }
+
+    /**
+     * Get the number of runs whose steps were stored.
+     * @return The number of runs.
+     */
+    public long getStoredCount() {
+        return storedCount.get();
+    }
+
+    /**
+     * Get the number of runs whose steps were skipped.
+     * @return The number of runs.
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * Checks whether the step results of the given result should be stored.
+     * 
+     * @param result The monitoring sequence result.
+     * @return True if the step results should be stored, false otherwise.
+     */
+    public boolean shouldStoreSteps(@Nonnull final MonitoringSequenceResult result) {
+        return shouldStoreSteps(result, null);
+    }
+
+    /**
+     * Checks whether the step results of the given result should be stored, comparing it to the given previous
+     * result of the same sequence that has not been recorded yet.
+     * 
+     * @param result The monitoring sequence result.
+     * @param previous The previous result of the same sequence in the same transaction, or null to compare to the
+     * recorded status.
+     * @return True if the step results should be stored, false otherwise.
+     */
+    public boolean shouldStoreSteps(@Nonnull final MonitoringSequenceResult result, 
+            @Nullable final MonitoringSequenceResult previous) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final boolean failed = isFailed(result);
+        final Boolean previousStatus = previous != null ? Boolean.valueOf(isFailed(previous)) 
+                : previousFailed.get(result.getId());
+        if (failed || !Boolean.FALSE.equals(previousStatus)) {
+            return true;
+        }
+        if ((latencyThreshold > 0 && isSlow(result)) || !result.getAnomalies().isEmpty()) {
+            return true;
+        }
+        return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Records the status of the given result after it has been stored.
+     * 
+     * @param result The monitoring sequence result.
+     * @param stepsStored Whether its step results were stored.
+     */
+    public void recordStored(@Nonnull final MonitoringSequenceResult result, final boolean stepsStored) {
+        previousFailed.put(result.getId(), isFailed(result));
+        if (stepsStored) {
+            storedCount.incrementAndGet();
+        } else {
+            skippedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks whether the sequence or any of its steps took longer than the latency threshold.
+     * 
+     * @param result The monitoring sequence result.
+     * @return True if the threshold was breached, false otherwise.
+     */
+    protected boolean isSlow(@Nonnull final MonitoringSequenceResult result) {
+        if (result.getEndTime() - result.getStartTime() > latencyThreshold) {
+            return true;
+        }
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            if (step.getEndTime() - step.getStartTime() > latencyThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether any of the steps of the given result failed.
+     * 
+     * @param result The monitoring sequence result.
+     * @return True if any of the steps failed, false otherwise.
+     */
+    private static boolean isFailed(@Nonnull final MonitoringSequenceResult result) {
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            if (step.getErrorMessage() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.support;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A bounded queue drained by the given executor, for handing work from a thread that must never block to a slower
+ * consumer.
+ * 
+ * <p>Offering never blocks: if the queue is full, its oldest elements are dropped to make room. The queue is
+ * drained by at most one executor thread at a time, which is scheduled when the first element is offered to an
+ * empty queue, so the elements are handled in order.</p>
+ *
+ * @param <E> The type of the queued elements.
+ */
+public abstract class DropOldestDrainer<E> implements Runnable {
+
+    /** The queued elements. */
+    @Nonnull private final BlockingQueue<E> queue;
+
+    /** The executor running the drainer. */
+    @Nonnull private final Executor executor;
+
+    /** Whether the drainer has been scheduled for the queue. */
+    @Nonnull private final AtomicBoolean scheduled;
+
+    /** Whether the drainer has been closed. */
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     * 
+     * @param capacity The maximum number of queued elements.
+     * @param drainExecutor The executor running the drainer.
+     */
+    public DropOldestDrainer(@Positive final int capacity, @Nonnull final Executor drainExecutor) {
+        queue = new ArrayBlockingQueue<>((int) Constraint.isGreaterThan(0, capacity, 
+                "Capacity must be greater than 0"));
+        executor = Constraint.isNotNull(drainExecutor, "Executor cannot be null");
+        scheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Queues the element without blocking, dropping the oldest queued elements if the queue is full, and schedules
+     * the drainer. The element is ignored if the drainer has been closed.
+     * 
+     * @param element The element.
+     * @return The number of dropped elements.
+     */
+    public int offer(@Nonnull final E element) {
+        if (closed) {
+            return 0;
+        }
+        int dropped = 0;
+        while (!queue.offer(element)) {
+            if (queue.poll() != null) {
+                dropped++;
+            }
+        }
+        schedule();
+        return dropped;
+    }
+
+    /**
+     * Get the number of queued elements.
+     * 
+     * @return The number of queued elements.
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Checks whether the drainer has been closed.
+     * 
+     * @return True if closed, false otherwise.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stops the draining and discards the queued elements.
+     */
+    public void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    /**
+     * Schedules the drainer for the queue, unless it is already scheduled or it has been closed.
+     */
+    protected void schedule() {
+        if (!closed && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (final RejectedExecutionException e) {
+                scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Handles the queued elements until the queue is empty or the drainer is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            E element;
+            while (!closed && (element = queue.poll()) != null) {
+                handle(element);
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        // an element offered after the last poll but before the flag was cleared found the drainer scheduled
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Handles one queued element.
+     * 
+     * @param element The element.
+     */
+    protected abstract void handle(@Nonnull E element);
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.support;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/**
+ * A thread-safe token bucket. Every permitted action takes one token, and the tokens are refilled at a constant
+ * rate up to the capacity of the bucket, which is initially full.
+ */
+public class TokenBucket {
+
+    /** The maximum number of tokens. */
+    private final double capacity;
+
+    /** The number of tokens refilled per nanosecond. */
+    private final double refillRate;
+
+    /** The number of tokens available at the time of the last refill. */
+    private double tokens;
+
+    /** The time of the last refill in nanoseconds. */
+    private long lastRefill;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxTokens The maximum number of tokens.
+     * @param tokensPerSecond The number of tokens refilled per second, zero if the bucket is never refilled.
+     */
+    public TokenBucket(@Positive final int maxTokens, final double tokensPerSecond) {
+        capacity = Constraint.isGreaterThan(0, maxTokens, "Capacity must be greater than 0");
+        if (tokensPerSecond < 0) {
+            throw new ConstraintViolationException("Refill rate must be greater than or equal to 0");
+        }
+        refillRate = tokensPerSecond / 1e9;
+        tokens = capacity;
+        lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token, if one is available.
+     * 
+     * @return True if a token was taken, false if the bucket is empty.
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a token, if one is available, or tells how long it takes until one is.
+     * 
+     * @return Zero if a token was taken, otherwise the time in milliseconds until the next token is available,
+     *     {@link Long#MAX_VALUE} if the bucket is never refilled.
+     */
+    public synchronized long reserve() {
+        refill();
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+        if (refillRate == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / refillRate / 1e6));
+    }
+
+    /**
+     * Get the number of whole tokens currently available.
+     * 
+     * @return The number of available tokens.
+     */
+    public synchronized int getAvailableTokens() {
+        refill();
+        return (int) tokens;
+    }
+
+    /**
+     * Adds the tokens refilled since the last refill.
+     */
+    private void refill() {
+        final long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillRate);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.trace;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.google.gson.stream.JsonWriter;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Base class for the {@link TraceSpanExporter}s encoding the spans as an OTLP/JSON
+ * <code>ExportTraceServiceRequest</code>, as accepted by the OpenTelemetry collectors on
+ * <code>/v1/traces</code>.
+ */
+public abstract class AbstractOtlpJsonSpanExporter extends AbstractInitializableComponent 
+        implements TraceSpanExporter {
+
+    /** The instrumentation scope name of the spans. */
+    public static final String SCOPE_NAME = "fi.mpass.shibboleth.monitor";
+
+    /** The OTLP status code of a failed span. */
+    public static final int STATUS_CODE_ERROR = 2;
+
+    /** The service name resource attribute. */
+    @Nonnull @NotEmpty private String serviceName;
+
+    /** Constructor. */
+    public AbstractOtlpJsonSpanExporter() {
+        serviceName = "mpass-monitor";
+    }
+
+    /**
+     * Set the service name resource attribute. Defaults to mpass-monitor.
+     * @param name What to set.
+     */
+    public void setServiceName(@Nonnull @NotEmpty final String name) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        serviceName = Constraint.isNotEmpty(name, "Service name cannot be empty");
+    }
+
+    /**
+     * Get the service name resource attribute.
+     * @return The service name.
+     */
+    @Nonnull public String getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * Encodes the spans as a single-line OTLP/JSON export request.
+     * 
+     * @param spans The spans.
+     * @return The encoded request.
+     * @throws IOException If the spans could not be encoded.
+     */
+    @Nonnull public String encode(@Nonnull final List<TraceSpan> spans) throws IOException {
+        final StringWriter buffer = new StringWriter();
+        try (final JsonWriter out = new JsonWriter(buffer)) {
+            out.beginObject();
+            out.name("resourceSpans").beginArray().beginObject();
+            out.name("resource").beginObject();
+            out.name("attributes").beginArray();
+            writeAttribute(out, "service.name", serviceName);
+            out.endArray();
+            out.endObject();
+            out.name("scopeSpans").beginArray().beginObject();
+            out.name("scope").beginObject().name("name").value(SCOPE_NAME).endObject();
+            out.name("spans").beginArray();
+            for (final TraceSpan span : spans) {
+                writeSpan(out, span);
+            }
+            out.endArray();
+            out.endObject().endArray();
+            out.endObject().endArray();
+            out.endObject();
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Writes a single span object.
+     * 
+     * @param out The JSON writer.
+     * @param span The span.
+     * @throws IOException If the span could not be written.
+     */
+    protected void writeSpan(@Nonnull final JsonWriter out, @Nonnull final TraceSpan span) throws IOException {
+        out.beginObject();
+        out.name("traceId").value(span.getTraceId());
+        out.name("spanId").value(span.getSpanId());
+        if (span.getParentSpanId() != null) {
+            out.name("parentSpanId").value(span.getParentSpanId());
+        }
+        out.name("name").value(span.getName());
+        out.name("kind").value(span.getKind().getValue());
+        out.name("startTimeUnixNano").value(Long.toString(span.getStartTime() * 1000000L));
+        out.name("endTimeUnixNano").value(Long.toString(span.getEndTime() * 1000000L));
+        out.name("attributes").beginArray();
+        for (final Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+            writeAttribute(out, attribute.getKey(), attribute.getValue());
+        }
+        out.endArray();
+        out.name("status").beginObject();
+        if (span.getErrorMessage() != null) {
+            out.name("code").value(STATUS_CODE_ERROR);
+            out.name("message").value(span.getErrorMessage());
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    /**
+     * Writes a key-value attribute object. Integral values are written as strings, like the 64-bit integers in
+     * the protobuf JSON mapping.
+     * 
+     * @param out The JSON writer.
+     * @param key The attribute key.
+     * @param value The attribute value.
+     * @throws IOException If the attribute could not be written.
+     */
+    protected void writeAttribute(@Nonnull final JsonWriter out, @Nonnull final String key, 
+            @Nonnull final Object value) throws IOException {
+        out.beginObject();
+        out.name("key").value(key);
+        out.name("value").beginObject();
+        if (value instanceof Boolean) {
+            out.name("boolValue").value((Boolean) value);
+        } else if (value instanceof Long || value instanceof Integer) {
+            out.name("intValue").value(value.toString());
+        } else {
+            out.name("stringValue").value(String.valueOf(value));
+        }
+        out.endObject();
+        out.endObject();
+    }
+}
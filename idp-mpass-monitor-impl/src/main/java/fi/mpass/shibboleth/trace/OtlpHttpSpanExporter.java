@@ -0,0 +1,234 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.trace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.support.DropOldestDrainer;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Posts the spans of each sequence run as OTLP/JSON to an OpenTelemetry collector, or anything accepting the same
+ * requests on its <code>/v1/traces</code> endpoint.
+ * 
+ * <p>The spans are offered to a {@link DropOldestDrainer} without blocking and posted by a background sender
+ * thread, so the probing thread never waits for the collector. If the collector does not keep up and the queue
+ * is full, the oldest queued spans are dropped.</p>
+ */
+public class OtlpHttpSpanExporter extends AbstractOtlpJsonSpanExporter {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(OtlpHttpSpanExporter.class);
+
+    /** The URL of the traces endpoint. */
+    @Nonnull @NotEmpty private String endpoint;
+
+    /** The connect and read timeout in milliseconds. */
+    @Duration @Positive private int timeout;
+
+    /** The maximum number of queued sequence runs. */
+    @Positive private int queueSize;
+
+    /** The parsed endpoint URL. */
+    private URL endpointUrl;
+
+    /** The queue of the spans of the sequence runs, drained by the sender thread. */
+    @Nullable private DropOldestDrainer<List<TraceSpan>> queue;
+
+    /** The thread posting the queued spans. */
+    @Nullable private ExecutorService sender;
+
+    /** The number of sequence runs whose spans were dropped because of a full queue. */
+    @Nonnull private final AtomicLong droppedCount;
+
+    /** The number of sequence runs whose spans could not be posted. */
+    @Nonnull private final AtomicLong failedCount;
+
+    /** Constructor. */
+    public OtlpHttpSpanExporter() {
+        endpoint = "http://localhost:4318/v1/traces";
+        timeout = 5000;
+        queueSize = 64;
+        droppedCount = new AtomicLong();
+        failedCount = new AtomicLong();
+    }
+
+    /**
+     * Set the URL of the traces endpoint. Defaults to http://localhost:4318/v1/traces.
+     * @param url What to set.
+     */
+    public void setEndpoint(@Nonnull @NotEmpty final String url) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        endpoint = Constraint.isNotEmpty(url, "Endpoint cannot be empty");
+    }
+
+    /**
+     * Set the connect and read timeout in milliseconds. Defaults to 5 seconds.
+     * @param millis What to set.
+     */
+    public void setTimeout(@Duration @Positive final int millis) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        timeout = (int) Constraint.isGreaterThan(0, millis, "Timeout must be positive");
+    }
+
+    /**
+     * Set the maximum number of sequence runs whose spans are queued for posting. Defaults to 64.
+     * @param size What to set.
+     */
+    public void setQueueSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        queueSize = (int) Constraint.isGreaterThan(0, size, "Queue size must be positive");
+    }
+
+    /**
+     * Get the number of sequence runs whose spans were dropped because of a full queue.
+     * @return The number of dropped sequence runs.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Get the number of sequence runs whose spans could not be posted.
+     * @return The number of failed sequence runs.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        try {
+            endpointUrl = new URL(endpoint);
+        } catch (final IOException e) {
+            throw new ComponentInitializationException("Invalid endpoint " + endpoint, e);
+        }
+        sender = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "mpass-monitoring-span-export");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        queue = new DropOldestDrainer<List<TraceSpan>>(queueSize, sender) {
+            @Override
+            protected void handle(@Nonnull final List<TraceSpan> spans) {
+                try {
+                    post(spans);
+                } catch (final IOException | RuntimeException e) {
+                    failedCount.incrementAndGet();
+                    log.warn("Could not post the monitoring spans to {}: {}", endpoint, e.getMessage());
+                }
+            }
+        };
+        log.info("Exporting the monitoring spans to {}", endpoint);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (sender != null) {
+            // the spans already queued get one timeout to be posted
+            sender.shutdown();
+            try {
+                if (!sender.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                    sender.shutdownNow();
+                }
+            } catch (final InterruptedException e) {
+                sender.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            sender = null;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Queues the spans for posting without blocking, dropping the oldest queued spans if the queue is full.
+     * 
+     * @param spans The spans, the root span first.
+     */
+    @Override
+    public void export(@Nonnull final List<TraceSpan> spans) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        droppedCount.addAndGet(queue.offer(spans));
+    }
+
+    /**
+     * Posts the spans of one sequence run to the traces endpoint.
+     * 
+     * @param spans The spans, the root span first.
+     * @throws IOException If the spans could not be posted.
+     */
+    protected void post(@Nonnull final List<TraceSpan> spans) throws IOException {
+        final byte[] body = encode(spans).getBytes(StandardCharsets.UTF_8);
+        final HttpURLConnection connection = (HttpURLConnection) endpointUrl.openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setDoOutput(true);
+        try (final OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        final int status = connection.getResponseCode();
+        if (status < 200 || status > 299) {
+            connection.disconnect();
+            throw new IOException("The traces endpoint responded with " + status);
+        }
+        // the response is drained so that the connection can be reused
+        try (final InputStream in = connection.getInputStream()) {
+            final byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                continue;
+            }
+        }
+    }
+}
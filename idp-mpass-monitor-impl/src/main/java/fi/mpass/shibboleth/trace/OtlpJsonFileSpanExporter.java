@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Appends the spans of each sequence run as one line of OTLP/JSON to a local file, in the format of the
+ * OpenTelemetry collector's file exporter, so that it can be replayed to a collector or read with the usual tools.
+ */
+public class OtlpJsonFileSpanExporter extends AbstractOtlpJsonSpanExporter {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(OtlpJsonFileSpanExporter.class);
+
+    /** The file the spans are appended to. */
+    @NonnullAfterInit private File file;
+
+    /**
+     * Set the file the spans are appended to.
+     * @param spanFile What to set.
+     */
+    public void setFile(@Nonnull final File spanFile) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        file = Constraint.isNotNull(spanFile, "Span file cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (file == null) {
+            throw new ComponentInitializationException("The span file must be set");
+        }
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new ComponentInitializationException("Could not create the directory " + parent);
+        }
+        log.info("Exporting the monitoring spans to {}", file);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void export(@Nonnull final List<TraceSpan> spans) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final String line = encode(spans) + "\n";
+        synchronized (this) {
+            try (final Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), 
+                    StandardCharsets.UTF_8)) {
+                writer.write(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.protocol.HttpContext;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * The W3C trace context of a monitoring sequence run, attached to its {@link HttpContext} with the attribute
+ * {@link #ATTRIBUTE_NAME}. The resolvers send a <code>traceparent</code> header with a new span identifier for
+ * each HTTP exchange, as a child of the span of the current step, and collect the spans of the exchanges here.
+ */
+public class TraceContext {
+
+    /** The name of the {@link HttpContext} attribute holding the trace context. */
+    public static final String ATTRIBUTE_NAME = "fi.mpass.shibboleth.trace.TraceContext";
+
+    /** The name of the W3C trace context header. */
+    public static final String HEADER_TRACEPARENT = "traceparent";
+
+    /** The trace identifier. */
+    @Nonnull private final String traceId;
+
+    /** The identifier of the root span, i.e. the sequence run. */
+    @Nonnull private final String rootSpanId;
+
+    /** The identifier of the span of the current step. */
+    @Nullable private String parentSpanId;
+
+    /** The collected spans of the HTTP exchanges. */
+    @Nonnull private final List<TraceSpan> spans;
+
+    /** Constructor generating new trace and root span identifiers. */
+    public TraceContext() {
+        this(generateTraceId(), generateSpanId());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param trace The trace identifier.
+     * @param rootSpan The identifier of the root span.
+     */
+    public TraceContext(@Nonnull final String trace, @Nonnull final String rootSpan) {
+        traceId = Constraint.isNotNull(trace, "Trace identifier cannot be null");
+        rootSpanId = Constraint.isNotNull(rootSpan, "Root span identifier cannot be null");
+        parentSpanId = rootSpanId;
+        spans = new ArrayList<>();
+    }
+
+    /**
+     * Get the trace identifier.
+     * @return The trace identifier.
+     */
+    @Nonnull public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Get the identifier of the root span.
+     * @return The identifier of the root span.
+     */
+    @Nonnull public String getRootSpanId() {
+        return rootSpanId;
+    }
+
+    /**
+     * Get the identifier of the span of the current step, the parent of the exchange spans.
+     * @return The identifier of the current parent span.
+     */
+    @Nonnull public String getParentSpanId() {
+        return parentSpanId != null ? parentSpanId : rootSpanId;
+    }
+
+    /**
+     * Set the identifier of the span of the current step.
+     * @param spanId What to set.
+     */
+    public void setParentSpanId(@Nullable final String spanId) {
+        parentSpanId = spanId;
+    }
+
+    /**
+     * Starts a client span for an HTTP exchange, as a child of the current parent span. The span is collected by
+     * {@link #addSpan(TraceSpan)} once finished.
+     * 
+     * @param method The HTTP method.
+     * @param url The request URL.
+     * @return The started span.
+     */
+    @Nonnull public TraceSpan startExchangeSpan(@Nonnull final String method, @Nonnull final String url) {
+        final TraceSpan span = new TraceSpan(traceId, generateSpanId(), getParentSpanId(), "HTTP " + method, 
+                TraceSpan.Kind.CLIENT);
+        span.setStartTime(System.currentTimeMillis());
+        span.getAttributes().put("http.method", method);
+        span.getAttributes().put("http.url", url);
+        return span;
+    }
+
+    /**
+     * Collects a finished span.
+     * @param span The span.
+     */
+    public void addSpan(@Nonnull final TraceSpan span) {
+        spans.add(span);
+    }
+
+    /**
+     * Get the collected spans.
+     * @return The collected spans, in the order they were added.
+     */
+    @Nonnull public List<TraceSpan> getSpans() {
+        return Collections.unmodifiableList(spans);
+    }
+
+    /**
+     * Builds the <code>traceparent</code> header value for the given span, with the sampled flag set.
+     * 
+     * @param spanId The span identifier.
+     * @return The header value.
+     */
+    @Nonnull public String toTraceparent(@Nonnull final String spanId) {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+
+    /**
+     * Gets the trace context attached to the given HTTP context.
+     * 
+     * @param context The HTTP context.
+     * @return The trace context, or null if the run is not traced.
+     */
+    @Nullable public static TraceContext get(@Nullable final HttpContext context) {
+        if (context == null) {
+            return null;
+        }
+        final Object attribute = context.getAttribute(ATTRIBUTE_NAME);
+        return attribute instanceof TraceContext ? (TraceContext) attribute : null;
+    }
+
+    /**
+     * Generates a random non-zero trace identifier.
+     * 
+     * @return The trace identifier as 32 lower case hex digits.
+     */
+    @Nonnull public static String generateTraceId() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        long high = random.nextLong();
+        final long low = random.nextLong();
+        if (high == 0 && low == 0) {
+            high = 1;
+        }
+        return toHex(high) + toHex(low);
+    }
+
+    /**
+     * Generates a random non-zero span identifier.
+     * 
+     * @return The span identifier as 16 lower case hex digits.
+     */
+    @Nonnull public static String generateSpanId() {
+        long value = 0;
+        while (value == 0) {
+            value = ThreadLocalRandom.current().nextLong();
+        }
+        return toHex(value);
+    }
+
+    /**
+     * Formats the value as 16 zero-padded lower case hex digits.
+     * 
+     * @param value The value.
+     * @return The hex digits.
+     */
+    private static String toHex(final long value) {
+        final String hex = Long.toHexString(value);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+}
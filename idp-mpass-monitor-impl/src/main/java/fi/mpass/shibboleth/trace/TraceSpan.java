@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A finished or ongoing span of a traced monitoring sequence run: the run itself, one of its steps or an HTTP
+ * exchange of a step.
+ */
+public class TraceSpan {
+
+    /** The kind of a span, with its OTLP enumeration value. */
+    public enum Kind {
+
+        /** An operation within the monitor. */
+        INTERNAL(1),
+
+        /** A request to a remote server. */
+        CLIENT(3);
+
+        /** The OTLP enumeration value. */
+        private final int value;
+
+        /**
+         * Constructor.
+         * 
+         * @param otlpValue The OTLP enumeration value.
+         */
+        private Kind(final int otlpValue) {
+            value = otlpValue;
+        }
+
+        /**
+         * Get the OTLP enumeration value.
+         * 
+         * @return The OTLP enumeration value.
+         */
+        public int getValue() {
+            return value;
+        }
+    }
+
+    /** The trace identifier. */
+    @Nonnull private final String traceId;
+
+    /** The span identifier. */
+    @Nonnull private final String spanId;
+
+    /** The identifier of the parent span, null for the root span. */
+    @Nullable private final String parentSpanId;
+
+    /** The name of the span. */
+    @Nonnull private final String name;
+
+    /** The kind of the span. */
+    @Nonnull private final Kind kind;
+
+    /** The start time in milliseconds. */
+    private long startTime;
+
+    /** The end time in milliseconds. */
+    private long endTime;
+
+    /** The error message, null if the operation succeeded. */
+    @Nullable private String errorMessage;
+
+    /** The attributes with string, long or boolean values. */
+    @Nonnull private final Map<String, Object> attributes;
+
+    /**
+     * Constructor.
+     * 
+     * @param trace The trace identifier.
+     * @param span The span identifier.
+     * @param parentSpan The identifier of the parent span, null for the root span.
+     * @param spanName The name of the span.
+     * @param spanKind The kind of the span.
+     */
+    public TraceSpan(@Nonnull final String trace, @Nonnull final String span, @Nullable final String parentSpan,
+            @Nonnull final String spanName, @Nonnull final Kind spanKind) {
+        traceId = Constraint.isNotNull(trace, "Trace identifier cannot be null");
+        spanId = Constraint.isNotNull(span, "Span identifier cannot be null");
+        parentSpanId = parentSpan;
+        name = Constraint.isNotNull(spanName, "Span name cannot be null");
+        kind = Constraint.isNotNull(spanKind, "Span kind cannot be null");
+        attributes = new LinkedHashMap<>();
+    }
+
+    /**
+     * Get the trace identifier.
+     * @return The trace identifier.
+     */
+    @Nonnull public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Get the span identifier.
+     * @return The span identifier.
+     */
+    @Nonnull public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * Get the identifier of the parent span.
+     * @return The identifier of the parent span, null for the root span.
+     */
+    @Nullable public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    /**
+     * Get the name of the span.
+     * @return The name of the span.
+     */
+    @Nonnull public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the kind of the span.
+     * @return The kind of the span.
+     */
+    @Nonnull public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the start time.
+     * @return The start time in milliseconds.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Set the start time.
+     * @param time What to set, in milliseconds.
+     */
+    public void setStartTime(final long time) {
+        startTime = time;
+    }
+
+    /**
+     * Get the end time.
+     * @return The end time in milliseconds.
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Set the end time.
+     * @param time What to set, in milliseconds.
+     */
+    public void setEndTime(final long time) {
+        endTime = time;
+    }
+
+    /**
+     * Get the error message.
+     * @return The error message, null if the operation succeeded.
+     */
+    @Nullable public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * Set the error message.
+     * @param message What to set.
+     */
+    public void setErrorMessage(@Nullable final String message) {
+        errorMessage = message;
+    }
+
+    /**
+     * Get the attributes.
+     * @return The live map of attributes, with string, long or boolean values.
+     */
+    @Nonnull public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+}
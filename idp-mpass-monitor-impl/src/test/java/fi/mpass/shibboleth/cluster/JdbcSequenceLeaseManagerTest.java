@@ -0,0 +1,265 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.cluster;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link JdbcSequenceLeaseManager} and {@link ConsistentHashRing}.
+ */
+public class JdbcSequenceLeaseManagerTest {
+
+    /** The lease period used in the tests. */
+    private static final long LEASE_PERIOD = 60000;
+
+    /** The datasource used for storing the leases. */
+    protected DataSource dataSource;
+
+    /** The sequence identifiers. */
+    protected List<String> sequenceIds;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        dataSource = DatabaseTestingSupport.GetMockDataSource("/fi/mpass/shibboleth/cluster/SequenceLeases.sql",
+                "SequenceLeases");
+        sequenceIds = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            sequenceIds.add("seq" + i);
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        DatabaseTestingSupport.InitializeDataSource("/fi/mpass/shibboleth/cluster/DeleteLeases.sql", dataSource);
+    }
+
+    @Test
+    public void testRing() {
+        final ConsistentHashRing empty = new ConsistentHashRing(new ArrayList<String>(), 16);
+        Assert.assertNull(empty.getNode("seq1"));
+        final ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("nodeA", "nodeB", "nodeC"), 64);
+        final ConsistentHashRing grown = 
+                new ConsistentHashRing(Arrays.asList("nodeA", "nodeB", "nodeC", "nodeD"), 64);
+        final Map<String, Integer> counts = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < 1000; i++) {
+            final String node = ring.getNode("seq" + i);
+            Assert.assertEquals(ring.getNode("seq" + i), node);
+            counts.put(node, counts.containsKey(node) ? counts.get(node) + 1 : 1);
+            final String newNode = grown.getNode("seq" + i);
+            if (!newNode.equals(node)) {
+                Assert.assertEquals(newNode, "nodeD");
+                moved++;
+            }
+        }
+        Assert.assertEquals(counts.size(), 3);
+        for (final Integer count : counts.values()) {
+            Assert.assertTrue(count > 150);
+        }
+        Assert.assertTrue(moved > 100 && moved < 400);
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoDataSource() throws Exception {
+        new JdbcSequenceLeaseManager().initialize();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testHeartbeatTooSlow() throws Exception {
+        final JdbcSequenceLeaseManager manager = new JdbcSequenceLeaseManager();
+        manager.setDataSource(dataSource);
+        manager.setLeasePeriod(1000);
+        manager.setHeartbeatInterval(1000);
+        manager.initialize();
+    }
+
+    @Test
+    public void testTablesCreated() throws Exception {
+        DatabaseTestingSupport.InitializeDataSource("/fi/mpass/shibboleth/cluster/DeleteLeases.sql", dataSource);
+        final JdbcSequenceLeaseManager nodeA = initManager("nodeA");
+        nodeA.heartbeat(System.currentTimeMillis());
+        Assert.assertEquals(countOwned(nodeA), 20);
+        nodeA.destroy();
+        // the existing tables are left untouched
+        final JdbcSequenceLeaseManager nodeB = initManager("nodeB");
+        nodeB.destroy();
+    }
+
+    @Test
+    public void testSpreadAndFailover() throws Exception {
+        final JdbcSequenceLeaseManager nodeA = initManager("nodeA");
+        final JdbcSequenceLeaseManager nodeB = initManager("nodeB");
+        final long now = System.currentTimeMillis();
+        nodeA.heartbeat(now);
+        Assert.assertEquals(countOwned(nodeA), 20);
+        // nodeB joins, but the leases are still held by nodeA
+        nodeB.heartbeat(now + 1);
+        Assert.assertEquals(countOwned(nodeB), 0);
+        nodeA.heartbeat(now + 2);
+        nodeB.heartbeat(now + 3);
+        final int ownedByA = countOwned(nodeA);
+        Assert.assertTrue(ownedByA > 0 && ownedByA < 20);
+        Assert.assertEquals(countOwned(nodeB), 20 - ownedByA);
+        for (final String sequenceId : sequenceIds) {
+            Assert.assertTrue(nodeA.isOwner(sequenceId) ^ nodeB.isOwner(sequenceId));
+        }
+
+        // nodeB goes silent, its leases are taken over once they have expired
+        nodeA.heartbeat(now + LEASE_PERIOD);
+        Assert.assertEquals(countOwned(nodeA), ownedByA);
+        nodeA.heartbeat(now + LEASE_PERIOD + 10);
+        Assert.assertEquals(countOwned(nodeA), 20);
+        nodeA.destroy();
+        nodeB.destroy();
+    }
+
+    @Test
+    public void testReleaseOnDestroy() throws Exception {
+        final JdbcSequenceLeaseManager nodeA = initManager("nodeA");
+        final JdbcSequenceLeaseManager nodeB = initManager("nodeB");
+        final long now = System.currentTimeMillis();
+        nodeA.heartbeat(now);
+        nodeB.heartbeat(now);
+        Assert.assertEquals(countOwned(nodeB), 0);
+        nodeA.destroy();
+        nodeB.heartbeat(now + 1);
+        Assert.assertEquals(countOwned(nodeB), 20);
+        nodeB.destroy();
+    }
+
+    @Test
+    public void testReleaseDeferredUntilRunEnded() throws Exception {
+        final JdbcSequenceLeaseManager nodeA = initManager("nodeA");
+        final JdbcSequenceLeaseManager nodeB = initManager("nodeB");
+        final long now = System.currentTimeMillis();
+        nodeA.heartbeat(now);
+        for (final String sequenceId : sequenceIds) {
+            Assert.assertTrue(nodeA.beginRun(sequenceId));
+        }
+        // nodeB joins while all the runs are in progress on nodeA
+        nodeB.heartbeat(now + 1);
+        nodeA.heartbeat(now + 2);
+        nodeB.heartbeat(now + 3);
+        Assert.assertEquals(countOwned(nodeB), 0);
+        final int ownedByA = countOwned(nodeA);
+        Assert.assertTrue(ownedByA > 0 && ownedByA < 20);
+        String moved = null;
+        for (final String sequenceId : sequenceIds) {
+            if (!nodeA.isOwner(sequenceId)) {
+                Assert.assertFalse(nodeA.beginRun(sequenceId));
+                moved = sequenceId;
+            }
+        }
+        // the leases are renewed while the runs are in progress, even after the expiry of the original lease
+        nodeA.heartbeat(now + LEASE_PERIOD);
+        nodeB.heartbeat(now + LEASE_PERIOD + 10);
+        Assert.assertEquals(countOwned(nodeB), 0);
+        nodeA.endRun(moved);
+        nodeA.heartbeat(now + LEASE_PERIOD + 20);
+        nodeB.heartbeat(now + LEASE_PERIOD + 30);
+        Assert.assertEquals(countOwned(nodeB), 1);
+        Assert.assertTrue(nodeB.beginRun(moved));
+        nodeA.destroy();
+        nodeB.destroy();
+    }
+
+    @Test
+    public void testUnknownSequence() throws Exception {
+        final JdbcSequenceLeaseManager nodeA = initManager("nodeA");
+        Assert.assertFalse(nodeA.isOwner("newSeq"));
+        nodeA.heartbeat(System.currentTimeMillis());
+        Assert.assertTrue(nodeA.isOwner("newSeq"));
+        nodeA.destroy();
+    }
+
+    @Test
+    public void testFailingSequence() throws Exception {
+        final AtomicBoolean failing = new AtomicBoolean();
+        final JdbcSequenceLeaseManager nodeA = new JdbcSequenceLeaseManager() {
+            @Override
+            protected boolean acquire(final Connection dbConn, final String sequenceId, final long now)
+                    throws SQLException {
+                if (failing.get() && "seq3".equals(sequenceId)) {
+                    throw new SQLException("mock failure", "08006");
+                }
+                return super.acquire(dbConn, sequenceId, now);
+            }
+        };
+        nodeA.setDataSource(dataSource);
+        nodeA.setNodeId("nodeA");
+        nodeA.setLeasePeriod(LEASE_PERIOD);
+        nodeA.setHeartbeatInterval(0);
+        nodeA.setSequenceIds(sequenceIds);
+        nodeA.initialize();
+        final long now = System.currentTimeMillis();
+        nodeA.heartbeat(now);
+        Assert.assertEquals(countOwned(nodeA), 20);
+        failing.set(true);
+        nodeA.heartbeat(now + 1);
+        Assert.assertFalse(nodeA.isOwner("seq3"));
+        Assert.assertEquals(countOwned(nodeA), 19);
+        failing.set(false);
+        nodeA.heartbeat(now + 2);
+        Assert.assertEquals(countOwned(nodeA), 20);
+        nodeA.destroy();
+    }
+
+    protected JdbcSequenceLeaseManager initManager(final String nodeId) throws Exception {
+        final JdbcSequenceLeaseManager manager = new JdbcSequenceLeaseManager();
+        manager.setDataSource(dataSource);
+        manager.setNodeId(nodeId);
+        manager.setLeasePeriod(LEASE_PERIOD);
+        manager.setHeartbeatInterval(0);
+        manager.setSequenceIds(sequenceIds);
+        manager.initialize();
+        return manager;
+    }
+
+    protected int countOwned(final JdbcSequenceLeaseManager manager) {
+        int count = 0;
+        for (final String sequenceId : sequenceIds) {
+            if (manager.isOwner(sequenceId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
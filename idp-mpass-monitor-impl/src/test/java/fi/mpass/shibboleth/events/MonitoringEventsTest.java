@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.events;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link MonitoringEvents}.
+ */
+public class MonitoringEventsTest {
+
+    @AfterMethod
+    public void tearDown() {
+        MonitoringEvents.setRecorder(null);
+    }
+
+    @Test
+    public void testNoOp() {
+        Assert.assertSame(MonitoringEvents.getRecorder(), MonitoringEvents.NO_OP_RECORDER);
+        final MonitoringEvent event = MonitoringEvents.getRecorder().beginHttpExchange("mockId", "GET", "mockUrl");
+        Assert.assertSame(event, MonitoringEvents.NO_OP_EVENT);
+        event.setStatusCode(200);
+        event.setError("mockError");
+        event.commit();
+    }
+
+    @Test
+    public void testSetRecorder() {
+        final MonitoringEventRecorder recorder = Mockito.mock(MonitoringEventRecorder.class);
+        MonitoringEvents.setRecorder(recorder);
+        Assert.assertSame(MonitoringEvents.getRecorder(), recorder);
+        MonitoringEvents.setRecorder(null);
+        Assert.assertSame(MonitoringEvents.getRecorder(), MonitoringEvents.NO_OP_RECORDER);
+    }
+}
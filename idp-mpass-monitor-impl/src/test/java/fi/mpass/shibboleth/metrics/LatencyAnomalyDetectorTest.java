@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.metrics;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.LatencyAnomaly;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+
+/**
+ * Unit tests for {@link LatencyAnomalyDetector}.
+ */
+public class LatencyAnomalyDetectorTest {
+
+    /** The detector to be tested. */
+    protected LatencyAnomalyDetector detector;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        detector = new LatencyAnomalyDetector();
+        detector.setWarmupSamples(10);
+        detector.initialize();
+    }
+
+    @Test
+    public void testSlowStepDetected() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            Assert.assertTrue(detector.record(initResult("mockId", 80 + i % 5, 200, null)).isEmpty());
+        }
+        Assert.assertEquals(detector.getBaselineMean("mockId", "resolver1"), 82, 1);
+        Assert.assertTrue(detector.getBaselineDeviation("mockId", "resolver1") < 3);
+        final List<LatencyAnomaly> anomalies = detector.record(initResult("mockId", 600, 200, null));
+        Assert.assertEquals(anomalies.size(), 1);
+        Assert.assertEquals(anomalies.get(0).getStepId(), "resolver1");
+        Assert.assertEquals(anomalies.get(0).getDuration(), 600);
+        Assert.assertEquals(anomalies.get(0).getBaselineMean(), 82, 1);
+        Assert.assertTrue(anomalies.get(0).getScore() > 4);
+    }
+
+    @Test
+    public void testSmallExcessIgnored() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            detector.record(initResult("mockId", 80, 200, null));
+        }
+        Assert.assertEquals(detector.getBaselineDeviation("mockId", "resolver1"), 0, 0.001);
+        Assert.assertTrue(detector.record(initResult("mockId", 150, 200, null)).isEmpty());
+        Assert.assertEquals(detector.record(initResult("mockId", 80, 400, null)).size(), 1);
+    }
+
+    @Test
+    public void testWarmup() throws Exception {
+        for (int i = 0; i < 9; i++) {
+            detector.record(initResult("mockId", 80, 200, null));
+        }
+        Assert.assertTrue(detector.record(initResult("mockId", 600, 200, null)).isEmpty());
+        Assert.assertTrue(Double.isNaN(detector.getBaselineMean("otherId", "resolver1")));
+        Assert.assertTrue(Double.isNaN(detector.getBaselineMean("mockId", "resolver3")));
+    }
+
+    @Test
+    public void testFailedStepsAndOccurrences() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            detector.record(initResult("mockId", 80, 200, null));
+        }
+        Assert.assertTrue(detector.record(initResult("mockId", 600, 200, "mockError")).isEmpty());
+        Assert.assertEquals(detector.getBaselineMean("mockId", "resolver1"), 80, 0.001);
+        Assert.assertEquals(detector.getBaselineMean("mockId", "resolver1#2"), 200, 0.001);
+        final List<LatencyAnomaly> anomalies = detector.record(initResult("mockId", 80, 900, null));
+        Assert.assertEquals(anomalies.size(), 1);
+        Assert.assertEquals(anomalies.get(0).getStepId(), "resolver1#2");
+        Assert.assertEquals(anomalies.get(0).getDuration(), 900);
+    }
+
+    @Test
+    public void testStepsWithoutId() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            detector.record(initPhaseResult(80));
+        }
+        Assert.assertEquals(detector.getBaselineMean("mockId", "#3"), 80, 0.001);
+        Assert.assertEquals(detector.getBaselineMean("mockId", "#3#2"), 80, 0.001);
+        final List<LatencyAnomaly> anomalies = detector.record(initPhaseResult(900));
+        Assert.assertEquals(anomalies.size(), 2);
+        Assert.assertEquals(anomalies.get(0).getStepId(), "#3");
+        Assert.assertEquals(anomalies.get(1).getStepId(), "#3#2");
+    }
+
+    /**
+     * Builds a result with two steps without an identifier in the same phase.
+     * 
+     * @param duration The duration of both steps.
+     * @return The result.
+     */
+    protected MonitoringSequenceResult initPhaseResult(final long duration) {
+        final MonitoringSequenceResult result = initResult("mockId", duration, duration, null);
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            step.setId(null);
+            step.setPhaseId(3);
+        }
+        return result;
+    }
+
+    /**
+     * Builds a result with two steps of the same resolver.
+     * 
+     * @param id The sequence identifier.
+     * @param first The duration of the first step.
+     * @param second The duration of the second step.
+     * @param error The error message of the first step, or null.
+     * @return The result.
+     */
+    protected MonitoringSequenceResult initResult(final String id, final long first, final long second, 
+            final String error) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(id);
+        result.setStartTime(1000);
+        final MonitoringSequenceStepResult firstStep = new MonitoringSequenceStepResult();
+        firstStep.setId("resolver1");
+        firstStep.setStartTime(1000);
+        firstStep.setEndTime(1000 + first);
+        firstStep.setErrorMessage(error);
+        result.addStepResult(firstStep);
+        final MonitoringSequenceStepResult secondStep = new MonitoringSequenceStepResult();
+        secondStep.setId("resolver1");
+        secondStep.setStartTime(1000 + first);
+        secondStep.setEndTime(1000 + first + second);
+        result.addStepResult(secondStep);
+        result.setEndTime(secondStep.getEndTime());
+        return result;
+    }
+}
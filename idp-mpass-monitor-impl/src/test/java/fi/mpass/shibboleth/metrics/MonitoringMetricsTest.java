@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.metrics;
+
+import java.io.StringWriter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/**
+ * Unit tests for {@link MonitoringMetrics}.
+ */
+public class MonitoringMetricsTest {
+
+    @Test
+    public void testExposition() throws Exception {
+        final MonitoringMetrics metrics = new MonitoringMetrics();
+        metrics.setBucketBounds(new long[] {100, 1000});
+        metrics.initialize();
+        metrics.record(initResult("seq1", 50, null));
+        metrics.record(initResult("seq1", 500, "mockError"));
+        metrics.record(initResult("seq\"2", 2000, null));
+        final StringWriter writer = new StringWriter();
+        metrics.write(writer);
+        final String output = writer.toString();
+        Assert.assertTrue(output.contains("# TYPE mpass_monitor_sequence_runs_total counter\n"));
+        Assert.assertTrue(output.contains("mpass_monitor_sequence_runs_total{sequence=\"seq1\"} 2\n"));
+        Assert.assertTrue(output.contains("mpass_monitor_sequence_failures_total{sequence=\"seq1\"} 1\n"));
+        Assert.assertTrue(output.contains("mpass_monitor_step_failures_total{sequence=\"seq1\",step=\"step1\"} 1\n"));
+        Assert.assertTrue(output.contains("mpass_monitor_sequence_up{sequence=\"seq1\"} 0\n"));
+        Assert.assertTrue(output.contains("mpass_monitor_sequence_up{sequence=\"seq\\\"2\"} 1\n"));
+        Assert.assertTrue(output.contains("mpass_monitor_sequence_last_duration_seconds{sequence=\"seq1\"} 0.500\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitor_sequence_last_success_timestamp_seconds{sequence=\"seq1\"} 1.050\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitor_sequence_duration_seconds_bucket{sequence=\"seq1\",le=\"0.100\"} 1\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitor_sequence_duration_seconds_bucket{sequence=\"seq1\",le=\"1.000\"} 2\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitor_sequence_duration_seconds_bucket{sequence=\"seq\\\"2\",le=\"+Inf\"} 1\n"));
+        Assert.assertTrue(output.contains("mpass_monitor_sequence_duration_seconds_sum{sequence=\"seq1\"} 0.550\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitor_step_duration_seconds_count{sequence=\"seq1\",step=\"step1\"} 2\n"));
+    }
+
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testUnorderedBounds() {
+        new MonitoringMetrics().setBucketBounds(new long[] {100, 1000, 500});
+    }
+
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testDuplicateBounds() {
+        new MonitoringMetrics().setBucketBounds(new long[] {100, 100});
+    }
+
+    @Test
+    public void testWriteMetric() throws Exception {
+        final MonitoringMetrics metrics = new MonitoringMetrics();
+        metrics.initialize();
+        final StringWriter writer = new StringWriter();
+        metrics.writeMetric(writer, "storage_spool_size", "gauge", "The spool size.", "3");
+        Assert.assertEquals(writer.toString(), "# HELP mpass_monitor_storage_spool_size The spool size.\n"
+                + "# TYPE mpass_monitor_storage_spool_size gauge\nmpass_monitor_storage_spool_size 3\n");
+    }
+
+    @Test
+    public void testFormatSeconds() {
+        Assert.assertEquals(MonitoringMetrics.formatSeconds(0), "0.000");
+        Assert.assertEquals(MonitoringMetrics.formatSeconds(5), "0.005");
+        Assert.assertEquals(MonitoringMetrics.formatSeconds(1234567), "1234.567");
+    }
+
+    @Test
+    public void testResolverCosts() throws Exception {
+        final MonitoringMetrics metrics = new MonitoringMetrics();
+        metrics.initialize();
+        final MonitoringSequenceResult first = initResult("seq1", 50, null);
+        first.getStepResults().get(0).setCpuTime(1500000);
+        first.getStepResults().get(0).setAllocatedBytes(2048);
+        final MonitoringSequenceResult second = initResult("seq2", 50, null);
+        second.getStepResults().get(0).setCpuTime(500000);
+        second.getStepResults().get(0).setAllocatedBytes(1024);
+        metrics.record(first);
+        metrics.record(second);
+        metrics.record(initResult("seq1", 50, null));
+        Assert.assertEquals(metrics.getResolverStepCount("step1"), 2);
+        Assert.assertEquals(metrics.getResolverCpuTime("step1"), 2000000);
+        Assert.assertEquals(metrics.getResolverAllocatedBytes("step1"), 3072);
+        Assert.assertEquals(metrics.getResolverStepCount("step2"), 0);
+        final StringWriter writer = new StringWriter();
+        metrics.write(writer);
+        final String output = writer.toString();
+        Assert.assertTrue(output.contains("mpass_monitor_resolver_steps_total{resolver=\"step1\"} 2\n"));
+        Assert.assertTrue(output.contains("mpass_monitor_resolver_cpu_seconds_total{resolver=\"step1\"} 0.002000\n"));
+        Assert.assertTrue(output.contains("mpass_monitor_resolver_allocated_bytes_total{resolver=\"step1\"} 3072\n"));
+    }
+
+    protected MonitoringSequenceResult initResult(final String id, final long duration, final String error) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(id);
+        result.setStartTime(1000);
+        result.setEndTime(1000 + duration);
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setId("step1");
+        step.setStartTime(1000);
+        step.setEndTime(1000 + duration);
+        step.setErrorMessage(error);
+        result.addStepResult(step);
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.metrics;
+
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link SequenceHealthAggregator}.
+ */
+public class SequenceHealthAggregatorTest {
+
+    @Test
+    public void testAll() throws Exception {
+        final SequenceHealthAggregator aggregator = initAggregator(HealthRule.ALL, 1);
+        Assert.assertFalse(aggregator.isHealthy());
+        aggregator.record(initResult("seq1", null));
+        aggregator.record(initResult("seq2", null));
+        Assert.assertFalse(aggregator.isHealthy());
+        aggregator.record(initResult("seq3", null));
+        aggregator.record(initResult("other", "mockError"));
+        Assert.assertTrue(aggregator.isHealthy());
+        aggregator.record(initResult("seq2", "mockError"));
+        Assert.assertFalse(aggregator.isHealthy());
+        aggregator.record(initResult("seq2", null));
+        Assert.assertTrue(aggregator.isHealthy());
+        Assert.assertEquals(aggregator.getHealthyCount(), 3);
+        Assert.assertEquals(aggregator.getSequenceCount(), 3);
+    }
+
+    @Test
+    public void testAnyAndQuorum() throws Exception {
+        final SequenceHealthAggregator any = initAggregator(HealthRule.ANY, 1);
+        any.record(initResult("seq1", "mockError"));
+        Assert.assertFalse(any.isHealthy());
+        any.record(initResult("seq2", null));
+        Assert.assertTrue(any.isHealthy());
+        final SequenceHealthAggregator quorum = initAggregator(HealthRule.QUORUM, 2);
+        quorum.record(initResult("seq1", null));
+        quorum.record(initResult("seq2", "mockError"));
+        Assert.assertFalse(quorum.isHealthy());
+        quorum.record(initResult("seq3", null));
+        Assert.assertTrue(quorum.isHealthy());
+        quorum.record(initResult("seq3", null));
+        Assert.assertEquals(quorum.getHealthyCount(), 2);
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testQuorumTooLarge() throws Exception {
+        initAggregator(HealthRule.QUORUM, 4);
+    }
+
+    protected SequenceHealthAggregator initAggregator(final HealthRule rule, final int quorum) throws Exception {
+        final SequenceHealthAggregator aggregator = new SequenceHealthAggregator();
+        aggregator.setRule(rule);
+        aggregator.setQuorum(quorum);
+        aggregator.setSequenceIds(Arrays.asList("seq1", "seq2", "seq3"));
+        aggregator.initialize();
+        return aggregator;
+    }
+
+    protected MonitoringSequenceResult initResult(final String id, final String error) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(id);
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setErrorMessage(error);
+        result.addStepResult(step);
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.metrics;
+
+import java.lang.management.ThreadMXBean;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+
+/**
+ * Unit tests for {@link ThreadResourceMeter}.
+ */
+public class ThreadResourceMeterTest {
+
+    @Test
+    public void testPlatformBean() {
+        final ThreadResourceMeter meter = new ThreadResourceMeter();
+        final long cpuTime = meter.getCurrentThreadCpuTime();
+        final long allocatedBytes = meter.getCurrentThreadAllocatedBytes();
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            builder.append(Integer.toString(i));
+        }
+        Assert.assertTrue(builder.length() > 0);
+        if (meter.isCpuTimeSupported()) {
+            Assert.assertTrue(meter.getCurrentThreadCpuTime() >= cpuTime);
+        } else {
+            Assert.assertEquals(cpuTime, MonitoringSequenceStepResult.NOT_MEASURED);
+        }
+        if (meter.isAllocationSupported()) {
+            Assert.assertTrue(meter.getCurrentThreadAllocatedBytes() > allocatedBytes);
+        } else {
+            Assert.assertEquals(allocatedBytes, MonitoringSequenceStepResult.NOT_MEASURED);
+        }
+    }
+
+    @Test
+    public void testUnsupported() {
+        final ThreadMXBean bean = Mockito.mock(ThreadMXBean.class);
+        Mockito.when(bean.isCurrentThreadCpuTimeSupported()).thenReturn(false);
+        final ThreadResourceMeter meter = new ThreadResourceMeter(bean);
+        Assert.assertFalse(meter.isCpuTimeSupported());
+        Assert.assertFalse(meter.isAllocationSupported());
+        Assert.assertEquals(meter.getCurrentThreadCpuTime(), MonitoringSequenceStepResult.NOT_MEASURED);
+        Assert.assertEquals(meter.getCurrentThreadAllocatedBytes(), MonitoringSequenceStepResult.NOT_MEASURED);
+    }
+
+    @Test
+    public void testAccumulate() {
+        Assert.assertEquals(ThreadResourceMeter.accumulate(MonitoringSequenceStepResult.NOT_MEASURED, 10, 25), 15);
+        Assert.assertEquals(ThreadResourceMeter.accumulate(15, 30, 40), 25);
+        Assert.assertEquals(ThreadResourceMeter.accumulate(15, MonitoringSequenceStepResult.NOT_MEASURED, 40), 15);
+        Assert.assertEquals(ThreadResourceMeter.accumulate(MonitoringSequenceStepResult.NOT_MEASURED, 10, 
+                MonitoringSequenceStepResult.NOT_MEASURED), MonitoringSequenceStepResult.NOT_MEASURED);
+    }
+}
@@ -70,6 +70,9 @@ public class AbstractSequenceStepResolverTest {
     HttpContext context;
     
     SequenceStep startingStep;
+
+    /** The traceparent header of the latest request to the server. */
+    volatile String lastTraceparent;
  
     protected SequenceStep initStep() {
         final SequenceStep sequenceStep = new SequenceStep();
@@ -138,6 +141,7 @@ public class AbstractSequenceStepResolverTest {
         /** {@inheritDoc} */
         public void handle(Request request, Response response) {
             log.trace("Server got request for {}", request.getTarget());
+            lastTraceparent = request.getValue("traceparent");
             try {
                 response.setContentType("application/json");
                 if (responseContent != null) {
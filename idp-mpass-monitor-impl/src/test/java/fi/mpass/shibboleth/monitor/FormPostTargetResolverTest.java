@@ -30,6 +30,8 @@ import org.testng.annotations.Test;
 
 import fi.mpass.shibboleth.monitor.FormPostTargetResolver;
 import fi.mpass.shibboleth.monitor.SequenceStep;
+import fi.mpass.shibboleth.trace.TraceContext;
+import fi.mpass.shibboleth.trace.TraceSpan;
 
 /**
  * Unit tests for {@link FormPostTargetResolver}.
@@ -87,4 +89,22 @@ public class FormPostTargetResolverTest extends AbstractSequenceStepResolverTest
         Assert.assertEquals(result.getParameters().get(0).getValue(), param1value);
     }
 
+    @Test
+    public void testTraceparent() throws Exception {
+        final TraceContext traceContext = new TraceContext();
+        traceContext.setParentSpanId("00f067aa0ba902b7");
+        context.setAttribute(TraceContext.ATTRIBUTE_NAME, traceContext);
+        Assert.assertNotNull(executeWithServer(resolver, context, startingStep, "<form action=\"/mockAction\">"));
+        Assert.assertEquals(traceContext.getSpans().size(), 1);
+        final TraceSpan span = traceContext.getSpans().get(0);
+        Assert.assertEquals(span.getParentSpanId(), "00f067aa0ba902b7");
+        Assert.assertEquals(span.getAttributes().get("http.status_code"), Long.valueOf(200));
+        Assert.assertEquals(lastTraceparent, traceContext.toTraceparent(span.getSpanId()));
+    }
+
+    @Test
+    public void testNoTraceparent() throws Exception {
+        Assert.assertNotNull(executeWithServer(resolver, context, startingStep, "<form action=\"/mockAction\">"));
+        Assert.assertNull(lastTraceparent);
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.mpass.shibboleth.storage.LocalResultLog;
+import fi.mpass.shibboleth.storage.MonitoringResultHandler;
+import fi.mpass.shibboleth.storage.MonitoringResultQuery;
+import fi.mpass.shibboleth.storage.MonitoringResultRecord;
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.idp.profile.RequestContextBuilder;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+
+/**
+ * Unit tests for {@link AppendMonitoringResult}.
+ */
+public class AppendMonitoringResultTest {
+
+    /** The action to be tested. */
+    protected AppendMonitoringResult action;
+
+    /** The directory of the log segments. */
+    protected File directory;
+
+    /** The local result log. */
+    protected LocalResultLog resultLog;
+
+    /** The request context containing the profile context. */
+    protected RequestContext src;
+
+    /** The profile context. */
+    protected ProfileRequestContext<?, ?> prc;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        directory = Files.createTempDirectory("mpass-result-log").toFile();
+        resultLog = new LocalResultLog();
+        resultLog.setDirectory(directory);
+        resultLog.initialize();
+        action = new AppendMonitoringResult();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setResultLog(resultLog);
+        action.initialize();
+        src = new RequestContextBuilder().buildRequestContext();
+        prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        resultLog.destroy();
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testNoMonitoringContext() throws Exception {
+        ActionTestingSupport.assertEvent(action.execute(src), EventIds.INVALID_PROFILE_CTX);
+    }
+
+    @Test
+    public void testTwoResults() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        monitoringCtx.addResult(initMonitoringResult(1000, 1500));
+        monitoringCtx.addResult(initMonitoringResult(2000, 2500));
+        prc.addSubcontext(monitoringCtx);
+        Assert.assertNull(action.execute(src));
+        final List<MonitoringResultRecord> records = new ArrayList<>();
+        final int count = resultLog.query(new MonitoringResultQuery(), new MonitoringResultHandler() {
+            @Override
+            public void handle(final MonitoringResultRecord record) {
+                records.add(record);
+            }
+        });
+        Assert.assertEquals(count, 2);
+        Assert.assertEquals(records.get(0).getSequenceId(), "mockId");
+        Assert.assertEquals(records.get(1).getStartTime(), 2000);
+    }
+
+    protected MonitoringSequenceResult initMonitoringResult(final long startTime, final long endTime) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId("mockId");
+        result.setStartTime(startTime);
+        result.setEndTime(endTime);
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setStartTime(startTime);
+        step.setEndTime(endTime);
+        result.addStepResult(step);
+        return result;
+    }
+}
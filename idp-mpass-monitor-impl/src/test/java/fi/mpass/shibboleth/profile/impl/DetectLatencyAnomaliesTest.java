@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.metrics.LatencyAnomalyDetector;
+import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.idp.profile.RequestContextBuilder;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link DetectLatencyAnomalies}.
+ */
+public class DetectLatencyAnomaliesTest {
+
+    /** The action to be tested. */
+    protected DetectLatencyAnomalies action;
+
+    /** The detector. */
+    protected LatencyAnomalyDetector detector;
+
+    /** The request context containing the profile context. */
+    protected RequestContext src;
+
+    /** The profile context. */
+    protected ProfileRequestContext<?, ?> prc;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        detector = new LatencyAnomalyDetector();
+        detector.setWarmupSamples(5);
+        detector.initialize();
+        action = new DetectLatencyAnomalies();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setDetector(detector);
+        action.initialize();
+        src = new RequestContextBuilder().buildRequestContext();
+        prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoDetector() throws Exception {
+        action = new DetectLatencyAnomalies();
+        action.initialize();
+    }
+
+    @Test
+    public void testNoMonitoringContext() throws Exception {
+        ActionTestingSupport.assertEvent(action.execute(src), EventIds.INVALID_PROFILE_CTX);
+    }
+
+    @Test
+    public void testAnomalyAttached() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            detector.record(initMonitoringResult(100));
+        }
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        final MonitoringSequenceResult normal = initMonitoringResult(100);
+        final MonitoringSequenceResult slow = initMonitoringResult(800);
+        monitoringCtx.addResult(normal);
+        monitoringCtx.addResult(slow);
+        prc.addSubcontext(monitoringCtx);
+        Assert.assertNull(action.execute(src));
+        Assert.assertTrue(normal.getAnomalies().isEmpty());
+        Assert.assertEquals(slow.getAnomalies().size(), 1);
+        Assert.assertEquals(slow.getAnomalies().get(0).getStepId(), "resolver1");
+        Assert.assertEquals(slow.getAnomalies().get(0).getDuration(), 800);
+    }
+
+    protected MonitoringSequenceResult initMonitoringResult(final long duration) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId("mockId");
+        result.setStartTime(1000);
+        result.setEndTime(1000 + duration);
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setId("resolver1");
+        step.setStartTime(1000);
+        step.setEndTime(1000 + duration);
+        result.addStepResult(step);
+        return result;
+    }
+}
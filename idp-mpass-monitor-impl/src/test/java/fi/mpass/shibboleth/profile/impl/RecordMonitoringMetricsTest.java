@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.metrics.MonitoringMetrics;
+import fi.mpass.shibboleth.metrics.SequenceHealthAggregator;
+import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.idp.profile.RequestContextBuilder;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+
+/**
+ * Unit tests for {@link RecordMonitoringMetrics}.
+ */
+public class RecordMonitoringMetricsTest {
+
+    /** The action to be tested. */
+    protected RecordMonitoringMetrics action;
+
+    /** The metrics. */
+    protected MonitoringMetrics metrics;
+
+    /** The request context containing the profile context. */
+    protected RequestContext src;
+
+    /** The profile context. */
+    protected ProfileRequestContext<?, ?> prc;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        metrics = new MonitoringMetrics();
+        metrics.initialize();
+        action = new RecordMonitoringMetrics();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setMetrics(metrics);
+        action.initialize();
+        src = new RequestContextBuilder().buildRequestContext();
+        prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+    }
+
+    @Test
+    public void testNoMonitoringContext() throws Exception {
+        ActionTestingSupport.assertEvent(action.execute(src), EventIds.INVALID_PROFILE_CTX);
+    }
+
+    @Test
+    public void testTwoResults() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        monitoringCtx.addResult(initMonitoringResult(null));
+        monitoringCtx.addResult(initMonitoringResult("mockError"));
+        prc.addSubcontext(monitoringCtx);
+        Assert.assertNull(action.execute(src));
+        Assert.assertEquals(metrics.getRunCount("mockId"), 2);
+        Assert.assertEquals(metrics.getFailureCount("mockId"), 1);
+    }
+
+    @Test
+    public void testHealthAggregator() throws Exception {
+        final SequenceHealthAggregator aggregator = new SequenceHealthAggregator();
+        aggregator.initialize();
+        action = new RecordMonitoringMetrics();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setHealthAggregator(aggregator);
+        action.initialize();
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        monitoringCtx.addResult(initMonitoringResult(null));
+        prc.addSubcontext(monitoringCtx);
+        Assert.assertNull(action.execute(src));
+        Assert.assertTrue(aggregator.isHealthy());
+    }
+
+    protected MonitoringSequenceResult initMonitoringResult(final String error) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId("mockId");
+        result.setStartTime(1000);
+        result.setEndTime(1500);
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setStartTime(1000);
+        step.setEndTime(1500);
+        step.setErrorMessage(error);
+        result.addStepResult(step);
+        return result;
+    }
+}
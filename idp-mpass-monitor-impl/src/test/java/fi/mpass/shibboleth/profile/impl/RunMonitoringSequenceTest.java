@@ -24,9 +24,11 @@
 package fi.mpass.shibboleth.profile.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.http.protocol.HttpContext;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.springframework.webflow.execution.RequestContext;
@@ -34,10 +36,19 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import fi.mpass.shibboleth.events.MonitoringEvent;
+import fi.mpass.shibboleth.events.MonitoringEventRecorder;
+import fi.mpass.shibboleth.events.MonitoringEvents;
+import fi.mpass.shibboleth.metrics.ThreadResourceMeter;
+import fi.mpass.shibboleth.trace.TraceSpan;
+import fi.mpass.shibboleth.trace.TraceSpanExporter;
+import fi.mpass.shibboleth.monitor.MonitoringResultListener;
 import fi.mpass.shibboleth.monitor.ResponseValidatorException;
 import fi.mpass.shibboleth.monitor.SequenceStep;
 import fi.mpass.shibboleth.monitor.SequenceStepResolver;
 import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
 import fi.mpass.shibboleth.profile.impl.RunMonitoringSequence;
 import net.shibboleth.idp.profile.RequestContextBuilder;
 import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
@@ -140,4 +151,123 @@ public class RunMonitoringSequenceTest {
         Assert.assertEquals(monitoringCtx.getResults().get(0).getStepResults().size(), 1);
         Assert.assertNull(monitoringCtx.getResults().get(0).getStepResults().get(0).getErrorMessage());
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testListeners() throws Exception {
+        final MonitoringResultListener failing = Mockito.mock(MonitoringResultListener.class);
+        Mockito.doThrow(new IllegalStateException("mock")).when(failing)
+            .stepCompleted(Mockito.anyString(), (MonitoringSequenceStepResult) Mockito.any());
+        final MonitoringResultListener listener = Mockito.mock(MonitoringResultListener.class);
+        final List<MonitoringResultListener> listeners = new ArrayList<>();
+        listeners.add(failing);
+        listeners.add(listener);
+        action.setSequenceId("mockSequence");
+        action.setResolvers(initResolvers(6, 3, false));
+        action.setListeners(Collections.unmodifiableList(listeners));
+        action.initialize();
+        action.execute(prc);
+        Mockito.verify(listener, Mockito.times(4)).stepCompleted(Mockito.eq("mockSequence"), 
+                (MonitoringSequenceStepResult) Mockito.any());
+        Mockito.verify(listener).sequenceCompleted(
+                prc.getSubcontext(MonitoringResultContext.class).getResults().get(0));
+        Mockito.verify(failing).sequenceCompleted((MonitoringSequenceResult) Mockito.any());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testResourceAccounting() throws Exception {
+        final ThreadResourceMeter meter = Mockito.mock(ThreadResourceMeter.class);
+        Mockito.when(meter.getCurrentThreadCpuTime()).thenReturn(100L, 150L, 200L, 260L);
+        Mockito.when(meter.getCurrentThreadAllocatedBytes()).thenReturn(1000L, 1500L, 2000L, 3000L);
+        action.setResolvers(initResolvers(2, 3, true));
+        action.setResourceMeter(meter);
+        action.initialize();
+        action.execute(prc);
+        final MonitoringSequenceStepResult step = 
+                prc.getSubcontext(MonitoringResultContext.class).getResults().get(0).getStepResults().get(0);
+        Assert.assertEquals(step.getCpuTime(), 110);
+        Assert.assertEquals(step.getAllocatedBytes(), 1500);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testNoResourceAccounting() throws Exception {
+        action.setResolvers(initResolvers(2, 3, false));
+        action.setResourceMeter(null);
+        action.initialize();
+        action.execute(prc);
+        final MonitoringSequenceStepResult step = 
+                prc.getSubcontext(MonitoringResultContext.class).getResults().get(0).getStepResults().get(1);
+        Assert.assertEquals(step.getCpuTime(), MonitoringSequenceStepResult.NOT_MEASURED);
+        Assert.assertEquals(step.getAllocatedBytes(), MonitoringSequenceStepResult.NOT_MEASURED);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testEvents() throws Exception {
+        final MonitoringEvent sequenceEvent = Mockito.mock(MonitoringEvent.class);
+        final MonitoringEvent stepEvent = Mockito.mock(MonitoringEvent.class);
+        final MonitoringEventRecorder recorder = Mockito.mock(MonitoringEventRecorder.class);
+        Mockito.when(recorder.beginSequence("mockSequence")).thenReturn(sequenceEvent);
+        Mockito.when(recorder.beginStep(Mockito.eq("mockSequence"), Mockito.anyString(), Mockito.anyInt()))
+            .thenReturn(stepEvent);
+        MonitoringEvents.setRecorder(recorder);
+        try {
+            action.setSequenceId("mockSequence");
+            action.setResolvers(initResolvers(3, 1, false));
+            action.initialize();
+            action.execute(prc);
+        } finally {
+            MonitoringEvents.setRecorder(null);
+        }
+        Mockito.verify(recorder).beginStep("mockSequence", "mock0", 0);
+        Mockito.verify(recorder).beginStep("mockSequence", "mock1", 1);
+        Mockito.verify(stepEvent, Mockito.times(2)).commit();
+        Mockito.verify(stepEvent).setError(errorMessage);
+        Mockito.verify(sequenceEvent).setError(errorMessage);
+        Mockito.verify(sequenceEvent).commit();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testTracing() throws Exception {
+        final TraceSpanExporter exporter = Mockito.mock(TraceSpanExporter.class);
+        action.setSequenceId("mockSequence");
+        action.setResolvers(initResolvers(3, 2, false));
+        action.setSpanExporter(exporter);
+        action.initialize();
+        action.execute(prc);
+        final List<MonitoringSequenceStepResult> steps = 
+                prc.getSubcontext(MonitoringResultContext.class).getResults().get(0).getStepResults();
+        Assert.assertTrue(steps.get(0).getTraceId().matches("[0-9a-f]{32}"));
+        Assert.assertTrue(steps.get(0).getSpanId().matches("[0-9a-f]{16}"));
+        Assert.assertEquals(steps.get(1).getTraceId(), steps.get(0).getTraceId());
+        Assert.assertNotEquals(steps.get(1).getSpanId(), steps.get(0).getSpanId());
+        final ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(exporter).export(captor.capture());
+        final List<TraceSpan> spans = captor.getValue();
+        Assert.assertEquals(spans.size(), 4);
+        Assert.assertNull(spans.get(0).getParentSpanId());
+        Assert.assertEquals(spans.get(0).getErrorMessage(), errorMessage);
+        Assert.assertEquals(spans.get(1).getSpanId(), steps.get(0).getSpanId());
+        Assert.assertEquals(spans.get(1).getParentSpanId(), spans.get(0).getSpanId());
+        Assert.assertEquals(spans.get(3).getErrorMessage(), errorMessage);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testNoTracing() throws Exception {
+        final TraceSpanExporter exporter = Mockito.mock(TraceSpanExporter.class);
+        action.setResolvers(initResolvers(2, 3, false));
+        action.setTracePropagation(false);
+        action.setSpanExporter(exporter);
+        action.initialize();
+        action.execute(prc);
+        final MonitoringSequenceStepResult step = 
+                prc.getSubcontext(MonitoringResultContext.class).getResults().get(0).getStepResults().get(0);
+        Assert.assertNull(step.getTraceId());
+        Assert.assertNull(step.getSpanId());
+        Mockito.verifyZeroInteractions(exporter);
+    }
 }
@@ -23,11 +23,15 @@
 
 package fi.mpass.shibboleth.profile.impl;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import javax.sql.DataSource;
@@ -42,10 +46,18 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import fi.mpass.shibboleth.monitor.context.LatencyAnomaly;
 import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
 import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
 import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
 import fi.mpass.shibboleth.profile.impl.StoreMonitoringResult;
+import fi.mpass.shibboleth.storage.JdbcBulkResultIngester;
+import fi.mpass.shibboleth.storage.JdbcMonitoringResultWriter;
+import fi.mpass.shibboleth.storage.JdbcRollupWriter;
+import fi.mpass.shibboleth.storage.MonitoringResultSpool;
+import fi.mpass.shibboleth.storage.RetryBudget;
+import fi.mpass.shibboleth.storage.RollupResolution;
+import fi.mpass.shibboleth.storage.StepPersistencePolicy;
 import net.shibboleth.idp.profile.ActionTestingSupport;
 import net.shibboleth.idp.profile.RequestContextBuilder;
 import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
@@ -88,6 +100,11 @@ public class StoreMonitoringResultTest {
     }
     
     public StoreMonitoringResult initAction(final DataSource dataSource) throws Exception {
+        return initAction(dataSource, null);
+    }
+
+    public StoreMonitoringResult initAction(final DataSource dataSource, final MonitoringResultSpool spool)
+            throws Exception {
         action = new StoreMonitoringResult();
         action.setHttpServletResponse(new MockHttpServletResponse());
         populateContext();
@@ -96,6 +113,10 @@ public class StoreMonitoringResultTest {
         List<String> errors = new ArrayList<String>();
         errors.add(retryableError);
         action.setRetryableErrors(errors);
+        action.setSpool(spool);
+        action.setRetryDelay(1);
+        action.setMaxRetryDelay(5);
+        action.setRetryBudget(new RetryBudget(100, 0));
         action.initialize();
         return action;
     }
@@ -162,6 +183,135 @@ public class StoreMonitoringResultTest {
         Assert.assertFalse(set.next());
     }
     
+    @Test
+    public void testRollups() throws Exception {
+        action = new StoreMonitoringResult();
+        action.setDataSource(dataSource);
+        action.setRollupResolutions(Arrays.asList(RollupResolution.MINUTE, RollupResolution.DAY));
+        action.initialize();
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        long startTime = RollupResolution.MINUTE.getBucketStart(System.currentTimeMillis());
+        monitoringCtx.addResult(initMonitoringResult(startTime, startTime + 80));
+        monitoringCtx.addResult(initMonitoringResult(startTime + 1000, startTime + 1600));
+        prc.addSubcontext(monitoringCtx);
+        Assert.assertNull(action.execute(src));
+        final Connection connection = dataSource.getConnection();
+        final PreparedStatement statement = connection.prepareStatement("SELECT * from " 
+                + JdbcRollupWriter.TABLE_NAME_MONITORING_ROLLUP + " where stepId = '' and resolution = ?");
+        statement.setLong(1, RollupResolution.MINUTE.getLength());
+        final ResultSet set = statement.executeQuery();
+        Assert.assertTrue(set.next());
+        Assert.assertEquals(startTime, set.getLong("bucketStart"));
+        Assert.assertEquals(2, set.getLong("sampleCount"));
+        Assert.assertEquals(0, set.getLong("errorCount"));
+        Assert.assertEquals(80, set.getLong("minDuration"));
+        Assert.assertEquals(600, set.getLong("maxDuration"));
+        Assert.assertEquals(680, set.getLong("sumDuration"));
+        Assert.assertEquals(1, set.getLong("bucket1"));
+        Assert.assertEquals(1, set.getLong("bucket4"));
+        Assert.assertFalse(set.next());
+        final PreparedStatement count = connection.prepareStatement("SELECT COUNT(*) from " 
+                + JdbcRollupWriter.TABLE_NAME_MONITORING_ROLLUP);
+        final ResultSet countSet = count.executeQuery();
+        Assert.assertTrue(countSet.next());
+        // sequence and one step, both in two resolutions
+        Assert.assertEquals(4, countSet.getInt(1));
+    }
+    
+    @Test
+    public void testChangeOnlySteps() throws Exception {
+        action = new StoreMonitoringResult();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setDataSource(dataSource);
+        final StepPersistencePolicy policy = new StepPersistencePolicy();
+        policy.initialize();
+        action.setStepPersistencePolicy(policy);
+        action.setRollupResolutions(Collections.singletonList(RollupResolution.MINUTE));
+        action.initialize();
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        monitoringCtx.addResult(initMonitoringResult(1000, 1100));
+        monitoringCtx.addResult(initMonitoringResult(2000, 2100));
+        final MonitoringSequenceResult failed = initMonitoringResult(3000, 3100);
+        failed.getStepResults().get(0).setErrorMessage("mockError");
+        monitoringCtx.addResult(failed);
+        monitoringCtx.addResult(initMonitoringResult(4000, 4100));
+        monitoringCtx.addResult(initMonitoringResult(5000, 5100));
+        prc.addSubcontext(monitoringCtx);
+        Assert.assertNull(action.execute(src));
+        final Connection connection = dataSource.getConnection();
+        final ResultSet results = connection.prepareStatement("SELECT COUNT(*) FROM " 
+                + StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS).executeQuery();
+        Assert.assertTrue(results.next());
+        Assert.assertEquals(5, results.getInt(1));
+        final ResultSet steps = connection.prepareStatement("SELECT startTime FROM " 
+                + StoreMonitoringResult.TABLE_NAME_MONITORING_STEP_RESULTS + " ORDER BY startTime").executeQuery();
+        // the first run, the failure and the recovery
+        for (final long startTime : new long[] { 1000, 3000, 4000 }) {
+            Assert.assertTrue(steps.next());
+            Assert.assertEquals(startTime, steps.getLong(1));
+        }
+        Assert.assertFalse(steps.next());
+        Assert.assertEquals(2, policy.getSkippedCount());
+    }
+
+    @Test(expected = ComponentInitializationException.class)
+    public void testChangeOnlyStepsWithoutRollups() throws Exception {
+        action = new StoreMonitoringResult();
+        action.setDataSource(dataSource);
+        final StepPersistencePolicy policy = new StepPersistencePolicy();
+        policy.initialize();
+        action.setStepPersistencePolicy(policy);
+        action.initialize();
+    }
+
+    @Test(expected = ComponentInitializationException.class)
+    public void testAnomaliesWithoutBulkAnomalies() throws Exception {
+        action = new StoreMonitoringResult();
+        action.setDataSource(dataSource);
+        action.setAnomaliesEnabled(true);
+        action.setBulkIngester(new JdbcBulkResultIngester());
+        action.initialize();
+    }
+
+    @Test
+    public void testAnomalies() throws Exception {
+        action = new StoreMonitoringResult();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setDataSource(dataSource);
+        final StepPersistencePolicy policy = new StepPersistencePolicy();
+        policy.initialize();
+        action.setStepPersistencePolicy(policy);
+        action.setRollupResolutions(Collections.singletonList(RollupResolution.MINUTE));
+        action.setAnomaliesEnabled(true);
+        action.initialize();
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        monitoringCtx.addResult(initMonitoringResult(1000, 1100));
+        final MonitoringSequenceResult slow = initMonitoringResult(2000, 2900);
+        final LatencyAnomaly anomaly = new LatencyAnomaly();
+        anomaly.setStepId("mockStep");
+        anomaly.setDuration(900);
+        anomaly.setBaselineMean(100.5);
+        anomaly.setBaselineDeviation(10.2);
+        anomaly.setScore(78.4);
+        slow.addAnomaly(anomaly);
+        monitoringCtx.addResult(slow);
+        prc.addSubcontext(monitoringCtx);
+        Assert.assertNull(action.execute(src));
+        final Connection connection = dataSource.getConnection();
+        final ResultSet anomalies = connection.prepareStatement("SELECT stepId, duration, score FROM " 
+                + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES).executeQuery();
+        Assert.assertTrue(anomalies.next());
+        Assert.assertEquals("mockStep", anomalies.getString(1));
+        Assert.assertEquals(900, anomalies.getLong(2));
+        Assert.assertEquals(78.4, anomalies.getDouble(3), 0.001);
+        Assert.assertFalse(anomalies.next());
+        // the anomalous run keeps its steps even though its status did not change
+        final ResultSet steps = connection.prepareStatement("SELECT COUNT(*) FROM " 
+                + StoreMonitoringResult.TABLE_NAME_MONITORING_STEP_RESULTS).executeQuery();
+        Assert.assertTrue(steps.next());
+        Assert.assertEquals(2, steps.getInt(1));
+    }
+
     @Test
     public void testFailedConnection() throws Exception {
         final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
@@ -176,6 +326,83 @@ public class StoreMonitoringResultTest {
         monitoringCtx.addResult(initMonitoringResult(startTime, endTime));
         prc.addSubcontext(monitoringCtx);
         ActionTestingSupport.assertEvent(action.execute(src), EventIds.IO_ERROR);
+        Assert.assertEquals(5, action.getRetriedCount());
+        Assert.assertEquals(1, action.getAbandonedCount());
+        Mockito.verify(dataSource, Mockito.times(6)).getConnection();
+    }
+
+    @Test
+    public void testRetryBudgetExhausted() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        long startTime = System.currentTimeMillis() - 1000;
+        long endTime = System.currentTimeMillis();
+        DataSource dataSource = Mockito.mock(DataSource.class);
+        Mockito.when(dataSource.getConnection()).thenThrow(new SQLException("mock", retryableError));
+        action = new StoreMonitoringResult();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setDataSource(dataSource);
+        action.setTransactionRetries(5);
+        action.setRetryableErrors(Arrays.asList(retryableError));
+        action.setRetryDelay(0);
+        action.setMaxRetryDelay(0);
+        final RetryBudget budget = new RetryBudget(2, 0);
+        action.setRetryBudget(budget);
+        action.initialize();
+        monitoringCtx.addResult(initMonitoringResult(startTime, endTime));
+        monitoringCtx.addResult(initMonitoringResult(startTime, endTime));
+        prc.addSubcontext(monitoringCtx);
+        ActionTestingSupport.assertEvent(action.execute(src), EventIds.IO_ERROR);
+        Assert.assertEquals(2, action.getRetriedCount());
+        Assert.assertEquals(2, action.getAbandonedCount());
+        Assert.assertEquals(1, budget.getDeniedCount());
+        Assert.assertEquals(2, budget.getRetriedCount());
+        Assert.assertEquals(2, budget.getAbandonedCount());
+    }
+
+    @Test
+    public void testStatementClosedOnFailure() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        long startTime = System.currentTimeMillis() - 1000;
+        long endTime = System.currentTimeMillis();
+        DataSource dataSource = Mockito.mock(DataSource.class);
+        Connection connection = Mockito.mock(Connection.class);
+        PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        Mockito.when(statement.executeUpdate()).thenThrow(new SQLException("mock", "nonRetryable"));
+        Mockito.when(connection.prepareStatement((String)Mockito.any(), Mockito.anyInt())).thenReturn(statement);
+        Mockito.when(dataSource.getConnection()).thenReturn(connection);
+        action = initAction(dataSource);
+        monitoringCtx.addResult(initMonitoringResult(startTime, endTime));
+        prc.addSubcontext(monitoringCtx);
+        ActionTestingSupport.assertEvent(action.execute(src), EventIds.IO_ERROR);
+        Mockito.verify(connection).rollback();
+        Mockito.verify(statement).close();
+        Mockito.verify(connection).close();
+    }
+
+    @Test
+    public void testSpooledOnFailure() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        long startTime = System.currentTimeMillis() - 1000;
+        long endTime = System.currentTimeMillis();
+        DataSource dataSource = Mockito.mock(DataSource.class);
+        Mockito.when(dataSource.getConnection()).thenThrow(new SQLException("mock", "nonRetryable"));
+        final File directory = Files.createTempDirectory("mpass-spool").toFile();
+        final MonitoringResultSpool spool = new MonitoringResultSpool();
+        spool.setDirectory(directory);
+        spool.initialize();
+        try {
+            action = initAction(dataSource, spool);
+            monitoringCtx.addResult(initMonitoringResult(startTime, endTime));
+            prc.addSubcontext(monitoringCtx);
+            Assert.assertNull(action.execute(src));
+            Assert.assertEquals(1, spool.getSize());
+            Assert.assertEquals(startTime, spool.peek(1).get(0).getResult().getStartTime());
+        } finally {
+            for (final File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
     }
 
     protected void assertResult(final Connection connection, final ResultSet set, final int id, final long startTime, final long endTime) throws Exception {
@@ -30,6 +30,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.mockito.Mockito;
 import org.opensaml.profile.action.EventIds;
 import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
@@ -37,6 +38,11 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import fi.mpass.shibboleth.monitor.context.LatencyAnomaly;
 import fi.mpass.shibboleth.monitor.context.MonitoringResultContext;
 import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
 import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
@@ -116,6 +122,144 @@ public class WriteMonitoringResultTest {
         Assert.assertTrue(httpResponse.getContentAsString().contains("OK:"));
     }
     
+    @Test
+    public void testHealthStatusCodes() throws Exception {
+        Assert.assertEquals(executeHealthAction(null).getStatus(), HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        Assert.assertEquals(executeHealthAction(initSeqResult(errorMessage)).getStatus(), 
+                HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        final MockHttpServletResponse httpResponse = executeHealthAction(initSeqResult(null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpServletResponse.SC_OK);
+        Assert.assertTrue(httpResponse.getContentAsString().contains("OK:"));
+    }
+
+    @Test
+    public void testNoHealthStatusCodes() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        monitoringCtx.addResult(initSeqResult(errorMessage));
+        prc.addSubcontext(monitoringCtx);
+        action.execute(src);
+        Assert.assertEquals(((MockHttpServletResponse) action.getHttpServletResponse()).getStatus(), 
+                HttpServletResponse.SC_OK);
+    }
+
+    @Test
+    public void testJsonWithError() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        final MonitoringSequenceResult result = initSeqResult(errorMessage);
+        result.setId("mockSequence");
+        result.getStepResults().get(0).setId("mockStep");
+        monitoringCtx.addResult(result);
+        prc.addSubcontext(monitoringCtx);
+        action = initJsonAction("text/html, application/json");
+        action.execute(src);
+        MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertEquals(httpResponse.getContentType(), WriteMonitoringResult.CONTENT_TYPE_JSON);
+        final JsonObject json = new JsonParser().parse(httpResponse.getContentAsString()).getAsJsonObject();
+        Assert.assertEquals(json.get("sequenceId").getAsString(), "mockSequence");
+        Assert.assertEquals(json.get("status").getAsString(), "ERROR");
+        Assert.assertEquals(json.get("error").getAsString(), errorMessage);
+        final JsonArray steps = json.getAsJsonArray("steps");
+        Assert.assertEquals(steps.size(), 1);
+        Assert.assertEquals(steps.get(0).getAsJsonObject().get("id").getAsString(), "mockStep");
+        Assert.assertEquals(steps.get(0).getAsJsonObject().get("error").getAsString(), errorMessage);
+        Assert.assertTrue(steps.get(0).getAsJsonObject().get("duration").getAsLong() >= 0);
+    }
+
+    @Test
+    public void testJsonAnomalies() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        final MonitoringSequenceResult result = initSeqResult(null);
+        final LatencyAnomaly anomaly = new LatencyAnomaly();
+        anomaly.setStepId("mockStep");
+        anomaly.setDuration(900);
+        anomaly.setBaselineMean(100.4);
+        anomaly.setBaselineDeviation(10.2);
+        anomaly.setScore(78.43);
+        result.addAnomaly(anomaly);
+        monitoringCtx.addResult(result);
+        prc.addSubcontext(monitoringCtx);
+        action = initJsonAction("application/json");
+        action.execute(src);
+        MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        final JsonObject json = new JsonParser().parse(httpResponse.getContentAsString()).getAsJsonObject();
+        Assert.assertEquals(json.get("status").getAsString(), "OK");
+        final JsonArray anomalies = json.getAsJsonArray("anomalies");
+        Assert.assertEquals(anomalies.size(), 1);
+        final JsonObject first = anomalies.get(0).getAsJsonObject();
+        Assert.assertEquals(first.get("stepId").getAsString(), "mockStep");
+        Assert.assertEquals(first.get("duration").getAsLong(), 900);
+        Assert.assertEquals(first.get("baselineMean").getAsLong(), 100);
+        Assert.assertEquals(first.get("score").getAsDouble(), 78.4);
+    }
+
+    @Test
+    public void testJsonNoContext() throws Exception {
+        action = initJsonAction("application/json");
+        action.execute(src);
+        MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        final JsonObject json = new JsonParser().parse(httpResponse.getContentAsString()).getAsJsonObject();
+        Assert.assertEquals(json.get("status").getAsString(), "ERROR");
+        Assert.assertEquals(json.get("error").getAsString(), WriteMonitoringResult.ERROR_MSG_NO_CONTEXT);
+    }
+
+    @Test
+    public void testTextPreferred() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        monitoringCtx.addResult(initSeqResult(null));
+        prc.addSubcontext(monitoringCtx);
+        action = initJsonAction("application/json;q=0.5, text/plain");
+        action.execute(src);
+        MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertTrue(httpResponse.getContentAsString().startsWith("OK:"));
+    }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        monitoringCtx.addResult(initSeqResult(null));
+        prc.addSubcontext(monitoringCtx);
+        action = new WriteMonitoringResult();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setConditionalGet(true);
+        action.initialize();
+        action.execute(src);
+        final String eTag = ((MockHttpServletResponse) action.getHttpServletResponse()).getHeader("ETag");
+        Assert.assertNotNull(eTag);
+        Assert.assertEquals(((MockHttpServletResponse) action.getHttpServletResponse()).getHeader("Cache-Control"),
+                "no-cache");
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.addHeader("If-None-Match", "\"other\", " + eTag);
+        action = new WriteMonitoringResult();
+        action.setHttpServletRequest(httpRequest);
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setConditionalGet(true);
+        action.initialize();
+        Assert.assertEquals(action.execute(src).getId(), EventIds.PROCEED_EVENT_ID);
+        MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertEquals(httpResponse.getStatus(), HttpServletResponse.SC_NOT_MODIFIED);
+        Assert.assertEquals(httpResponse.getContentAsString(), "");
+        monitoringCtx.addResult(initSeqResult(errorMessage));
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.execute(src);
+        httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertEquals(httpResponse.getStatus(), HttpServletResponse.SC_OK);
+        Assert.assertEquals(httpResponse.getContentAsString(), errorMessage);
+        Assert.assertNotEquals(httpResponse.getHeader("ETag"), eTag);
+    }
+
+    @Test
+    public void testConditionalGetDisabled() throws Exception {
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        monitoringCtx.addResult(initSeqResult(null));
+        prc.addSubcontext(monitoringCtx);
+        action.execute(src);
+        final MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertFalse(action.isConditionalGet());
+        Assert.assertNull(httpResponse.getHeader("ETag"));
+        Assert.assertTrue(httpResponse.getHeader("Cache-Control").contains("no-store"));
+        Assert.assertEquals(httpResponse.getHeader("Vary"), "Accept");
+    }
+
     @Test
     public void testIOError() throws Exception {
         HttpServletResponse httpResponse = Mockito.mock(HttpServletResponse.class);
@@ -127,6 +271,31 @@ public class WriteMonitoringResultTest {
         Assert.assertEquals(event.getId(), EventIds.IO_ERROR);
     }
     
+    protected MockHttpServletResponse executeHealthAction(final MonitoringSequenceResult result) throws Exception {
+        populateContext();
+        if (result != null) {
+            final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+            monitoringCtx.addResult(result);
+            prc.addSubcontext(monitoringCtx);
+        }
+        final WriteMonitoringResult healthAction = new WriteMonitoringResult();
+        healthAction.setHttpServletResponse(new MockHttpServletResponse());
+        healthAction.setHealthStatusCodes(true);
+        healthAction.initialize();
+        healthAction.execute(src);
+        return (MockHttpServletResponse) healthAction.getHttpServletResponse();
+    }
+
+    protected WriteMonitoringResult initJsonAction(final String accept) throws Exception {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.addHeader("Accept", accept);
+        final WriteMonitoringResult jsonAction = new WriteMonitoringResult();
+        jsonAction.setHttpServletRequest(httpRequest);
+        jsonAction.setHttpServletResponse(new MockHttpServletResponse());
+        jsonAction.initialize();
+        return jsonAction;
+    }
+
     protected MonitoringSequenceResult initSeqResult(final String newErrorMessage) {
         final MonitoringSequenceStepResult stepResult = new MonitoringSequenceStepResult();
         stepResult.setStartTime(System.currentTimeMillis() - 1000);
@@ -0,0 +1,255 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.schedule;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.cluster.SequenceOwnership;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link AdaptiveProbeScheduler} and {@link ProbeRateLimiter}.
+ */
+public class AdaptiveProbeSchedulerTest {
+
+    @Test
+    public void testIntervals() throws Exception {
+        final AdaptiveProbeScheduler scheduler = initScheduler();
+        final ProbeState state = new ProbeState("mockProbe", 1000);
+        Assert.assertEquals(recordRun(scheduler, state, true), 1000);
+        Assert.assertEquals(recordRun(scheduler, state, false), 100);
+        Assert.assertEquals(recordRun(scheduler, state, false), 100);
+        Assert.assertEquals(recordRun(scheduler, state, false), 200);
+        Assert.assertEquals(recordRun(scheduler, state, false), 400);
+        Assert.assertEquals(recordRun(scheduler, state, true), 800);
+        Assert.assertEquals(recordRun(scheduler, state, false), 100);
+        Assert.assertEquals(recordRun(scheduler, state, true), 200);
+        Assert.assertEquals(recordRun(scheduler, state, true), 400);
+        Assert.assertEquals(recordRun(scheduler, state, true), 800);
+        Assert.assertEquals(recordRun(scheduler, state, true), 1000);
+        Assert.assertEquals(recordRun(scheduler, state, true), 1000);
+        Assert.assertEquals(state.getRunCount(), 12);
+        Assert.assertEquals(state.getConsecutiveSuccesses(), 5);
+    }
+
+    @Test
+    public void testJitter() throws Exception {
+        final AdaptiveProbeScheduler scheduler = new AdaptiveProbeScheduler();
+        scheduler.setJitter(0.2);
+        scheduler.initialize();
+        boolean varied = false;
+        for (int i = 0; i < 100; i++) {
+            final long delay = scheduler.applyJitter(1000);
+            Assert.assertTrue(delay >= 800 && delay <= 1200);
+            varied = varied || delay != 1000;
+        }
+        Assert.assertTrue(varied);
+        Assert.assertEquals(scheduler.applyJitter(0), 0);
+        scheduler.destroy();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testRecheckLongerThanBase() throws Exception {
+        final AdaptiveProbeScheduler scheduler = new AdaptiveProbeScheduler();
+        scheduler.setBaseInterval(100);
+        scheduler.setRecheckInterval(1000);
+        scheduler.initialize();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testDuplicateProbes() throws Exception {
+        final AdaptiveProbeScheduler scheduler = new AdaptiveProbeScheduler();
+        scheduler.setProbes(Arrays.<ProbeTask>asList(new MockProbe("mockProbe", true), 
+                new MockProbe("mockProbe", true)));
+        scheduler.initialize();
+    }
+
+    @Test
+    public void testRecheckAfterFailure() throws Exception {
+        final MockProbe probe = new MockProbe("mockProbe", false);
+        final AdaptiveProbeScheduler scheduler = new AdaptiveProbeScheduler();
+        scheduler.setProbes(Arrays.<ProbeTask>asList(probe));
+        scheduler.setBaseInterval(60000);
+        scheduler.setRecheckInterval(10);
+        scheduler.setJitter(0);
+        scheduler.setMaxRunsPerMinute(6000);
+        scheduler.initialize();
+        try {
+            waitForRuns(probe, 3);
+            Assert.assertTrue(probe.runs.get() >= 3);
+            Assert.assertEquals(scheduler.getState("mockProbe").getConsecutiveSuccesses(), 0);
+            Assert.assertTrue(scheduler.getState("mockProbe").getConsecutiveFailures() >= 3);
+            Assert.assertNull(scheduler.getState("unknown"));
+        } finally {
+            scheduler.destroy();
+        }
+    }
+
+    @Test
+    public void testRateCap() throws Exception {
+        final MockProbe first = new MockProbe("first", false);
+        final MockProbe second = new MockProbe("second", false);
+        final AdaptiveProbeScheduler scheduler = new AdaptiveProbeScheduler();
+        scheduler.setProbes(Arrays.<ProbeTask>asList(first, second));
+        scheduler.setBaseInterval(60000);
+        scheduler.setRecheckInterval(1);
+        scheduler.setJitter(0);
+        scheduler.setMaxBurst(3);
+        scheduler.setMaxRunsPerMinute(1);
+        scheduler.initialize();
+        try {
+            Thread.sleep(200);
+            Assert.assertEquals(first.runs.get() + second.runs.get(), 3);
+            Assert.assertTrue(scheduler.getDeferredCount() > 0);
+        } finally {
+            scheduler.destroy();
+        }
+    }
+
+    @Test
+    public void testOwnership() throws Exception {
+        final MockProbe owned = new MockProbe("owned", true);
+        final MockProbe notOwned = new MockProbe("notOwned", true);
+        final AdaptiveProbeScheduler scheduler = new AdaptiveProbeScheduler();
+        scheduler.setProbes(Arrays.<ProbeTask>asList(owned, notOwned));
+        scheduler.setBaseInterval(60000);
+        scheduler.setRecheckInterval(10);
+        final AtomicInteger running = new AtomicInteger();
+        scheduler.setOwnership(new SequenceOwnership() {
+            @Override
+            public boolean isOwner(final String sequenceId) {
+                return "owned".equals(sequenceId);
+            }
+
+            @Override
+            public boolean beginRun(final String sequenceId) {
+                if (isOwner(sequenceId)) {
+                    running.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void endRun(final String sequenceId) {
+                running.decrementAndGet();
+            }
+        });
+        scheduler.initialize();
+        try {
+            waitForRuns(owned, 1);
+            Thread.sleep(50);
+            Assert.assertEquals(owned.runs.get(), 1);
+            Assert.assertEquals(notOwned.runs.get(), 0);
+            Assert.assertEquals(scheduler.getState("notOwned").getRunCount(), 0);
+            Assert.assertEquals(running.get(), 0);
+        } finally {
+            scheduler.destroy();
+        }
+    }
+
+    @Test
+    public void testRateLimiter() throws Exception {
+        final ProbeRateLimiter limiter = new ProbeRateLimiter(2, 6000);
+        Assert.assertEquals(limiter.reserve(), 0);
+        Assert.assertEquals(limiter.reserve(), 0);
+        final long wait = limiter.reserve();
+        if (wait > 0) {
+            Assert.assertTrue(wait <= 10);
+            Assert.assertEquals(limiter.getDeferredCount(), 1);
+        }
+        Thread.sleep(20);
+        Assert.assertEquals(limiter.reserve(), 0);
+        final ProbeRateLimiter slow = new ProbeRateLimiter(1, 1);
+        Assert.assertEquals(slow.reserve(), 0);
+        final long slowWait = slow.reserve();
+        Assert.assertTrue(slowWait > 59000 && slowWait <= 60000);
+    }
+
+    protected AdaptiveProbeScheduler initScheduler() throws Exception {
+        final AdaptiveProbeScheduler scheduler = new AdaptiveProbeScheduler();
+        scheduler.setBaseInterval(1000);
+        scheduler.setRecheckInterval(100);
+        scheduler.setConfirmationCount(2);
+        scheduler.setJitter(0);
+        scheduler.initialize();
+        return scheduler;
+    }
+
+    protected long recordRun(final AdaptiveProbeScheduler scheduler, final ProbeState state, 
+            final boolean healthy) {
+        state.recordRun(healthy, System.currentTimeMillis());
+        state.setInterval(scheduler.getNextInterval(state, healthy));
+        return state.getInterval();
+    }
+
+    protected void waitForRuns(final MockProbe probe, final int runs) throws InterruptedException {
+        for (int i = 0; i < 100 && probe.runs.get() < runs; i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * A probe counting its runs.
+     */
+    protected static class MockProbe implements ProbeTask {
+
+        /** The identifier of the probe. */
+        private final String id;
+
+        /** Whether the runs succeed. */
+        protected final AtomicBoolean healthy;
+
+        /** The number of runs. */
+        protected final AtomicInteger runs = new AtomicInteger();
+
+        /**
+         * Constructor.
+         * @param probeId The identifier of the probe.
+         * @param succeed Whether the runs succeed.
+         */
+        protected MockProbe(final String probeId, final boolean succeed) {
+            id = probeId;
+            healthy = new AtomicBoolean(succeed);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean run() {
+            runs.incrementAndGet();
+            return healthy.get();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+
+import javax.sql.DataSource;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link JdbcBulkResultIngester}.
+ */
+public class JdbcBulkResultIngesterTest {
+
+    /** The datasource used for storing monitoring results. */
+    protected DataSource dataSource;
+
+    /** The ingester to be tested. */
+    protected JdbcBulkResultIngester ingester;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        dataSource = DatabaseTestingSupport.GetMockDataSource("/fi/mpass/shibboleth/storage/MonitoringResultStore.sql",
+                "MonitoringResultStore");
+        ingester = new JdbcBulkResultIngester();
+        ingester.setDataSource(dataSource);
+        ingester.setBatchSize(3);
+        ingester.setFlushInterval(0);
+        ingester.initialize();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        ingester.destroy();
+        DatabaseTestingSupport.InitializeDataSource("/fi/mpass/shibboleth/storage/DeleteStore.sql", dataSource);
+    }
+
+    @Test
+    public void testBatchedFallback() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            ingester.add(initResult(1000 + i * 100));
+        }
+        Assert.assertEquals(ingester.getIngestedCount(), 3);
+        Assert.assertEquals(ingester.getBufferedCount(), 2);
+        Assert.assertEquals(ingester.flush(), 2);
+        Assert.assertEquals(ingester.getIngestedCount(), 5);
+        Assert.assertEquals(ingester.getCopiedStepCount(), 0);
+        Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS), 5);
+        Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_STEP_RESULTS), 10);
+    }
+
+    @Test
+    public void testFailedBatchSpooled() throws Exception {
+        final DataSource failing = Mockito.mock(DataSource.class);
+        Mockito.when(failing.getConnection()).thenThrow(new SQLException("mock"));
+        final File directory = Files.createTempDirectory("mpass-spool").toFile();
+        final MonitoringResultSpool spool = new MonitoringResultSpool();
+        spool.setDirectory(directory);
+        spool.initialize();
+        final JdbcBulkResultIngester failingIngester = new JdbcBulkResultIngester();
+        failingIngester.setDataSource(failing);
+        failingIngester.setSpool(spool);
+        failingIngester.setFlushInterval(0);
+        failingIngester.initialize();
+        try {
+            failingIngester.add(initResult(1000));
+            failingIngester.add(initResult(1100));
+            try {
+                failingIngester.flush();
+                Assert.fail("Expected the flush to fail");
+            } catch (final SQLException e) {
+                // expected
+            }
+            Assert.assertEquals(failingIngester.getFailedCount(), 2);
+            Assert.assertEquals(spool.getSize(), 2);
+            failingIngester.destroy();
+        } finally {
+            for (final File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testStepPolicyWithoutRollups() throws Exception {
+        final StepPersistencePolicy policy = new StepPersistencePolicy();
+        policy.initialize();
+        final JdbcBulkResultIngester policyIngester = new JdbcBulkResultIngester();
+        policyIngester.setDataSource(dataSource);
+        policyIngester.setStepPersistencePolicy(policy);
+        policyIngester.initialize();
+    }
+
+    @Test
+    public void testStepPolicyWithinBatch() throws Exception {
+        final StepPersistencePolicy policy = new StepPersistencePolicy();
+        policy.initialize();
+        final JdbcBulkResultIngester policyIngester = new JdbcBulkResultIngester();
+        policyIngester.setDataSource(dataSource);
+        policyIngester.setStepPersistencePolicy(policy);
+        policyIngester.setRollupResolutions(Collections.singletonList(RollupResolution.MINUTE));
+        policyIngester.setFlushInterval(0);
+        policyIngester.initialize();
+        final MonitoringSequenceResult failed = initResult(1000);
+        failed.getStepResults().get(0).setErrorMessage("mockError");
+        policyIngester.add(failed);
+        policyIngester.add(initResult(1100));
+        policyIngester.add(initResult(1200));
+        Assert.assertEquals(policyIngester.flush(), 3);
+        policyIngester.destroy();
+        // the failure and the recovery
+        Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_STEP_RESULTS), 4);
+        Assert.assertEquals(policy.getStoredCount(), 2);
+        Assert.assertEquals(policy.getSkippedCount(), 1);
+    }
+
+    @Test
+    public void testStepPolicyNotRecordedOnFailedCommit() throws Exception {
+        final StepPersistencePolicy policy = new StepPersistencePolicy();
+        policy.initialize();
+        final Connection connection = Mockito.spy(dataSource.getConnection());
+        Mockito.doThrow(new SQLException("mock")).when(connection).commit();
+        final DataSource failing = Mockito.mock(DataSource.class);
+        Mockito.when(failing.getConnection()).thenReturn(connection);
+        final JdbcBulkResultIngester failingIngester = new JdbcBulkResultIngester();
+        failingIngester.setDataSource(failing);
+        failingIngester.setStepPersistencePolicy(policy);
+        failingIngester.setRollupResolutions(Collections.singletonList(RollupResolution.MINUTE));
+        failingIngester.setFlushInterval(0);
+        failingIngester.initialize();
+        failingIngester.add(initResult(1000));
+        try {
+            failingIngester.flush();
+            Assert.fail("Expected the flush to fail");
+        } catch (final SQLException e) {
+            // expected
+        }
+        failingIngester.destroy();
+        Assert.assertEquals(policy.getStoredCount(), 0);
+        Assert.assertEquals(policy.getSkippedCount(), 0);
+        Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS), 0);
+    }
+
+    @Test
+    public void testCopyRowEscaped() {
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setPhaseId(2);
+        step.setStartTime(1000);
+        step.setEndTime(1050);
+        step.setErrorMessage("a\tb\\c\nd");
+        final StringBuilder rows = new StringBuilder();
+        JdbcBulkResultIngester.appendCopyRow(rows, 7, step);
+        step.setErrorMessage(null);
+        JdbcBulkResultIngester.appendCopyRow(rows, 8, step);
+        Assert.assertEquals(rows.toString(), "7\t2\ta\\tb\\\\c\\nd\t1000\t1050\n8\t2\t\t1000\t1050\n");
+    }
+
+    protected int count(final String table) throws Exception {
+        try (final Connection dbConn = dataSource.getConnection();
+                final Statement statement = dbConn.createStatement();
+                final ResultSet set = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            Assert.assertTrue(set.next());
+            return set.getInt(1);
+        }
+    }
+
+    protected MonitoringSequenceResult initResult(final long startTime) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId("mockId");
+        result.setStartTime(startTime);
+        result.setEndTime(startTime + 100);
+        for (int i = 0; i < 2; i++) {
+            final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+            step.setStartTime(startTime + i * 50);
+            step.setEndTime(startTime + i * 50 + 50);
+            result.addStepResult(step);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+
+/**
+ * Unit tests for {@link JdbcLatestStatusWriter}.
+ */
+public class JdbcLatestStatusWriterTest {
+
+    /** The datasource used for storing monitoring results. */
+    protected DataSource dataSource;
+
+    /** The reader for the latest statuses. */
+    protected JdbcMonitoringResultReader reader;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        dataSource = DatabaseTestingSupport.GetMockDataSource("/fi/mpass/shibboleth/storage/MonitoringResultStore.sql",
+                "MonitoringResultStore");
+        reader = new JdbcMonitoringResultReader();
+        reader.setDataSource(dataSource);
+        reader.initialize();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        DatabaseTestingSupport.InitializeDataSource("/fi/mpass/shibboleth/storage/DeleteStore.sql", dataSource);
+    }
+
+    @Test
+    public void testFailuresAndRecovery() throws Exception {
+        update(initResult("seq1", 1000, null), initResult("seq2", 1000, "mockError"),
+                initResult("seq2", 2000, "mockError"));
+        List<LatestStatus> statuses = reader.readLatestStatuses();
+        Assert.assertEquals(statuses.size(), 2);
+        Assert.assertEquals(statuses.get(0).getSequenceId(), "seq1");
+        Assert.assertFalse(statuses.get(0).isFailed());
+        Assert.assertEquals(statuses.get(0).getConsecutiveFailures(), 0);
+        Assert.assertEquals(statuses.get(0).getLastSuccessTime(), 1050);
+        Assert.assertEquals(statuses.get(0).getLastDuration(), 50);
+        Assert.assertTrue(statuses.get(1).isFailed());
+        Assert.assertEquals(statuses.get(1).getFailingStep(), "step2");
+        Assert.assertEquals(statuses.get(1).getConsecutiveFailures(), 2);
+        Assert.assertEquals(statuses.get(1).getLastSuccessTime(), 0);
+        Assert.assertEquals(statuses.get(1).getLastStartTime(), 2000);
+
+        update(initResult("seq2", 3000, null));
+        statuses = reader.readLatestStatuses();
+        Assert.assertFalse(statuses.get(1).isFailed());
+        Assert.assertNull(statuses.get(1).getFailingStep());
+        Assert.assertEquals(statuses.get(1).getConsecutiveFailures(), 0);
+        Assert.assertEquals(statuses.get(1).getLastSuccessTime(), 3050);
+    }
+
+    @Test
+    public void testOlderResultIgnored() throws Exception {
+        update(initResult("seq1", 2000, null), initResult("seq1", 1000, "mockError"));
+        final List<LatestStatus> statuses = reader.readLatestStatuses();
+        Assert.assertEquals(statuses.size(), 1);
+        Assert.assertEquals(statuses.get(0).getLastStartTime(), 2000);
+        Assert.assertFalse(statuses.get(0).isFailed());
+    }
+
+    @Test
+    public void testSameResultAppliedOnce() throws Exception {
+        update(initResult("seq1", 1000, "mockError"), initResult("seq1", 1000, "mockError"));
+        update(initResult("seq1", 1000, "mockError"));
+        final List<LatestStatus> statuses = reader.readLatestStatuses();
+        Assert.assertEquals(statuses.size(), 1);
+        Assert.assertEquals(statuses.get(0).getConsecutiveFailures(), 1);
+    }
+
+    @Test
+    public void testConcurrentInsertOfSameResult() throws Exception {
+        try (final Connection dbConn = dataSource.getConnection()) {
+            dbConn.setAutoCommit(false);
+            try (final JdbcLatestStatusWriter writer = new JdbcLatestStatusWriter(dbConn) {
+                @Override
+                protected void insert(final MonitoringSequenceResult result, final long duration, final int failed,
+                        final String failingStep) throws SQLException {
+                    // e.g. the same result replayed from the spool by another writer
+                    try (final JdbcLatestStatusWriter concurrent = new JdbcLatestStatusWriter(dbConn)) {
+                        concurrent.update(result);
+                    }
+                    super.insert(result, duration, failed, failingStep);
+                }
+            }) {
+                writer.update(initResult("seq1", 1000, "mockError"));
+            }
+            dbConn.commit();
+        }
+        final List<LatestStatus> statuses = reader.readLatestStatuses();
+        Assert.assertEquals(statuses.size(), 1);
+        Assert.assertEquals(statuses.get(0).getConsecutiveFailures(), 1);
+    }
+
+    @Test
+    public void testConcurrentInsert() throws Exception {
+        try (final Connection dbConn = dataSource.getConnection()) {
+            dbConn.setAutoCommit(false);
+            try (final JdbcLatestStatusWriter writer = new JdbcLatestStatusWriter(dbConn) {
+                @Override
+                protected void insert(final MonitoringSequenceResult result, final long duration, final int failed,
+                        final String failingStep) throws SQLException {
+                    // another writer inserts the row between the update and the insert
+                    try (final JdbcLatestStatusWriter concurrent = new JdbcLatestStatusWriter(dbConn)) {
+                        concurrent.update(initResult("seq1", 1000, "mockError"));
+                    }
+                    super.insert(result, duration, failed, failingStep);
+                }
+            }) {
+                writer.update(initResult("seq1", 2000, "mockError"));
+            }
+            dbConn.commit();
+        }
+        final List<LatestStatus> statuses = reader.readLatestStatuses();
+        Assert.assertEquals(statuses.size(), 1);
+        Assert.assertEquals(statuses.get(0).getLastStartTime(), 2000);
+        Assert.assertEquals(statuses.get(0).getConsecutiveFailures(), 2);
+    }
+
+    protected void update(final MonitoringSequenceResult... results) throws Exception {
+        try (final Connection dbConn = dataSource.getConnection();
+                final JdbcLatestStatusWriter writer = new JdbcLatestStatusWriter(dbConn)) {
+            for (final MonitoringSequenceResult result : results) {
+                writer.update(result);
+            }
+        }
+    }
+
+    protected MonitoringSequenceResult initResult(final String id, final long startTime, final String error) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(id);
+        result.setStartTime(startTime);
+        result.setEndTime(startTime + 50);
+        final MonitoringSequenceStepResult first = new MonitoringSequenceStepResult();
+        first.setId("step1");
+        first.setStartTime(startTime);
+        first.setEndTime(startTime + 20);
+        result.addStepResult(first);
+        final MonitoringSequenceStepResult second = new MonitoringSequenceStepResult();
+        second.setId("step2");
+        second.setStartTime(startTime + 20);
+        second.setEndTime(startTime + 50);
+        second.setErrorMessage(error);
+        result.addStepResult(second);
+        return result;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+
+/**
+ * Unit tests for {@link JdbcMonitoringResultReader} and {@link MonitoringSchemaManager}.
+ */
+public class JdbcMonitoringResultReaderTest {
+
+    /** The datasource used for storing monitoring results. */
+    protected DataSource dataSource;
+
+    /** The reader to be tested. */
+    protected JdbcMonitoringResultReader reader;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        dataSource = DatabaseTestingSupport.GetMockDataSource("/fi/mpass/shibboleth/storage/MonitoringResultStore.sql",
+                "MonitoringResultStore");
+        final MonitoringSchemaManager schemaManager = new MonitoringSchemaManager();
+        schemaManager.setDataSource(dataSource);
+        schemaManager.initialize();
+        reader = new JdbcMonitoringResultReader();
+        reader.setDataSource(dataSource);
+        reader.setFetchSize(2);
+        reader.initialize();
+        try (final Connection dbConn = dataSource.getConnection();
+                final JdbcMonitoringResultWriter writer = new JdbcMonitoringResultWriter(dbConn)) {
+            for (int i = 0; i < 10; i++) {
+                final MonitoringSequenceResult result = initResult(i % 2 == 0 ? "seq1" : "seq2", 1000 + i * 100,
+                        i == 4 ? "mockError" : null);
+                writer.insertStepResults(writer.insertResult(result), result);
+            }
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        DatabaseTestingSupport.InitializeDataSource("/fi/mpass/shibboleth/storage/DeleteStore.sql", dataSource);
+    }
+
+    @Test
+    public void testIndexesCreated() throws Exception {
+        final MonitoringSchemaManager schemaManager = new MonitoringSchemaManager();
+        schemaManager.setDataSource(dataSource);
+        schemaManager.initialize();
+        try (final Connection dbConn = dataSource.getConnection()) {
+            Assert.assertTrue(schemaManager.getIndexNames(dbConn, 
+                    JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS).contains(
+                            MonitoringSchemaManager.INDEX_RESULT_SOURCE_TIME));
+            Assert.assertTrue(schemaManager.tableExists(dbConn, JdbcRollupWriter.TABLE_NAME_MONITORING_ROLLUP));
+        }
+    }
+
+    @Test
+    public void testKeysetPages() throws Exception {
+        final MonitoringResultQuery query = new MonitoringResultQuery();
+        query.setSequenceId("seq1");
+        query.setLimit(2);
+        final List<MonitoringResultRecord> records = new ArrayList<>();
+        Assert.assertEquals(reader.query(query, new CollectingHandler(records)), 2);
+        Assert.assertEquals(records.get(0).getStartTime(), 1000);
+        Assert.assertEquals(records.get(1).getStartTime(), 1200);
+        MonitoringResultRecord last = records.get(1);
+        query.setAfter(last.getStartTime(), last.getId());
+        Assert.assertEquals(reader.query(query, new CollectingHandler(records)), 2);
+        Assert.assertEquals(records.get(2).getStartTime(), 1400);
+        Assert.assertTrue(records.get(2).isFailed());
+        Assert.assertEquals(records.get(3).getStartTime(), 1600);
+        last = records.get(3);
+        query.setAfter(last.getStartTime(), last.getId());
+        Assert.assertEquals(reader.query(query, new CollectingHandler(records)), 1);
+        Assert.assertEquals(records.get(4).getStartTime(), 1800);
+    }
+
+    @Test
+    public void testTimeRangeAndStatus() throws Exception {
+        final MonitoringResultQuery query = new MonitoringResultQuery();
+        query.setFrom(1200);
+        query.setTo(1700);
+        query.setDescending(true);
+        final List<MonitoringResultRecord> records = new ArrayList<>();
+        Assert.assertEquals(reader.query(query, new CollectingHandler(records)), 5);
+        Assert.assertEquals(records.get(0).getStartTime(), 1600);
+        Assert.assertEquals(records.get(4).getStartTime(), 1200);
+        records.clear();
+        query.setStatus(ResultStatus.FAILURE);
+        Assert.assertEquals(reader.query(query, new CollectingHandler(records)), 1);
+        Assert.assertEquals(records.get(0).getStartTime(), 1400);
+        records.clear();
+        query.setStatus(ResultStatus.SUCCESS);
+        Assert.assertEquals(reader.query(query, new CollectingHandler(records)), 4);
+    }
+
+    protected MonitoringSequenceResult initResult(final String id, final long startTime, final String error) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(id);
+        result.setStartTime(startTime);
+        result.setEndTime(startTime + 50);
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setStartTime(startTime);
+        step.setEndTime(startTime + 50);
+        step.setErrorMessage(error);
+        result.addStepResult(step);
+        return result;
+    }
+
+    /**
+     * Handler collecting the records into a list.
+     */
+    class CollectingHandler implements MonitoringResultHandler {
+
+        /** The list of collected records. */
+        private final List<MonitoringResultRecord> records;
+
+        /**
+         * Constructor.
+         * @param list The list of collected records.
+         */
+        CollectingHandler(final List<MonitoringResultRecord> list) {
+            records = list;
+        }
+
+        /** {@inheritDoc} */
+        public void handle(final MonitoringResultRecord record) throws IOException {
+            records.add(record);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+
+/**
+ * Unit tests for {@link JdbcRollupWriter}.
+ */
+public class JdbcRollupWriterTest {
+
+    /** The datasource used for storing the rollups. */
+    protected DataSource dataSource;
+
+    /** The resolutions to be maintained. */
+    protected Collection<RollupResolution> resolutions;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        dataSource = DatabaseTestingSupport.GetMockDataSource("/fi/mpass/shibboleth/storage/MonitoringResultStore.sql",
+                "MonitoringResultStore");
+        resolutions = Collections.singletonList(RollupResolution.MINUTE);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        DatabaseTestingSupport.InitializeDataSource("/fi/mpass/shibboleth/storage/DeleteStore.sql", dataSource);
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        try (final Connection dbConn = dataSource.getConnection();
+                final JdbcRollupWriter writer = new JdbcRollupWriter(dbConn, resolutions)) {
+            writer.add("seq1", "", 60000, 80, false);
+            writer.flush();
+            writer.add("seq1", "", 61000, 300, true);
+            writer.add("seq1", "", 62000, 20, false);
+            writer.flush();
+        }
+        assertRollup(60000, 3, 1, 20, 300);
+    }
+
+    @Test
+    public void testConcurrentInsert() throws Exception {
+        try (final Connection dbConn = dataSource.getConnection()) {
+            dbConn.setAutoCommit(false);
+            try (final JdbcRollupWriter writer = new JdbcRollupWriter(dbConn, resolutions) {
+                @Override
+                protected void insert(final RollupBucket bucket) throws SQLException {
+                    // another writer inserts the same bucket between the update and the insert
+                    try (final JdbcRollupWriter concurrent = new JdbcRollupWriter(dbConn, resolutions)) {
+                        concurrent.add("seq1", "", 60000, 300, true);
+                        concurrent.flush();
+                    }
+                    super.insert(bucket);
+                }
+            }) {
+                writer.add("seq1", "", 60000, 80, false);
+                writer.flush();
+            }
+            dbConn.commit();
+        }
+        assertRollup(60000, 2, 1, 80, 300);
+    }
+
+    @Test(expectedExceptions = SQLException.class)
+    public void testOtherErrorThrown() throws Exception {
+        try (final Connection dbConn = dataSource.getConnection();
+                final JdbcRollupWriter writer = new JdbcRollupWriter(dbConn, resolutions)) {
+            writer.add("tooLongSequenceIdentifier", "", 60000, 80, false);
+            writer.flush();
+        }
+    }
+
+    protected void assertRollup(final long bucketStart, final long count, final long errors, final long min,
+            final long max) throws Exception {
+        try (final Connection dbConn = dataSource.getConnection();
+                final PreparedStatement statement = dbConn.prepareStatement("SELECT * FROM "
+                        + JdbcRollupWriter.TABLE_NAME_MONITORING_ROLLUP + " WHERE sourceId = 'seq1'");
+                final ResultSet set = statement.executeQuery()) {
+            Assert.assertTrue(set.next());
+            Assert.assertEquals(set.getLong("bucketStart"), bucketStart);
+            Assert.assertEquals(set.getLong("sampleCount"), count);
+            Assert.assertEquals(set.getLong("errorCount"), errors);
+            Assert.assertEquals(set.getLong("minDuration"), min);
+            Assert.assertEquals(set.getLong("maxDuration"), max);
+            Assert.assertFalse(set.next());
+        }
+    }
+}
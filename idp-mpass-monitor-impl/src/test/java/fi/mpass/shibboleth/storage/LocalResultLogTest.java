@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+
+/**
+ * Unit tests for {@link LocalResultLog}.
+ */
+public class LocalResultLogTest {
+
+    /** The directory of the log segments. */
+    protected File directory;
+
+    /** The log to be tested. */
+    protected LocalResultLog resultLog;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        directory = Files.createTempDirectory("mpass-result-log").toFile();
+        resultLog = initLog(0);
+        for (int i = 0; i < 10; i++) {
+            resultLog.append(initResult(i % 2 == 0 ? "seq1" : "seq2", 1000 + i * 100, i == 4 ? "mockError" : null));
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        resultLog.destroy();
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        final MonitoringResultQuery query = new MonitoringResultQuery();
+        query.setSequenceId("seq1");
+        query.setLimit(2);
+        final List<MonitoringResultRecord> records = new ArrayList<>();
+        Assert.assertEquals(resultLog.query(query, new CollectingHandler(records)), 2);
+        Assert.assertEquals(records.get(0).getStartTime(), 1000);
+        Assert.assertEquals(records.get(1).getStartTime(), 1200);
+        final MonitoringResultRecord last = records.get(1);
+        query.setAfter(last.getStartTime(), last.getId());
+        Assert.assertEquals(resultLog.query(query, new CollectingHandler(records)), 2);
+        Assert.assertEquals(records.get(2).getStartTime(), 1400);
+        Assert.assertTrue(records.get(2).isFailed());
+        records.clear();
+        final MonitoringResultQuery rangeQuery = new MonitoringResultQuery();
+        rangeQuery.setFrom(1200);
+        rangeQuery.setTo(1700);
+        rangeQuery.setDescending(true);
+        rangeQuery.setStatus(ResultStatus.SUCCESS);
+        Assert.assertEquals(resultLog.query(rangeQuery, new CollectingHandler(records)), 4);
+        Assert.assertEquals(records.get(0).getStartTime(), 1600);
+        Assert.assertEquals(records.get(3).getStartTime(), 1200);
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        final MonitoringResultQuery query = new MonitoringResultQuery();
+        query.setStatus(ResultStatus.FAILURE);
+        final List<MonitoringResultRecord> records = new ArrayList<>();
+        Assert.assertEquals(resultLog.query(query, new CollectingHandler(records)), 1);
+        final MonitoringSequenceResult result = resultLog.read(records.get(0));
+        Assert.assertNotNull(result);
+        Assert.assertEquals(result.getId(), "seq1");
+        Assert.assertEquals(result.getStartTime(), 1400);
+        Assert.assertEquals(result.getStepResults().size(), 1);
+        Assert.assertEquals(result.getStepResults().get(0).getErrorMessage(), "mockError");
+        Assert.assertEquals(result.getStepResults().get(0).getPhaseId(), 2);
+    }
+
+    @Test
+    public void testRecoveryTruncatesTornRecord() throws Exception {
+        resultLog.destroy();
+        final File segment = directory.listFiles()[0];
+        final long validLength = segment.length();
+        try (final RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(validLength);
+            file.writeInt(100);
+            file.writeInt(12345);
+            file.write(new byte[10]);
+        }
+        resultLog = initLog(0);
+        Assert.assertEquals(segment.length(), validLength);
+        final List<MonitoringResultRecord> records = new ArrayList<>();
+        Assert.assertEquals(resultLog.query(new MonitoringResultQuery(), new CollectingHandler(records)), 10);
+        Assert.assertEquals(resultLog.append(initResult("seq1", 2000, null)), 11);
+    }
+
+    @Test
+    public void testRecoveryMovesCorruptedSealedSegmentAside() throws Exception {
+        resultLog.destroy();
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        resultLog = initLog(200);
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            resultLog.append(initResult("seq1", start + i * 100, null));
+        }
+        resultLog.destroy();
+        final File[] files = directory.listFiles();
+        Arrays.sort(files);
+        Assert.assertTrue(files.length > 2);
+        final File sealed = files[0];
+        final long sealedLength = sealed.length();
+        try (final RandomAccessFile file = new RandomAccessFile(sealed, "rw")) {
+            file.seek(4);
+            file.writeInt(12345);
+        }
+        resultLog = initLog(200);
+        Assert.assertFalse(sealed.exists());
+        final File corrupt = new File(sealed.getPath() + LocalResultLog.CORRUPT_SUFFIX);
+        Assert.assertTrue(corrupt.exists());
+        Assert.assertEquals(corrupt.length(), sealedLength);
+        final List<MonitoringResultRecord> records = new ArrayList<>();
+        final int count = resultLog.query(new MonitoringResultQuery(), new CollectingHandler(records));
+        Assert.assertTrue(count > 0 && count < 10);
+        Assert.assertEquals(resultLog.append(initResult("seq1", start + 2000, null)), 11);
+    }
+
+    @Test
+    public void testSegmentsRolledAndPurged() throws Exception {
+        resultLog.destroy();
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        resultLog = initLog(200);
+        final long start = System.currentTimeMillis() - 1000;
+        for (int i = 0; i < 10; i++) {
+            resultLog.append(initResult("seq1", start + i * 100, null));
+        }
+        final int segmentCount = directory.listFiles().length;
+        Assert.assertTrue(segmentCount > 2);
+        resultLog.destroy();
+        resultLog = initLog(200);
+        final List<MonitoringResultRecord> records = new ArrayList<>();
+        Assert.assertEquals(resultLog.query(new MonitoringResultQuery(), new CollectingHandler(records)), 10);
+        resultLog.purge(start + 60000 + 10 * 100);
+        Assert.assertEquals(directory.listFiles().length, 1);
+        records.clear();
+        Assert.assertTrue(resultLog.query(new MonitoringResultQuery(), new CollectingHandler(records)) < 10);
+    }
+
+    protected LocalResultLog initLog(final long segmentSize) throws Exception {
+        final LocalResultLog log = new LocalResultLog();
+        log.setDirectory(directory);
+        if (segmentSize > 0) {
+            log.setSegmentSize(segmentSize);
+        }
+        log.setRetentionPeriod(60000);
+        log.initialize();
+        return log;
+    }
+
+    protected MonitoringSequenceResult initResult(final String id, final long startTime, final String error) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(id);
+        result.setStartTime(startTime);
+        result.setEndTime(startTime + 50);
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setId("step");
+        step.setPhaseId(2);
+        step.setStartTime(startTime);
+        step.setEndTime(startTime + 50);
+        step.setErrorMessage(error);
+        result.addStepResult(step);
+        return result;
+    }
+
+    /**
+     * Handler collecting the records into a list.
+     */
+    class CollectingHandler implements MonitoringResultHandler {
+
+        /** The list of collected records. */
+        private final List<MonitoringResultRecord> records;
+
+        /**
+         * Constructor.
+         * @param list The list of collected records.
+         */
+        CollectingHandler(final List<MonitoringResultRecord> list) {
+            records = list;
+        }
+
+        /** {@inheritDoc} */
+        public void handle(final MonitoringResultRecord record) throws IOException {
+            records.add(record);
+        }
+    }
+}
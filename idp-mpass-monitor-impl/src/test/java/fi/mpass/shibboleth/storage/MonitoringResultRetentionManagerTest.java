@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.LatencyAnomaly;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+
+/**
+ * Unit tests for {@link MonitoringResultRetentionManager}.
+ */
+public class MonitoringResultRetentionManagerTest {
+
+    /** The datasource used for storing monitoring results. */
+    protected DataSource dataSource;
+
+    /** The component to be tested. */
+    protected MonitoringResultRetentionManager manager;
+
+    /** The current time used in the tests. */
+    protected long now;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        dataSource = DatabaseTestingSupport.GetMockDataSource("/fi/mpass/shibboleth/storage/MonitoringResultStore.sql",
+                "MonitoringResultStore");
+        manager = new MonitoringResultRetentionManager();
+        manager.setDataSource(dataSource);
+        manager.setRetentionPeriod(TimeUnit.DAYS.toMillis(7));
+        manager.setChunkSize(2);
+        manager.setMaintenanceInterval(0);
+        manager.initialize();
+        now = System.currentTimeMillis();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        manager.destroy();
+        DatabaseTestingSupport.InitializeDataSource("/fi/mpass/shibboleth/storage/DeleteStore.sql", dataSource);
+    }
+
+    @Test
+    public void testChunkedPurge() throws Exception {
+        final long expired = now - TimeUnit.DAYS.toMillis(8);
+        final long retained = now - TimeUnit.DAYS.toMillis(6);
+        try (final Connection dbConn = dataSource.getConnection();
+                final JdbcMonitoringResultWriter writer = new JdbcMonitoringResultWriter(dbConn)) {
+            for (int i = 0; i < 5; i++) {
+                final MonitoringSequenceResult result = initResult(expired + i);
+                final long resultId = writer.insertResult(result);
+                writer.insertStepResults(resultId, result);
+                writer.insertAnomalies(resultId, result);
+            }
+            final MonitoringSequenceResult result = initResult(retained);
+            final long resultId = writer.insertResult(result);
+            writer.insertStepResults(resultId, result);
+            writer.insertAnomalies(resultId, result);
+        }
+        Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS), 6);
+        Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES), 6);
+        manager.maintain(now);
+        Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS), 1);
+        Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_STEP_RESULTS), 1);
+        Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES), 1);
+    }
+
+    @Test
+    public void testOrphanAnomalies() throws Exception {
+        try (final Connection dbConn = dataSource.getConnection()) {
+            try (final JdbcMonitoringResultWriter writer = new JdbcMonitoringResultWriter(dbConn)) {
+                for (int i = 0; i < 3; i++) {
+                    final MonitoringSequenceResult result = initResult(now + i);
+                    writer.insertAnomalies(writer.insertResult(result), result);
+                }
+            }
+            // as if the partition of the two oldest results was dropped
+            dbConn.createStatement().executeUpdate("DELETE FROM " 
+                    + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS + " WHERE startTime < " + (now + 2));
+            Assert.assertEquals(manager.deleteOrphanAnomalies(dbConn), 2);
+            Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES), 1);
+            dbConn.createStatement().executeUpdate("DELETE FROM " 
+                    + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS);
+            Assert.assertEquals(manager.deleteOrphanAnomalies(dbConn), 1);
+            Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES), 0);
+        }
+    }
+
+    @Test
+    public void testNothingToPurge() throws Exception {
+        manager.maintain(now);
+        Assert.assertEquals(count(JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS), 0);
+    }
+
+    @Test
+    public void testPartitionNames() throws Exception {
+        final long periodStart = PartitionGranularity.DAILY.getPeriodStart(now);
+        final String table = JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS;
+        final String pgName = manager.getPartitionName(DatabaseDialect.POSTGRESQL, table, periodStart);
+        Assert.assertTrue(pgName.startsWith(table + "_p"));
+        Assert.assertEquals(manager.parsePartitionName(DatabaseDialect.POSTGRESQL, table, pgName).longValue(),
+                periodStart);
+        final String mysqlName = manager.getPartitionName(DatabaseDialect.MYSQL, table, periodStart);
+        Assert.assertEquals(manager.parsePartitionName(DatabaseDialect.MYSQL, table, mysqlName).longValue(),
+                periodStart);
+        Assert.assertNull(manager.parsePartitionName(DatabaseDialect.MYSQL, table, "pdefault"));
+    }
+
+    @Test
+    public void testMonthlyGranularity() {
+        final long periodStart = PartitionGranularity.MONTHLY.getPeriodStart(now);
+        final long nextStart = PartitionGranularity.MONTHLY.getNextPeriodStart(now);
+        Assert.assertTrue(periodStart <= now);
+        Assert.assertTrue(nextStart > now);
+        Assert.assertEquals(PartitionGranularity.MONTHLY.getSuffix(now).length(), 6);
+        Assert.assertEquals(PartitionGranularity.MONTHLY.parseSuffix(
+                PartitionGranularity.MONTHLY.getSuffix(now)).longValue(), periodStart);
+    }
+
+    protected int count(final String table) throws Exception {
+        try (final Connection dbConn = dataSource.getConnection();
+                final PreparedStatement statement = dbConn.prepareStatement("SELECT COUNT(*) FROM " + table);
+                final ResultSet set = statement.executeQuery()) {
+            Assert.assertTrue(set.next());
+            return set.getInt(1);
+        }
+    }
+
+    protected MonitoringSequenceResult initResult(final long startTime) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId("mockId");
+        result.setStartTime(startTime);
+        result.setEndTime(startTime + 100);
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setStartTime(startTime);
+        step.setEndTime(startTime + 100);
+        result.addStepResult(step);
+        final LatencyAnomaly anomaly = new LatencyAnomaly();
+        anomaly.setStepId("mockStep");
+        anomaly.setDuration(100);
+        result.addAnomaly(anomaly);
+        return result;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.LatencyAnomaly;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.mpass.shibboleth.storage.MonitoringResultSpool.SpooledResult;
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+
+/**
+ * Unit tests for {@link MonitoringResultSpool} and {@link MonitoringResultSpoolReplayer}.
+ */
+public class MonitoringResultSpoolTest {
+
+    /** The directory of the spooled results. */
+    protected File directory;
+
+    /** The spool to be tested. */
+    protected MonitoringResultSpool spool;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        directory = Files.createTempDirectory("mpass-spool").toFile();
+        spool = initSpool();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        spool.destroy();
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testBoundedAndOrdered() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(spool.offer(initResult(1000 + i * 100)));
+        }
+        Assert.assertFalse(spool.offer(initResult(2000)));
+        Assert.assertEquals(spool.getSize(), 5);
+        Assert.assertEquals(spool.getRejectedCount(), 1);
+        final List<SpooledResult> batch = spool.peek(2);
+        Assert.assertEquals(batch.size(), 2);
+        Assert.assertEquals(batch.get(0).getResult().getStartTime(), 1000);
+        Assert.assertEquals(batch.get(1).getResult().getStartTime(), 1100);
+        Assert.assertEquals(batch.get(1).getResult().getStepResults().get(0).getErrorMessage(), "mockError");
+        Assert.assertEquals(batch.get(1).getResult().getAnomalies().get(0).getStepId(), "mockStep");
+        Assert.assertEquals(batch.get(1).getResult().getAnomalies().get(0).getScore(), 4.5);
+        spool.remove(batch);
+        Assert.assertEquals(spool.getSize(), 3);
+        Assert.assertEquals(spool.getReplayedCount(), 2);
+    }
+
+    @Test
+    public void testSurvivesRestart() throws Exception {
+        spool.offer(initResult(1000));
+        spool.offer(initResult(1100));
+        spool.destroy();
+        try (final FileOutputStream out = new FileOutputStream(new File(directory, 
+                MonitoringResultSpool.FILE_PREFIX + "00000000000000000003" + MonitoringResultSpool.TEMP_SUFFIX))) {
+            out.write(new byte[] { 1, 2, 3 });
+        }
+        spool = initSpool();
+        Assert.assertEquals(spool.getSize(), 2);
+        Assert.assertTrue(spool.offer(initResult(1200)));
+        final List<SpooledResult> batch = spool.peek(10);
+        Assert.assertEquals(batch.size(), 3);
+        Assert.assertEquals(batch.get(2).getResult().getStartTime(), 1200);
+        Assert.assertEquals(directory.listFiles().length, 3);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        final DataSource dataSource = DatabaseTestingSupport.GetMockDataSource(
+                "/fi/mpass/shibboleth/storage/MonitoringResultStore.sql", "MonitoringResultStore");
+        try {
+            for (int i = 0; i < 5; i++) {
+                spool.offer(initResult(1000 + i * 100));
+            }
+            final MonitoringResultSpoolReplayer replayer = new MonitoringResultSpoolReplayer();
+            replayer.setDataSource(dataSource);
+            replayer.setSpool(spool);
+            replayer.setBatchSize(2);
+            replayer.setReplayInterval(0);
+            replayer.setAnomaliesEnabled(true);
+            replayer.initialize();
+            Assert.assertEquals(replayer.replay(), 5);
+            Assert.assertTrue(spool.isEmpty());
+            Assert.assertTrue(replayer.getLastReplayTime() > 0);
+            try (final Connection dbConn = dataSource.getConnection();
+                    final Statement statement = dbConn.createStatement();
+                    final ResultSet set = statement.executeQuery("SELECT startTime FROM " 
+                            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_RESULTS + " ORDER BY id")) {
+                for (int i = 0; i < 5; i++) {
+                    Assert.assertTrue(set.next());
+                    Assert.assertEquals(set.getLong(1), 1000 + i * 100);
+                }
+                Assert.assertFalse(set.next());
+            }
+            try (final Connection dbConn = dataSource.getConnection();
+                    final Statement statement = dbConn.createStatement();
+                    final ResultSet set = statement.executeQuery("SELECT COUNT(*) FROM " 
+                            + JdbcMonitoringResultWriter.TABLE_NAME_MONITORING_ANOMALIES)) {
+                Assert.assertTrue(set.next());
+                Assert.assertEquals(set.getLong(1), 5);
+            }
+            replayer.destroy();
+        } finally {
+            DatabaseTestingSupport.InitializeDataSource("/fi/mpass/shibboleth/storage/DeleteStore.sql", dataSource);
+        }
+    }
+
+    protected MonitoringResultSpool initSpool() throws Exception {
+        final MonitoringResultSpool resultSpool = new MonitoringResultSpool();
+        resultSpool.setDirectory(directory);
+        resultSpool.setMaxSize(5);
+        resultSpool.initialize();
+        return resultSpool;
+    }
+
+    protected MonitoringSequenceResult initResult(final long startTime) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId("mockId");
+        result.setStartTime(startTime);
+        result.setEndTime(startTime + 50);
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setStartTime(startTime);
+        step.setEndTime(startTime + 50);
+        step.setErrorMessage(startTime == 1100 ? "mockError" : null);
+        result.addStepResult(step);
+        final LatencyAnomaly anomaly = new LatencyAnomaly();
+        anomaly.setStepId("mockStep");
+        anomaly.setDuration(50);
+        anomaly.setScore(4.5);
+        result.addAnomaly(anomaly);
+        return result;
+    }
+}
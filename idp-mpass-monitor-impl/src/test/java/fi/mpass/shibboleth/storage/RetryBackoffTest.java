@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link RetryBackoff} and {@link RetryBudget}.
+ */
+public class RetryBackoffTest {
+
+    @Test
+    public void testExponentialAndCapped() {
+        final RetryBackoff backoff = new RetryBackoff(100, 1000);
+        Assert.assertEquals(backoff.getMaxDelay(1), 100);
+        Assert.assertEquals(backoff.getMaxDelay(2), 200);
+        Assert.assertEquals(backoff.getMaxDelay(4), 800);
+        Assert.assertEquals(backoff.getMaxDelay(5), 1000);
+        Assert.assertEquals(backoff.getMaxDelay(100), 1000);
+        for (int i = 0; i < 100; i++) {
+            final long delay = backoff.getDelay(3);
+            Assert.assertTrue(delay >= 0 && delay <= 400);
+        }
+    }
+
+    @Test
+    public void testBudgetExhaustedAndRefilled() throws Exception {
+        final RetryBudget budget = new RetryBudget(2, 100);
+        Assert.assertTrue(budget.tryAcquire());
+        Assert.assertTrue(budget.tryAcquire());
+        if (!budget.tryAcquire()) {
+            Assert.assertEquals(budget.getDeniedCount(), 1);
+        }
+        Thread.sleep(50);
+        Assert.assertTrue(budget.tryAcquire());
+        final RetryBudget noRefill = new RetryBudget(1, 0);
+        Assert.assertTrue(noRefill.tryAcquire());
+        Assert.assertFalse(noRefill.tryAcquire());
+        Assert.assertEquals(noRefill.getDeniedCount(), 1);
+    }
+
+    @Test
+    public void testBudgetCounters() {
+        final RetryBudget budget = new RetryBudget(1, 0);
+        budget.recordRetry();
+        budget.recordAbandoned(3);
+        Assert.assertEquals(budget.getRetriedCount(), 1);
+        Assert.assertEquals(budget.getAbandonedCount(), 3);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.storage;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+
+/**
+ * Unit tests for {@link StepPersistencePolicy}.
+ */
+public class StepPersistencePolicyTest {
+
+    @Test
+    public void testStatusTransitions() throws Exception {
+        final StepPersistencePolicy policy = new StepPersistencePolicy();
+        policy.initialize();
+        Assert.assertTrue(store(policy, initResult("seq1", 100, null)));
+        Assert.assertFalse(store(policy, initResult("seq1", 100, null)));
+        Assert.assertTrue(store(policy, initResult("seq2", 100, null)));
+        Assert.assertTrue(store(policy, initResult("seq1", 100, "mockError")));
+        Assert.assertTrue(store(policy, initResult("seq1", 100, "mockError")));
+        Assert.assertTrue(store(policy, initResult("seq1", 100, null)));
+        Assert.assertFalse(store(policy, initResult("seq1", 100, null)));
+        Assert.assertEquals(policy.getStoredCount(), 5);
+        Assert.assertEquals(policy.getSkippedCount(), 2);
+    }
+
+    @Test
+    public void testLatencyAndSampling() throws Exception {
+        final StepPersistencePolicy policy = new StepPersistencePolicy();
+        policy.setLatencyThreshold(500);
+        policy.initialize();
+        store(policy, initResult("seq1", 100, null));
+        Assert.assertFalse(store(policy, initResult("seq1", 500, null)));
+        Assert.assertTrue(store(policy, initResult("seq1", 501, null)));
+        final StepPersistencePolicy sampled = new StepPersistencePolicy();
+        sampled.setSampleRate(1);
+        sampled.initialize();
+        store(sampled, initResult("seq1", 100, null));
+        Assert.assertTrue(store(sampled, initResult("seq1", 100, null)));
+    }
+
+    protected boolean store(final StepPersistencePolicy policy, final MonitoringSequenceResult result) {
+        final boolean storeSteps = policy.shouldStoreSteps(result);
+        policy.recordStored(result, storeSteps);
+        return storeSteps;
+    }
+
+    protected MonitoringSequenceResult initResult(final String id, final long duration, final String error) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(id);
+        result.setStartTime(1000);
+        result.setEndTime(1000 + duration);
+        final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+        step.setStartTime(1000);
+        step.setEndTime(1000 + duration);
+        step.setErrorMessage(error);
+        result.addStepResult(step);
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nonnull;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link DropOldestDrainer}.
+ */
+public class DropOldestDrainerTest {
+
+    @Test
+    public void testDropOldestAndDrainInOrder() {
+        final List<Runnable> scheduled = new ArrayList<>();
+        final List<String> handled = new ArrayList<>();
+        final DropOldestDrainer<String> drainer = new DropOldestDrainer<String>(2, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                scheduled.add(command);
+            }
+        }) {
+            @Override
+            protected void handle(@Nonnull final String element) {
+                handled.add(element);
+            }
+        };
+        Assert.assertEquals(drainer.offer("first"), 0);
+        Assert.assertEquals(drainer.offer("second"), 0);
+        Assert.assertEquals(drainer.offer("third"), 1);
+        Assert.assertEquals(drainer.size(), 2);
+        // scheduled only once for the queue
+        Assert.assertEquals(scheduled.size(), 1);
+        scheduled.remove(0).run();
+        Assert.assertEquals(handled, Arrays.asList("second", "third"));
+        drainer.offer("fourth");
+        Assert.assertEquals(scheduled.size(), 1);
+        drainer.close();
+        Assert.assertTrue(drainer.isClosed());
+        Assert.assertEquals(drainer.size(), 0);
+        scheduled.remove(0).run();
+        Assert.assertEquals(drainer.offer("fifth"), 0);
+        Assert.assertEquals(drainer.size(), 0);
+        Assert.assertTrue(scheduled.isEmpty());
+        Assert.assertEquals(handled, Arrays.asList("second", "third"));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.support;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/**
+ * Unit tests for {@link TokenBucket}.
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void testAcquireAndRefill() throws Exception {
+        final TokenBucket bucket = new TokenBucket(2, 100);
+        Assert.assertEquals(bucket.getAvailableTokens(), 2);
+        Assert.assertTrue(bucket.tryAcquire());
+        Assert.assertEquals(bucket.reserve(), 0);
+        final long wait = bucket.reserve();
+        if (wait > 0) {
+            Assert.assertTrue(wait <= 10);
+        }
+        Thread.sleep(50);
+        Assert.assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testNoRefill() {
+        final TokenBucket bucket = new TokenBucket(1, 0);
+        Assert.assertTrue(bucket.tryAcquire());
+        Assert.assertFalse(bucket.tryAcquire());
+        Assert.assertEquals(bucket.reserve(), Long.MAX_VALUE);
+        Assert.assertEquals(bucket.getAvailableTokens(), 0);
+    }
+
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testNoCapacity() {
+        new TokenBucket(0, 1);
+    }
+
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testNegativeRate() {
+        new TokenBucket(1, -1);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.trace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit tests for {@link OtlpHttpSpanExporter}.
+ */
+public class OtlpHttpSpanExporterTest {
+
+    /** The collector receiving the spans. */
+    protected HttpServer server;
+
+    /** The request bodies received by the collector. */
+    protected BlockingQueue<String> received;
+
+    /** The status code the collector responds with. */
+    protected volatile int status;
+
+    /** Signalled when the collector has received a request. */
+    protected volatile CountDownLatch entered;
+
+    /** Awaited by the collector before responding. */
+    protected volatile CountDownLatch release;
+
+    /** The exporter to be tested. */
+    protected OtlpHttpSpanExporter exporter;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        received = new LinkedBlockingQueue<>();
+        status = 200;
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(0);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v1/traces", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                try (final InputStream in = exchange.getRequestBody()) {
+                    final byte[] buffer = new byte[1024];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        body.write(buffer, 0, read);
+                    }
+                }
+                received.add(new String(body.toByteArray(), StandardCharsets.UTF_8));
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        exporter = new OtlpHttpSpanExporter();
+        exporter.setEndpoint("http://localhost:" + server.getAddress().getPort() + "/v1/traces");
+        exporter.setServiceName("mockService");
+        exporter.setQueueSize(1);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        release.countDown();
+        exporter.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        exporter.initialize();
+        exporter.export(initSpans("sequence first"));
+        final String body = received.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(body);
+        final JsonObject resourceSpans = new JsonParser().parse(body).getAsJsonObject()
+                .getAsJsonArray("resourceSpans").get(0).getAsJsonObject();
+        Assert.assertEquals(resourceSpans.getAsJsonArray("scopeSpans").get(0).getAsJsonObject()
+                .getAsJsonArray("spans").get(0).getAsJsonObject().get("name").getAsString(), "sequence first");
+        Assert.assertEquals(exporter.getFailedCount(), 0);
+    }
+
+    @Test
+    public void testNotBlockedByCollector() throws Exception {
+        release = new CountDownLatch(1);
+        exporter.initialize();
+        exporter.export(initSpans("sequence first"));
+        Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+        // the sender is now waiting for the collector, the queue holds one run and the oldest queued is dropped
+        final long start = System.currentTimeMillis();
+        exporter.export(initSpans("sequence second"));
+        exporter.export(initSpans("sequence third"));
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assert.assertEquals(exporter.getDroppedCount(), 1);
+        release.countDown();
+        Assert.assertNotNull(received.poll(10, TimeUnit.SECONDS));
+        final String body = received.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(body);
+        Assert.assertTrue(body.contains("sequence third"));
+        Assert.assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCollectorFailure() throws Exception {
+        status = 503;
+        exporter.initialize();
+        exporter.export(initSpans("sequence first"));
+        Assert.assertNotNull(received.poll(10, TimeUnit.SECONDS));
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (exporter.getFailedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(exporter.getFailedCount(), 1);
+    }
+
+    protected List<TraceSpan> initSpans(final String name) {
+        final TraceSpan root = new TraceSpan("4bf92f3577b34da6a3ce929d0e0e4736", "00f067aa0ba902b7", null, 
+                name, TraceSpan.Kind.INTERNAL);
+        root.setStartTime(1000);
+        root.setEndTime(1500);
+        return Collections.singletonList(root);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.trace;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link OtlpJsonFileSpanExporter}.
+ */
+public class OtlpJsonFileSpanExporterTest {
+
+    /** The file the spans are exported to. */
+    protected File file;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        file = File.createTempFile("mpass-monitor-spans", ".jsonl");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoFile() throws Exception {
+        new OtlpJsonFileSpanExporter().initialize();
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        final OtlpJsonFileSpanExporter exporter = new OtlpJsonFileSpanExporter();
+        exporter.setFile(file);
+        exporter.setServiceName("mockService");
+        exporter.initialize();
+        final List<TraceSpan> spans = new ArrayList<>();
+        final TraceSpan root = new TraceSpan("4bf92f3577b34da6a3ce929d0e0e4736", "00f067aa0ba902b7", null, 
+                "sequence mockSequence", TraceSpan.Kind.INTERNAL);
+        root.setStartTime(1000);
+        root.setEndTime(1500);
+        spans.add(root);
+        final TraceSpan exchange = new TraceSpan("4bf92f3577b34da6a3ce929d0e0e4736", "b7ad6b7169203331", 
+                "00f067aa0ba902b7", "HTTP GET", TraceSpan.Kind.CLIENT);
+        exchange.getAttributes().put("http.status_code", Long.valueOf(503));
+        exchange.setErrorMessage("HTTP 503");
+        spans.add(exchange);
+        exporter.export(spans);
+        exporter.export(spans);
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(lines.size(), 2);
+        final JsonObject request = new JsonParser().parse(lines.get(0)).getAsJsonObject();
+        final JsonObject resourceSpans = request.getAsJsonArray("resourceSpans").get(0).getAsJsonObject();
+        Assert.assertEquals(resourceSpans.getAsJsonObject("resource").getAsJsonArray("attributes").get(0)
+                .getAsJsonObject().getAsJsonObject("value").get("stringValue").getAsString(), "mockService");
+        final JsonObject scopeSpans = resourceSpans.getAsJsonArray("scopeSpans").get(0).getAsJsonObject();
+        final JsonObject first = scopeSpans.getAsJsonArray("spans").get(0).getAsJsonObject();
+        Assert.assertEquals(first.get("traceId").getAsString(), "4bf92f3577b34da6a3ce929d0e0e4736");
+        Assert.assertFalse(first.has("parentSpanId"));
+        Assert.assertEquals(first.get("kind").getAsInt(), 1);
+        Assert.assertEquals(first.get("startTimeUnixNano").getAsString(), "1000000000");
+        Assert.assertEquals(first.get("endTimeUnixNano").getAsString(), "1500000000");
+        final JsonObject second = scopeSpans.getAsJsonArray("spans").get(1).getAsJsonObject();
+        Assert.assertEquals(second.get("parentSpanId").getAsString(), "00f067aa0ba902b7");
+        Assert.assertEquals(second.get("kind").getAsInt(), 3);
+        Assert.assertEquals(second.getAsJsonObject("status").get("code").getAsInt(), 2);
+        Assert.assertEquals(second.getAsJsonArray("attributes").get(0).getAsJsonObject()
+                .getAsJsonObject("value").get("intValue").getAsString(), "503");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.trace;
+
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link TraceContext}.
+ */
+public class TraceContextTest {
+
+    @Test
+    public void testIdentifiers() {
+        final TraceContext traceContext = new TraceContext();
+        Assert.assertTrue(traceContext.getTraceId().matches("[0-9a-f]{32}"));
+        Assert.assertTrue(traceContext.getRootSpanId().matches("[0-9a-f]{16}"));
+        Assert.assertNotEquals(traceContext.getTraceId(), new TraceContext().getTraceId());
+        Assert.assertEquals(traceContext.getParentSpanId(), traceContext.getRootSpanId());
+        traceContext.setParentSpanId(null);
+        Assert.assertEquals(traceContext.getParentSpanId(), traceContext.getRootSpanId());
+    }
+
+    @Test
+    public void testTraceparent() {
+        final TraceContext traceContext = new TraceContext("4bf92f3577b34da6a3ce929d0e0e4736", "00f067aa0ba902b7");
+        Assert.assertEquals(traceContext.toTraceparent("b7ad6b7169203331"), 
+                "00-4bf92f3577b34da6a3ce929d0e0e4736-b7ad6b7169203331-01");
+    }
+
+    @Test
+    public void testExchangeSpan() {
+        final TraceContext traceContext = new TraceContext("4bf92f3577b34da6a3ce929d0e0e4736", "00f067aa0ba902b7");
+        traceContext.setParentSpanId("b7ad6b7169203331");
+        final TraceSpan span = traceContext.startExchangeSpan("GET", "https://idp.example.org/");
+        Assert.assertEquals(span.getTraceId(), traceContext.getTraceId());
+        Assert.assertEquals(span.getParentSpanId(), "b7ad6b7169203331");
+        Assert.assertEquals(span.getKind(), TraceSpan.Kind.CLIENT);
+        Assert.assertEquals(span.getAttributes().get("http.url"), "https://idp.example.org/");
+        Assert.assertTrue(traceContext.getSpans().isEmpty());
+        traceContext.addSpan(span);
+        Assert.assertEquals(traceContext.getSpans().size(), 1);
+    }
+
+    @Test
+    public void testGet() {
+        final HttpContext context = HttpClientContext.create();
+        Assert.assertNull(TraceContext.get(context));
+        Assert.assertNull(TraceContext.get(null));
+        final TraceContext traceContext = new TraceContext();
+        context.setAttribute(TraceContext.ATTRIBUTE_NAME, traceContext);
+        Assert.assertSame(TraceContext.get(context), traceContext);
+    }
+}
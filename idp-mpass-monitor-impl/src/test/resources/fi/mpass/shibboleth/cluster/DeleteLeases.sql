@@ -0,0 +1,2 @@
+DROP TABLE mpass_monitoring_lease;
+DROP TABLE mpass_monitoring_node;
\ No newline at end of file
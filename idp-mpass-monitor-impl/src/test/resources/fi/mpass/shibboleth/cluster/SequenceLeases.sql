@@ -0,0 +1,9 @@
+CREATE TABLE mpass_monitoring_node (
+    nodeId VARCHAR(100) NOT NULL PRIMARY KEY,
+    heartbeat BIGINT NOT NULL
+    );
+CREATE TABLE mpass_monitoring_lease (
+    sourceId VARCHAR(20) NOT NULL PRIMARY KEY,
+    nodeId VARCHAR(100) NOT NULL,
+    expires BIGINT NOT NULL
+    );
@@ -1,2 +1,5 @@
 DROP TABLE mpass_monitoring_step_result;
 DROP TABLE mpass_monitoring_result;
+DROP TABLE mpass_monitoring_rollup;
+DROP TABLE mpass_monitoring_latest_status;
+DROP TABLE mpass_monitoring_anomaly;
\ No newline at end of file
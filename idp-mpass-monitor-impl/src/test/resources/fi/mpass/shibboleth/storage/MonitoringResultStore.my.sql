@@ -13,4 +13,42 @@ CREATE TABLE mpass_monitoring_step_result (
     startTime BIGINT NOT NULL,
     endTime BIGINT NOT NULL,
     PRIMARY KEY (id)
-    );
\ No newline at end of file
+    );
+CREATE TABLE mpass_monitoring_rollup (
+    sourceId VARCHAR(20) NOT NULL,
+    stepId VARCHAR(50) NOT NULL,
+    resolution BIGINT NOT NULL,
+    bucketStart BIGINT NOT NULL,
+    sampleCount BIGINT NOT NULL,
+    errorCount BIGINT NOT NULL,
+    minDuration BIGINT NOT NULL,
+    maxDuration BIGINT NOT NULL,
+    sumDuration BIGINT NOT NULL,
+    bucket0 BIGINT NOT NULL,
+    bucket1 BIGINT NOT NULL,
+    bucket2 BIGINT NOT NULL,
+    bucket3 BIGINT NOT NULL,
+    bucket4 BIGINT NOT NULL,
+    bucket5 BIGINT NOT NULL,
+    bucket6 BIGINT NOT NULL,
+    bucket7 BIGINT NOT NULL,
+    bucket8 BIGINT NOT NULL,
+    PRIMARY KEY (sourceId, stepId, resolution, bucketStart)
+    );
+CREATE TABLE mpass_monitoring_latest_status (
+    sourceId VARCHAR(20) NOT NULL PRIMARY KEY,
+    lastStartTime BIGINT NOT NULL,
+    lastDuration BIGINT NOT NULL,
+    failed INTEGER NOT NULL,
+    failingStep VARCHAR(50) NOT NULL,
+    consecutiveFailures INTEGER NOT NULL,
+    lastSuccessTime BIGINT NOT NULL
+    );
+CREATE TABLE mpass_monitoring_anomaly (
+    resultId BIGINT NOT NULL,
+    stepId VARCHAR(50) NOT NULL,
+    duration BIGINT NOT NULL,
+    baselineMean DOUBLE PRECISION NOT NULL,
+    baselineDeviation DOUBLE PRECISION NOT NULL,
+    score DOUBLE PRECISION NOT NULL
+    );
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.jfr;
+
+import fi.mpass.shibboleth.events.MonitoringEvent;
+import fi.mpass.shibboleth.events.MonitoringEventRecorder;
+import fi.mpass.shibboleth.events.MonitoringEvents;
+
+/**
+ * A {@link MonitoringEventRecorder} emitting Java Flight Recorder events. An event type that is not enabled in any
+ * running recording costs one allocation, which the JIT usually eliminates, and a {@link MonitoringEvents#NO_OP_EVENT}
+ * is used instead of it.
+ */
+public class FlightRecorderEventRecorder implements MonitoringEventRecorder {
+
+    /** {@inheritDoc} */
+    @Override
+    public MonitoringEvent beginSequence(final String sequenceId) {
+        final SequenceEvent event = new SequenceEvent();
+        if (!event.isEnabled()) {
+            return MonitoringEvents.NO_OP_EVENT;
+        }
+        event.sequenceId = sequenceId;
+        event.begin();
+        return event;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public MonitoringEvent beginStep(final String sequenceId, final String resolverId, final int stepIndex) {
+        final StepEvent event = new StepEvent();
+        if (!event.isEnabled()) {
+            return MonitoringEvents.NO_OP_EVENT;
+        }
+        event.sequenceId = sequenceId;
+        event.resolverId = resolverId;
+        event.stepIndex = stepIndex;
+        event.begin();
+        return event;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public MonitoringEvent beginHttpExchange(final String resolverId, final String method, final String url) {
+        final HttpExchangeEvent event = new HttpExchangeEvent();
+        if (!event.isEnabled()) {
+            return MonitoringEvents.NO_OP_EVENT;
+        }
+        event.resolverId = resolverId;
+        event.method = method;
+        event.url = url;
+        event.begin();
+        return event;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public MonitoringEvent beginValidation(final String resolverId, final String validator) {
+        final ValidationEvent event = new ValidationEvent();
+        if (!event.isEnabled()) {
+            return MonitoringEvents.NO_OP_EVENT;
+        }
+        event.resolverId = resolverId;
+        event.validator = validator;
+        event.begin();
+        return event;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public MonitoringEvent beginStorageFlush(final String storage, final int resultCount) {
+        final StorageFlushEvent event = new StorageFlushEvent();
+        if (!event.isEnabled()) {
+            return MonitoringEvents.NO_OP_EVENT;
+        }
+        event.storage = storage;
+        event.resultCount = resultCount;
+        event.begin();
+        return event;
+    }
+}
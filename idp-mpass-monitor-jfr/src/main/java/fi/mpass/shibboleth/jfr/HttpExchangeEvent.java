@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A single HTTP request of a resolver and the reading of its response.
+ */
+@Name("fi.mpass.monitor.HttpExchange")
+@Label("Monitoring HTTP Exchange")
+@Description("A single HTTP request of a resolver and the reading of its response.")
+class HttpExchangeEvent extends AbstractMonitoringEvent {
+
+    /** The resolver identifier. */
+    @Label("Resolver")
+    String resolverId;
+
+    /** The HTTP method. */
+    @Label("Method")
+    String method;
+
+    /** The request URL. */
+    @Label("URL")
+    String url;
+
+    /** The HTTP status code, zero if no response was received. */
+    @Label("Status Code")
+    int statusCode;
+
+    /** The error message, if the operation failed. */
+    @Label("Error")
+    String error;
+
+    /** {@inheritDoc} */
+    @Override
+    public void setError(final String message) {
+        error = message;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setStatusCode(final int code) {
+        statusCode = code;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A resolver step of a monitoring sequence.
+ */
+@Name("fi.mpass.monitor.Step")
+@Label("Monitoring Step")
+@Description("A resolver step of a monitoring sequence.")
+class StepEvent extends AbstractMonitoringEvent {
+
+    /** The sequence identifier. */
+    @Label("Sequence")
+    String sequenceId;
+
+    /** The resolver identifier. */
+    @Label("Resolver")
+    String resolverId;
+
+    /** The index of the resolver in the sequence. */
+    @Label("Step Index")
+    int stepIndex;
+
+    /** The error message, if the operation failed. */
+    @Label("Error")
+    String error;
+
+    /** {@inheritDoc} */
+    @Override
+    public void setError(final String message) {
+        error = message;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.jfr;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.events.MonitoringEvent;
+import fi.mpass.shibboleth.events.MonitoringEvents;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Unit tests for {@link FlightRecorderEventRecorder}.
+ */
+public class FlightRecorderEventRecorderTest {
+
+    @Test
+    public void testServiceLoader() {
+        Assert.assertTrue(MonitoringEvents.getRecorder() instanceof FlightRecorderEventRecorder);
+    }
+
+    @Test
+    public void testNotRecording() {
+        final FlightRecorderEventRecorder recorder = new FlightRecorderEventRecorder();
+        Assert.assertSame(recorder.beginSequence("mockSequence"), MonitoringEvents.NO_OP_EVENT);
+        Assert.assertSame(recorder.beginStorageFlush("mockStorage", 1), MonitoringEvents.NO_OP_EVENT);
+    }
+
+    @Test
+    public void testRecording() throws Exception {
+        final FlightRecorderEventRecorder recorder = new FlightRecorderEventRecorder();
+        final Path file = Files.createTempFile("mpass-monitor", ".jfr");
+        try (final Recording recording = new Recording()) {
+            recording.enable("fi.mpass.monitor.Step").withoutThreshold();
+            recording.enable("fi.mpass.monitor.HttpExchange").withoutThreshold();
+            recording.start();
+            final MonitoringEvent step = recorder.beginStep("mockSequence", "mockResolver", 2);
+            final MonitoringEvent exchange = recorder.beginHttpExchange("mockResolver", "GET", "http://localhost/");
+            exchange.setStatusCode(503);
+            exchange.commit();
+            step.setError("mockError");
+            step.commit();
+            recording.stop();
+            recording.dump(file);
+            final List<RecordedEvent> events = new ArrayList<>();
+            for (final RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().startsWith("fi.mpass.monitor.")) {
+                    events.add(event);
+                }
+            }
+            Assert.assertEquals(events.size(), 2);
+            Assert.assertEquals(events.get(0).getEventType().getName(), "fi.mpass.monitor.HttpExchange");
+            Assert.assertEquals(events.get(0).getInt("statusCode"), 503);
+            Assert.assertEquals(events.get(0).getString("url"), "http://localhost/");
+            Assert.assertEquals(events.get(1).getEventType().getName(), "fi.mpass.monitor.Step");
+            Assert.assertEquals(events.get(1).getString("resolverId"), "mockResolver");
+            Assert.assertEquals(events.get(1).getInt("stepIndex"), 2);
+            Assert.assertEquals(events.get(1).getString("error"), "mockError");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import fi.mpass.shibboleth.cluster.JdbcSequenceLeaseManager;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * Configures the sharing of the scheduled flows between the nodes using the same JDBC storage, if the
+ * <code>monitor.cluster.enabled</code> property is true: each flow is then run by a single live node at a time.
+ */
+@Configuration
+@ConditionalOnProperty(name = "monitor.cluster.enabled", havingValue = "true")
+public class ClusterConfig {
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    public JdbcSequenceLeaseManager sequenceLeaseManager(final DataSource dataSource,
+            @Value("${monitor.cluster.nodeId:}") final String nodeId,
+            @Value("${monitor.cluster.leasePeriod:30000}") final long leasePeriod,
+            @Value("${monitor.cluster.heartbeatInterval:10000}") final long heartbeatInterval,
+            @Value("${monitor.schedule.flows:}") final String[] flowIds) {
+        final JdbcSequenceLeaseManager leaseManager = new JdbcSequenceLeaseManager();
+        leaseManager.setDataSource(dataSource);
+        if (StringSupport.trimOrNull(nodeId) != null) {
+            leaseManager.setNodeId(nodeId);
+        }
+        leaseManager.setLeasePeriod(leasePeriod);
+        leaseManager.setHeartbeatInterval(heartbeatInterval);
+        leaseManager.setSequenceIds(Arrays.asList(flowIds));
+        return leaseManager;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.support.DropOldestDrainer;
+
+/**
+ * Fans the published events out to a bounded {@link DropOldestDrainer} per subscriber, drained to the subscriber's
+ * {@link EventSink} by the given sender threads.
+ * 
+ * <p>Publishing never blocks: if a subscriber does not keep up and its queue is full, its oldest event is dropped.
+ * Each queue is drained by at most one sender thread at a time, so the events of a subscriber are sent in order.
+ * A subscriber whose sink fails is removed.</p>
+ *
+ * @param <E> The type of the events.
+ */
+public class EventFanOut<E> {
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(EventFanOut.class);
+
+    /** The current subscriptions. */
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /** The maximum number of queued events per subscriber. */
+    private final int queueSize;
+
+    /** The maximum number of subscribers. */
+    private final int maxSubscribers;
+
+    /** The number of subscriber slots taken, reserved before a subscription is added. */
+    private final AtomicInteger reservedSlots = new AtomicInteger();
+
+    /** The threads sending the queued events to the sinks. */
+    private final Executor senders;
+
+    /** The number of events dropped because of a full queue. */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param size The maximum number of queued events per subscriber.
+     * @param max The maximum number of subscribers.
+     * @param executor The threads sending the queued events to the sinks.
+     */
+    public EventFanOut(final int size, final int max, final Executor executor) {
+        queueSize = size;
+        maxSubscribers = max;
+        senders = executor;
+    }
+
+    /**
+     * Subscribes a new sink.
+     * @param sink The sink receiving the events.
+     * @return The subscription, or null if the maximum number of subscribers has been reached.
+     */
+    public Subscription subscribe(final EventSink<E> sink) {
+        int current;
+        do {
+            current = reservedSlots.get();
+            if (current >= maxSubscribers) {
+                return null;
+            }
+        } while (!reservedSlots.compareAndSet(current, current + 1));
+        final Subscription subscription = new Subscription(sink);
+        subscriptions.add(subscription);
+        log.debug("Added an event subscriber, {} in total", subscriptions.size());
+        return subscription;
+    }
+
+    /**
+     * Get the number of current subscribers.
+     * @return The number of subscribers.
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Get the number of events dropped because of a full queue.
+     * @return The number of dropped events.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Offers the event to the queue of every subscriber without blocking, dropping the oldest queued event of the
+     * subscribers that are full.
+     * @param event The event to publish.
+     */
+    public void publish(final E event) {
+        for (final Subscription subscription : subscriptions) {
+            droppedCount.addAndGet(subscription.offer(event));
+        }
+    }
+
+    /**
+     * Removes all the subscribers and completes their sinks.
+     */
+    public void close() {
+        for (final Subscription subscription : subscriptions) {
+            subscription.close();
+            subscription.sink.complete(null);
+        }
+    }
+
+    /**
+     * The receiver of the events of one subscriber.
+     *
+     * @param <E> The type of the events.
+     */
+    public interface EventSink<E> {
+
+        /**
+         * Sends the event to the subscriber.
+         * @param event The event.
+         * @throws IOException If the event could not be sent, the subscriber is removed.
+         */
+        void send(E event) throws IOException;
+
+        /**
+         * Completes the subscriber after it has been removed by the fan-out.
+         * @param error The error that caused the removal, or null if the fan-out was closed.
+         */
+        void complete(Exception error);
+    }
+
+    /**
+     * A subscriber with its bounded queue, drained by at most one sender thread at a time.
+     */
+    public class Subscription extends DropOldestDrainer<E> {
+
+        /** The sink receiving the events. */
+        private final EventSink<E> sink;
+
+        /**
+         * Constructor.
+         * @param eventSink The sink receiving the events.
+         */
+        Subscription(final EventSink<E> eventSink) {
+            super(queueSize, senders);
+            sink = eventSink;
+        }
+
+        /**
+         * Get the number of events queued for the subscriber.
+         * @return The number of queued events.
+         */
+        public int getQueuedCount() {
+            return size();
+        }
+
+        /**
+         * Removes the subscriber, releasing its slot, and discards its queued events, without completing its sink.
+         */
+        @Override
+        public void close() {
+            super.close();
+            if (subscriptions.remove(this)) {
+                reservedSlots.decrementAndGet();
+                log.debug("Removed an event subscriber, {} remaining", subscriptions.size());
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void handle(final E event) {
+            try {
+                sink.send(event);
+            } catch (IOException | RuntimeException e) {
+                log.debug("Could not send an event, removing the subscriber", e);
+                close();
+                sink.complete(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.definition.registry.FlowDefinitionHolder;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
+import org.springframework.webflow.engine.Flow;
+import org.springframework.webflow.engine.builder.DefaultFlowHolder;
+import org.springframework.webflow.engine.builder.FlowAssembler;
+import org.springframework.webflow.engine.builder.model.FlowModelFlowBuilder;
+import org.springframework.webflow.engine.builder.support.FlowBuilderContextImpl;
+import org.springframework.webflow.engine.builder.support.FlowBuilderServices;
+import org.springframework.webflow.engine.model.builder.DefaultFlowModelHolder;
+import org.springframework.webflow.engine.model.builder.xml.XmlFlowModelBuilder;
+import org.springframework.webflow.engine.model.registry.FlowModelRegistryImpl;
+
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * Watches the flows directory and reloads the changed <code>*-flow.xml</code> definitions into the flow registry
+ * without restarting the application.
+ * 
+ * <p>A change to any XML file in a directory reloads the flows in that directory, so that a flow is rebuilt
+ * together with the bean definitions it imports, including its resolvers. The changes are collected until the
+ * directory has been quiet for a moment, so that an editor saving several files causes one reload. A new
+ * definition is fully built before it replaces the old one in the registry, and a definition that fails to build
+ * leaves the old one in place. The runs already executing keep their old definition, whose beans are destroyed
+ * only after a grace period. Deleted flows stay registered until the next restart. The registry must tolerate
+ * the registrations from the watcher thread, e.g. by being a {@link SynchronizedFlowDefinitionRegistry}.</p>
+ */
+public class FlowDirectoryWatcher {
+
+    /** The suffix of the flow definition files. */
+    public static final String FLOW_SUFFIX = "-flow.xml";
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(FlowDirectoryWatcher.class);
+
+    /** The registry to reload the flows into. */
+    private final FlowDefinitionRegistry registry;
+
+    /** The services for building the flows. */
+    private final FlowBuilderServices builderServices;
+
+    /** The watched flows directory, null if the flows are loaded from the classpath. */
+    private final Path directory;
+
+    /** The time to wait for further changes before reloading, in milliseconds. */
+    private final long quietPeriod;
+
+    /** The time before the replaced definitions are destroyed, in milliseconds. */
+    private final long gracePeriod;
+
+    /** The watched directories by their watch keys. */
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+
+    /** The watch service, null until started. */
+    private WatchService watchService;
+
+    /** The thread processing the watch events. */
+    private Thread watcherThread;
+
+    /** The timer destroying the replaced definitions. */
+    private Timer destroyTimer;
+
+    /**
+     * Constructor.
+     * @param flowRegistry The registry to reload the flows into.
+     * @param services The services for building the flows.
+     * @param flowsDirectory The flows directory, nothing is watched if empty.
+     * @param quiet The time to wait for further changes before reloading, in milliseconds.
+     * @param grace The time before the replaced definitions are destroyed, in milliseconds.
+     */
+    public FlowDirectoryWatcher(final FlowDefinitionRegistry flowRegistry, final FlowBuilderServices services,
+            final String flowsDirectory, final long quiet, final long grace) {
+        registry = flowRegistry;
+        builderServices = services;
+        final String trimmed = StringSupport.trimOrNull(flowsDirectory);
+        directory = trimmed == null ? null : Paths.get(trimmed).toAbsolutePath().normalize();
+        quietPeriod = quiet;
+        gracePeriod = grace;
+    }
+
+    /**
+     * Starts watching the flows directory, if one is configured.
+     * @throws IOException If the directory cannot be watched.
+     */
+    public void start() throws IOException {
+        if (directory == null) {
+            log.debug("No flows directory configured, the flows are not reloaded");
+            return;
+        }
+        watchService = directory.getFileSystem().newWatchService();
+        registerTree(directory);
+        destroyTimer = new Timer("mpass-monitoring-flow-destroy", true);
+        watcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processEvents();
+            }
+        }, "mpass-monitoring-flow-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        log.info("Watching {} for changed flow definitions", directory);
+    }
+
+    /**
+     * Stops watching the flows directory.
+     */
+    public void destroy() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Could not close the watch service", e);
+            }
+            watcherThread.interrupt();
+            destroyTimer.cancel();
+        }
+    }
+
+    /**
+     * Reloads the flow defined in the given file. The new definition replaces the old one only if it could be
+     * built.
+     * 
+     * @param flowFile The flow definition file.
+     * @return True if the flow was reloaded, false otherwise.
+     */
+    public boolean reload(final Path flowFile) {
+        final String flowId = getFlowId(flowFile);
+        final FlowDefinitionHolder holder;
+        try {
+            final XmlFlowModelBuilder modelBuilder = new XmlFlowModelBuilder(
+                    new FileSystemResource(flowFile.toFile()), new FlowModelRegistryImpl());
+            final FlowBuilderContextImpl context = new FlowBuilderContextImpl(flowId, 
+                    new LocalAttributeMap<Object>(), registry, builderServices);
+            holder = new DefaultFlowHolder(new FlowAssembler(
+                    new FlowModelFlowBuilder(new DefaultFlowModelHolder(modelBuilder)), context));
+            holder.getFlowDefinition();
+        } catch (RuntimeException e) {
+            log.error("Could not build the changed flow {}, keeping the previous definition", flowId, e);
+            return false;
+        }
+        FlowDefinition previous = null;
+        if (registry.containsFlowDefinition(flowId)) {
+            try {
+                previous = registry.getFlowDefinition(flowId);
+            } catch (RuntimeException e) {
+                log.debug("The previous definition of {} was not usable", flowId, e);
+            }
+        }
+        registry.registerFlowDefinition(holder);
+        log.info("Reloaded the flow {} from {}", flowId, flowFile);
+        if (previous instanceof Flow) {
+            final Flow replaced = (Flow) previous;
+            try {
+                destroyTimer.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        try {
+                            replaced.destroy();
+                        } catch (RuntimeException e) {
+                            log.warn("Could not destroy the replaced definition of {}", flowId, e);
+                        }
+                    }
+                }, gracePeriod);
+            } catch (IllegalStateException e) {
+                log.debug("The watcher is stopped, the replaced definition of {} is not destroyed", flowId);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the flow identifier of the given file the way the flow registry builder derives it: the path of its
+     * directory relative to the flows directory, or the file name without the extension if the file is directly
+     * in the flows directory.
+     * 
+     * @param flowFile The flow definition file.
+     * @return The flow identifier.
+     */
+    protected String getFlowId(final Path flowFile) {
+        final Path parent = directory.relativize(flowFile.toAbsolutePath().normalize()).getParent();
+        if (parent == null) {
+            final String fileName = flowFile.getFileName().toString();
+            return fileName.substring(0, fileName.lastIndexOf('.'));
+        }
+        return parent.toString().replace('\\', '/');
+    }
+
+    /**
+     * Processes the watch events until the watch service is closed.
+     */
+    protected void processEvents() {
+        final Set<Path> changedDirectories = new LinkedHashSet<>();
+        try {
+            while (true) {
+                final WatchKey key = changedDirectories.isEmpty() ? watchService.take() 
+                        : watchService.poll(quietPeriod, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    for (final Path changed : changedDirectories) {
+                        try {
+                            reloadDirectory(changed);
+                        } catch (RuntimeException e) {
+                            log.error("Could not reload the flows in {}", changed, e);
+                        }
+                    }
+                    changedDirectories.clear();
+                    continue;
+                }
+                final Path watched = watchedDirectories.get(key);
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        log.warn("Missed some changes in {}, reloading its flows", watched);
+                        changedDirectories.add(watched);
+                        continue;
+                    }
+                    final Path child = watched.resolve((Path) event.context());
+                    if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                        registerTree(child);
+                        changedDirectories.add(child);
+                    } else if (child.getFileName().toString().endsWith(".xml")) {
+                        if (event.kind() == ENTRY_DELETE && child.getFileName().toString().endsWith(FLOW_SUFFIX)) {
+                            log.warn("The flow file {} was deleted, it stays registered until restart", child);
+                        }
+                        changedDirectories.add(watched);
+                    }
+                }
+                if (!key.reset()) {
+                    watchedDirectories.remove(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("Stopped watching the flows directory");
+        } catch (IOException e) {
+            log.error("Could not watch a new flows directory, the changes are no longer reloaded", e);
+        }
+    }
+
+    /**
+     * Reloads the flows defined in the given directory.
+     * @param flowDirectory The directory.
+     */
+    protected void reloadDirectory(final Path flowDirectory) {
+        if (!Files.isDirectory(flowDirectory)) {
+            return;
+        }
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(flowDirectory, "*" + FLOW_SUFFIX)) {
+            for (final Path file : files) {
+                reload(file);
+            }
+        } catch (IOException e) {
+            log.error("Could not list the flows in {}", flowDirectory, e);
+        }
+    }
+
+    /**
+     * Registers the given directory and its subdirectories with the watch service.
+     * @param root The directory.
+     * @throws IOException If the directories cannot be registered.
+     */
+    private void registerTree(final Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) 
+                    throws IOException {
+                watchedDirectories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
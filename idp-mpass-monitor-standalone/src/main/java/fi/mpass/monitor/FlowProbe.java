@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import fi.mpass.shibboleth.schedule.ProbeTask;
+
+/**
+ * Runs a monitoring sequence flow of this application by requesting it over HTTP, like an external monitoring
+ * system would, and reads the health from the <code>status</code> of the JSON result.
+ */
+public class FlowProbe implements ProbeTask {
+
+    /** The flow identifier. */
+    private final String flowId;
+
+    /** The URL of the flow. */
+    private final URL url;
+
+    /** The connect and read timeout in milliseconds. */
+    private final int timeout;
+
+    /**
+     * Constructor.
+     * @param id The flow identifier.
+     * @param baseUrl The base URL of this application.
+     * @param millis The connect and read timeout in milliseconds.
+     * @throws IOException If the URL is invalid.
+     */
+    public FlowProbe(final String id, final String baseUrl, final int millis) throws IOException {
+        flowId = id;
+        url = new URL(baseUrl + "/" + id);
+        timeout = millis;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getId() {
+        return flowId;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean run() throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setRequestProperty("Accept", "application/json");
+        final int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_UNAVAILABLE) {
+            connection.disconnect();
+            throw new IOException("The flow " + flowId + " responded with " + status);
+        }
+        try (final InputStream in = status == HttpURLConnection.HTTP_OK ? connection.getInputStream() 
+                : connection.getErrorStream();
+                final Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            final JsonElement result = new JsonParser().parse(reader);
+            return result.isJsonObject() && result.getAsJsonObject().has("status")
+                    && "OK".equals(result.getAsJsonObject().get("status").getAsString());
+        } catch (final JsonParseException e) {
+            throw new IOException("Could not parse the result of the flow " + flowId, e);
+        }
+    }
+}
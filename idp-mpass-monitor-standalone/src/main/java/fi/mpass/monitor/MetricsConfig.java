@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.util.Arrays;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import fi.mpass.shibboleth.metrics.HealthRule;
+import fi.mpass.shibboleth.metrics.LatencyAnomalyDetector;
+import fi.mpass.shibboleth.metrics.MonitoringMetrics;
+import fi.mpass.shibboleth.metrics.SequenceHealthAggregator;
+
+/**
+ * Configures the in-memory monitoring metrics and the aggregate health status, recorded by the flows with the
+ * <code>RecordMonitoringMetrics</code> action and served by the {@link MetricsController}, and the latency
+ * baselines fed by the <code>DetectLatencyAnomalies</code> action.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    public MonitoringMetrics monitoringMetrics(
+            @Value("${monitor.metrics.buckets:50,100,250,500,1000,2500,5000,10000,30000}") final long[] buckets) {
+        final MonitoringMetrics metrics = new MonitoringMetrics();
+        metrics.setBucketBounds(buckets);
+        return metrics;
+    }
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    public SequenceHealthAggregator sequenceHealthAggregator(
+            @Value("${monitor.health.rule:ALL}") final String rule,
+            @Value("${monitor.health.quorum:1}") final int quorum,
+            @Value("${monitor.health.sequences:}") final String[] sequenceIds) {
+        final SequenceHealthAggregator aggregator = new SequenceHealthAggregator();
+        aggregator.setRule(HealthRule.valueOf(rule.toUpperCase()));
+        aggregator.setQuorum(quorum);
+        aggregator.setSequenceIds(Arrays.asList(sequenceIds));
+        return aggregator;
+    }
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    public LatencyAnomalyDetector latencyAnomalyDetector(
+            @Value("${monitor.anomaly.alpha:0.1}") final double alpha,
+            @Value("${monitor.anomaly.threshold:4.0}") final double threshold,
+            @Value("${monitor.anomaly.minExcess:100}") final long minExcess,
+            @Value("${monitor.anomaly.warmupSamples:20}") final int warmupSamples) {
+        final LatencyAnomalyDetector detector = new LatencyAnomalyDetector();
+        detector.setAlpha(alpha);
+        detector.setThreshold(threshold);
+        detector.setMinExcess(minExcess);
+        detector.setWarmupSamples(warmupSamples);
+        return detector;
+    }
+}
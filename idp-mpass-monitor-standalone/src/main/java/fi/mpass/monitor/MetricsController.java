@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import com.google.gson.stream.JsonWriter;
+
+import fi.mpass.shibboleth.metrics.MonitoringMetrics;
+import fi.mpass.shibboleth.metrics.SequenceHealthAggregator;
+import fi.mpass.shibboleth.storage.MonitoringResultSpool;
+import fi.mpass.shibboleth.storage.MonitoringResultSpoolReplayer;
+import fi.mpass.shibboleth.storage.RetryBudget;
+
+/**
+ * Serves the in-memory monitoring metrics in the Prometheus text exposition format, and the combined health status
+ * of the sequences with a 200 or 503 response status. Both only read the aggregated state, they never run a
+ * sequence or query the storage. The counters of the storage retry budget and the state of the result spool, if
+ * configured, are exported with the metrics.
+ */
+@Controller
+public class MetricsController {
+
+    /** The aggregated metrics. */
+    @Autowired
+    private MonitoringMetrics metrics;
+
+    /** The aggregated health status. */
+    @Autowired
+    private SequenceHealthAggregator healthAggregator;
+
+    /** The budget limiting the storage retries. */
+    @Autowired
+    private RetryBudget retryBudget;
+
+    /** The spool of the results that could not be stored, if configured. */
+    @Autowired
+    private ObjectProvider<MonitoringResultSpool> spool;
+
+    /** The replayer of the spooled results, if configured. */
+    @Autowired
+    private ObjectProvider<MonitoringResultSpoolReplayer> spoolReplayer;
+
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+    public void writeMetrics(final HttpServletResponse response) throws IOException {
+        response.setContentType(MonitoringMetrics.CONTENT_TYPE);
+        final Writer writer = new OutputStreamWriter(response.getOutputStream(), "UTF-8");
+        metrics.write(writer);
+        writeRetryMetrics(writer);
+        writeSpoolMetrics(writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the counters of the storage retry budget.
+     * @param writer The writer to write to.
+     * @throws IOException If the metrics could not be written.
+     */
+    protected void writeRetryMetrics(final Writer writer) throws IOException {
+        metrics.writeMetric(writer, "storage_retries_total", "counter", 
+                "The number of retried storage transactions.", Long.toString(retryBudget.getRetriedCount()));
+        metrics.writeMetric(writer, "storage_abandoned_total", "counter", 
+                "The number of results abandoned after a failed storage transaction.", 
+                Long.toString(retryBudget.getAbandonedCount()));
+        metrics.writeMetric(writer, "storage_retry_budget_denied_total", "counter", 
+                "The number of retries denied because the retry budget was exhausted.", 
+                Long.toString(retryBudget.getDeniedCount()));
+    }
+
+    /**
+     * Writes the size of the result spool and the progress of its replay, if the spool is configured.
+     * @param writer The writer to write to.
+     * @throws IOException If the metrics could not be written.
+     */
+    protected void writeSpoolMetrics(final Writer writer) throws IOException {
+        final MonitoringResultSpool resultSpool = spool.getIfAvailable();
+        if (resultSpool == null) {
+            return;
+        }
+        metrics.writeMetric(writer, "storage_spool_size", "gauge", 
+                "The number of results waiting in the spool.", Integer.toString(resultSpool.getSize()));
+        metrics.writeMetric(writer, "storage_spool_spooled_total", "counter", 
+                "The number of results spooled because they could not be stored.", 
+                Long.toString(resultSpool.getSpooledCount()));
+        metrics.writeMetric(writer, "storage_spool_rejected_total", "counter", 
+                "The number of results lost because the spool was full.", 
+                Long.toString(resultSpool.getRejectedCount()));
+        metrics.writeMetric(writer, "storage_spool_replayed_total", "counter", 
+                "The number of spooled results replayed to the storage.", 
+                Long.toString(resultSpool.getReplayedCount()));
+        final MonitoringResultSpoolReplayer replayer = spoolReplayer.getIfAvailable();
+        if (replayer != null) {
+            metrics.writeMetric(writer, "storage_spool_replay_failures_total", "counter", 
+                    "The number of failed replay rounds.", Long.toString(replayer.getFailureCount()));
+            metrics.writeMetric(writer, "storage_spool_last_replay_timestamp_seconds", "gauge", 
+                    "The time of the last successful replay round.", 
+                    MonitoringMetrics.formatSeconds(replayer.getLastReplayTime()));
+        }
+    }
+
+    @RequestMapping(value = "/api/health", method = RequestMethod.GET)
+    public void writeHealth(final HttpServletResponse response) throws IOException {
+        final boolean healthy = healthAggregator.isHealthy();
+        response.setStatus(healthy ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        final JsonWriter writer = new JsonWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+        writer.beginObject();
+        writer.name("status").value(healthy ? "UP" : "DOWN");
+        writer.name("rule").value(healthAggregator.getRule().name());
+        writer.name("healthy").value(healthAggregator.getHealthyCount());
+        writer.name("total").value(healthAggregator.getSequenceCount());
+        writer.endObject();
+        writer.flush();
+    }
+}
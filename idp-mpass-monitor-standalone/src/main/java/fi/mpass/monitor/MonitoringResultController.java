@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import com.google.gson.stream.JsonWriter;
+
+import fi.mpass.shibboleth.storage.JdbcMonitoringResultReader;
+import fi.mpass.shibboleth.storage.LatestStatus;
+import fi.mpass.shibboleth.storage.MonitoringResultHandler;
+import fi.mpass.shibboleth.storage.MonitoringResultQuery;
+import fi.mpass.shibboleth.storage.MonitoringResultReader;
+import fi.mpass.shibboleth.storage.MonitoringResultRecord;
+import fi.mpass.shibboleth.storage.ResultStatus;
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/**
+ * Serves the stored monitoring results as JSON, one keyset page at a time. The records are written to the
+ * response as they are read from the storage. If the page is full, the response ends with the position of the
+ * next page, to be passed back as the <code>afterTime</code> and <code>afterId</code> parameters.
+ * 
+ * <p>The latest status of every sequence is served from the latest status table, if the JDBC storage is
+ * configured.</p>
+ */
+@Controller
+public class MonitoringResultController {
+
+    /** The maximum number of records on one page. */
+    public static final int MAX_LIMIT = 1000;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(MonitoringResultController.class);
+
+    /** The reader for the stored results, if the storage is configured. */
+    @Autowired(required = false)
+    private MonitoringResultReader resultReader;
+
+    /** The reader for the latest statuses, if the JDBC storage is configured. */
+    @Autowired(required = false)
+    private JdbcMonitoringResultReader jdbcReader;
+
+    @RequestMapping(value = "/api/results", method = RequestMethod.GET)
+    public void queryResults(@RequestParam(value = "sequenceId", required = false) final String sequenceId,
+            @RequestParam(value = "from", defaultValue = "0") final long from,
+            @RequestParam(value = "to", defaultValue = "9223372036854775807") final long to,
+            @RequestParam(value = "status", defaultValue = "ANY") final String status,
+            @RequestParam(value = "order", defaultValue = "asc") final String order,
+            @RequestParam(value = "limit", defaultValue = "100") final int limit,
+            @RequestParam(value = "afterTime", required = false) final Long afterTime,
+            @RequestParam(value = "afterId", required = false) final Long afterId,
+            final HttpServletResponse response) throws IOException {
+        if (resultReader == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No result storage configured");
+            return;
+        }
+        if (limit < 1) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Limit must be greater than 0");
+            return;
+        }
+        final MonitoringResultQuery query = new MonitoringResultQuery();
+        try {
+            query.setSequenceId(sequenceId);
+            query.setFrom(from);
+            query.setTo(to);
+            query.setStatus(ResultStatus.valueOf(status.toUpperCase()));
+            query.setDescending("desc".equalsIgnoreCase(order));
+            query.setLimit(Math.min(limit, MAX_LIMIT));
+            if (afterTime != null && afterId != null) {
+                query.setAfter(afterTime, afterId);
+            }
+        } catch (IllegalArgumentException | ConstraintViolationException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        final JsonWriter writer = new JsonWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+        writer.beginObject();
+        writer.name("results").beginArray();
+        final RecordWriter recordWriter = new RecordWriter(writer);
+        final int count = resultReader.query(query, recordWriter);
+        writer.endArray();
+        final MonitoringResultRecord last = recordWriter.getLast();
+        if (count == query.getLimit() && last != null) {
+            writer.name("next").beginObject();
+            writer.name("afterTime").value(last.getStartTime());
+            writer.name("afterId").value(last.getId());
+            writer.endObject();
+        }
+        writer.endObject();
+        writer.flush();
+        log.debug("Wrote {} monitoring results", count);
+    }
+
+    @RequestMapping(value = "/api/status", method = RequestMethod.GET)
+    public void latestStatuses(final HttpServletResponse response) throws IOException {
+        if (jdbcReader == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No JDBC result storage configured");
+            return;
+        }
+        final List<LatestStatus> statuses = jdbcReader.readLatestStatuses();
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        final JsonWriter writer = new JsonWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+        writer.beginArray();
+        for (final LatestStatus status : statuses) {
+            writer.beginObject();
+            writer.name("sequenceId").value(status.getSequenceId());
+            writer.name("status").value(status.isFailed() ? ResultStatus.FAILURE.name() 
+                    : ResultStatus.SUCCESS.name());
+            writer.name("lastStartTime").value(status.getLastStartTime());
+            writer.name("lastDuration").value(status.getLastDuration());
+            if (status.isFailed()) {
+                writer.name("failingStep").value(status.getFailingStep());
+            }
+            writer.name("consecutiveFailures").value(status.getConsecutiveFailures());
+            if (status.getLastSuccessTime() > 0) {
+                writer.name("lastSuccessTime").value(status.getLastSuccessTime());
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.flush();
+    }
+
+    /**
+     * Writes each record to the response as soon as it is read.
+     */
+    static class RecordWriter implements MonitoringResultHandler {
+
+        /** The JSON writer for the response. */
+        private final JsonWriter writer;
+
+        /** The last written record. */
+        private MonitoringResultRecord last;
+
+        /**
+         * Constructor.
+         * @param jsonWriter The JSON writer for the response.
+         */
+        RecordWriter(final JsonWriter jsonWriter) {
+            writer = jsonWriter;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void handle(final MonitoringResultRecord record) throws IOException {
+            writer.beginObject();
+            writer.name("id").value(record.getId());
+            writer.name("sequenceId").value(record.getSequenceId());
+            writer.name("startTime").value(record.getStartTime());
+            writer.name("endTime").value(record.getEndTime());
+            writer.name("duration").value(record.getEndTime() - record.getStartTime());
+            writer.name("status").value(record.isFailed() ? ResultStatus.FAILURE.name() 
+                    : ResultStatus.SUCCESS.name());
+            writer.endObject();
+            last = record;
+        }
+
+        /**
+         * Get the last written record.
+         * @return The last written record, or null if none.
+         */
+        MonitoringResultRecord getLast() {
+            return last;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.google.gson.stream.JsonWriter;
+
+import fi.mpass.monitor.EventFanOut.EventSink;
+import fi.mpass.monitor.EventFanOut.Subscription;
+import fi.mpass.shibboleth.monitor.MonitoringResultListener;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+
+/**
+ * Fans the step and sequence results out to the server-sent event subscribers, when attached to the
+ * <code>RunMonitoringSequence</code> action as a listener.
+ * 
+ * <p>Each event is encoded once and published to an {@link EventFanOut}, which offers it to the bounded queue of
+ * every subscriber without blocking. The queues are drained to the clients by a small pool of sender threads, so
+ * the probing thread never waits for a client. If a client does not keep up and its queue is full, its oldest
+ * event is dropped.</p>
+ */
+@Component
+public class ResultEventBroadcaster implements MonitoringResultListener {
+
+    /** The event name for the step results. */
+    public static final String EVENT_STEP = "step";
+
+    /** The event name for the sequence results. */
+    public static final String EVENT_SEQUENCE = "sequence";
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(ResultEventBroadcaster.class);
+
+    /** The threads sending the queued events to the clients. */
+    private final ExecutorService senders;
+
+    /** The fan-out of the events to the subscribers. */
+    private final EventFanOut<Event> fanOut;
+
+    /**
+     * Constructor.
+     * @param size The maximum number of queued events per subscriber.
+     * @param max The maximum number of subscribers.
+     * @param threads The number of the sender threads.
+     */
+    public ResultEventBroadcaster(@Value("${monitor.events.queueSize:256}") final int size,
+            @Value("${monitor.events.maxSubscribers:100}") final int max,
+            @Value("${monitor.events.senderThreads:2}") final int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "mpass-monitoring-events-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        fanOut = new EventFanOut<>(size, max, senders);
+    }
+
+    /**
+     * Subscribes a new client.
+     * @param timeout The timeout of the event stream in milliseconds, zero for no timeout.
+     * @return The emitter for the event stream, or null if the maximum number of subscribers has been reached.
+     */
+    public SseEmitter subscribe(final long timeout) {
+        final SseEmitter emitter = new SseEmitter(timeout);
+        final Subscription subscription = fanOut.subscribe(new EventSink<Event>() {
+            @Override
+            public void send(final Event event) throws IOException {
+                emitter.send(SseEmitter.event().name(event.name).data(event.data));
+            }
+
+            @Override
+            public void complete(final Exception error) {
+                if (error == null) {
+                    emitter.complete();
+                } else {
+                    emitter.completeWithError(error);
+                }
+            }
+        });
+        if (subscription == null) {
+            return null;
+        }
+        final Runnable remover = new Runnable() {
+            @Override
+            public void run() {
+                subscription.close();
+            }
+        };
+        emitter.onCompletion(remover);
+        emitter.onTimeout(remover);
+        return emitter;
+    }
+
+    /**
+     * Get the number of current subscribers.
+     * @return The number of subscribers.
+     */
+    public int getSubscriberCount() {
+        return fanOut.getSubscriberCount();
+    }
+
+    /**
+     * Get the number of events dropped because of a full queue.
+     * @return The number of dropped events.
+     */
+    public long getDroppedCount() {
+        return fanOut.getDroppedCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void stepCompleted(final String sequenceId, final MonitoringSequenceStepResult stepResult) {
+        if (fanOut.getSubscriberCount() == 0) {
+            return;
+        }
+        final StringWriter json = new StringWriter();
+        try (final JsonWriter writer = new JsonWriter(json)) {
+            writer.beginObject();
+            writer.name("sequenceId").value(sequenceId);
+            writeStep(writer, stepResult);
+            writer.endObject();
+        } catch (IOException e) {
+            log.warn("Could not encode the step result", e);
+            return;
+        }
+        fanOut.publish(new Event(EVENT_STEP, json.toString()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void sequenceCompleted(final MonitoringSequenceResult result) {
+        if (fanOut.getSubscriberCount() == 0) {
+            return;
+        }
+        final StringWriter json = new StringWriter();
+        try (final JsonWriter writer = new JsonWriter(json)) {
+            boolean failed = false;
+            writer.beginObject();
+            writer.name("sequenceId").value(result.getId());
+            writer.name("startTime").value(result.getStartTime());
+            writer.name("duration").value(result.getEndTime() - result.getStartTime());
+            writer.name("steps").beginArray();
+            for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+                writer.beginObject();
+                writeStep(writer, step);
+                writer.endObject();
+                failed = failed || step.getErrorMessage() != null;
+            }
+            writer.endArray();
+            writer.name("status").value(failed ? "ERROR" : "OK");
+            writer.endObject();
+        } catch (IOException e) {
+            log.warn("Could not encode the sequence result", e);
+            return;
+        }
+        fanOut.publish(new Event(EVENT_SEQUENCE, json.toString()));
+    }
+
+    /**
+     * Writes the fields of the given step result into the current JSON object.
+     * @param writer The JSON writer.
+     * @param step The step result.
+     * @throws IOException If the fields could not be written.
+     */
+    protected void writeStep(final JsonWriter writer, final MonitoringSequenceStepResult step) throws IOException {
+        if (step.getId() != null) {
+            writer.name("id").value(step.getId());
+        }
+        writer.name("phase").value(step.getPhaseId());
+        writer.name("startTime").value(step.getStartTime());
+        writer.name("duration").value(step.getEndTime() - step.getStartTime());
+        if (step.getErrorMessage() != null) {
+            writer.name("error").value(step.getErrorMessage());
+        }
+    }
+
+    /**
+     * Completes the open event streams and stops the sender threads.
+     */
+    @PreDestroy
+    public void destroy() {
+        fanOut.close();
+        senders.shutdownNow();
+    }
+
+    /**
+     * An encoded event, shared by all the subscribers.
+     */
+    static class Event {
+
+        /** The event name. */
+        private final String name;
+
+        /** The JSON data. */
+        private final String data;
+
+        /**
+         * Constructor.
+         * @param eventName The event name.
+         * @param eventData The JSON data.
+         */
+        Event(final String eventName, final String eventData) {
+            name = eventName;
+            data = eventData;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Streams the step and sequence results as server-sent events while they are produced by the flows that have the
+ * {@link ResultEventBroadcaster} attached as a listener.
+ */
+@Controller
+public class ResultEventController {
+
+    /** The broadcaster of the results. */
+    @Autowired
+    private ResultEventBroadcaster broadcaster;
+
+    /** The timeout of an event stream in milliseconds, zero for no timeout. */
+    @Value("${monitor.events.timeout:0}")
+    private long timeout;
+
+    @RequestMapping(value = "/api/events", method = RequestMethod.GET, produces = "text/event-stream")
+    @ResponseBody
+    public SseEmitter subscribe(final HttpServletResponse response) throws IOException {
+        final SseEmitter emitter = broadcaster.subscribe(timeout);
+        if (emitter == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many event subscribers");
+        }
+        return emitter;
+    }
+}
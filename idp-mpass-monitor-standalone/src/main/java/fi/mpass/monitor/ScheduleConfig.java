@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+import fi.mpass.shibboleth.cluster.SequenceOwnership;
+import fi.mpass.shibboleth.schedule.AdaptiveProbeScheduler;
+import fi.mpass.shibboleth.schedule.ProbeTask;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * Configures the background runs of the flows listed in the <code>monitor.schedule.flows</code> property, at
+ * intervals adapted to their health by the {@link AdaptiveProbeScheduler}. The scheduler is started once the
+ * application is ready to serve the flows. If the {@link ClusterConfig} is enabled, each flow is only run by the
+ * node owning it.
+ */
+@Configuration
+@ConditionalOnProperty("monitor.schedule.flows")
+public class ScheduleConfig {
+
+    @Bean(destroyMethod = "destroy")
+    public AdaptiveProbeScheduler probeScheduler(@Value("${monitor.schedule.flows}") final String[] flowIds,
+            @Value("${monitor.schedule.baseUrl:http://localhost:${local.server.port:${server.port:8080}}"
+                    + "${server.servlet.context-path:}}") final String baseUrl,
+            @Value("${monitor.schedule.timeout:60000}") final int timeout,
+            @Value("${monitor.schedule.baseInterval:300000}") final long baseInterval,
+            @Value("${monitor.schedule.recheckInterval:30000}") final long recheckInterval,
+            @Value("${monitor.schedule.confirmationCount:3}") final int confirmationCount,
+            @Value("${monitor.schedule.recoveryFactor:2.0}") final double recoveryFactor,
+            @Value("${monitor.schedule.jitter:0.1}") final double jitter,
+            @Value("${monitor.schedule.maxRunsPerMinute:30}") final double maxRunsPerMinute,
+            @Value("${monitor.schedule.maxBurst:5}") final int maxBurst,
+            @Value("${monitor.schedule.threads:2}") final int threads,
+            final ObjectProvider<SequenceOwnership> ownership) throws IOException {
+        final List<ProbeTask> probes = new ArrayList<>();
+        for (final String flowId : flowIds) {
+            final String trimmed = StringSupport.trimOrNull(flowId);
+            if (trimmed != null) {
+                probes.add(new FlowProbe(trimmed, baseUrl, timeout));
+            }
+        }
+        final AdaptiveProbeScheduler scheduler = new AdaptiveProbeScheduler();
+        scheduler.setProbes(probes);
+        scheduler.setBaseInterval(baseInterval);
+        scheduler.setRecheckInterval(recheckInterval);
+        scheduler.setConfirmationCount(confirmationCount);
+        scheduler.setRecoveryFactor(recoveryFactor);
+        scheduler.setJitter(jitter);
+        scheduler.setMaxRunsPerMinute(maxRunsPerMinute);
+        scheduler.setMaxBurst(maxBurst);
+        scheduler.setThreads(threads);
+        scheduler.setOwnership(ownership.getIfAvailable());
+        return scheduler;
+    }
+
+    @EventListener
+    public void startProbeScheduler(final ApplicationReadyEvent event) throws ComponentInitializationException {
+        event.getApplicationContext().getBean(AdaptiveProbeScheduler.class).initialize();
+    }
+}
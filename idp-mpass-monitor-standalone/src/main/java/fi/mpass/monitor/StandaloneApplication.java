@@ -23,14 +23,39 @@
 
 package fi.mpass.monitor;
 
+import org.springframework.boot.ExitCodeGenerator;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class StandaloneApplication {
 
-	public static void main(String[] args) {
-		SpringApplication.run(StandaloneApplication.class, args);
+	/** The system property for exiting once started, used for the class data sharing training run. */
+	public static final String PROPERTY_EXIT_AFTER_STARTUP = "monitor.exitAfterStartup";
+
+	/**
+	 * The system property for exiting once the first probe has succeeded, its value being the maximum wait in
+	 * milliseconds, used for the startup benchmark and the class data sharing training run.
+	 */
+	public static final String PROPERTY_EXIT_AFTER_FIRST_PROBE = "monitor.exitAfterFirstProbe";
+
+	public static void main(String[] args) throws InterruptedException {
+		final ConfigurableApplicationContext context = SpringApplication.run(StandaloneApplication.class, args);
+		final long probeTimeout = Long.getLong(PROPERTY_EXIT_AFTER_FIRST_PROBE, 0);
+		if (probeTimeout > 0) {
+			final boolean probed = context.getBean(StartupTimer.class).awaitFirstProbe(probeTimeout);
+			System.exit(SpringApplication.exit(context, new ExitCodeGenerator() {
+
+				@Override
+				public int getExitCode() {
+					return probed ? 0 : 1;
+				}
+			}));
+		}
+		if (Boolean.getBoolean(PROPERTY_EXIT_AFTER_STARTUP)) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 }
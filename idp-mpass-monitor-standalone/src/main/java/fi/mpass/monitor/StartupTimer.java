@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import com.google.gson.stream.JsonWriter;
+
+import fi.mpass.shibboleth.monitor.MonitoringResultListener;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * Measures the startup of the application: the time from the JVM start until the application is ready, and until
+ * the first successful probe, when attached to the <code>RunMonitoringSequence</code> action as a listener.
+ * 
+ * <p>The times are logged and, if <code>monitor.startup.reportFile</code> is set, appended to that file as one
+ * JSON object per line, so that startup benchmark runs can be compared between builds. The
+ * <code>startup-benchmark</code> build profile runs the packaged application with a flow listing this listener and
+ * prints the report once the first probe has succeeded.</p>
+ */
+@Component
+public class StartupTimer implements MonitoringResultListener, ApplicationListener<ApplicationReadyEvent> {
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(StartupTimer.class);
+
+    /** The file the times are appended to, null if none. */
+    private final File reportFile;
+
+    /** The start time of the JVM. */
+    private final long jvmStartTime;
+
+    /** The time from the JVM start until the application was ready, -1 if not yet ready. */
+    private volatile long readyTime = -1;
+
+    /** The time from the JVM start until the first successful probe, -1 if none yet. */
+    private volatile long firstProbeTime = -1;
+
+    /** Whether the first successful probe has been recorded. */
+    private final AtomicBoolean probed = new AtomicBoolean();
+
+    /** Released once the first successful probe has been recorded and reported. */
+    private final CountDownLatch firstProbe = new CountDownLatch(1);
+
+    /**
+     * Constructor.
+     * @param file The file the times are appended to, nothing is written if empty.
+     */
+    public StartupTimer(@Value("${monitor.startup.reportFile:}") final String file) {
+        final String trimmed = StringSupport.trimOrNull(file);
+        reportFile = trimmed == null ? null : new File(trimmed);
+        jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    /**
+     * Get the time from the JVM start until the application was ready.
+     * @return The time in milliseconds, -1 if not yet ready.
+     */
+    public long getReadyTime() {
+        return readyTime;
+    }
+
+    /**
+     * Get the time from the JVM start until the first successful probe.
+     * @return The time in milliseconds, -1 if there has been no successful probe.
+     */
+    public long getFirstProbeTime() {
+        return firstProbeTime;
+    }
+
+    /**
+     * Waits until the first successful probe has been recorded and reported.
+     * @param timeout The maximum time to wait in milliseconds.
+     * @return Whether a probe succeeded within the time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitFirstProbe(final long timeout) throws InterruptedException {
+        return firstProbe.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onApplicationEvent(final ApplicationReadyEvent event) {
+        readyTime = System.currentTimeMillis() - jvmStartTime;
+        log.info("Application ready {} ms after the JVM start", readyTime);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void stepCompleted(final String sequenceId, final MonitoringSequenceStepResult stepResult) {
+        // only the completed sequences are of interest
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void sequenceCompleted(final MonitoringSequenceResult result) {
+        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
+            if (step.getErrorMessage() != null) {
+                return;
+            }
+        }
+        if (!probed.compareAndSet(false, true)) {
+            return;
+        }
+        firstProbeTime = result.getEndTime() - jvmStartTime;
+        log.info("First successful probe of {} completed {} ms after the JVM start", result.getId(), 
+                firstProbeTime);
+        if (reportFile != null) {
+            writeReport(result.getId());
+        }
+        firstProbe.countDown();
+    }
+
+    /**
+     * Appends the startup times to the report file.
+     * @param sequenceId The identifier of the first successfully probed sequence.
+     */
+    protected void writeReport(final String sequenceId) {
+        final StringWriter json = new StringWriter();
+        try (final JsonWriter writer = new JsonWriter(json)) {
+            writer.beginObject();
+            writer.name("jvmStartTime").value(jvmStartTime);
+            writer.name("readyTime").value(readyTime);
+            writer.name("firstProbeTime").value(firstProbeTime);
+            writer.name("sequenceId").value(sequenceId);
+            writer.name("javaVersion").value(System.getProperty("java.version"));
+            writer.name("inputArguments").value(
+                    ManagementFactory.getRuntimeMXBean().getInputArguments().toString());
+            writer.endObject();
+        } catch (IOException e) {
+            log.warn("Could not encode the startup report", e);
+            return;
+        }
+        try (final Writer out = new OutputStreamWriter(new FileOutputStream(reportFile, true), "UTF-8")) {
+            out.write(json.toString());
+            out.write('\n');
+        } catch (IOException e) {
+            log.warn("Could not write the startup report to {}", reportFile, e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import fi.mpass.shibboleth.storage.JdbcMonitoringResultReader;
+import fi.mpass.shibboleth.storage.LocalResultLog;
+import fi.mpass.shibboleth.storage.MonitoringResultSpool;
+import fi.mpass.shibboleth.storage.MonitoringResultSpoolReplayer;
+import fi.mpass.shibboleth.storage.MonitoringSchemaManager;
+import fi.mpass.shibboleth.storage.RetryBudget;
+import fi.mpass.shibboleth.storage.RollupResolution;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * Configures the monitoring result storage shared by the flows and the endpoints, if a JDBC URL is given with
+ * the <code>monitor.storage.jdbc.url</code> property, and/or a local result log directory with the
+ * <code>monitor.storage.log.directory</code> property. The JDBC storage is queried if both are configured.
+ * 
+ * <p>If a spool directory is given with the <code>monitor.storage.spool.directory</code> property, the results
+ * that cannot be stored are spooled there by the <code>StoreMonitoringResult</code> actions listing the
+ * <code>monitoringResultSpool</code> bean as their spool, and replayed to the JDBC storage in the background.</p>
+ * 
+ * <p>The <code>storageRetryBudget</code> bean, configured with the <code>monitor.storage.retry.*</code> properties,
+ * limits the retries of the actions listing it as their retry budget, and counts their retried and abandoned
+ * results for the metrics.</p>
+ */
+@Configuration
+public class StorageConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty("monitor.storage.jdbc.url")
+    public HikariDataSource monitoringDataSource(@Value("${monitor.storage.jdbc.url}") final String url,
+            @Value("${monitor.storage.jdbc.username:}") final String username,
+            @Value("${monitor.storage.jdbc.password:}") final String password,
+            @Value("${monitor.storage.jdbc.poolSize:5}") final int poolSize) {
+        final HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("monitoring");
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setMaximumPoolSize(poolSize);
+        return dataSource;
+    }
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    @ConditionalOnProperty("monitor.storage.jdbc.url")
+    @Lazy(false)
+    public MonitoringSchemaManager monitoringSchemaManager(final DataSource dataSource) {
+        final MonitoringSchemaManager schemaManager = new MonitoringSchemaManager();
+        schemaManager.setDataSource(dataSource);
+        return schemaManager;
+    }
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    @ConditionalOnProperty("monitor.storage.jdbc.url")
+    @Primary
+    @DependsOn("monitoringSchemaManager")
+    public JdbcMonitoringResultReader monitoringResultReader(final DataSource dataSource) {
+        final JdbcMonitoringResultReader reader = new JdbcMonitoringResultReader();
+        reader.setDataSource(dataSource);
+        return reader;
+    }
+
+    @Bean
+    public RetryBudget storageRetryBudget(@Value("${monitor.storage.retry.maxTokens:20}") final int maxTokens,
+            @Value("${monitor.storage.retry.refillRate:2.0}") final double refillRate) {
+        return new RetryBudget(maxTokens, refillRate);
+    }
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    @ConditionalOnProperty("monitor.storage.spool.directory")
+    public MonitoringResultSpool monitoringResultSpool(
+            @Value("${monitor.storage.spool.directory}") final String directory,
+            @Value("${monitor.storage.spool.maxSize:10000}") final int maxSize) {
+        final MonitoringResultSpool spool = new MonitoringResultSpool();
+        spool.setDirectory(new File(directory));
+        spool.setMaxSize(maxSize);
+        return spool;
+    }
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    @ConditionalOnProperty({"monitor.storage.spool.directory", "monitor.storage.jdbc.url"})
+    @Lazy(false)
+    @DependsOn("monitoringSchemaManager")
+    public MonitoringResultSpoolReplayer monitoringResultSpoolReplayer(final DataSource dataSource,
+            final MonitoringResultSpool spool,
+            @Value("${monitor.storage.spool.batchSize:100}") final int batchSize,
+            @Value("${monitor.storage.spool.replayInterval:30000}") final long replayInterval,
+            @Value("${monitor.storage.spool.rollups:}") final String[] rollups,
+            @Value("${monitor.storage.spool.latestStatus:false}") final boolean latestStatus,
+            @Value("${monitor.storage.spool.anomalies:false}") final boolean anomalies) {
+        final List<RollupResolution> resolutions = new ArrayList<>();
+        for (final String rollup : rollups) {
+            final String trimmed = StringSupport.trimOrNull(rollup);
+            if (trimmed != null) {
+                resolutions.add(RollupResolution.valueOf(trimmed.toUpperCase()));
+            }
+        }
+        final MonitoringResultSpoolReplayer replayer = new MonitoringResultSpoolReplayer();
+        replayer.setDataSource(dataSource);
+        replayer.setSpool(spool);
+        replayer.setBatchSize(batchSize);
+        replayer.setReplayInterval(replayInterval);
+        replayer.setRollupResolutions(resolutions);
+        replayer.setLatestStatusEnabled(latestStatus);
+        replayer.setAnomaliesEnabled(anomalies);
+        return replayer;
+    }
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    @ConditionalOnProperty("monitor.storage.log.directory")
+    public LocalResultLog localResultLog(@Value("${monitor.storage.log.directory}") final String directory,
+            @Value("${monitor.storage.log.segmentSize:16777216}") final long segmentSize,
+            @Value("${monitor.storage.log.retentionDays:90}") final int retentionDays) {
+        final LocalResultLog resultLog = new LocalResultLog();
+        resultLog.setDirectory(new File(directory));
+        resultLog.setSegmentSize(segmentSize);
+        resultLog.setRetentionPeriod(retentionDays * 24L * 60 * 60 * 1000);
+        return resultLog;
+    }
+}
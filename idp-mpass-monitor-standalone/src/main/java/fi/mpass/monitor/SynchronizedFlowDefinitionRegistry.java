@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.definition.registry.FlowDefinitionConstructionException;
+import org.springframework.webflow.definition.registry.FlowDefinitionHolder;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
+import org.springframework.webflow.definition.registry.NoSuchFlowDefinitionException;
+
+/**
+ * A {@link FlowDefinitionRegistry} guarding another one with a read-write lock, so that the flows can be
+ * replaced by the {@link FlowDirectoryWatcher} while the request threads look them up. The default registry keeps
+ * its definitions in an unsynchronized map, as it expects them to be registered only at startup.
+ */
+public class SynchronizedFlowDefinitionRegistry implements FlowDefinitionRegistry {
+
+    /** The guarded registry. */
+    private final FlowDefinitionRegistry delegate;
+
+    /** The lock, held for writing while the definitions are registered. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor.
+     * @param registry The registry to guard.
+     */
+    public SynchronizedFlowDefinitionRegistry(final FlowDefinitionRegistry registry) {
+        delegate = registry;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public FlowDefinition getFlowDefinition(final String id) 
+            throws NoSuchFlowDefinitionException, FlowDefinitionConstructionException {
+        lock.readLock().lock();
+        try {
+            return delegate.getFlowDefinition(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean containsFlowDefinition(final String id) {
+        lock.readLock().lock();
+        try {
+            return delegate.containsFlowDefinition(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getFlowDefinitionCount() {
+        lock.readLock().lock();
+        try {
+            return delegate.getFlowDefinitionCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String[] getFlowDefinitionIds() {
+        lock.readLock().lock();
+        try {
+            return delegate.getFlowDefinitionIds();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public FlowDefinitionRegistry getParent() {
+        return delegate.getParent();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setParent(final FlowDefinitionRegistry parent) {
+        delegate.setParent(parent);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void registerFlowDefinition(final FlowDefinitionHolder definitionHolder) {
+        lock.writeLock().lock();
+        try {
+            delegate.registerFlowDefinition(definitionHolder);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void registerFlowDefinition(final FlowDefinition definition) {
+        lock.writeLock().lock();
+        try {
+            delegate.registerFlowDefinition(definition);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void destroy() {
+        lock.writeLock().lock();
+        try {
+            delegate.destroy();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
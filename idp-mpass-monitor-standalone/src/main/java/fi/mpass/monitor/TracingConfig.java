@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import java.io.File;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import fi.mpass.shibboleth.trace.OtlpHttpSpanExporter;
+import fi.mpass.shibboleth.trace.OtlpJsonFileSpanExporter;
+
+/**
+ * Configures the export of the probe trace spans, attached to the <code>RunMonitoringSequence</code> action as its
+ * <code>spanExporter</code>: as OTLP/JSON lines to the file given with the <code>monitor.tracing.file</code>
+ * property, or to the OTLP/HTTP collector given with the <code>monitor.tracing.endpoint</code> property.
+ */
+@Configuration
+public class TracingConfig {
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    @ConditionalOnProperty("monitor.tracing.file")
+    public OtlpJsonFileSpanExporter spanExporter(@Value("${monitor.tracing.file}") final String file,
+            @Value("${monitor.tracing.serviceName:mpass-monitor}") final String serviceName) {
+        final OtlpJsonFileSpanExporter exporter = new OtlpJsonFileSpanExporter();
+        exporter.setFile(new File(file));
+        exporter.setServiceName(serviceName);
+        return exporter;
+    }
+
+    @Bean(initMethod = "initialize", destroyMethod = "destroy")
+    @ConditionalOnProperty("monitor.tracing.endpoint")
+    public OtlpHttpSpanExporter otlpSpanExporter(@Value("${monitor.tracing.endpoint}") final String endpoint,
+            @Value("${monitor.tracing.serviceName:mpass-monitor}") final String serviceName,
+            @Value("${monitor.tracing.timeout:5000}") final int timeout,
+            @Value("${monitor.tracing.queueSize:64}") final int queueSize) {
+        final OtlpHttpSpanExporter exporter = new OtlpHttpSpanExporter();
+        exporter.setEndpoint(endpoint);
+        exporter.setServiceName(serviceName);
+        exporter.setTimeout(timeout);
+        exporter.setQueueSize(queueSize);
+        return exporter;
+    }
+}
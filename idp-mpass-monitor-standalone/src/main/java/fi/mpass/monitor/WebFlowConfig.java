@@ -27,6 +27,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 import org.springframework.webflow.config.AbstractFlowConfiguration;
 import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
@@ -47,9 +48,18 @@ public class WebFlowConfig extends AbstractFlowConfiguration {
     @Autowired
     private LocalValidatorFactoryBean localValidatorFactoryBean;
     
-    @Value("${flowsDirectory}")
+    @Value("${flowsDirectory:}")
     private String flowsDirectory;
 
+    @Value("${monitor.flows.watch:true}")
+    private boolean watchFlows;
+
+    @Value("${monitor.flows.quietPeriod:500}")
+    private long quietPeriod;
+
+    @Value("${monitor.flows.gracePeriod:300000}")
+    private long gracePeriod;
+
     @Bean({"shibboleth.HttpServletRequest"})
     public ThreadLocalHttpServletRequestProxy getThreadLocalHttpServletRequestProxy() {
         return new ThreadLocalHttpServletRequestProxy();
@@ -62,11 +72,18 @@ public class WebFlowConfig extends AbstractFlowConfiguration {
     
     @Bean
     public FlowDefinitionRegistry flowRegistry() {
-        return getFlowDefinitionRegistryBuilder()
+        return new SynchronizedFlowDefinitionRegistry(getFlowDefinitionRegistryBuilder()
                 .setBasePath(StringSupport.trimOrNull(flowsDirectory) == null ? "classpath:flows" : "file:" + flowsDirectory)
                 .addFlowLocationPattern("/**/*-flow.xml")
                 .setFlowBuilderServices(this.flowBuilderServices())
-                .build();
+                .build());
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "destroy")
+    @Lazy(false)
+    public FlowDirectoryWatcher flowDirectoryWatcher() {
+        return new FlowDirectoryWatcher(flowRegistry(), flowBuilderServices(), watchFlows ? flowsDirectory : null, 
+                quietPeriod, gracePeriod);
     }
 
     @Bean
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fi.mpass.monitor.EventFanOut.EventSink;
+import fi.mpass.monitor.EventFanOut.Subscription;
+
+/**
+ * Unit tests for {@link EventFanOut}.
+ */
+public class EventFanOutTest {
+
+    /** The sender tasks scheduled by the fan-out, run manually by the tests. */
+    private List<Runnable> scheduled;
+
+    /** The fan-out to be tested, with a queue of two events per subscriber. */
+    private EventFanOut<String> fanOut;
+
+    @BeforeEach
+    public void initTests() {
+        scheduled = new ArrayList<>();
+        fanOut = new EventFanOut<>(2, 2, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                scheduled.add(command);
+            }
+        });
+    }
+
+    @Test
+    public void testDropOldest() {
+        final RecordingSink sink = new RecordingSink();
+        final Subscription subscription = fanOut.subscribe(sink);
+        fanOut.publish("first");
+        fanOut.publish("second");
+        fanOut.publish("third");
+        assertEquals(1, fanOut.getDroppedCount());
+        assertEquals(2, subscription.getQueuedCount());
+        // the sender is scheduled only once for the queue
+        assertEquals(1, scheduled.size());
+        scheduled.remove(0).run();
+        assertEquals(Arrays.asList("second", "third"), sink.events);
+        assertEquals(0, subscription.getQueuedCount());
+    }
+
+    @Test
+    public void testMaxSubscribers() {
+        assertNotNull(fanOut.subscribe(new RecordingSink()));
+        assertNotNull(fanOut.subscribe(new RecordingSink()));
+        assertNull(fanOut.subscribe(new RecordingSink()));
+        assertEquals(2, fanOut.getSubscriberCount());
+    }
+
+    @Test
+    public void testSlotReleasedOnClose() {
+        final Subscription first = fanOut.subscribe(new RecordingSink());
+        assertNotNull(fanOut.subscribe(new RecordingSink()));
+        first.close();
+        first.close();
+        assertEquals(1, fanOut.getSubscriberCount());
+        assertNotNull(fanOut.subscribe(new RecordingSink()));
+        assertNull(fanOut.subscribe(new RecordingSink()));
+    }
+
+    @Test
+    public void testConcurrentSubscribers() throws Exception {
+        final ExecutorService subscribers = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger accepted = new AtomicInteger();
+        try {
+            for (int i = 0; i < 64; i++) {
+                subscribers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        if (fanOut.subscribe(new RecordingSink()) != null) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            start.countDown();
+            subscribers.shutdown();
+            assertTrue(subscribers.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(2, accepted.get());
+            assertEquals(2, fanOut.getSubscriberCount());
+        } finally {
+            subscribers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRemovedAfterSendFailure() {
+        final RecordingSink failing = new RecordingSink();
+        failing.failure = new IOException("mock failure");
+        fanOut.subscribe(failing);
+        final RecordingSink healthy = new RecordingSink();
+        fanOut.subscribe(healthy);
+        fanOut.publish("first");
+        for (final Runnable sender : scheduled) {
+            sender.run();
+        }
+        scheduled.clear();
+        assertEquals(1, fanOut.getSubscriberCount());
+        assertEquals(failing.failure, failing.completed);
+        assertEquals(Arrays.asList("first"), healthy.events);
+        fanOut.publish("second");
+        assertEquals(1, scheduled.size());
+        scheduled.remove(0).run();
+        assertEquals(Arrays.asList("first", "second"), healthy.events);
+        assertTrue(failing.events.isEmpty());
+    }
+
+    @Test
+    public void testPublishDoesNotBlock() throws Exception {
+        final ExecutorService senders = Executors.newSingleThreadExecutor();
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final EventFanOut<String> threaded = new EventFanOut<>(2, 1, senders);
+            threaded.subscribe(new EventSink<String>() {
+                @Override
+                public void send(final String event) throws IOException {
+                    sending.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                @Override
+                public void complete(final Exception error) {
+                }
+            });
+            threaded.publish("first");
+            assertTrue(sending.await(10, TimeUnit.SECONDS));
+            final long start = System.currentTimeMillis();
+            for (int i = 0; i < 100; i++) {
+                threaded.publish("event" + i);
+            }
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(98, threaded.getDroppedCount());
+        } finally {
+            release.countDown();
+            senders.shutdownNow();
+        }
+    }
+
+    /**
+     * A sink recording the events sent to it, optionally failing.
+     */
+    private static class RecordingSink implements EventSink<String> {
+
+        /** The events sent. */
+        private final List<String> events = new ArrayList<>();
+
+        /** The failure thrown on send, null for none. */
+        private IOException failure;
+
+        /** The error the sink was completed with. */
+        private Exception completed;
+
+        @Override
+        public void send(final String event) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            events.add(event);
+        }
+
+        @Override
+        public void complete(final Exception error) {
+            completed = error;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.webflow.config.AbstractFlowConfiguration;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistryImpl;
+import org.springframework.webflow.engine.Flow;
+import org.springframework.webflow.engine.builder.support.FlowBuilderServices;
+
+/**
+ * Unit tests for {@link FlowDirectoryWatcher}.
+ */
+public class FlowDirectoryWatcherTest {
+
+    /** The flows directory. */
+    private Path directory;
+
+    /** The context providing the flow builder services. */
+    private AnnotationConfigApplicationContext context;
+
+    /** The registry the flows are reloaded into. */
+    private FlowDefinitionRegistry registry;
+
+    /** The watcher to be tested. */
+    private FlowDirectoryWatcher watcher;
+
+    @BeforeEach
+    public void initTests() throws Exception {
+        directory = Files.createTempDirectory("mpass-flows");
+        Files.createDirectory(directory.resolve("mock"));
+        context = new AnnotationConfigApplicationContext(TestFlowConfig.class);
+        registry = new SynchronizedFlowDefinitionRegistry(new FlowDefinitionRegistryImpl());
+        // the quiet period keeps the watcher thread from reloading the files written by the tests
+        watcher = new FlowDirectoryWatcher(registry, context.getBean(FlowBuilderServices.class), 
+                directory.toString(), 60000, 0);
+        watcher.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        watcher.destroy();
+        context.close();
+        FileSystemUtils.deleteRecursively(directory.toFile());
+    }
+
+    @Test
+    public void testReloadChanged() throws Exception {
+        final Path flowFile = writeFlow("<end-state id=\"first\" />");
+        assertTrue(watcher.reload(flowFile));
+        assertEquals(1, registry.getFlowDefinitionCount());
+        assertTrue(((Flow) registry.getFlowDefinition("mock")).containsState("first"));
+        writeFlow("<end-state id=\"second\" />");
+        assertTrue(watcher.reload(flowFile));
+        assertEquals(1, registry.getFlowDefinitionCount());
+        final Flow flow = (Flow) registry.getFlowDefinition("mock");
+        assertTrue(flow.containsState("second"));
+        assertFalse(flow.containsState("first"));
+    }
+
+    @Test
+    public void testBrokenKeepsPrevious() throws Exception {
+        final Path flowFile = writeFlow("<end-state id=\"first\" />");
+        assertTrue(watcher.reload(flowFile));
+        writeFlow("<end-state id=\"second\"");
+        assertFalse(watcher.reload(flowFile));
+        assertTrue(((Flow) registry.getFlowDefinition("mock")).containsState("first"));
+    }
+
+    /**
+     * Writes the mock flow with the given states.
+     * 
+     * @param states The states of the flow.
+     * @return The flow file.
+     * @throws Exception If the file cannot be written.
+     */
+    private Path writeFlow(final String states) throws Exception {
+        final File flowFile = directory.resolve("mock").resolve("mock" + FlowDirectoryWatcher.FLOW_SUFFIX).toFile();
+        final String flow = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<flow xmlns=\"http://www.springframework.org/schema/webflow\"\n"
+                + "      xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+                + "      xsi:schemaLocation=\"http://www.springframework.org/schema/webflow"
+                + " http://www.springframework.org/schema/webflow/spring-webflow.xsd\">\n"
+                + "    " + states + "\n"
+                + "</flow>\n";
+        Files.write(flowFile.toPath(), flow.getBytes(StandardCharsets.UTF_8));
+        return flowFile.toPath();
+    }
+
+    /**
+     * Provides the flow builder services the way {@link WebFlowConfig} does, without the view and validation
+     * configuration the mock flows do not need.
+     */
+    @Configuration
+    static class TestFlowConfig extends AbstractFlowConfiguration {
+
+        @Bean
+        public FlowBuilderServices flowBuilderServices() {
+            return getFlowBuilderServicesBuilder().build();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.testing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.simpleframework.http.Request;
+import org.simpleframework.http.Response;
+import org.simpleframework.http.core.Container;
+import org.simpleframework.http.core.ContainerSocketProcessor;
+import org.simpleframework.transport.connect.Connection;
+import org.simpleframework.transport.connect.SocketConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An embeddable stand-in for the identity providers and the services around them, serving canned
+ * {@link MockResponse}s by the request path on the loopback interface. Login forms, auto-posting pages, redirect
+ * chains and the Azure-style user realm responses can be combined into full sequences that run without network.
+ * 
+ * <p>The paths without a response are answered with 404. The requests are counted per path.</p>
+ */
+public class MockIdentityProvider implements Container {
+
+    /** The default number of threads serving the requests. */
+    public static final int DEFAULT_THREADS = 8;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(MockIdentityProvider.class);
+
+    /** The responses by the request path. */
+    private final ConcurrentMap<String, MockResponse> responses = new ConcurrentHashMap<>();
+
+    /** The request counts by the request path. */
+    private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+
+    /** The number of threads serving the requests. */
+    private final int threads;
+
+    /** The server connection, null if not started. */
+    private Connection connection;
+
+    /** The base URL, null if not started. */
+    private String baseUrl;
+
+    /** Constructor. */
+    public MockIdentityProvider() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * Constructor.
+     * @param threadCount The number of threads serving the requests.
+     */
+    public MockIdentityProvider(final int threadCount) {
+        threads = threadCount;
+    }
+
+    /**
+     * Sets the response for the given path.
+     * @param path The request path, without the query.
+     * @param response The response.
+     * @return This provider.
+     */
+    public MockIdentityProvider on(final String path, final MockResponse response) {
+        responses.put(path, response);
+        return this;
+    }
+
+    /**
+     * Starts serving on a free port.
+     * @return The base URL.
+     * @throws IOException If the server could not be started.
+     */
+    public String start() throws IOException {
+        return start(0);
+    }
+
+    /**
+     * Starts serving on the given port.
+     * @param port The port, zero for a free one.
+     * @return The base URL.
+     * @throws IOException If the server could not be started.
+     */
+    public synchronized String start(final int port) throws IOException {
+        if (connection != null) {
+            throw new IllegalStateException("The provider has already been started");
+        }
+        connection = new SocketConnection(new ContainerSocketProcessor(this, threads));
+        final InetSocketAddress address = (InetSocketAddress) connection.connect(
+                new InetSocketAddress("localhost", port));
+        baseUrl = "http://localhost:" + address.getPort();
+        log.debug("Mock identity provider started at {}", baseUrl);
+        return baseUrl;
+    }
+
+    /**
+     * Stops serving.
+     * @throws IOException If the server could not be stopped.
+     */
+    public synchronized void stop() throws IOException {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    /**
+     * Get the base URL.
+     * @return The base URL, null if not started.
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Get the number of requests to the given path.
+     * @param path The request path.
+     * @return The number of requests.
+     */
+    public int getRequestCount(final String path) {
+        final AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handle(final Request request, final Response response) {
+        final String path = request.getPath().getPath();
+        AtomicInteger count = requestCounts.get(path);
+        if (count == null) {
+            requestCounts.putIfAbsent(path, new AtomicInteger());
+            count = requestCounts.get(path);
+        }
+        count.incrementAndGet();
+        log.trace("Mock identity provider got {} {}", request.getMethod(), request.getTarget());
+        try (final OutputStream out = response.getOutputStream()) {
+            final MockResponse mock = responses.get(path);
+            if (mock == null) {
+                response.setCode(404);
+                return;
+            }
+            if (mock.getDelay() > 0) {
+                Thread.sleep(mock.getDelay());
+            }
+            final int status = mock.nextStatus();
+            response.setCode(status);
+            response.setContentType(mock.getContentType());
+            for (final Map.Entry<String, String> header : mock.getHeaders().entrySet()) {
+                response.setValue(header.getKey(), resolve(header.getValue()));
+            }
+            if (status < 400) {
+                out.write(resolve(mock.getBody()).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            log.debug("Could not write the mock response for {}", path, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Replaces the base URL placeholder in the given string.
+     * @param value The string.
+     * @return The string with the base URL.
+     */
+    protected String resolve(final String value) {
+        return value.replace(MockResponse.BASE_URL_PLACEHOLDER, baseUrl);
+    }
+}
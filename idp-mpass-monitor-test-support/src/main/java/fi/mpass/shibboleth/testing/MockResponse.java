@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.testing;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A canned response of the {@link MockIdentityProvider}, with optional latency and deterministic failures.
+ * 
+ * <p>The placeholder {@value #BASE_URL_PLACEHOLDER} in the body and the headers is replaced with the base URL of
+ * the serving provider, so that the responses can link to each other although the port is chosen at startup.</p>
+ */
+public class MockResponse {
+
+    /** The placeholder replaced with the base URL of the provider. */
+    public static final String BASE_URL_PLACEHOLDER = "${baseUrl}";
+
+    /** The status code. */
+    private final int status;
+
+    /** The content type. */
+    private final String contentType;
+
+    /** The body. */
+    private final String body;
+
+    /** The headers. */
+    private final Map<String, String> headers;
+
+    /** The delay before responding, in milliseconds. */
+    private volatile long delay;
+
+    /** Every n:th request fails, zero if none. */
+    private volatile int failEvery;
+
+    /** The status code of the failed requests. */
+    private volatile int failureStatus;
+
+    /** The number of served requests, for the failure schedule. */
+    private final AtomicInteger requestCount;
+
+    /**
+     * Constructor.
+     * @param code The status code.
+     * @param type The content type.
+     * @param content The body.
+     */
+    public MockResponse(final int code, final String type, final String content) {
+        status = code;
+        contentType = type;
+        body = content;
+        headers = new LinkedHashMap<>();
+        failureStatus = 500;
+        requestCount = new AtomicInteger();
+    }
+
+    /**
+     * Builds an HTML page.
+     * @param html The HTML.
+     * @return The response.
+     */
+    public static MockResponse html(final String html) {
+        return new MockResponse(200, "text/html; charset=UTF-8", html);
+    }
+
+    /**
+     * Builds a JSON response.
+     * @param json The JSON.
+     * @return The response.
+     */
+    public static MockResponse json(final String json) {
+        return new MockResponse(200, "application/json; charset=UTF-8", json);
+    }
+
+    /**
+     * Builds a redirect.
+     * @param location The redirect location.
+     * @return The response.
+     */
+    public static MockResponse redirect(final String location) {
+        return new MockResponse(302, "text/html; charset=UTF-8", "").withHeader("Location", location);
+    }
+
+    /**
+     * Builds a login page with a form posting the username, the password and the given hidden fields.
+     * @param action The form action.
+     * @param hiddenFields The hidden fields.
+     * @return The response.
+     */
+    public static MockResponse loginForm(final String action, final Map<String, String> hiddenFields) {
+        final StringBuilder html = new StringBuilder("<html><body><form method=\"post\" action=\"")
+                .append(action).append("\">");
+        appendHiddenFields(html, hiddenFields);
+        html.append("<input type=\"text\" name=\"username\" value=\"\"/>")
+            .append("<input type=\"password\" name=\"password\" value=\"\"/>")
+            .append("<input type=\"submit\" value=\"Login\"/></form></body></html>");
+        return html(html.toString());
+    }
+
+    /**
+     * Builds a page that posts the given fields to the action on load, like a SAML or WS-Federation response.
+     * @param action The form action.
+     * @param fields The posted fields.
+     * @return The response.
+     */
+    public static MockResponse autoPost(final String action, final Map<String, String> fields) {
+        final StringBuilder html = new StringBuilder("<html><body onload=\"document.forms[0].submit()\">")
+                .append("<form method=\"post\" action=\"").append(action).append("\">");
+        appendHiddenFields(html, fields);
+        html.append("<noscript><input type=\"submit\" value=\"Continue\"/></noscript></form></body></html>");
+        return html(html.toString());
+    }
+
+    /**
+     * Builds an Azure-style login page carrying the context of the STS request.
+     * @param ctx The context value.
+     * @return The response.
+     */
+    public static MockResponse azureLoginPage(final String ctx) {
+        return html("<html><body><form method=\"post\" action=\"/login\">" 
+                + "<input type=\"hidden\" name=\"ctx\" value=\"" + ctx + "\"/></form></body></html>");
+    }
+
+    /**
+     * Builds an Azure-style user realm response for a federated user.
+     * @param authUrl The authentication URL of the federated identity provider.
+     * @return The response.
+     */
+    public static MockResponse azureUserRealm(final String authUrl) {
+        return json("{\"NameSpaceType\":\"Federated\",\"federation_protocol\":\"WSTrust\"," 
+                + "\"AuthURL\":\"" + authUrl + "\"}");
+    }
+
+    /**
+     * Adds a header to the response.
+     * @param name The header name.
+     * @param value The header value.
+     * @return This response.
+     */
+    public MockResponse withHeader(final String name, final String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * Set the delay before responding.
+     * @param millis The delay in milliseconds.
+     * @return This response.
+     */
+    public MockResponse withDelay(final long millis) {
+        delay = millis;
+        return this;
+    }
+
+    /**
+     * Set every n:th request to fail with the given status code.
+     * @param n The interval of the failed requests, zero for no failures.
+     * @param code The status code of the failed requests.
+     * @return This response.
+     */
+    public MockResponse withFailures(final int n, final int code) {
+        failEvery = n;
+        failureStatus = code;
+        return this;
+    }
+
+    /**
+     * Get the delay before responding.
+     * @return The delay in milliseconds.
+     */
+    public long getDelay() {
+        return delay;
+    }
+
+    /**
+     * Get the status code of the next request, advancing the failure schedule.
+     * @return The status code.
+     */
+    public int nextStatus() {
+        final int count = requestCount.incrementAndGet();
+        final int interval = failEvery;
+        return interval > 0 && count % interval == 0 ? failureStatus : status;
+    }
+
+    /**
+     * Get the content type.
+     * @return The content type.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Get the body.
+     * @return The body.
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * Get the headers.
+     * @return The headers.
+     */
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * Appends the given fields as hidden inputs.
+     * @param html The HTML being built.
+     * @param fields The fields.
+     */
+    private static void appendHiddenFields(final StringBuilder html, final Map<String, String> fields) {
+        if (fields == null) {
+            return;
+        }
+        for (final Map.Entry<String, String> field : fields.entrySet()) {
+            html.append("<input type=\"hidden\" name=\"").append(field.getKey()).append("\" value=\"")
+                .append(field.getValue()).append("\"/>");
+        }
+    }
+}
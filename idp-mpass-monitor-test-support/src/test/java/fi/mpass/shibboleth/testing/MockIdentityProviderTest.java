@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.testing;
+
+import java.util.Collections;
+
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.monitor.AzureAuthnIdpResolver;
+import fi.mpass.shibboleth.monitor.AzureUserRealmResolver;
+import fi.mpass.shibboleth.monitor.FormPostTargetResolver;
+import fi.mpass.shibboleth.monitor.ResponseValidatorException;
+import fi.mpass.shibboleth.monitor.SequenceStep;
+import fi.mpass.shibboleth.support.HttpClientBuilder;
+
+/**
+ * Unit tests for {@link MockIdentityProvider}.
+ */
+public class MockIdentityProviderTest {
+
+    /** The provider to be tested. */
+    protected MockIdentityProvider provider;
+
+    /** The base URL of the provider. */
+    protected String baseUrl;
+
+    /** The HTTP client builder for the resolvers. */
+    protected HttpClientBuilder clientBuilder;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        provider = new MockIdentityProvider();
+        provider.on("/start", MockResponse.redirect(MockResponse.BASE_URL_PLACEHOLDER + "/login"));
+        provider.on("/login", MockResponse.loginForm("/authn", Collections.singletonMap("SAMLRequest", "mockReq")));
+        provider.on("/authn", MockResponse.autoPost(MockResponse.BASE_URL_PLACEHOLDER + "/acs", 
+                Collections.singletonMap("SAMLResponse", "mockResp")));
+        provider.on("/azure", MockResponse.azureLoginPage("mockCtx"));
+        provider.on("/userrealm/", MockResponse.azureUserRealm("https://idp.example.org/adfs"));
+        baseUrl = provider.start();
+        clientBuilder = new HttpClientBuilder();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        provider.stop();
+    }
+
+    @Test
+    public void testSamlChain() throws Exception {
+        final HttpContext context = HttpClientContext.create();
+        final SequenceStep login = new FormPostTargetResolver(clientBuilder, "SAMLRequest")
+                .resolve(context, initStep(baseUrl + "/start"));
+        Assert.assertEquals(login.getUrl(), baseUrl + "/authn");
+        Assert.assertEquals(login.getParameters().get(0).getValue(), "mockReq");
+        final SequenceStep acs = new FormPostTargetResolver(clientBuilder, "SAMLResponse").resolve(context, login);
+        Assert.assertEquals(acs.getUrl(), baseUrl + "/acs");
+        Assert.assertEquals(acs.getParameters().get(0).getValue(), "mockResp");
+        Assert.assertEquals(provider.getRequestCount("/start"), 1);
+        Assert.assertEquals(provider.getRequestCount("/login"), 1);
+    }
+
+    @Test
+    public void testAzureChain() throws Exception {
+        final HttpContext context = HttpClientContext.create();
+        final SequenceStep realm = new AzureUserRealmResolver(clientBuilder, "user@example.org", 
+                AzureUserRealmResolver.DEFAULT_API_VERSION, baseUrl + "/userrealm/")
+                .resolve(context, initStep(baseUrl + "/azure"));
+        Assert.assertTrue(realm.getUrl().contains("stsRequest=mockCtx"));
+        final SequenceStep authn = new AzureAuthnIdpResolver(clientBuilder).resolve(context, realm);
+        Assert.assertEquals(authn.getUrl(), "https://idp.example.org/adfs");
+    }
+
+    @Test
+    public void testLatencyAndFailures() throws Exception {
+        provider.on("/slow", MockResponse.html("<form action=\"/next\">").withDelay(200).withFailures(2, 503));
+        final long start = System.currentTimeMillis();
+        final SequenceStep result = new FormPostTargetResolver(clientBuilder)
+                .resolve(HttpClientContext.create(), initStep(baseUrl + "/slow"));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+        Assert.assertEquals(result.getUrl(), baseUrl + "/next");
+        boolean thrown = false;
+        try {
+            new FormPostTargetResolver(clientBuilder).resolve(HttpClientContext.create(), 
+                    initStep(baseUrl + "/slow"));
+        } catch (ResponseValidatorException e) {
+            thrown = true;
+        }
+        Assert.assertTrue(thrown);
+        Assert.assertEquals(provider.getRequestCount("/slow"), 2);
+    }
+
+    protected SequenceStep initStep(final String url) {
+        final SequenceStep step = new SequenceStep();
+        step.setUrl(url);
+        return step;
+    }
+}